@@ -1,8 +1,14 @@
 package cn.iwenjuan.storage.sample.controller;
 
+import cn.iwenjuan.storage.domain.ObjectStat;
+import cn.iwenjuan.storage.domain.PresignedUrl;
 import cn.iwenjuan.storage.domain.UploadResponse;
+import cn.iwenjuan.storage.domain.UploadResult;
+import cn.iwenjuan.storage.presign.LocalUrlSigner;
 import cn.iwenjuan.storage.service.IStorageService;
 import cn.iwenjuan.storage.utils.StringUtils;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 import org.springframework.web.multipart.MultipartHttpServletRequest;
@@ -12,6 +18,12 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * @author li1244
@@ -24,6 +36,9 @@ public class StorageController {
     @Resource
     private IStorageService storageService;
 
+    @Resource
+    private LocalUrlSigner localUrlSigner;
+
     /**
      * 文件上传
      * @param request
@@ -38,29 +53,148 @@ public class StorageController {
     }
 
     /**
-     * 文件下载
+     * 批量上传，多个文件并发上传
+     * @param request
+     * @return
+     */
+    @PostMapping("uploadAll")
+    public List<UploadResult> uploadAll(MultipartHttpServletRequest request) {
+
+        List<MultipartFile> multipartFiles = request.getFiles("files");
+        return storageService.uploadAll(multipartFiles);
+    }
+
+    /**
+     * 文件下载，支持Range请求头，返回206 Partial Content
      * @param fileUrl
      * @param request
      * @param response
      */
     @GetMapping("download")
-    public void download(@RequestParam("fileUrl") String fileUrl, HttpServletRequest request, HttpServletResponse response) {
+    public void download(@RequestParam("fileUrl") String fileUrl, HttpServletRequest request, HttpServletResponse response) throws IOException {
 
         String fileName = request.getParameter("fileName");
         if (StringUtils.isBlank(fileName)) {
             fileName = fileUrl.substring(fileUrl.lastIndexOf("/") + 1);
         }
 
+        ObjectStat stat = storageService.stat(fileUrl);
+        if (stat == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        long fileSize = stat.getFileSize();
+
         response.setCharacterEncoding("utf-8");
         response.setContentType("application/force-download");
         response.setHeader("Access-Control-Expose-Headers", "Content-Disposition");
         response.setHeader("Content-disposition", "attachment;filename=" + fileName);
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+
+        long offset = 0;
+        long length = fileSize;
+        String range = request.getHeader(HttpHeaders.RANGE);
+        if (StringUtils.isNotBlank(range)) {
+            List<HttpRange> httpRanges;
+            try {
+                httpRanges = HttpRange.parseRanges(range);
+            } catch (IllegalArgumentException e) {
+                httpRanges = Collections.emptyList();
+            }
+            // 只支持单个范围，多个范围时返回完整文件
+            if (httpRanges.size() == 1) {
+                try {
+                    offset = httpRanges.get(0).getRangeStart(fileSize);
+                    length = httpRanges.get(0).getRangeEnd(fileSize) - offset + 1;
+                } catch (IllegalArgumentException e) {
+                    response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + fileSize);
+                    response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                    return;
+                }
+                response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + offset + "-" + (offset + length - 1) + "/" + fileSize);
+            }
+        }
+        response.setContentLengthLong(length);
+
+        OutputStream outputStream = response.getOutputStream();
+        storageService.download(outputStream, fileUrl, offset, length);
+    }
+
+    /**
+     * 生成预签名上传地址，客户端使用返回的地址直接上传文件
+     * @param objectName
+     * @param ttl           有效期，单位秒
+     * @return
+     */
+    @GetMapping("presign/upload")
+    public PresignedUrl presignUpload(@RequestParam("objectName") String objectName, @RequestParam(value = "ttl", defaultValue = "600") long ttl) {
+
+        return storageService.presignUpload(objectName, Duration.ofSeconds(ttl));
+    }
 
+    /**
+     * 生成预签名下载地址，客户端使用返回的地址直接下载文件
+     * @param fileUrl
+     * @param ttl           有效期，单位秒
+     * @return
+     */
+    @GetMapping("presign/download")
+    public PresignedUrl presignDownload(@RequestParam("fileUrl") String fileUrl, @RequestParam(value = "ttl", defaultValue = "600") long ttl) {
+
+        return storageService.presignDownload(fileUrl, Duration.ofSeconds(ttl));
+    }
+
+    /**
+     * 本地存储的预签名下载地址，校验签名后下载文件
+     * @param objectName
+     * @param expires
+     * @param signature
+     * @param response
+     */
+    @GetMapping("presigned")
+    public void presignedDownload(@RequestParam(LocalUrlSigner.PARAM_OBJECT_NAME) String objectName,
+                                  @RequestParam(LocalUrlSigner.PARAM_EXPIRES) long expires,
+                                  @RequestParam(LocalUrlSigner.PARAM_SIGNATURE) String signature,
+                                  HttpServletResponse response) throws IOException {
+
+        if (localUrlSigner.resolve(objectName) == null || !localUrlSigner.verify("GET", objectName, expires, signature)) {
+            response.sendError(HttpServletResponse.SC_FORBIDDEN);
+            return;
+        }
+        response.setContentType("application/octet-stream");
+        storageService.download(response.getOutputStream(), objectName);
+    }
+
+    /**
+     * 本地存储的预签名上传地址，校验签名后将请求体写入文件
+     * @param objectName
+     * @param expires
+     * @param signature
+     * @param request
+     * @param response
+     */
+    @PutMapping("presigned")
+    public void presignedUpload(@RequestParam(LocalUrlSigner.PARAM_OBJECT_NAME) String objectName,
+                                @RequestParam(LocalUrlSigner.PARAM_EXPIRES) long expires,
+                                @RequestParam(LocalUrlSigner.PARAM_SIGNATURE) String signature,
+                                HttpServletRequest request, HttpServletResponse response) throws IOException {
+
+        // 只允许写入本地存储路径下的文件
+        Path target = localUrlSigner.resolve(objectName);
+        if (target == null || !localUrlSigner.verify("PUT", objectName, expires, signature)) {
+            response.sendError(HttpServletResponse.SC_FORBIDDEN);
+            return;
+        }
+        Path parent = target.getParent();
+        Files.createDirectories(parent);
+        // 先写入临时文件再重命名，避免读到未写完的文件
+        Path tempFile = Files.createTempFile(parent, "presigned-", ".tmp");
         try {
-            OutputStream outputStream = response.getOutputStream();
-            storageService.download(outputStream, fileUrl);
-        } catch (IOException e) {
-            e.printStackTrace();
+            Files.copy(request.getInputStream(), tempFile, StandardCopyOption.REPLACE_EXISTING);
+            Files.move(tempFile, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tempFile);
         }
     }
 
@@ -0,0 +1,281 @@
+package cn.iwenjuan.storage.cache;
+
+import cn.iwenjuan.storage.utils.Md5Utils;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 本地磁盘文件缓存，按总字节数限制容量，超出容量时按LRU淘汰
+ * 缓存文件名为缓存key的MD5值，启动时扫描缓存目录重建索引（按文件最后修改时间恢复LRU顺序），重启后缓存仍然有效；
+ * 缓存文件先写入临时文件再重命名，读取时不会读到未写完的文件；
+ * 删除缓存时递增缓存key的版本号，写入缓存前获取的版本号已变化时放弃写入，避免删除前开始的写入在删除后把已删除的文件重新放入缓存
+ *
+ * @author li1244
+ * @date 2023/4/17 10:05
+ */
+@Slf4j
+public class DiskCache {
+
+    private static final String TEMP_FILE_PREFIX = "fill-";
+
+    private static final String TEMP_FILE_SUFFIX = ".tmp";
+
+    /**
+     * 版本号的分段数，缓存key按哈希值共用版本号，哈希冲突只会使其他key的一次写入被放弃
+     */
+    private static final int GENERATION_STRIPES = 1024;
+
+    private final Path directory;
+
+    private final long maxSize;
+
+    /**
+     * 缓存索引，文件名 -> 文件大小，按访问顺序排列
+     */
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * 缓存key的版本号，删除缓存时递增，读写都在持有锁时进行
+     */
+    private final long[] generations = new long[GENERATION_STRIPES];
+
+    private long size;
+
+    private final AtomicLong hitCount = new AtomicLong();
+
+    private final AtomicLong missCount = new AtomicLong();
+
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    /**
+     * @param path      缓存目录
+     * @param maxSize   缓存容量，单位字节
+     */
+    public DiskCache(String path, long maxSize) {
+        this.directory = Paths.get(path);
+        this.maxSize = maxSize;
+        load();
+    }
+
+    /**
+     * 获取缓存文件
+     *
+     * @param key
+     * @return 未缓存时返回null
+     */
+    public Path get(String key) {
+        String fileName = getFileName(key);
+        synchronized (this) {
+            if (entries.get(fileName) == null) {
+                missCount.incrementAndGet();
+                return null;
+            }
+        }
+        File file = directory.resolve(fileName).toFile();
+        if (!file.isFile()) {
+            // 缓存文件被外部删除
+            remove(fileName);
+            missCount.incrementAndGet();
+            return null;
+        }
+        hitCount.incrementAndGet();
+        // 更新最后修改时间，重启后用于恢复LRU顺序
+        file.setLastModified(System.currentTimeMillis());
+        return file.toPath();
+    }
+
+    /**
+     * 创建用于写入缓存的临时文件，写入完成后调用commit加入缓存，放弃时直接删除
+     *
+     * @return
+     * @throws IOException
+     */
+    public Path createTempFile() throws IOException {
+        return Files.createTempFile(directory, TEMP_FILE_PREFIX, TEMP_FILE_SUFFIX);
+    }
+
+    /**
+     * 获取缓存key当前的版本号，开始写入缓存前获取，提交时传入
+     *
+     * @param key
+     * @return
+     */
+    public synchronized long getGeneration(String key) {
+        return generations[stripeOf(getFileName(key))];
+    }
+
+    /**
+     * 将写入完成的临时文件加入缓存
+     *
+     * @param key
+     * @param tempFile
+     * @return 缓存文件，文件超过缓存容量时不缓存，返回null
+     * @throws IOException
+     */
+    public Path commit(String key, Path tempFile) throws IOException {
+        return commit(key, tempFile, getGeneration(key));
+    }
+
+    /**
+     * 将写入完成的临时文件加入缓存，开始写入后缓存被删除过时放弃写入
+     *
+     * @param key
+     * @param tempFile
+     * @param generation    开始写入前获取的版本号
+     * @return 缓存文件，文件超过缓存容量或开始写入后缓存被删除过时不缓存，返回null
+     * @throws IOException
+     */
+    public Path commit(String key, Path tempFile, long generation) throws IOException {
+        long fileSize = Files.size(tempFile);
+        if (fileSize > maxSize) {
+            Files.deleteIfExists(tempFile);
+            return null;
+        }
+        String fileName = getFileName(key);
+        Path target = directory.resolve(fileName);
+        List<String> evicted;
+        synchronized (this) {
+            if (generations[stripeOf(fileName)] != generation) {
+                Files.deleteIfExists(tempFile);
+                return null;
+            }
+            // 在锁内重命名，保证与删除缓存互斥
+            Files.move(tempFile, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            Long old = entries.put(fileName, fileSize);
+            size += fileSize - (old == null ? 0 : old);
+            evicted = evict();
+        }
+        deleteFiles(evicted);
+        return target;
+    }
+
+    /**
+     * 删除缓存，同时使删除前开始的写入失效
+     *
+     * @param key
+     */
+    public void invalidate(String key) {
+        String fileName = getFileName(key);
+        boolean removed;
+        synchronized (this) {
+            generations[stripeOf(fileName)]++;
+            removed = remove(fileName);
+        }
+        if (removed) {
+            deleteFiles(Collections.singletonList(fileName));
+        }
+    }
+
+    public synchronized long getSize() {
+        return size;
+    }
+
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    /**
+     * 扫描缓存目录重建索引，删除上次未写完的临时文件
+     */
+    private void load() {
+        File[] files;
+        try {
+            Files.createDirectories(directory);
+            files = directory.toFile().listFiles();
+        } catch (IOException e) {
+            log.error("【创建缓存目录异常】：directory：{}，{}", directory, e);
+            return;
+        }
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        List<String> evicted;
+        synchronized (this) {
+            for (File file : files) {
+                if (!file.isFile()) {
+                    continue;
+                }
+                if (file.getName().endsWith(TEMP_FILE_SUFFIX)) {
+                    file.delete();
+                    continue;
+                }
+                entries.put(file.getName(), file.length());
+                size += file.length();
+            }
+            evicted = evict();
+        }
+        deleteFiles(evicted);
+        log.info("【加载文件缓存】：directory：{}，count：{}，size：{}", directory, entries.size(), size);
+    }
+
+    /**
+     * 按LRU顺序淘汰缓存直到不超过缓存容量，需要在持有锁时调用
+     *
+     * @return 被淘汰的文件名
+     */
+    private List<String> evict() {
+        List<String> evicted = new ArrayList<>();
+        Iterator<Map.Entry<String, Long>> iterator = entries.entrySet().iterator();
+        while (size > maxSize && iterator.hasNext()) {
+            Map.Entry<String, Long> entry = iterator.next();
+            size -= entry.getValue();
+            iterator.remove();
+            evicted.add(entry.getKey());
+            evictionCount.incrementAndGet();
+        }
+        return evicted;
+    }
+
+    private synchronized boolean remove(String fileName) {
+        Long fileSize = entries.remove(fileName);
+        if (fileSize == null) {
+            return false;
+        }
+        size -= fileSize;
+        return true;
+    }
+
+    /**
+     * 删除缓存文件，正在读取的文件删除后仍可以继续读取
+     *
+     * @param fileNames
+     */
+    private void deleteFiles(List<String> fileNames) {
+        for (String fileName : fileNames) {
+            try {
+                Files.deleteIfExists(directory.resolve(fileName));
+            } catch (IOException e) {
+                log.error("【删除缓存文件异常】：fileName：{}，{}", fileName, e);
+            }
+        }
+    }
+
+    private static int stripeOf(String fileName) {
+        return (fileName.hashCode() & 0x7fffffff) % GENERATION_STRIPES;
+    }
+
+    private String getFileName(String key) {
+        return Md5Utils.md5(key);
+    }
+}
@@ -0,0 +1,159 @@
+package cn.iwenjuan.storage.cache;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 内存文件缓存，按总字节数限制容量，超出容量时按LRU选择淘汰对象
+ * 使用TinyLFU准入策略：新对象的访问频率高于被淘汰对象时才放入缓存，避免一次性的大量访问冲掉热点对象；
+ * 可选使用堆外内存（direct ByteBuffer）保存数据，减少GC压力
+ *
+ * @author li1244
+ * @date 2023/4/18 10:40
+ */
+public class MemoryCache {
+
+    private final long maxSize;
+
+    private final boolean direct;
+
+    /**
+     * 缓存数据，按访问顺序排列
+     */
+    private final LinkedHashMap<String, ByteBuffer> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final FrequencySketch sketch;
+
+    private long size;
+
+    private final AtomicLong hitCount = new AtomicLong();
+
+    private final AtomicLong missCount = new AtomicLong();
+
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    private final AtomicLong rejectionCount = new AtomicLong();
+
+    /**
+     * @param maxSize           缓存容量，单位字节
+     * @param expectedEntries   预计缓存的对象个数，用于访问频率统计
+     * @param direct            是否使用堆外内存
+     */
+    public MemoryCache(long maxSize, int expectedEntries, boolean direct) {
+        this.maxSize = maxSize;
+        this.direct = direct;
+        this.sketch = new FrequencySketch(expectedEntries);
+    }
+
+    /**
+     * 获取缓存数据，同时记录访问频率
+     *
+     * @param key
+     * @return 只读的缓存数据，未缓存时返回null
+     */
+    public ByteBuffer get(String key) {
+        ByteBuffer buffer;
+        synchronized (this) {
+            sketch.increment(key);
+            buffer = entries.get(key);
+        }
+        if (buffer == null) {
+            missCount.incrementAndGet();
+            return null;
+        }
+        hitCount.incrementAndGet();
+        return buffer.asReadOnlyBuffer();
+    }
+
+    /**
+     * 放入缓存，容量不足时由准入策略决定是否淘汰旧对象
+     *
+     * @param key
+     * @param data
+     * @param length
+     * @return 是否放入缓存
+     */
+    public boolean put(String key, byte[] data, int length) {
+        if (length > maxSize) {
+            rejectionCount.incrementAndGet();
+            return false;
+        }
+        synchronized (this) {
+            // 旧对象在新对象准入后才替换，新对象被拒绝时保留旧对象
+            ByteBuffer old = entries.get(key);
+            long available = maxSize - size + (old == null ? 0 : old.capacity());
+            List<String> victims = new ArrayList<>();
+            long freed = 0;
+            if (length > available) {
+                int frequency = sketch.frequency(key);
+                for (Map.Entry<String, ByteBuffer> entry : entries.entrySet()) {
+                    if (entry.getKey().equals(key)) {
+                        continue;
+                    }
+                    if (sketch.frequency(entry.getKey()) >= frequency) {
+                        // 新对象不比被淘汰对象更常用，不放入缓存
+                        rejectionCount.incrementAndGet();
+                        return false;
+                    }
+                    victims.add(entry.getKey());
+                    freed += entry.getValue().capacity();
+                    if (length <= available + freed) {
+                        break;
+                    }
+                }
+            }
+            for (String victim : victims) {
+                entries.remove(victim);
+                evictionCount.incrementAndGet();
+            }
+            size -= freed;
+            ByteBuffer buffer = direct ? ByteBuffer.allocateDirect(length) : ByteBuffer.allocate(length);
+            buffer.put(data, 0, length);
+            buffer.flip();
+            entries.put(key, buffer);
+            size += length - (old == null ? 0 : old.capacity());
+            return true;
+        }
+    }
+
+    /**
+     * 删除缓存
+     *
+     * @param key
+     */
+    public synchronized void invalidate(String key) {
+        ByteBuffer buffer = entries.remove(key);
+        if (buffer != null) {
+            size -= buffer.capacity();
+        }
+    }
+
+    public synchronized long getSize() {
+        return size;
+    }
+
+    public synchronized int getCount() {
+        return entries.size();
+    }
+
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    public long getRejectionCount() {
+        return rejectionCount.get();
+    }
+}
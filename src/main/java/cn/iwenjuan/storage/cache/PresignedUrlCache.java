@@ -0,0 +1,91 @@
+package cn.iwenjuan.storage.cache;
+
+import cn.iwenjuan.storage.domain.PresignedUrl;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 预签名地址缓存，同一文件、同一有效期的预签名地址在剩余有效期不少于有效期的一半时直接复用，避免每次请求都重新签名
+ * 缓存和返回的都是副本，调用方修改返回的地址不影响其他请求
+ *
+ * @author li1244
+ * @date 2023/4/20 10:10
+ */
+public class PresignedUrlCache {
+
+    /**
+     * 缓存已满时一次淘汰的比例，避免每次添加都遍历所有地址
+     */
+    private static final int EVICTION_DIVISOR = 8;
+
+    private final int maxEntries;
+
+    private final ConcurrentHashMap<String, PresignedUrl> entries = new ConcurrentHashMap<>();
+
+    /**
+     * @param maxEntries    最多缓存的地址个数
+     */
+    public PresignedUrlCache(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * 获取可以复用的预签名地址
+     *
+     * @param key
+     * @param ttl   需要的有效期
+     * @return 没有或剩余有效期不足时返回null
+     */
+    public PresignedUrl get(String key, Duration ttl) {
+        PresignedUrl presignedUrl = entries.get(key);
+        if (presignedUrl == null) {
+            return null;
+        }
+        long remaining = presignedUrl.getExpireTime().getTime() - System.currentTimeMillis();
+        if (remaining < ttl.toMillis() / 2) {
+            entries.remove(key, presignedUrl);
+            return null;
+        }
+        return copy(presignedUrl);
+    }
+
+    public void put(String key, PresignedUrl presignedUrl) {
+        if (entries.size() >= maxEntries) {
+            evict();
+        }
+        entries.put(key, copy(presignedUrl));
+    }
+
+    /**
+     * 先删除已过期的地址，仍然超出时淘汰最先过期的一部分地址
+     */
+    private void evict() {
+        long now = System.currentTimeMillis();
+        entries.values().removeIf(url -> url.getExpireTime().getTime() <= now);
+        int excess = entries.size() - maxEntries + Math.max(maxEntries / EVICTION_DIVISOR, 1);
+        if (excess <= 0) {
+            return;
+        }
+        List<Map.Entry<String, PresignedUrl>> candidates = new ArrayList<>(entries.entrySet());
+        candidates.sort((a, b) -> a.getValue().getExpireTime().compareTo(b.getValue().getExpireTime()));
+        for (int i = 0; i < excess && i < candidates.size(); i++) {
+            Map.Entry<String, PresignedUrl> candidate = candidates.get(i);
+            entries.remove(candidate.getKey(), candidate.getValue());
+        }
+    }
+
+    private static PresignedUrl copy(PresignedUrl presignedUrl) {
+        return new PresignedUrl()
+                .setObjectName(presignedUrl.getObjectName())
+                .setUrl(presignedUrl.getUrl())
+                .setMethod(presignedUrl.getMethod())
+                .setFormData(presignedUrl.getFormData() == null ? null : new HashMap<>(presignedUrl.getFormData()))
+                .setExpireTime(presignedUrl.getExpireTime() == null ? null : new Date(presignedUrl.getExpireTime().getTime()));
+    }
+}
@@ -0,0 +1,179 @@
+package cn.iwenjuan.storage.chunk;
+
+import cn.iwenjuan.storage.domain.ChunkPart;
+import cn.iwenjuan.storage.domain.ChunkUploadSession;
+import cn.iwenjuan.storage.exception.FileUploadException;
+import cn.iwenjuan.storage.exception.enums.StorageErrorCode;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * 基于本地文件的分片上传任务存储
+ * 每个任务一个目录，任务信息和每个分片分别保存为独立的文件，分片并发上传时无需加锁
+ *
+ * @author li1244
+ * @date 2023/4/10 10:15
+ */
+@Slf4j
+public class FileChunkSessionStore implements IChunkSessionStore {
+
+    private static final String SESSIONS_DIR = "sessions";
+
+    private static final String SESSION_FILE_NAME = "session";
+
+    private static final String PART_FILE_PREFIX = "part-";
+
+    private static final String TEMP_FILE_SUFFIX = ".tmp";
+
+    private static final Pattern UPLOAD_ID_PATTERN = Pattern.compile("[0-9A-Za-z_\\-]+");
+
+    private final Path rootPath;
+
+    /**
+     * @param chunkPath 分片上传的临时文件目录，任务信息保存在该目录下的sessions目录
+     */
+    public FileChunkSessionStore(String chunkPath) {
+        this.rootPath = Paths.get(chunkPath, SESSIONS_DIR);
+    }
+
+    @Override
+    public void save(ChunkUploadSession session) {
+        Path sessionPath = getSessionPath(session.getUploadId());
+        try {
+            Files.createDirectories(sessionPath);
+            write(sessionPath.resolve(SESSION_FILE_NAME), session);
+        } catch (IOException e) {
+            log.error("【保存分片上传任务异常】：uploadId：{}，{}", session.getUploadId(), e);
+            throw new FileUploadException(StorageErrorCode.FILE_UPLOAD_ERROR_CODE);
+        }
+    }
+
+    @Override
+    public ChunkUploadSession get(String uploadId) {
+        Path file = getSessionPath(uploadId).resolve(SESSION_FILE_NAME);
+        if (!Files.exists(file)) {
+            return null;
+        }
+        try {
+            return (ChunkUploadSession) read(file);
+        } catch (IOException | ClassNotFoundException e) {
+            log.error("【读取分片上传任务异常】：uploadId：{}，{}", uploadId, e);
+            throw new FileUploadException(StorageErrorCode.FILE_UPLOAD_ERROR_CODE);
+        }
+    }
+
+    @Override
+    public void savePart(String uploadId, ChunkPart part) {
+        Path sessionPath = getSessionPath(uploadId);
+        try {
+            write(sessionPath.resolve(PART_FILE_PREFIX + part.getPartNumber()), part);
+        } catch (IOException e) {
+            log.error("【保存分片信息异常】：uploadId：{}，partNumber：{}，{}", uploadId, part.getPartNumber(), e);
+            throw new FileUploadException(StorageErrorCode.FILE_UPLOAD_ERROR_CODE);
+        }
+    }
+
+    @Override
+    public List<ChunkPart> listParts(String uploadId) {
+        Path sessionPath = getSessionPath(uploadId);
+        List<ChunkPart> parts = new ArrayList<>();
+        if (!Files.isDirectory(sessionPath)) {
+            return parts;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(sessionPath, PART_FILE_PREFIX + "*")) {
+            for (Path file : stream) {
+                if (file.getFileName().toString().endsWith(TEMP_FILE_SUFFIX)) {
+                    continue;
+                }
+                parts.add((ChunkPart) read(file));
+            }
+        } catch (IOException | ClassNotFoundException e) {
+            log.error("【读取分片信息异常】：uploadId：{}，{}", uploadId, e);
+            throw new FileUploadException(StorageErrorCode.FILE_UPLOAD_ERROR_CODE);
+        }
+        parts.sort(Comparator.comparingInt(ChunkPart::getPartNumber));
+        return parts;
+    }
+
+    @Override
+    public void remove(String uploadId) {
+        Path sessionPath = getSessionPath(uploadId);
+        if (!Files.exists(sessionPath)) {
+            return;
+        }
+        try (Stream<Path> stream = Files.walk(sessionPath)) {
+            stream.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        } catch (IOException e) {
+            log.error("【删除分片上传任务异常】：uploadId：{}，{}", uploadId, e);
+        }
+    }
+
+    /**
+     * 按任务目录的修改时间判断，保存任务信息和分片时都会更新目录的修改时间
+     *
+     * @param expireTime
+     * @return
+     */
+    @Override
+    public List<String> listExpired(long expireTime) {
+        List<String> uploadIds = new ArrayList<>();
+        if (!Files.isDirectory(rootPath)) {
+            return uploadIds;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(rootPath)) {
+            for (Path sessionPath : stream) {
+                try {
+                    if (Files.getLastModifiedTime(sessionPath).toMillis() < expireTime) {
+                        uploadIds.add(sessionPath.getFileName().toString());
+                    }
+                } catch (NoSuchFileException e) {
+                    // 读取前被删除
+                }
+            }
+        } catch (IOException e) {
+            log.error("【查询过期分片上传任务异常】：path：{}，{}", rootPath, e);
+        }
+        return uploadIds;
+    }
+
+    /**
+     * 获取任务目录，校验uploadId防止路径穿越
+     *
+     * @param uploadId
+     * @return
+     */
+    private Path getSessionPath(String uploadId) {
+        if (uploadId == null || !UPLOAD_ID_PATTERN.matcher(uploadId).matches()) {
+            throw new FileUploadException(StorageErrorCode.CHUNK_SESSION_NOT_EXIST);
+        }
+        return rootPath.resolve(uploadId);
+    }
+
+    /**
+     * 先写临时文件再重命名，保证读取到的文件都是完整的
+     *
+     * @param file
+     * @param object
+     * @throws IOException
+     */
+    private void write(Path file, Serializable object) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName().toString() + TEMP_FILE_SUFFIX);
+        try (ObjectOutputStream outputStream = new ObjectOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            outputStream.writeObject(object);
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private Object read(Path file) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream inputStream = new ObjectInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            return inputStream.readObject();
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package cn.iwenjuan.storage.chunk;
+
+import cn.iwenjuan.storage.domain.ChunkPart;
+import cn.iwenjuan.storage.domain.ChunkUploadSession;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 分片上传任务存储，可自定义实现（如redis、数据库）以支持多实例部署
+ *
+ * @author li1244
+ * @date 2023/4/10 10:02
+ */
+public interface IChunkSessionStore {
+
+    /**
+     * 保存分片上传任务
+     *
+     * @param session
+     */
+    void save(ChunkUploadSession session);
+
+    /**
+     * 获取分片上传任务
+     *
+     * @param uploadId
+     * @return 任务不存在时返回null
+     */
+    ChunkUploadSession get(String uploadId);
+
+    /**
+     * 保存已上传的分片，同一任务的分片可能并发上传
+     *
+     * @param uploadId
+     * @param part
+     */
+    void savePart(String uploadId, ChunkPart part);
+
+    /**
+     * 获取已上传的分片，按分片序号排序
+     *
+     * @param uploadId
+     * @return
+     */
+    List<ChunkPart> listParts(String uploadId);
+
+    /**
+     * 删除分片上传任务
+     *
+     * @param uploadId
+     */
+    void remove(String uploadId);
+
+    /**
+     * 获取最近一次更新早于指定时间的分片上传任务，用于清理已放弃的任务；支持自动过期的存储可以不实现
+     *
+     * @param expireTime    单位毫秒
+     * @return 任务ID
+     */
+    default List<String> listExpired(long expireTime) {
+        return Collections.emptyList();
+    }
+}
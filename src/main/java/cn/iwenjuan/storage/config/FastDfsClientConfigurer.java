@@ -0,0 +1,221 @@
+package cn.iwenjuan.storage.config;
+
+import cn.iwenjuan.storage.context.SpringApplicationContext;
+import com.github.tobato.fastdfs.domain.conn.Connection;
+import com.github.tobato.fastdfs.domain.conn.FdfsConnectionPool;
+import com.github.tobato.fastdfs.domain.conn.PooledConnectionFactory;
+import com.github.tobato.fastdfs.domain.conn.TrackerConnectionManager;
+import com.github.tobato.fastdfs.domain.fdfs.GroupState;
+import com.github.tobato.fastdfs.domain.fdfs.StorageState;
+import com.github.tobato.fastdfs.service.TrackerClient;
+import lombok.extern.slf4j.Slf4j;
+
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.*;
+
+/**
+ * 配置fastdfs客户端的连接池和tracker
+ * 单独放在一个类中，避免StorageConfiguration的方法签名引用fastdfs的类，未引入fastdfs依赖时无法加载配置类
+ *
+ * @author li1244
+ * @date 2023/4/23 10:15
+ */
+@Slf4j
+class FastDfsClientConfigurer {
+
+    /**
+     * storage服务器在线状态（FDFS_STORAGE_STATUS_ACTIVE）
+     */
+    private static final byte STORAGE_STATUS_ACTIVE = 7;
+
+    private FastDfsClientConfigurer() {
+    }
+
+    /**
+     * 设置连接超时时间、连接池参数和tracker地址，按配置预先建立连接
+     *
+     * @param fastdfs
+     * @return 按响应时间选择tracker时返回检测任务，需要定时执行；否则返回null
+     */
+    static Runnable configure(StorageProperties.FastDfsProperties fastdfs) {
+        PooledConnectionFactory pooledConnectionFactory = SpringApplicationContext.getBean(PooledConnectionFactory.class);
+        pooledConnectionFactory.setSoTimeout(fastdfs.getSoTimeout());
+        pooledConnectionFactory.setConnectTimeout(fastdfs.getConnectTimeout());
+        FdfsConnectionPool pool = SpringApplicationContext.getBean(FdfsConnectionPool.class);
+        configurePool(pool, fastdfs);
+        TrackerConnectionManager trackerConnectionManager = SpringApplicationContext.getBean(TrackerConnectionManager.class);
+        List<String> trackerList = fastdfs.getTrackerList() == null ? new ArrayList<>() : fastdfs.getTrackerList();
+        TrackerLatencyProbe probe = null;
+        if (fastdfs.isTrackerLatencyAware() && trackerList.size() > 1) {
+            probe = new TrackerLatencyProbe(trackerConnectionManager, pool, trackerList, fastdfs.getTrackerLatencyTolerance());
+            probe.run();
+        } else {
+            trackerConnectionManager.setTrackerList(trackerList);
+            trackerConnectionManager.initTracker();
+        }
+        if (fastdfs.isWarmUp()) {
+            warmUp(pool, trackerConnectionManager.getTrackerList(), fastdfs);
+        }
+        return probe;
+    }
+
+    private static void configurePool(FdfsConnectionPool pool, StorageProperties.FastDfsProperties fastdfs) {
+        pool.setMaxTotal(fastdfs.getMaxTotal());
+        pool.setMaxTotalPerKey(fastdfs.getMaxTotalPerKey());
+        pool.setMaxIdlePerKey(fastdfs.getMaxIdlePerKey());
+        pool.setMinIdlePerKey(fastdfs.getMinIdlePerKey());
+        pool.setMaxWait(Duration.ofMillis(fastdfs.getMaxWaitMillis()));
+        pool.setTestOnBorrow(fastdfs.isTestOnBorrow());
+        pool.setTestWhileIdle(fastdfs.isTestWhileIdle());
+        pool.setMinEvictableIdle(Duration.ofMillis(fastdfs.getMinEvictableIdleTime()));
+        // 设置检测间隔时会启动或停止空闲连接检测线程，放在最后设置
+        pool.setTimeBetweenEvictionRuns(Duration.ofMillis(fastdfs.getTimeBetweenEvictionRuns()));
+    }
+
+    /**
+     * 预先建立到tracker和所有在线storage的连接，避免启动后的第一批请求等待建立连接
+     *
+     * @param pool
+     * @param trackerList
+     * @param fastdfs
+     */
+    private static void warmUp(FdfsConnectionPool pool, List<String> trackerList, StorageProperties.FastDfsProperties fastdfs) {
+        int connections = fastdfs.getWarmUpConnections() > 0 ? fastdfs.getWarmUpConnections() : Math.max(fastdfs.getMinIdlePerKey(), 1);
+        // 超过最大空闲连接数的连接归还时会被关闭
+        connections = Math.min(connections, Math.max(fastdfs.getMaxIdlePerKey(), 1));
+        Set<InetSocketAddress> addresses = new LinkedHashSet<>();
+        for (String tracker : trackerList) {
+            addresses.add(toAddress(tracker));
+        }
+        try {
+            TrackerClient trackerClient = SpringApplicationContext.getBean(TrackerClient.class);
+            for (GroupState group : trackerClient.listGroups()) {
+                for (StorageState storage : trackerClient.listStorages(group.getGroupName())) {
+                    if (storage.getStatus() == STORAGE_STATUS_ACTIVE) {
+                        addresses.add(new InetSocketAddress(storage.getIpAddr(), storage.getStoragePort()));
+                    }
+                }
+            }
+        } catch (Exception e) {
+            log.error("【fastdfs连接预热】：获取storage列表失败，只预热tracker连接，{}", e);
+        }
+        for (InetSocketAddress address : addresses) {
+            int created = 0;
+            try {
+                for (; created < connections; created++) {
+                    pool.addObject(address);
+                }
+            } catch (Exception e) {
+                log.error("【fastdfs连接预热】：address：{}，{}", address, e);
+            }
+            log.info("【fastdfs连接预热】：address：{}，connections：{}", address, created);
+        }
+    }
+
+    private static InetSocketAddress toAddress(String tracker) {
+        String[] parts = tracker.trim().split(":");
+        return new InetSocketAddress(parts[0].trim(), Integer.parseInt(parts[1].trim()));
+    }
+
+    /**
+     * 检测各tracker的响应时间（active test往返时间），只使用响应时间不超过最快tracker加容忍时间的tracker，
+     * 慢tracker和不可用的tracker不再参与轮询；所有tracker都不可用时使用全部tracker，由fastdfs客户端重试
+     */
+    static class TrackerLatencyProbe implements Runnable {
+
+        private final TrackerConnectionManager trackerConnectionManager;
+
+        private final FdfsConnectionPool pool;
+
+        private final List<String> trackerList;
+
+        private final long toleranceNanos;
+
+        private List<String> selected;
+
+        TrackerLatencyProbe(TrackerConnectionManager trackerConnectionManager, FdfsConnectionPool pool, List<String> trackerList, long toleranceMillis) {
+            this.trackerConnectionManager = trackerConnectionManager;
+            this.pool = pool;
+            this.trackerList = new ArrayList<>(trackerList);
+            this.toleranceNanos = Math.max(toleranceMillis, 0) * 1000000L;
+        }
+
+        @Override
+        public synchronized void run() {
+            Map<String, Long> latencies = new HashMap<>();
+            for (String tracker : trackerList) {
+                latencies.put(tracker, measure(tracker));
+            }
+            List<String> reachable = new ArrayList<>();
+            for (String tracker : trackerList) {
+                if (latencies.get(tracker) >= 0) {
+                    reachable.add(tracker);
+                }
+            }
+            List<String> candidates;
+            if (reachable.isEmpty()) {
+                candidates = trackerList;
+            } else {
+                reachable.sort(Comparator.comparingLong(latencies::get));
+                long threshold = latencies.get(reachable.get(0)) + toleranceNanos;
+                candidates = new ArrayList<>();
+                for (String tracker : reachable) {
+                    if (latencies.get(tracker) <= threshold) {
+                        candidates.add(tracker);
+                    }
+                }
+            }
+            if (selected != null && new HashSet<>(selected).equals(new HashSet<>(candidates))) {
+                return;
+            }
+            log.info("【fastdfs tracker选择】：selected：{}，latency(us)：{}", candidates, toMicros(latencies));
+            // 重新初始化会重置tracker的可用状态，只在选择结果变化时执行
+            trackerConnectionManager.setTrackerList(candidates);
+            trackerConnectionManager.initTracker();
+            selected = candidates;
+        }
+
+        /**
+         * 检测tracker的响应时间
+         *
+         * @param tracker
+         * @return 响应时间，单位纳秒，不可用时返回-1
+         */
+        private long measure(String tracker) {
+            InetSocketAddress address;
+            try {
+                address = toAddress(tracker);
+            } catch (RuntimeException e) {
+                log.error("【fastdfs tracker检测】：tracker地址格式错误，tracker：{}", tracker);
+                return -1;
+            }
+            Connection connection = null;
+            try {
+                connection = pool.borrowObject(address);
+                long start = System.nanoTime();
+                boolean valid = connection.isValid();
+                long latency = System.nanoTime() - start;
+                if (!valid) {
+                    pool.invalidateObject(address, connection);
+                    connection = null;
+                    return -1;
+                }
+                return latency;
+            } catch (Exception e) {
+                log.warn("【fastdfs tracker检测】：tracker不可用，tracker：{}，{}", tracker, e.getMessage());
+                return -1;
+            } finally {
+                if (connection != null) {
+                    pool.returnObject(address, connection);
+                }
+            }
+        }
+
+        private static Map<String, Long> toMicros(Map<String, Long> latencies) {
+            Map<String, Long> micros = new LinkedHashMap<>();
+            latencies.forEach((tracker, latency) -> micros.put(tracker, latency < 0 ? latency : latency / 1000));
+            return micros;
+        }
+    }
+}
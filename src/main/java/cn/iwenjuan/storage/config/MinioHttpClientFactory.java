@@ -0,0 +1,68 @@
+package cn.iwenjuan.storage.config;
+
+import cn.iwenjuan.storage.context.SpringApplicationContext;
+import lombok.extern.slf4j.Slf4j;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 创建minio客户端使用的OkHttpClient
+ * 单独放在一个类中，避免StorageConfiguration的方法签名引用okhttp的类，未引入minio依赖时无法加载配置类
+ *
+ * @author li1244
+ * @date 2023/4/22 15:30
+ */
+@Slf4j
+class MinioHttpClientFactory {
+
+    /**
+     * 自定义OkHttpClient的bean名称，注册该bean时直接使用，不再使用minio的连接配置
+     */
+    static final String MINIO_HTTP_CLIENT_BEAN_NAME = "minioHttpClient";
+
+    private MinioHttpClientFactory() {
+    }
+
+    /**
+     * 创建OkHttpClient，同步客户端和异步客户端共用，共享连接池
+     *
+     * @param minio
+     * @return
+     */
+    static OkHttpClient create(StorageProperties.MinioProperties minio) {
+        OkHttpClient httpClient = getCustomHttpClient();
+        if (httpClient != null) {
+            log.info("【minio客户端】：使用自定义的OkHttpClient：{}", MINIO_HTTP_CLIENT_BEAN_NAME);
+            return httpClient;
+        }
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(Math.max(minio.getMaxRequests(), 1));
+        dispatcher.setMaxRequestsPerHost(Math.max(minio.getMaxRequestsPerHost(), 1));
+        return new OkHttpClient.Builder()
+                .connectTimeout(minio.getConnectTimeout(), TimeUnit.MILLISECONDS)
+                .readTimeout(minio.getReadTimeout(), TimeUnit.MILLISECONDS)
+                .writeTimeout(minio.getWriteTimeout(), TimeUnit.MILLISECONDS)
+                .connectionPool(new ConnectionPool(Math.max(minio.getMaxIdleConnections(), 1), minio.getKeepAlive(), TimeUnit.MILLISECONDS))
+                .dispatcher(dispatcher)
+                // 与minio默认客户端一致，默认只使用HTTP/1.1
+                .protocols(minio.isHttp2() ? Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1) : Collections.singletonList(Protocol.HTTP_1_1))
+                .build();
+    }
+
+    private static OkHttpClient getCustomHttpClient() {
+        try {
+            if (SpringApplicationContext.getBeanFactory().containsBean(MINIO_HTTP_CLIENT_BEAN_NAME)) {
+                return SpringApplicationContext.getBean(MINIO_HTTP_CLIENT_BEAN_NAME, OkHttpClient.class);
+            }
+        } catch (RuntimeException e) {
+            // 非Spring环境中使用时没有applicationContext
+        }
+        return null;
+    }
+}
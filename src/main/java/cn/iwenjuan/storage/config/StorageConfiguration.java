@@ -1,26 +1,42 @@
 package cn.iwenjuan.storage.config;
 
+import cn.iwenjuan.storage.cache.DiskCache;
+import cn.iwenjuan.storage.cache.MemoryCache;
+import cn.iwenjuan.storage.chunk.FileChunkSessionStore;
+import cn.iwenjuan.storage.chunk.IChunkSessionStore;
 import cn.iwenjuan.storage.context.SpringApplicationContext;
+import cn.iwenjuan.storage.presign.LocalUrlSigner;
+import cn.iwenjuan.storage.replication.ReplicationLog;
+import cn.iwenjuan.storage.service.IAsyncStorageService;
 import cn.iwenjuan.storage.service.IStorageService;
 import cn.iwenjuan.storage.service.impl.*;
+import cn.iwenjuan.storage.tiering.AccessTracker;
+import cn.iwenjuan.storage.tiering.TierIndex;
+import cn.iwenjuan.storage.utils.HttpUtils;
 import cn.iwenjuan.storage.utils.ObjectUtils;
 import cn.iwenjuan.storage.utils.StringUtils;
 import com.aliyun.oss.ClientBuilderConfiguration;
 import com.aliyun.oss.OSS;
 import com.aliyun.oss.OSSClientBuilder;
-import com.github.tobato.fastdfs.domain.conn.PooledConnectionFactory;
-import com.github.tobato.fastdfs.domain.conn.TrackerConnectionManager;
+import com.github.tobato.fastdfs.service.AppendFileStorageClient;
 import com.github.tobato.fastdfs.service.FastFileStorageClient;
 import com.qiniu.util.Auth;
+import io.minio.MinioAsyncClient;
 import io.minio.MinioClient;
 import lombok.extern.slf4j.Slf4j;
+import okhttp3.OkHttpClient;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.util.ClassUtils;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * @author li1244
@@ -35,59 +51,285 @@ public class StorageConfiguration {
         return new SpringApplicationContext();
     }
 
+    /**
+     * 容器关闭时关闭HttpUtils的http客户端，释放连接池和空闲连接检测线程
+     */
+    @Bean(name = "storageHttpClientCloser")
+    public DisposableBean storageHttpClientCloser() {
+        return HttpUtils::close;
+    }
+
     @Bean
     @ConfigurationProperties("spring.storage")
     public StorageProperties storageConfig() {
         return new StorageProperties();
     }
 
+    @Bean
+    @ConditionalOnMissingBean(IChunkSessionStore.class)
+    public IChunkSessionStore chunkSessionStore(StorageProperties storageProperties) {
+        return new FileChunkSessionStore(storageProperties.getChunkPath());
+    }
+
+    @Bean
+    @ConditionalOnMissingBean(LocalUrlSigner.class)
+    public LocalUrlSigner localUrlSigner(StorageProperties storageProperties) {
+        return new LocalUrlSigner(storageProperties.getLocal());
+    }
+
     @Bean
     @ConditionalOnMissingBean(IStorageService.class)
-    public IStorageService storageService(StorageProperties storageProperties) {
-        StorageProperties.PlatformType platform = storageProperties.getPlatform();
+    public IStorageService storageService(StorageProperties storageProperties, IChunkSessionStore chunkSessionStore, LocalUrlSigner localUrlSigner) {
+        IStorageService storageService;
+        StorageProperties.RouteProperties route = storageProperties.getRoute();
+        if (route.isEnabled() && !ObjectUtils.isEmpty(route.getPlatforms())) {
+            storageService = createRoutingStorageService(storageProperties, chunkSessionStore, localUrlSigner);
+            if (storageProperties.getTiering().isEnabled()) {
+                log.warn("【分层存储】：开启多存储平台时不支持分层存储，已忽略分层存储配置");
+            }
+        } else {
+            AbstractStorageService platformStorageService = createStorageService(storageProperties.getPlatform(), storageProperties, localUrlSigner);
+            platformStorageService.setChunkSessionStore(chunkSessionStore);
+            storageService = decorateStorageService(storageProperties, storageProperties.getPlatform(), platformStorageService, storageProperties.getDiskCachePath());
+            StorageProperties.TieringProperties tiering = storageProperties.getTiering();
+            if (tiering.isEnabled() && tiering.getColdPlatform() != null) {
+                storageService = createTieredStorageService(storageProperties, storageService, chunkSessionStore, localUrlSigner);
+            }
+        }
+        StorageProperties.ReplicationProperties replication = storageProperties.getReplication();
+        if (replication.isEnabled() && !ObjectUtils.isEmpty(replication.getPlatforms())) {
+            storageService = createReplicatingStorageService(storageProperties, storageService, chunkSessionStore, localUrlSigner);
+        }
+        return storageService;
+    }
+
+    @Bean
+    @ConditionalOnMissingBean(IAsyncStorageService.class)
+    public IAsyncStorageService asyncStorageService(StorageProperties storageProperties, IStorageService storageService) {
+        StorageProperties.AsyncProperties async = storageProperties.getAsync();
+        AsyncStorageService asyncStorageService = new AsyncStorageService(storageService, async.getThreads(), async.getConcurrency(), async.getQueueCapacity());
+        asyncStorageService.setRoutingStorageService(findRoutingStorageService(storageService));
+        asyncStorageService.setPlatformConcurrency(async.getPlatformConcurrency());
+        if (storageProperties.getMetrics().isEnabled() && ClassUtils.isPresent(StorageMetricsConfigurer.METER_REGISTRY_CLASS, StorageConfiguration.class.getClassLoader())) {
+            StorageMetricsConfigurer.bindAsync(asyncStorageService);
+        }
+        return asyncStorageService;
+    }
+
+    /**
+     * 在包装链中查找路由服务，异步存储服务按存储平台分别限制并发数
+     *
+     * @param storageService
+     * @return 未开启多存储平台时返回null
+     */
+    private static RoutingStorageService findRoutingStorageService(IStorageService storageService) {
+        while (storageService instanceof DelegatingStorageService) {
+            storageService = ((DelegatingStorageService) storageService).getDelegate();
+        }
+        return storageService instanceof RoutingStorageService ? (RoutingStorageService) storageService : null;
+    }
+
+    /**
+     * 同时使用多个存储平台，每个存储平台单独添加缓存、指标等功能，再由路由服务按规则选择存储平台
+     *
+     * @param storageProperties
+     * @param chunkSessionStore
+     * @param localUrlSigner
+     * @return
+     */
+    private IStorageService createRoutingStorageService(StorageProperties storageProperties, IChunkSessionStore chunkSessionStore, LocalUrlSigner localUrlSigner) {
+        StorageProperties.RouteProperties route = storageProperties.getRoute();
+        Set<StorageProperties.PlatformType> platforms = new LinkedHashSet<>(route.getPlatforms());
+        StorageProperties.PlatformType defaultPlatform = route.getDefaultPlatform() == null ? storageProperties.getPlatform() : route.getDefaultPlatform();
+        if (platforms.add(defaultPlatform)) {
+            log.warn("【多存储平台】：默认存储平台不在platforms中，自动添加：{}", defaultPlatform);
+        }
+        Map<StorageProperties.PlatformType, IStorageService> storageServices = new LinkedHashMap<>();
+        for (StorageProperties.PlatformType platform : platforms) {
+            AbstractStorageService storageService = createStorageService(platform, storageProperties, localUrlSigner);
+            if (storageService instanceof DefaultStorageService && platform != defaultPlatform) {
+                // 未配置的存储平台不参与路由，按规则或文件地址选择该平台时使用默认存储平台
+                log.warn("【多存储平台】：存储平台未配置，已忽略：{}", platform);
+                continue;
+            }
+            storageService.setChunkSessionStore(chunkSessionStore);
+            // 每个存储平台使用单独的磁盘缓存目录
+            String diskCachePath = Paths.get(storageProperties.getDiskCachePath(), platform.name()).toString();
+            storageServices.put(platform, decorateStorageService(storageProperties, platform, storageService, diskCachePath));
+        }
+        log.info("【多存储平台】：platforms：{}，defaultPlatform：{}，rules：{}", storageServices.keySet(), defaultPlatform, route.getRules());
+        return new RoutingStorageService(storageServices, storageProperties);
+    }
+
+    /**
+     * platform配置的存储平台作为热存储，长时间未访问的文件迁移到冷存储平台，冷存储平台与热存储平台一样添加缓存、指标等功能
+     *
+     * @param storageProperties
+     * @param storageService    热存储的存储服务
+     * @param chunkSessionStore
+     * @param localUrlSigner
+     * @return
+     */
+    private IStorageService createTieredStorageService(StorageProperties storageProperties, IStorageService storageService, IChunkSessionStore chunkSessionStore, LocalUrlSigner localUrlSigner) {
+        StorageProperties.TieringProperties tiering = storageProperties.getTiering();
+        StorageProperties.PlatformType coldPlatform = tiering.getColdPlatform();
+        if (coldPlatform == storageProperties.getPlatform()) {
+            log.error("【分层存储】：冷存储平台不能与热存储平台相同，已忽略分层存储配置：{}", coldPlatform);
+            return storageService;
+        }
+        AbstractStorageService coldStorageService = createStorageService(coldPlatform, storageProperties, localUrlSigner);
+        if (coldStorageService instanceof DefaultStorageService) {
+            log.error("【分层存储】：冷存储平台未配置，已忽略分层存储配置：{}", coldPlatform);
+            return storageService;
+        }
+        coldStorageService.setChunkSessionStore(chunkSessionStore);
+        String diskCachePath = Paths.get(storageProperties.getDiskCachePath(), coldPlatform.name()).toString();
+        IStorageService cold = decorateStorageService(storageProperties, coldPlatform, coldStorageService, diskCachePath);
+        TierIndex tierIndex = new TierIndex(storageProperties.getTieringPath(), tiering.getExpectedObjects());
+        AccessTracker accessTracker = new AccessTracker(tiering.getExpectedObjects());
+        TieredStorageService tieredStorageService = new TieredStorageService(storageService, cold, tierIndex, accessTracker, tiering);
+        if (storageProperties.getMetrics().isEnabled() && ClassUtils.isPresent(StorageMetricsConfigurer.METER_REGISTRY_CLASS, StorageConfiguration.class.getClassLoader())) {
+            StorageMetricsConfigurer.bindTiering(tieredStorageService);
+        }
+        log.info("【分层存储】：hot：{}，cold：{}，coldAfter：{}ms，path：{}", storageProperties.getPlatform(), coldPlatform, tiering.getColdAfter(), tierIndex.getPath());
+        return tieredStorageService;
+    }
+
+    /**
+     * 上传到主存储平台后异步复制到副本存储平台，副本存储平台只用于保存副本，不添加缓存等功能
+     *
+     * @param storageProperties
+     * @param storageService    主存储平台的存储服务
+     * @param chunkSessionStore
+     * @param localUrlSigner
+     * @return
+     */
+    private IStorageService createReplicatingStorageService(StorageProperties storageProperties, IStorageService storageService, IChunkSessionStore chunkSessionStore, LocalUrlSigner localUrlSigner) {
+        StorageProperties.ReplicationProperties replication = storageProperties.getReplication();
+        Map<String, IStorageService> replicas = new LinkedHashMap<>();
+        for (StorageProperties.PlatformType platform : new LinkedHashSet<>(replication.getPlatforms())) {
+            boolean primary = storageService instanceof RoutingStorageService
+                    ? ((RoutingStorageService) storageService).getStorageService(platform) != null
+                    : platform == storageProperties.getPlatform();
+            if (primary) {
+                log.error("【跨存储平台复制】：副本存储平台不能是主存储平台，已忽略：{}", platform);
+                continue;
+            }
+            AbstractStorageService replica = createStorageService(platform, storageProperties, localUrlSigner);
+            if (replica instanceof DefaultStorageService) {
+                log.error("【跨存储平台复制】：副本存储平台未配置，已忽略：{}", platform);
+                continue;
+            }
+            replica.setChunkSessionStore(chunkSessionStore);
+            replicas.put(platform.name(), replica);
+        }
+        if (replicas.isEmpty()) {
+            return storageService;
+        }
+        ReplicationLog replicationLog = new ReplicationLog(storageProperties.getReplicationPath(), replication.getSegmentSize(), replication.isSync());
+        ReplicatingStorageService replicatingStorageService = new ReplicatingStorageService(storageService, replicas, replicationLog, replication);
+        if (storageProperties.getMetrics().isEnabled() && ClassUtils.isPresent(StorageMetricsConfigurer.METER_REGISTRY_CLASS, StorageConfiguration.class.getClassLoader())) {
+            StorageMetricsConfigurer.bindReplication(replicatingStorageService);
+        }
+        log.info("【跨存储平台复制】：replicas：{}，path：{}", replicas.keySet(), replicationLog.getPath());
+        return replicatingStorageService;
+    }
+
+    /**
+     * 根据配置为存储服务添加缓存等功能
+     *
+     * @param storageProperties
+     * @param platform
+     * @param storageService
+     * @param diskCachePath
+     * @return
+     */
+    private IStorageService decorateStorageService(StorageProperties storageProperties, StorageProperties.PlatformType platform, AbstractStorageService storageService, String diskCachePath) {
+        IStorageService decorated = storageService;
+        StorageProperties.CoalesceProperties coalesce = storageProperties.getCoalesce();
+        if (coalesce.isEnabled()) {
+            decorated = new CoalescingStorageService(decorated, coalesce.getPath(), coalesce.getFetchThreads());
+        }
+        StorageProperties.DiskCacheProperties diskCache = storageProperties.getCache().getDisk();
+        // 本地存储的文件已在本地磁盘中，无需缓存
+        if (diskCache.isEnabled() && platform != StorageProperties.PlatformType.local) {
+            DiskCache cache = new DiskCache(diskCachePath, diskCache.getMaxSize());
+            decorated = new CachingStorageService(decorated, cache, diskCache.getMaxObjectSize());
+        }
+        StorageProperties.MemoryCacheProperties memoryCache = storageProperties.getCache().getMemory();
+        if (memoryCache.isEnabled()) {
+            // 按平均每个文件4K估算缓存的文件个数
+            int expectedEntries = (int) Math.min(memoryCache.getMaxSize() / 4096, 1 << 20);
+            MemoryCache cache = new MemoryCache(memoryCache.getMaxSize(), expectedEntries, memoryCache.isDirect());
+            decorated = new MemoryCachingStorageService(decorated, cache, memoryCache.getMaxObjectSize());
+        }
+        // 指标包装在最外层，记录调用方看到的耗时
+        if (storageProperties.getMetrics().isEnabled() && ClassUtils.isPresent(StorageMetricsConfigurer.METER_REGISTRY_CLASS, StorageConfiguration.class.getClassLoader())) {
+            decorated = StorageMetricsConfigurer.decorate(decorated, storageProperties, platform);
+        }
+        return decorated;
+    }
+
+    /**
+     * 创建存储平台的存储服务
+     *
+     * @param platform
+     * @param storageProperties
+     * @param localUrlSigner
+     * @return
+     */
+    private AbstractStorageService createStorageService(StorageProperties.PlatformType platform, StorageProperties storageProperties, LocalUrlSigner localUrlSigner) {
         switch (platform) {
             case local:
-                return new LocalStorageService(storageProperties);
+                return new LocalStorageService(storageProperties, localUrlSigner);
             case minio:
                 StorageProperties.MinioProperties minio = storageProperties.getMinio();
                 if (minio == null || !StringUtils.isNotBlank(minio.getEndpoint(), minio.getAccessKey(), minio.getSecretKey(), minio.getBucketName())) {
-                    return new DefaultStorageService(storageProperties);
+                    return new DefaultStorageService(storageProperties, platform);
                 }
+                OkHttpClient minioHttpClient = MinioHttpClientFactory.create(minio);
                 MinioClient minioClient = MinioClient.builder().endpoint(minio.getEndpoint())
                         .credentials(minio.getAccessKey(), minio.getSecretKey())
+                        .httpClient(minioHttpClient)
+                        .build();
+                MinioAsyncClient minioAsyncClient = MinioAsyncClient.builder().endpoint(minio.getEndpoint())
+                        .credentials(minio.getAccessKey(), minio.getSecretKey())
+                        .httpClient(minioHttpClient)
                         .build();
-                return new MinioStorageService(storageProperties, minioClient);
+                return new MinioStorageService(storageProperties, minioClient, new MinioMultipartClient(minioAsyncClient));
             case fastdfs:
                 StorageProperties.FastDfsProperties fastdfs = storageProperties.getFastdfs();
                 if (fastdfs == null || ObjectUtils.isEmpty(fastdfs.getTrackerList())) {
-                    return new DefaultStorageService(storageProperties);
+                    return new DefaultStorageService(storageProperties, platform);
                 }
-                PooledConnectionFactory pooledConnectionFactory = SpringApplicationContext.getBean(PooledConnectionFactory.class);
-                pooledConnectionFactory.setSoTimeout(fastdfs.getSoTimeout());
-                pooledConnectionFactory.setConnectTimeout(fastdfs.getConnectTimeout());
-                List<String> trackerList = fastdfs.getTrackerList();
-                if (trackerList == null) {
-                    trackerList = new ArrayList<>();
-                }
-                TrackerConnectionManager trackerConnectionManager = SpringApplicationContext.getBean(TrackerConnectionManager.class);
-                trackerConnectionManager.setTrackerList(trackerList);
-                trackerConnectionManager.initTracker();
+                Runnable trackerProbe = FastDfsClientConfigurer.configure(fastdfs);
                 FastFileStorageClient fastFileStorageClient = SpringApplicationContext.getBean(FastFileStorageClient.class);
-                return new FastDfsStorageService(storageProperties, fastFileStorageClient);
+                AppendFileStorageClient appendFileStorageClient = SpringApplicationContext.getBean(AppendFileStorageClient.class);
+                FastDfsStorageService fastDfsStorageService = new FastDfsStorageService(storageProperties, fastFileStorageClient, appendFileStorageClient);
+                if (trackerProbe != null) {
+                    fastDfsStorageService.scheduleTrackerProbe(trackerProbe, fastdfs.getTrackerProbeInterval());
+                }
+                return fastDfsStorageService;
             case aliyun:
                 StorageProperties.AliyunOssProperties aliyun = storageProperties.getAliyun();
                 if (aliyun == null || !StringUtils.isNotBlank(aliyun.getEndpoint(), aliyun.getAccessKey(), aliyun.getSecretKey(), aliyun.getBucketName())) {
-                    return new DefaultStorageService(storageProperties);
+                    return new DefaultStorageService(storageProperties, platform);
                 }
                 ClientBuilderConfiguration configuration = new ClientBuilderConfiguration();
                 // 私有云要关闭CNAME
                 configuration.setSupportCname(false);
+                configuration.setMaxConnections(aliyun.getMaxConnections());
+                configuration.setConnectionTimeout(aliyun.getConnectionTimeout());
+                configuration.setSocketTimeout(aliyun.getSocketTimeout());
+                configuration.setIdleConnectionTime(aliyun.getIdleConnectionTime());
+                configuration.setMaxErrorRetry(aliyun.getMaxErrorRetry());
+                configuration.setCrcCheckEnabled(aliyun.isCrcCheckEnabled());
                 OSS ossClient = new OSSClientBuilder().build(aliyun.getEndpoint(), aliyun.getAccessKey(), aliyun.getSecretKey(), configuration);
                 return new AliyunStorageService(storageProperties, ossClient);
             case qiniu:
                 StorageProperties.QiniuOssProperties qiniu = storageProperties.getQiniu();
                 if (qiniu == null || !StringUtils.isNotBlank(qiniu.getAccessKey(), qiniu.getSecretKey(), qiniu.getBucketName())) {
-                    return new DefaultStorageService(storageProperties);
+                    return new DefaultStorageService(storageProperties, platform);
                 }
                 if (StringUtils.isBlank(qiniu.getDomain())) {
                     log.error("检测到七牛云OSS存储平台，但未配置七牛云访问域名，将无法正常下载文件：{}", qiniu);
@@ -95,7 +337,7 @@ public class StorageConfiguration {
                 Auth auth = Auth.create(qiniu.getAccessKey(), qiniu.getSecretKey());
                 return new QiniuStorageService(storageProperties, auth);
             default:
-                return new DefaultStorageService(storageProperties);
+                return new DefaultStorageService(storageProperties, platform);
         }
     }
 }
@@ -0,0 +1,119 @@
+package cn.iwenjuan.storage.config;
+
+import cn.iwenjuan.storage.context.SpringApplicationContext;
+import cn.iwenjuan.storage.service.IStorageService;
+import cn.iwenjuan.storage.service.impl.AsyncStorageService;
+import cn.iwenjuan.storage.service.impl.MetricsStorageService;
+import cn.iwenjuan.storage.service.impl.ReplicatingStorageService;
+import cn.iwenjuan.storage.service.impl.TieredStorageService;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.TimeGauge;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 为存储服务添加指标记录
+ * 单独放在一个类中，避免StorageConfiguration的方法签名引用micrometer的类，未引入micrometer依赖时无法加载配置类
+ *
+ * @author li1244
+ * @date 2023/4/24 11:20
+ */
+@Slf4j
+class StorageMetricsConfigurer {
+
+    static final String METER_REGISTRY_CLASS = "io.micrometer.core.instrument.MeterRegistry";
+
+    private StorageMetricsConfigurer() {
+    }
+
+    /**
+     * 使用容器中的MeterRegistry包装存储服务，没有MeterRegistry时不包装
+     *
+     * @param storageService
+     * @param storageProperties
+     * @param platform          指标的platform标签
+     * @return
+     */
+    static IStorageService decorate(IStorageService storageService, StorageProperties storageProperties, StorageProperties.PlatformType platform) {
+        MeterRegistry registry = getMeterRegistry();
+        if (registry == null) {
+            log.info("【存储服务指标】：未注册MeterRegistry，不记录存储服务指标");
+            return storageService;
+        }
+        StorageProperties.MetricsProperties metrics = storageProperties.getMetrics();
+        return new MetricsStorageService(storageService, registry, platform.name(),
+                metrics.getPercentiles(), metrics.isPercentileHistogram());
+    }
+
+    /**
+     * 注册复制延迟等指标，按副本存储平台区分（target标签），没有MeterRegistry时不注册
+     *
+     * @param storageService
+     */
+    static void bindReplication(ReplicatingStorageService storageService) {
+        MeterRegistry registry = getMeterRegistry();
+        if (registry == null) {
+            return;
+        }
+        for (String target : storageService.getTargets()) {
+            Gauge.builder("storage.replication.pending", storageService, service -> service.getPendingCount(target))
+                    .description("等待复制的文件数").tags("target", target).register(registry);
+            TimeGauge.builder("storage.replication.lag", storageService, TimeUnit.MILLISECONDS, service -> service.getLag(target))
+                    .description("最早的未完成复制任务已等待的时间").tags("target", target).register(registry);
+            FunctionCounter.builder("storage.replication.replicated", storageService, service -> service.getReplicatedCount(target))
+                    .description("已复制的文件数").tags("target", target).register(registry);
+            FunctionCounter.builder("storage.replication.failures", storageService, service -> service.getFailureCount(target))
+                    .description("复制失败次数，包括重试失败").tags("target", target).register(registry);
+            FunctionCounter.builder("storage.replication.abandoned", storageService, service -> service.getAbandonedCount(target))
+                    .description("放弃复制的文件数").tags("target", target).register(registry);
+        }
+    }
+
+    /**
+     * 注册分层存储的迁移指标，没有MeterRegistry时不注册
+     *
+     * @param storageService
+     */
+    static void bindTiering(TieredStorageService storageService) {
+        MeterRegistry registry = getMeterRegistry();
+        if (registry == null) {
+            return;
+        }
+        FunctionCounter.builder("storage.tiering.migrations", storageService, TieredStorageService::getDemotedCount)
+                .description("分层存储迁移的文件数").tags("direction", "demote").register(registry);
+        FunctionCounter.builder("storage.tiering.migrations", storageService, TieredStorageService::getPromotedCount)
+                .description("分层存储迁移的文件数").tags("direction", "promote").register(registry);
+        FunctionCounter.builder("storage.tiering.bytes", storageService, TieredStorageService::getMigratedBytes)
+                .description("分层存储迁移的字节数").baseUnit("bytes").register(registry);
+    }
+
+    /**
+     * 注册异步存储服务的等待队列、正在执行和被拒绝的任务数指标，没有MeterRegistry时不注册
+     *
+     * @param storageService
+     */
+    static void bindAsync(AsyncStorageService storageService) {
+        MeterRegistry registry = getMeterRegistry();
+        if (registry == null) {
+            return;
+        }
+        Gauge.builder("storage.async.queue", storageService, AsyncStorageService::getQueueDepth)
+                .description("等待执行的异步任务数").register(registry);
+        Gauge.builder("storage.async.active", storageService, AsyncStorageService::getActiveCount)
+                .description("正在执行的异步任务数").register(registry);
+        FunctionCounter.builder("storage.async.rejected", storageService, AsyncStorageService::getRejectedCount)
+                .description("等待队列已满被拒绝的异步任务数").register(registry);
+    }
+
+    private static MeterRegistry getMeterRegistry() {
+        try {
+            return SpringApplicationContext.getBeanFactory().getBeanProvider(MeterRegistry.class).getIfUnique();
+        } catch (RuntimeException e) {
+            // 非Spring环境中使用时没有applicationContext
+            return null;
+        }
+    }
+}
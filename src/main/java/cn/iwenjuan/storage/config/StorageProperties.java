@@ -51,6 +51,103 @@ public class StorageProperties {
      * 七牛云OSS配置
      */
     private QiniuOssProperties qiniu;
+    /**
+     * 分片上传配置
+     */
+    private ChunkProperties chunk = new ChunkProperties();
+    /**
+     * 大文件并发分片上传配置（minio、阿里云OSS）
+     */
+    private MultipartProperties multipart = new MultipartProperties();
+    /**
+     * 异步存储服务配置
+     */
+    private AsyncProperties async = new AsyncProperties();
+    /**
+     * 下载缓存配置
+     */
+    private CacheProperties cache = new CacheProperties();
+    /**
+     * 合并并发下载配置
+     */
+    private CoalesceProperties coalesce = new CoalesceProperties();
+    /**
+     * 批量删除、批量上传配置
+     */
+    private BatchProperties batch = new BatchProperties();
+    /**
+     * http客户端配置
+     */
+    private HttpProperties http = new HttpProperties();
+    /**
+     * 指标配置
+     */
+    private MetricsProperties metrics = new MetricsProperties();
+    /**
+     * 多存储平台路由配置
+     */
+    private RouteProperties route = new RouteProperties();
+    /**
+     * 跨存储平台复制配置
+     */
+    private ReplicationProperties replication = new ReplicationProperties();
+    /**
+     * 分层存储配置
+     */
+    private TieringProperties tiering = new TieringProperties();
+
+    /**
+     * 获取分片上传的临时文件目录，未配置时使用本地存储路径下的.chunks目录
+     *
+     * @return
+     */
+    public String getChunkPath() {
+        if (chunk != null && chunk.getPath() != null && !chunk.getPath().trim().isEmpty()) {
+            return chunk.getPath();
+        }
+        String path = local == null || local.getPath() == null ? "/data/files" : local.getPath();
+        return path.endsWith("/") ? path.concat(".chunks") : path.concat("/.chunks");
+    }
+
+    /**
+     * 获取磁盘缓存目录，未配置时使用本地存储路径下的.cache目录
+     *
+     * @return
+     */
+    public String getDiskCachePath() {
+        DiskCacheProperties disk = cache == null ? null : cache.getDisk();
+        if (disk != null && disk.getPath() != null && !disk.getPath().trim().isEmpty()) {
+            return disk.getPath();
+        }
+        String path = local == null || local.getPath() == null ? "/data/files" : local.getPath();
+        return path.endsWith("/") ? path.concat(".cache") : path.concat("/.cache");
+    }
+
+    /**
+     * 获取复制任务日志目录，未配置时使用本地存储路径下的.replication目录
+     *
+     * @return
+     */
+    public String getReplicationPath() {
+        if (replication != null && replication.getPath() != null && !replication.getPath().trim().isEmpty()) {
+            return replication.getPath();
+        }
+        String path = local == null || local.getPath() == null ? "/data/files" : local.getPath();
+        return path.endsWith("/") ? path.concat(".replication") : path.concat("/.replication");
+    }
+
+    /**
+     * 获取分层存储索引目录，未配置时使用本地存储路径下的.tiering目录
+     *
+     * @return
+     */
+    public String getTieringPath() {
+        if (tiering != null && tiering.getPath() != null && !tiering.getPath().trim().isEmpty()) {
+            return tiering.getPath();
+        }
+        String path = local == null || local.getPath() == null ? "/data/files" : local.getPath();
+        return path.endsWith("/") ? path.concat(".tiering") : path.concat("/.tiering");
+    }
 
     @Data
     public static class LocalProperties {
@@ -62,6 +159,366 @@ public class StorageProperties {
          * 归类
          */
         private Classify classify = Classify.non;
+        /**
+         * 预签名地址的访问地址，指向应用中校验签名并读写文件的接口，如：http://localhost:8080/storage/presigned
+         */
+        private String presignUrl;
+        /**
+         * 预签名密钥，未配置时使用随机密钥，重启后已生成的预签名地址失效，多实例部署时需要配置相同的密钥
+         */
+        private String signKey;
+
+    }
+
+    @Data
+    public static class ChunkProperties {
+        /**
+         * 分片上传的临时文件目录（任务信息、本地存储和fastdfs的分片文件），默认为本地存储路径下的.chunks目录
+         */
+        private String path;
+        /**
+         * 分片大小，单位字节，默认5M（minio要求除最后一个分片外不小于5M）
+         */
+        private long chunkSize = 5242880;
+        /**
+         * 分片上传任务的过期时间，单位毫秒，超过该时间未上传分片的任务自动取消并删除分片文件，默认24小时
+         */
+        private long expire = 86400000;
+        /**
+         * 清理过期分片上传任务的间隔，单位毫秒，默认1小时，小于等于0时不清理
+         */
+        private long cleanInterval = 3600000;
+
+    }
+
+    @Data
+    public static class MultipartProperties {
+        /**
+         * 是否开启并发分片上传，默认开启
+         */
+        private boolean enabled = true;
+        /**
+         * 文件大小达到该值时使用并发分片上传，单位字节，默认100M
+         */
+        private long threshold = 104857600;
+        /**
+         * 分片大小，单位字节，默认16M（minio、阿里云OSS要求除最后一个分片外不小于5M，分片数不超过10000）
+         */
+        private long partSize = 16777216;
+        /**
+         * 单个文件同时上传的分片数，同时也是单个文件占用的分片缓冲区个数，默认4
+         */
+        private int concurrency = 4;
+        /**
+         * 分片上传线程池的线程数，所有文件共用，默认16
+         */
+        private int maxThreads = 16;
+
+    }
+
+    @Data
+    public static class AsyncProperties {
+        /**
+         * 异步存储服务线程池的线程数，默认8
+         */
+        private int threads = 8;
+        /**
+         * 同时访问存储平台的任务数，默认与线程数相同
+         */
+        private int concurrency = 8;
+        /**
+         * 开启多存储平台时每个存储平台同时执行的任务数，默认0（只受concurrency限制）
+         */
+        private int platformConcurrency = 0;
+        /**
+         * 等待执行的任务数上限，超过时任务直接失败，默认1000
+         */
+        private int queueCapacity = 1000;
+
+    }
+
+    @Data
+    public static class BatchProperties {
+        /**
+         * 每批删除的文件数，默认1000（不超过存储平台单次批量删除的上限）
+         */
+        private int size = 1000;
+        /**
+         * 同时执行的批次数，默认4
+         */
+        private int concurrency = 4;
+        /**
+         * 批量上传时同时上传的文件数，所有批量上传共用，默认4
+         */
+        private int uploadConcurrency = 4;
+        /**
+         * 批量上传时同时上传的文件总大小上限，单位字节，默认256M，超过时等待其他文件上传完成
+         */
+        private long maxInFlightSize = 268435456;
+
+    }
+
+    @Data
+    public static class HttpProperties {
+        /**
+         * 连接超时时间，单位毫秒，默认60秒
+         */
+        private int connectTimeout = 60000;
+        /**
+         * 读取超时时间，单位毫秒，默认60秒
+         */
+        private int readTimeout = 60000;
+        /**
+         * 从连接池获取连接的超时时间，单位毫秒，默认10秒
+         */
+        private int connectionRequestTimeout = 10000;
+        /**
+         * 连接池最大连接数，默认200
+         */
+        private int maxConnections = 200;
+        /**
+         * 每个地址（协议+域名+端口）的最大连接数，默认50
+         */
+        private int maxConnectionsPerRoute = 50;
+        /**
+         * 连接保持时间，单位毫秒，默认60秒，服务端返回的Keep-Alive时间更短时以服务端为准
+         */
+        private long keepAlive = 60000;
+        /**
+         * 空闲连接超过该时间后关闭，单位毫秒，默认30秒
+         */
+        private long idleTimeout = 30000;
+
+    }
+
+    @Data
+    public static class MetricsProperties {
+        /**
+         * 是否记录存储服务指标，引入micrometer且注册了MeterRegistry时生效，默认开启
+         */
+        private boolean enabled = true;
+        /**
+         * 耗时指标发布的百分位数，默认0.5、0.95、0.99
+         */
+        private double[] percentiles = {0.5, 0.95, 0.99};
+        /**
+         * 是否发布耗时直方图，用于在监控系统中聚合计算百分位数，默认不发布
+         */
+        private boolean percentileHistogram = false;
+
+    }
+
+    @Data
+    public static class RouteProperties {
+        /**
+         * 是否同时使用多个存储平台，默认关闭，关闭时只使用platform配置的存储平台
+         */
+        private boolean enabled = false;
+        /**
+         * 同时使用的存储平台，各平台使用各自的配置
+         */
+        private List<PlatformType> platforms = new ArrayList<>();
+        /**
+         * 默认存储平台，没有匹配的上传规则、无法从文件地址识别存储平台时使用，默认为platform配置的存储平台
+         */
+        private PlatformType defaultPlatform;
+        /**
+         * 是否在返回的文件地址和分片上传ID前加上存储平台标识（如minio:/files/xxx.mp4），默认开启
+         * 关闭时按各平台配置的存储路径识别文件所在的存储平台，需要各平台的存储路径互不相同
+         */
+        private boolean tagFileUrl = true;
+        /**
+         * 上传规则，按顺序匹配，使用第一个匹配的规则
+         */
+        private List<RouteRule> rules = new ArrayList<>();
+
+    }
+
+    @Data
+    public static class RouteRule {
+        /**
+         * 匹配时上传到的存储平台
+         */
+        private PlatformType platform;
+        /**
+         * 文件大小下限（包含），单位字节，小于0表示不限制
+         */
+        private long minSize = -1;
+        /**
+         * 文件大小上限（不包含），单位字节，小于0表示不限制
+         */
+        private long maxSize = -1;
+        /**
+         * 文件格式，多个用英文逗号分隔，为空表示不限制
+         */
+        private String extensions;
+        /**
+         * 原始文件名前缀，多个用英文逗号分隔，为空表示不限制
+         */
+        private String prefixes;
+
+    }
+
+    @Data
+    public static class ReplicationProperties {
+        /**
+         * 是否将上传的文件复制到副本存储平台，默认关闭
+         */
+        private boolean enabled = false;
+        /**
+         * 副本存储平台，各平台使用各自的配置，不能是主存储平台
+         */
+        private List<PlatformType> platforms = new ArrayList<>();
+        /**
+         * 复制任务日志目录，复制前先下载到该目录下的spool目录，默认为本地存储路径下的.replication目录
+         * 默认目录在本地存储路径下，本地存储的预签名地址不能访问以.开头的目录，但按文件路径直接下载时可以读取，对外开放本地存储下载时建议配置到本地存储路径之外
+         */
+        private String path;
+        /**
+         * 同时复制的文件数，默认4
+         */
+        private int concurrency = 4;
+        /**
+         * 每批取出的任务数，默认32
+         */
+        private int batchSize = 32;
+        /**
+         * 第一次重试的等待时间，单位毫秒，默认1秒，之后每次翻倍
+         */
+        private long retryInterval = 1000;
+        /**
+         * 重试等待时间上限，单位毫秒，默认5分钟
+         */
+        private long maxRetryInterval = 300000;
+        /**
+         * 最大复制次数（包括第一次），超过后放弃复制，小于等于0表示一直重试，默认0
+         */
+        private int maxAttempts = 0;
+        /**
+         * 单个日志文件的大小上限，单位字节，默认64M
+         */
+        private long segmentSize = 67108864;
+        /**
+         * 每次写入日志后是否刷盘，关闭时机器断电可能丢失最近的复制任务，默认开启
+         */
+        private boolean sync = true;
+
+    }
+
+    @Data
+    public static class TieringProperties {
+        /**
+         * 是否开启分层存储，默认关闭；开启后platform配置的存储平台为热存储
+         */
+        private boolean enabled = false;
+        /**
+         * 冷存储平台，使用该平台的配置，不能与热存储平台相同
+         */
+        private PlatformType coldPlatform;
+        /**
+         * 分层存储索引目录，迁移前先下载到该目录下的spool目录，默认为本地存储路径下的.tiering目录
+         */
+        private String path;
+        /**
+         * 文件超过该时间未访问后迁移到冷存储，单位毫秒，默认7天
+         */
+        private long coldAfter = 604800000;
+        /**
+         * 冷存储中的文件迁移后又被访问、且近期访问次数达到该值时迁移回热存储，最大15，小于等于0表示不迁移回热存储，默认4
+         */
+        private int promoteFrequency = 4;
+        /**
+         * 迁移任务的执行间隔，单位毫秒，默认1小时，小于等于0表示不自动迁移
+         */
+        private long interval = 3600000;
+        /**
+         * 每秒迁移的字节数上限，默认32M，小于等于0表示不限制
+         */
+        private long maxBytesPerSecond = 33554432;
+        /**
+         * 每次最多迁移的文件数，默认1000，小于等于0表示不限制
+         */
+        private int maxMigrations = 1000;
+        /**
+         * 每次最多检查的索引条数，默认100000，小于等于0表示不限制；下次迁移从上次结束的位置继续，全部检查完后从头开始
+         */
+        private int maxScans = 100000;
+        /**
+         * 预计的文件个数，用于确定访问统计和索引位图占用的内存（每个文件约13字节），默认1048576
+         */
+        private int expectedObjects = 1048576;
+
+    }
+
+    @Data
+    public static class CacheProperties {
+        /**
+         * 磁盘缓存配置
+         */
+        private DiskCacheProperties disk = new DiskCacheProperties();
+        /**
+         * 内存缓存配置
+         */
+        private MemoryCacheProperties memory = new MemoryCacheProperties();
+
+    }
+
+    @Data
+    public static class DiskCacheProperties {
+        /**
+         * 是否开启磁盘缓存，只对远程存储平台生效，默认关闭
+         */
+        private boolean enabled = false;
+        /**
+         * 缓存目录，默认为本地存储路径下的.cache目录
+         */
+        private String path;
+        /**
+         * 缓存容量，单位字节，默认10G
+         */
+        private long maxSize = 10737418240L;
+        /**
+         * 允许缓存的最大文件大小，单位字节，默认1G
+         */
+        private long maxObjectSize = 1073741824L;
+
+    }
+
+    @Data
+    public static class MemoryCacheProperties {
+        /**
+         * 是否开启内存缓存，默认关闭
+         */
+        private boolean enabled = false;
+        /**
+         * 缓存容量，单位字节，默认64M
+         */
+        private long maxSize = 67108864L;
+        /**
+         * 允许缓存的最大文件大小，单位字节，默认64K
+         */
+        private int maxObjectSize = 65536;
+        /**
+         * 是否使用堆外内存保存缓存数据，默认不使用
+         */
+        private boolean direct = false;
+
+    }
+
+    @Data
+    public static class CoalesceProperties {
+        /**
+         * 是否合并同一文件的并发下载，默认关闭
+         */
+        private boolean enabled = false;
+        /**
+         * 下载临时文件目录，默认为系统临时目录下的storage-coalesce目录
+         */
+        private String path = System.getProperty("java.io.tmpdir") + "/storage-coalesce";
+        /**
+         * 从存储平台下载的线程数，默认16，线程都在使用时由请求线程下载
+         */
+        private int fetchThreads = 16;
 
     }
 
@@ -91,6 +548,38 @@ public class StorageProperties {
          * 归类
          */
         private Classify classify = Classify.non;
+        /**
+         * 连接超时时间，单位毫秒，默认5分钟
+         */
+        private long connectTimeout = 300000;
+        /**
+         * 读取超时时间，单位毫秒，默认5分钟
+         */
+        private long readTimeout = 300000;
+        /**
+         * 写入超时时间，单位毫秒，默认5分钟
+         */
+        private long writeTimeout = 300000;
+        /**
+         * 连接池最多保持的空闲连接数，默认64
+         */
+        private int maxIdleConnections = 64;
+        /**
+         * 空闲连接保持时间，单位毫秒，默认5分钟
+         */
+        private long keepAlive = 300000;
+        /**
+         * 同时执行的最大请求数，默认256
+         */
+        private int maxRequests = 256;
+        /**
+         * 每个地址同时执行的最大请求数，默认64（minio客户端的所有请求都是异步执行的，受该配置限制）
+         */
+        private int maxRequestsPerHost = 64;
+        /**
+         * 是否启用HTTP/2，默认不启用，只在https连接上生效
+         */
+        private boolean http2 = false;
 
     }
 
@@ -109,6 +598,66 @@ public class StorageProperties {
          * tracker服务配置地址列表
          */
         private List<String> trackerList = new ArrayList<>();
+        /**
+         * 连接池最大连接数（所有服务器合计），默认-1，不限制
+         */
+        private int maxTotal = -1;
+        /**
+         * 每个服务器（tracker或storage）的最大连接数，默认50
+         */
+        private int maxTotalPerKey = 50;
+        /**
+         * 文件流超过该时间未读取时结束下载并归还连接，单位毫秒，默认60000，小于等于0时不限制
+         */
+        private long downloadWriteTimeout = 60000;
+        /**
+         * 每个服务器的最大空闲连接数，默认10
+         */
+        private int maxIdlePerKey = 10;
+        /**
+         * 每个服务器的最小空闲连接数，空闲连接检测时补足，默认5
+         */
+        private int minIdlePerKey = 5;
+        /**
+         * 获取连接的最大等待时间，单位毫秒，默认5000
+         */
+        private long maxWaitMillis = 5000;
+        /**
+         * 获取连接时是否检测连接可用（发送active test），默认true
+         */
+        private boolean testOnBorrow = true;
+        /**
+         * 是否检测空闲连接可用，默认false
+         */
+        private boolean testWhileIdle = false;
+        /**
+         * 空闲连接检测间隔，单位毫秒，默认60000，小于等于0时不检测
+         */
+        private long timeBetweenEvictionRuns = 60000;
+        /**
+         * 连接空闲多久后可以被回收，单位毫秒，默认1800000
+         */
+        private long minEvictableIdleTime = 1800000;
+        /**
+         * 启动时是否预先建立到tracker和storage的连接，默认false
+         */
+        private boolean warmUp = false;
+        /**
+         * 预先建立的每个服务器的连接数，默认为minIdlePerKey，最少1个
+         */
+        private int warmUpConnections = 0;
+        /**
+         * 是否按响应时间选择tracker，默认false
+         */
+        private boolean trackerLatencyAware = false;
+        /**
+         * tracker响应时间检测间隔，单位毫秒，默认30000，小于等于0时只在启动时检测一次
+         */
+        private long trackerProbeInterval = 30000;
+        /**
+         * tracker响应时间超过最快的tracker多少毫秒时视为慢tracker，不再使用，默认50
+         */
+        private long trackerLatencyTolerance = 50;
     }
 
     @Data
@@ -138,6 +687,35 @@ public class StorageProperties {
          * 归类
          */
         private Classify classify = Classify.non;
+        /**
+         * 最大连接数，默认1024
+         */
+        private int maxConnections = 1024;
+        /**
+         * 建立连接的超时时间，单位毫秒，默认50秒
+         */
+        private int connectionTimeout = 50000;
+        /**
+         * 读取数据的超时时间，单位毫秒，默认50秒
+         */
+        private int socketTimeout = 50000;
+        /**
+         * 空闲连接超过该时间后关闭，单位毫秒，默认60秒
+         */
+        private long idleConnectionTime = 60000;
+        /**
+         * 请求失败后的最大重试次数，默认3
+         */
+        private int maxErrorRetry = 3;
+        /**
+         * 是否开启CRC校验，默认开启，每次上传、下载都会计算CRC64
+         */
+        private boolean crcCheckEnabled = true;
+        /**
+         * 是否校验上传文件的MD5值，默认关闭
+         * 使用上传时已计算的MD5值与OSS返回的ETag比较，关闭CRC校验时可以开启该校验代替
+         */
+        private boolean md5CheckEnabled = false;
 
     }
 
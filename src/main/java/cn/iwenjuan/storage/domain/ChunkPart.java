@@ -0,0 +1,32 @@
+package cn.iwenjuan.storage.domain;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.experimental.Accessors;
+
+import java.io.Serializable;
+
+/**
+ * @author li1244
+ * @date 2023/4/10 9:41
+ */
+@Data
+@Accessors(chain = true)
+@NoArgsConstructor
+public class ChunkPart implements Serializable {
+
+    private static final long serialVersionUID = -1830275066318427703L;
+
+    /**
+     * 分片序号，从1开始
+     */
+    private int partNumber;
+    /**
+     * 分片大小
+     */
+    private long partSize;
+    /**
+     * 存储平台返回的分片标识，本地存储和fastdfs为空
+     */
+    private String etag;
+}
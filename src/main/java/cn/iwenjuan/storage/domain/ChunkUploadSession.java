@@ -0,0 +1,74 @@
+package cn.iwenjuan.storage.domain;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.experimental.Accessors;
+
+import java.io.Serializable;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * @author li1244
+ * @date 2023/4/10 9:35
+ */
+@Data
+@Accessors(chain = true)
+@NoArgsConstructor
+public class ChunkUploadSession implements Serializable {
+
+    private static final long serialVersionUID = 4520843302779211845L;
+
+    /**
+     * 分片上传任务ID
+     */
+    private String uploadId;
+    /**
+     * 存储平台
+     */
+    private String platform;
+    /**
+     * 原始文件名称
+     */
+    private String fileName;
+    /**
+     * 文件大小
+     */
+    private long fileSize;
+    /**
+     * 分片大小，最后一个分片可以小于该值
+     */
+    private long chunkSize;
+    /**
+     * 分片数量
+     */
+    private int chunkCount;
+    /**
+     * 文件唯一标识，默认为文件的MD5值，可以为空
+     */
+    private String uid;
+    /**
+     * 上传文件路径，fastdfs在上传完成后才能确定
+     */
+    private String fileUrl;
+    /**
+     * 上传路径
+     */
+    private String path;
+    /**
+     * 存储平台的分片上传ID（minio、阿里云OSS、七牛云）
+     */
+    private String multipartUploadId;
+    /**
+     * 文件已存在，无需上传分片，直接完成上传即可
+     */
+    private boolean exists;
+    /**
+     * 已上传的分片，仅查询时返回
+     */
+    private List<ChunkPart> parts;
+    /**
+     * 创建时间
+     */
+    private Date createTime;
+}
@@ -0,0 +1,42 @@
+package cn.iwenjuan.storage.domain;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.experimental.Accessors;
+
+import java.io.Serializable;
+
+/**
+ * 批量删除中单个文件的删除结果
+ *
+ * @author li1244
+ * @date 2023/4/21 09:40
+ */
+@Data
+@Accessors(chain = true)
+@NoArgsConstructor
+public class DeleteResponse implements Serializable {
+
+    private static final long serialVersionUID = -3405527318866290417L;
+
+    /**
+     * 文件路径
+     */
+    private String objectName;
+    /**
+     * 是否删除成功，文件不存在时视为删除成功
+     */
+    private boolean success;
+    /**
+     * 删除失败的原因
+     */
+    private String errorMessage;
+
+    public static DeleteResponse success(String objectName) {
+        return new DeleteResponse().setObjectName(objectName).setSuccess(true);
+    }
+
+    public static DeleteResponse failure(String objectName, String errorMessage) {
+        return new DeleteResponse().setObjectName(objectName).setSuccess(false).setErrorMessage(errorMessage);
+    }
+}
@@ -0,0 +1,37 @@
+package cn.iwenjuan.storage.domain;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.experimental.Accessors;
+
+import java.io.Serializable;
+import java.util.Date;
+
+/**
+ * @author li1244
+ * @date 2023/4/6 10:12
+ */
+@Data
+@Accessors(chain = true)
+@NoArgsConstructor
+public class ObjectStat implements Serializable {
+
+    private static final long serialVersionUID = -3056297411432907218L;
+
+    /**
+     * 文件路径
+     */
+    private String objectName;
+    /**
+     * 文件大小
+     */
+    private long fileSize;
+    /**
+     * 最后修改时间
+     */
+    private Date lastModified;
+    /**
+     * 存储平台返回的文件标识（ETag、hash、crc32等），本地存储为空
+     */
+    private String etag;
+}
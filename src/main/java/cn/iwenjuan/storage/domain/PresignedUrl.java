@@ -0,0 +1,44 @@
+package cn.iwenjuan.storage.domain;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.experimental.Accessors;
+
+import java.io.Serializable;
+import java.util.Date;
+import java.util.Map;
+
+/**
+ * 预签名地址，客户端使用该地址直接上传或下载文件，文件内容不经过应用服务器
+ *
+ * @author li1244
+ * @date 2023/4/20 9:35
+ */
+@Data
+@Accessors(chain = true)
+@NoArgsConstructor
+public class PresignedUrl implements Serializable {
+
+    private static final long serialVersionUID = 2841907725340185113L;
+
+    /**
+     * 文件路径
+     */
+    private String objectName;
+    /**
+     * 请求地址
+     */
+    private String url;
+    /**
+     * 请求方法，上传为PUT（七牛云为POST表单上传），下载为GET
+     */
+    private String method;
+    /**
+     * 表单上传时需要附带的表单字段（七牛云），文件内容使用file字段
+     */
+    private Map<String, String> formData;
+    /**
+     * 过期时间
+     */
+    private Date expireTime;
+}
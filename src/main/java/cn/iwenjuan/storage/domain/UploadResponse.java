@@ -46,4 +46,8 @@ public class UploadResponse implements Serializable {
      * 上传时间
      */
     private Date uploadTime;
+    /**
+     * 文件已上传过（MD5值相同），本次上传没有保存新文件
+     */
+    private boolean deduplicated;
 }
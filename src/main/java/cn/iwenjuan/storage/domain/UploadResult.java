@@ -0,0 +1,46 @@
+package cn.iwenjuan.storage.domain;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.experimental.Accessors;
+
+import java.io.Serializable;
+
+/**
+ * 批量上传中单个文件的上传结果
+ *
+ * @author li1244
+ * @date 2023/4/21 15:10
+ */
+@Data
+@Accessors(chain = true)
+@NoArgsConstructor
+public class UploadResult implements Serializable {
+
+    private static final long serialVersionUID = 8172956403718294651L;
+
+    /**
+     * 原始文件名称
+     */
+    private String fileName;
+    /**
+     * 是否上传成功
+     */
+    private boolean success;
+    /**
+     * 上传成功时的上传结果
+     */
+    private UploadResponse response;
+    /**
+     * 上传失败的原因
+     */
+    private String errorMessage;
+
+    public static UploadResult success(UploadResponse response) {
+        return new UploadResult().setFileName(response.getFileName()).setSuccess(true).setResponse(response);
+    }
+
+    public static UploadResult failure(String fileName, String errorMessage) {
+        return new UploadResult().setFileName(fileName).setSuccess(false).setErrorMessage(errorMessage);
+    }
+}
@@ -15,4 +15,8 @@ public class BaseException extends RuntimeException {
         this.code = code;
         this.message = message;
     }
+
+    public int getCode() {
+        return code;
+    }
 }
@@ -18,7 +18,27 @@ public enum StorageErrorCode {
 
     FILE_DOWNLOAD_ERROR(107006, "文件下载异常"),
 
-    CONFIG_ERROR(107007, "配置异常");
+    CONFIG_ERROR(107007, "配置异常"),
+
+    OPERATION_NOT_SUPPORTED(107008, "存储平台不支持该操作"),
+
+    FILE_STAT_ERROR(107009, "获取文件信息异常"),
+
+    CHUNK_SESSION_NOT_EXIST(107010, "分片上传任务不存在"),
+
+    CHUNK_IS_INVALID(107011, "分片序号或分片大小不正确"),
+
+    CHUNK_IS_INCOMPLETE(107012, "分片未全部上传"),
+
+    ASYNC_QUEUE_IS_FULL(107013, "异步任务队列已满"),
+
+    FILE_RANGE_IS_INVALID(107014, "文件下载范围不正确"),
+
+    PRESIGN_ERROR(107015, "生成预签名地址异常"),
+
+    PRESIGNED_URL_IS_INVALID(107016, "预签名地址无效或已过期"),
+
+    DELETE_ERROR(107017, "删除文件异常");
 
     private int code;
 
@@ -0,0 +1,154 @@
+package cn.iwenjuan.storage.presign;
+
+import cn.iwenjuan.storage.config.StorageProperties;
+import cn.iwenjuan.storage.domain.PresignedUrl;
+import cn.iwenjuan.storage.exception.StorageException;
+import cn.iwenjuan.storage.exception.enums.StorageErrorCode;
+import cn.iwenjuan.storage.utils.IdUtils;
+import cn.iwenjuan.storage.utils.Md5Utils;
+import cn.iwenjuan.storage.utils.StringUtils;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.Date;
+
+/**
+ * 本地存储的预签名地址签名和校验，使用HmacSHA256对请求方法、文件路径和过期时间签名
+ * 预签名地址指向应用中的接口，由接口校验签名后读写文件
+ *
+ * @author li1244
+ * @date 2023/4/20 11:05
+ */
+@Slf4j
+public class LocalUrlSigner {
+
+    public static final String PARAM_OBJECT_NAME = "objectName";
+
+    public static final String PARAM_EXPIRES = "expires";
+
+    public static final String PARAM_SIGNATURE = "signature";
+
+    private static final String HMAC_ALGORITHM = "HmacSHA256";
+
+    private final String presignUrl;
+
+    private final SecretKeySpec secretKey;
+
+    /**
+     * 本地存储路径，预签名地址只能读写该目录下的文件
+     */
+    private final Path rootPath;
+
+    public LocalUrlSigner(StorageProperties.LocalProperties localProperties) {
+        this.presignUrl = localProperties.getPresignUrl();
+        this.rootPath = Paths.get(localProperties.getPath()).toAbsolutePath().normalize();
+        String signKey = localProperties.getSignKey();
+        if (StringUtils.isBlank(signKey)) {
+            log.warn("未配置本地存储的预签名密钥，使用随机密钥，重启后已生成的预签名地址失效");
+            signKey = IdUtils.randomUUID();
+        }
+        this.secretKey = new SecretKeySpec(signKey.getBytes(StandardCharsets.UTF_8), HMAC_ALGORITHM);
+    }
+
+    /**
+     * 生成预签名地址
+     *
+     * @param method        请求方法
+     * @param objectName    文件路径
+     * @param ttl           有效期
+     * @return
+     */
+    public PresignedUrl presign(String method, String objectName, Duration ttl) {
+        if (StringUtils.isBlank(presignUrl)) {
+            log.error("未配置本地存储的预签名访问地址（spring.storage.local.presign-url），无法生成预签名地址");
+            throw new StorageException(StorageErrorCode.CONFIG_ERROR);
+        }
+        if (resolve(objectName) == null) {
+            log.error("【生成预签名地址异常】：objectName：{}，文件不在本地存储路径下", objectName);
+            throw new StorageException(StorageErrorCode.PRESIGN_ERROR);
+        }
+        long expires = System.currentTimeMillis() / 1000 + ttl.getSeconds();
+        String url;
+        try {
+            url = presignUrl.concat(presignUrl.contains("?") ? "&" : "?")
+                    .concat(PARAM_OBJECT_NAME).concat("=").concat(URLEncoder.encode(objectName, "UTF-8"))
+                    .concat("&").concat(PARAM_EXPIRES).concat("=").concat(String.valueOf(expires))
+                    .concat("&").concat(PARAM_SIGNATURE).concat("=").concat(sign(method, objectName, expires));
+        } catch (UnsupportedEncodingException e) {
+            throw new StorageException(StorageErrorCode.PRESIGN_ERROR);
+        }
+        return new PresignedUrl()
+                .setObjectName(objectName)
+                .setUrl(url)
+                .setMethod(method)
+                .setExpireTime(new Date(expires * 1000));
+    }
+
+    /**
+     * 校验预签名地址
+     *
+     * @param method        请求方法
+     * @param objectName    文件路径
+     * @param expires       过期时间（秒）
+     * @param signature     签名
+     * @return
+     */
+    public boolean verify(String method, String objectName, long expires, String signature) {
+        if (StringUtils.isBlank(objectName) || StringUtils.isBlank(signature)) {
+            return false;
+        }
+        if (expires < System.currentTimeMillis() / 1000) {
+            return false;
+        }
+        byte[] expected = sign(method, objectName, expires).getBytes(StandardCharsets.UTF_8);
+        return MessageDigest.isEqual(expected, signature.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 将文件路径解析为本地存储路径下的文件，路径规范化后不在本地存储路径下时返回null（如包含..或指向其他目录的绝对路径）
+     * 本地存储路径下以.开头的目录为分片、缓存、复制任务日志等内部目录，同样返回null
+     *
+     * @param objectName    文件路径
+     * @return
+     */
+    public Path resolve(String objectName) {
+        if (StringUtils.isBlank(objectName)) {
+            return null;
+        }
+        Path file;
+        try {
+            file = rootPath.resolve(objectName).toAbsolutePath().normalize();
+        } catch (InvalidPathException e) {
+            return null;
+        }
+        if (file.equals(rootPath) || !file.startsWith(rootPath)) {
+            return null;
+        }
+        if (rootPath.relativize(file).getName(0).toString().startsWith(".")) {
+            return null;
+        }
+        return file;
+    }
+
+    private String sign(String method, String objectName, long expires) {
+        try {
+            Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+            mac.init(secretKey);
+            String content = method.concat("\n").concat(objectName).concat("\n").concat(String.valueOf(expires));
+            return Md5Utils.toHex(mac.doFinal(content.getBytes(StandardCharsets.UTF_8)));
+        } catch (GeneralSecurityException e) {
+            log.error("【生成预签名异常】：objectName：{}，{}", objectName, e);
+            throw new StorageException(StorageErrorCode.PRESIGN_ERROR);
+        }
+    }
+}
@@ -0,0 +1,412 @@
+package cn.iwenjuan.storage.replication;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * 复制任务的预写日志（WAL），主存储平台上传成功后先写入日志再返回，复制完成前重启不会丢失复制任务
+ * 日志按序号分为多个文件，只追加写入：创建任务时写入任务记录，复制到一个副本存储平台后写入完成记录，
+ * 启动时按顺序重放所有文件得到未完成的任务；最早的文件中的任务全部完成后删除该文件
+ * 每条记录的格式为：长度(int) + CRC32(int) + 类型(byte) + 内容，进程崩溃导致的末尾不完整记录在重放时截断。非线程安全的方法由本类加锁
+ * 开启刷盘时任务记录在锁内写入、在锁外组提交：一个线程刷盘时到达的写入等待下一次刷盘，一次刷盘覆盖所有已写入的记录，上传吞吐量不受单次刷盘耗时限制
+ *
+ * @author li1244
+ * @date 2023/4/27 10:40
+ */
+@Slf4j
+public class ReplicationLog implements Closeable {
+
+    private static final String SEGMENT_PREFIX = "wal-";
+
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private static final byte TYPE_RECORD = 1;
+
+    private static final byte TYPE_COMPLETE = 2;
+
+    private static final int HEADER_SIZE = 8;
+
+    /**
+     * 单条记录的长度上限，超过时视为记录已损坏
+     */
+    private static final int MAX_RECORD_SIZE = 1 << 20;
+
+    private final Path path;
+
+    private final long segmentSize;
+
+    private final boolean sync;
+
+    /**
+     * 每个日志文件中未完成的复制数（任务数 × 未完成的副本存储平台数）
+     */
+    private final TreeMap<Long, Integer> pendingCounts = new TreeMap<>();
+
+    private FileChannel channel;
+
+    private long activeSegment;
+
+    private long nextId = 1;
+
+    /**
+     * 已写入的记录批次序号，由本类的锁保护
+     */
+    private long writtenSequence;
+
+    /**
+     * 已刷盘的记录批次序号，由syncLock保护
+     */
+    private long syncedSequence;
+
+    private final Object syncLock = new Object();
+
+    /**
+     * @param path          日志目录
+     * @param segmentSize   单个日志文件的大小上限，超过后写入新文件
+     * @param sync          每次写入后是否刷盘（fsync），关闭时进程崩溃不会丢失任务，但机器断电可能丢失最近写入的任务
+     */
+    public ReplicationLog(String path, long segmentSize, boolean sync) {
+        this.path = Paths.get(path);
+        this.segmentSize = segmentSize;
+        this.sync = sync;
+    }
+
+    /**
+     * 获取日志目录
+     *
+     * @return
+     */
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * 获取日志文件个数
+     *
+     * @return
+     */
+    public synchronized int getSegmentCount() {
+        return pendingCounts.size();
+    }
+
+    /**
+     * 重放日志，返回未完成的任务，并打开新的日志文件用于写入；只能调用一次
+     *
+     * @return 未完成的任务，targets为未完成复制的副本存储平台
+     * @throws IOException
+     */
+    public synchronized List<ReplicationRecord> recover() throws IOException {
+        if (channel != null) {
+            throw new IllegalStateException("replication log is already open");
+        }
+        Files.createDirectories(path);
+        List<Long> segments = listSegments();
+        Map<Long, ReplicationRecord> records = new LinkedHashMap<>();
+        for (int i = 0; i < segments.size(); i++) {
+            replay(segments.get(i), i == segments.size() - 1, records);
+            pendingCounts.put(segments.get(i), 0);
+        }
+        List<ReplicationRecord> pending = new ArrayList<>(records.values());
+        for (ReplicationRecord record : pending) {
+            pendingCounts.merge(record.getSegment(), record.getTargets().size(), Integer::sum);
+        }
+        activeSegment = segments.isEmpty() ? 1 : segments.get(segments.size() - 1) + 1;
+        openSegment();
+        deleteCompletedSegments();
+        log.info("【复制任务日志】：path：{}，segments：{}，pending：{}", path, segments.size(), pending.size());
+        return pending;
+    }
+
+    /**
+     * 为任务分配ID并写入任务记录，开启刷盘时等待记录刷盘后返回；写入失败时任务仍有ID，但不属于任何日志文件（segment为0）
+     *
+     * @param record
+     * @throws IOException
+     */
+    public void append(ReplicationRecord record) throws IOException {
+        long sequence;
+        synchronized (this) {
+            record.setId(nextId++).setSegment(0);
+            ensureOpen();
+            if (channel.size() >= segmentSize) {
+                rotate();
+            }
+            write(encodeRecord(record), false);
+            record.setSegment(activeSegment);
+            pendingCounts.merge(activeSegment, record.getTargets().size(), Integer::sum);
+            sequence = ++writtenSequence;
+        }
+        if (sync) {
+            awaitSync(sequence);
+        }
+    }
+
+    /**
+     * 等待指定批次的记录刷盘：已有线程在刷盘时等待其完成，完成后仍未覆盖时由当前线程刷盘，一次刷盘覆盖此前所有已写入的记录
+     *
+     * @param sequence
+     * @throws IOException
+     */
+    private void awaitSync(long sequence) throws IOException {
+        synchronized (syncLock) {
+            if (syncedSequence >= sequence) {
+                return;
+            }
+            long target;
+            FileChannel current;
+            synchronized (this) {
+                target = writtenSequence;
+                current = channel;
+            }
+            try {
+                if (current != null) {
+                    current.force(false);
+                }
+            } catch (ClosedChannelException e) {
+                // 日志文件已切换或已关闭，关闭前已刷盘
+            }
+            syncedSequence = target;
+        }
+    }
+
+    /**
+     * 批量写入完成记录（一次写入、一次刷盘），并删除任务已全部完成的日志文件
+     *
+     * @param tasks     已完成或已放弃的复制
+     * @throws IOException
+     */
+    public synchronized void complete(Collection<ReplicationTask> tasks) throws IOException {
+        if (tasks.isEmpty()) {
+            return;
+        }
+        ensureOpen();
+        if (channel.size() >= segmentSize) {
+            rotate();
+        }
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        for (ReplicationTask task : tasks) {
+            // 未写入日志的任务无需写入完成记录
+            if (task.getRecord().getSegment() > 0) {
+                buffer.write(encodeComplete(task));
+            }
+        }
+        if (buffer.size() == 0) {
+            return;
+        }
+        write(buffer.toByteArray(), sync);
+        for (ReplicationTask task : tasks) {
+            pendingCounts.computeIfPresent(task.getRecord().getSegment(), (segment, count) -> count - 1);
+        }
+        deleteCompletedSegments();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (channel != null) {
+            channel.force(false);
+            channel.close();
+            channel = null;
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (channel == null) {
+            throw new IOException("replication log is not open: " + path);
+        }
+    }
+
+    private void rotate() throws IOException {
+        close();
+        activeSegment++;
+        openSegment();
+        deleteCompletedSegments();
+    }
+
+    private void openSegment() throws IOException {
+        channel = FileChannel.open(segmentPath(activeSegment), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        pendingCounts.putIfAbsent(activeSegment, 0);
+    }
+
+    /**
+     * 从最早的文件开始删除任务已全部完成的文件，后面文件中的完成记录可能对应前面文件中的任务，所以不能跳过未完成的文件删除
+     */
+    private void deleteCompletedSegments() {
+        while (!pendingCounts.isEmpty()) {
+            Map.Entry<Long, Integer> first = pendingCounts.firstEntry();
+            if (first.getKey() == activeSegment || first.getValue() > 0) {
+                return;
+            }
+            try {
+                Files.deleteIfExists(segmentPath(first.getKey()));
+            } catch (IOException e) {
+                log.error("【删除复制任务日志异常】：segment：{}，{}", first.getKey(), e);
+                return;
+            }
+            pendingCounts.pollFirstEntry();
+        }
+    }
+
+    private void write(byte[] bytes, boolean force) throws IOException {
+        long position = channel.size();
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            if (force) {
+                channel.force(false);
+            }
+        } catch (IOException e) {
+            // 去掉写入了一部分的记录，避免后续记录在重放时被忽略
+            try {
+                channel.truncate(position);
+            } catch (IOException ignored) {
+            }
+            throw e;
+        }
+    }
+
+    private List<Long> listSegments() throws IOException {
+        List<Long> segments = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(path, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path file : stream) {
+                String name = file.getFileName().toString();
+                try {
+                    segments.add(Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())));
+                } catch (NumberFormatException e) {
+                    log.warn("【忽略无法识别的复制任务日志】：file：{}", file);
+                }
+            }
+        }
+        Collections.sort(segments);
+        return segments;
+    }
+
+    private Path segmentPath(long segment) {
+        return path.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, segment, SEGMENT_SUFFIX));
+    }
+
+    /**
+     * 重放一个日志文件，遇到不完整或已损坏的记录时停止，最后一个文件从该位置截断
+     */
+    private void replay(long segment, boolean last, Map<Long, ReplicationRecord> records) throws IOException {
+        Path file = segmentPath(segment);
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long size = in.size();
+            long position = 0;
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while (position + HEADER_SIZE <= size) {
+                header.clear();
+                readFully(in, header, position);
+                header.flip();
+                int length = header.getInt();
+                int checksum = header.getInt();
+                if (length <= 0 || length > MAX_RECORD_SIZE || position + HEADER_SIZE + length > size) {
+                    break;
+                }
+                ByteBuffer body = ByteBuffer.allocate(length);
+                readFully(in, body, position + HEADER_SIZE);
+                CRC32 crc = new CRC32();
+                crc.update(body.array(), 0, length);
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+                apply(segment, body.array(), records);
+                position += HEADER_SIZE + length;
+            }
+            if (position < size) {
+                if (last) {
+                    log.warn("【复制任务日志末尾记录不完整，已截断】：file：{}，position：{}，size：{}", file, position, size);
+                    in.truncate(position);
+                } else {
+                    log.error("【复制任务日志已损坏，忽略后续记录】：file：{}，position：{}，size：{}", file, position, size);
+                }
+            }
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new EOFException();
+            }
+            position += read;
+        }
+    }
+
+    private void apply(long segment, byte[] body, Map<Long, ReplicationRecord> records) throws IOException {
+        DataInputStream data = new DataInputStream(new ByteArrayInputStream(body));
+        byte type = data.readByte();
+        if (type == TYPE_RECORD) {
+            ReplicationRecord record = new ReplicationRecord()
+                    .setId(data.readLong())
+                    .setSegment(segment)
+                    .setCreateTime(data.readLong())
+                    .setObjectName(data.readUTF())
+                    .setFileName(data.readBoolean() ? data.readUTF() : null)
+                    .setUid(data.readUTF())
+                    .setFileSize(data.readLong());
+            int targets = data.readUnsignedShort();
+            for (int i = 0; i < targets; i++) {
+                record.getTargets().add(data.readUTF());
+            }
+            records.put(record.getId(), record);
+            nextId = Math.max(nextId, record.getId() + 1);
+        } else if (type == TYPE_COMPLETE) {
+            long id = data.readLong();
+            String target = data.readUTF();
+            // 任务所在的文件已删除时找不到任务
+            ReplicationRecord record = records.get(id);
+            if (record != null && record.getTargets().remove(target) && record.getTargets().isEmpty()) {
+                records.remove(id);
+            }
+        }
+    }
+
+    private static byte[] encodeRecord(ReplicationRecord record) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(bytes);
+        data.writeByte(TYPE_RECORD);
+        data.writeLong(record.getId());
+        data.writeLong(record.getCreateTime());
+        data.writeUTF(record.getObjectName());
+        data.writeBoolean(record.getFileName() != null);
+        if (record.getFileName() != null) {
+            data.writeUTF(record.getFileName());
+        }
+        data.writeUTF(record.getUid());
+        data.writeLong(record.getFileSize());
+        data.writeShort(record.getTargets().size());
+        for (String target : record.getTargets()) {
+            data.writeUTF(target);
+        }
+        return frame(bytes.toByteArray());
+    }
+
+    private static byte[] encodeComplete(ReplicationTask task) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(bytes);
+        data.writeByte(TYPE_COMPLETE);
+        data.writeLong(task.getRecord().getId());
+        data.writeUTF(task.getTarget());
+        return frame(bytes.toByteArray());
+    }
+
+    private static byte[] frame(byte[] body) {
+        CRC32 crc = new CRC32();
+        crc.update(body, 0, body.length);
+        return ByteBuffer.allocate(HEADER_SIZE + body.length)
+                .putInt(body.length)
+                .putInt((int) crc.getValue())
+                .put(body)
+                .array();
+    }
+}
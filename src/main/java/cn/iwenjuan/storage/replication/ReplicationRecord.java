@@ -0,0 +1,53 @@
+package cn.iwenjuan.storage.replication;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.experimental.Accessors;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 复制任务，一个文件上传成功后生成一个任务，复制到所有副本存储平台后完成
+ *
+ * @author li1244
+ * @date 2023/4/27 10:05
+ */
+@Data
+@Accessors(chain = true)
+@NoArgsConstructor
+public class ReplicationRecord {
+
+    /**
+     * 任务ID，按写入顺序递增
+     */
+    private long id;
+    /**
+     * 任务所在的WAL文件序号
+     */
+    private long segment;
+    /**
+     * 任务创建时间（主存储平台上传完成的时间），单位毫秒
+     */
+    private long createTime;
+    /**
+     * 主存储平台的文件地址
+     */
+    private String objectName;
+    /**
+     * 原始文件名称
+     */
+    private String fileName;
+    /**
+     * 副本使用的文件唯一标识，与主存储平台的文件名相同，重试时不会重复保存
+     */
+    private String uid;
+    /**
+     * 文件大小
+     */
+    private long fileSize;
+    /**
+     * 未完成复制的副本存储平台
+     */
+    private List<String> targets = new ArrayList<>();
+}
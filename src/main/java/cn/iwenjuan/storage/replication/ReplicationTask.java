@@ -0,0 +1,74 @@
+package cn.iwenjuan.storage.replication;
+
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 将一个文件复制到一个副本存储平台的任务，失败后按重试时间放回延迟队列
+ *
+ * @author li1244
+ * @date 2023/4/27 10:20
+ */
+public class ReplicationTask implements Delayed {
+
+    private final ReplicationRecord record;
+
+    private final String target;
+
+    private int attempts;
+
+    private long nextAttemptTime;
+
+    /**
+     * @param record    复制任务
+     * @param target    副本存储平台
+     */
+    public ReplicationTask(ReplicationRecord record, String target) {
+        this.record = record;
+        this.target = target;
+        this.nextAttemptTime = System.nanoTime();
+    }
+
+    public ReplicationRecord getRecord() {
+        return record;
+    }
+
+    public String getTarget() {
+        return target;
+    }
+
+    /**
+     * 获取已失败的次数
+     *
+     * @return
+     */
+    public int getAttempts() {
+        return attempts;
+    }
+
+    /**
+     * 记录一次失败，并在指定时间后重试
+     *
+     * @param delay     重试等待时间，单位毫秒
+     */
+    public void retryAfter(long delay) {
+        attempts++;
+        nextAttemptTime = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay);
+    }
+
+    @Override
+    public long getDelay(TimeUnit unit) {
+        return unit.convert(nextAttemptTime - System.nanoTime(), TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public int compareTo(Delayed other) {
+        if (other instanceof ReplicationTask) {
+            ReplicationTask task = (ReplicationTask) other;
+            int compare = Long.compare(nextAttemptTime - task.nextAttemptTime, 0);
+            // 同时到期的任务按创建顺序执行
+            return compare != 0 ? compare : Long.compare(record.getId(), task.record.getId());
+        }
+        return Long.compare(getDelay(TimeUnit.NANOSECONDS), other.getDelay(TimeUnit.NANOSECONDS));
+    }
+}
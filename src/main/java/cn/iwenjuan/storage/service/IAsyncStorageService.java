@@ -0,0 +1,102 @@
+package cn.iwenjuan.storage.service;
+
+import cn.iwenjuan.storage.domain.UploadResponse;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 异步存储服务，文件传输在独立的线程池中执行，不占用调用线程
+ *
+ * @author li1244
+ * @date 2023/4/13 10:12
+ */
+public interface IAsyncStorageService {
+
+    /**
+     * 异步文件上传
+     * 注意：请求结束后MultipartFile的临时文件会被删除，controller中需要直接返回CompletableFuture或等待上传完成
+     *
+     * @param multipartFile
+     * @return
+     */
+    CompletableFuture<UploadResponse> uploadAsync(MultipartFile multipartFile);
+
+    /**
+     * 异步文件上传
+     *
+     * @param multipartFile
+     * @param uid
+     * @return
+     */
+    CompletableFuture<UploadResponse> uploadAsync(MultipartFile multipartFile, String uid);
+
+    /**
+     * 异步文件上传
+     *
+     * @param file
+     * @return
+     */
+    CompletableFuture<UploadResponse> uploadAsync(File file);
+
+    /**
+     * 异步文件上传
+     *
+     * @param file
+     * @param uid
+     * @return
+     */
+    CompletableFuture<UploadResponse> uploadAsync(File file, String uid);
+
+    /**
+     * 异步文件上传
+     *
+     * @param inputStream
+     * @param originalFilename
+     * @param uid
+     * @param fileSize
+     * @return
+     */
+    CompletableFuture<UploadResponse> uploadAsync(InputStream inputStream, String originalFilename, String uid, long fileSize);
+
+    /**
+     * 异步文件下载
+     *
+     * @param outputStream
+     * @param objectName
+     * @return
+     */
+    CompletableFuture<Void> downloadAsync(OutputStream outputStream, String objectName);
+
+    /**
+     * 异步删除已上传文件
+     *
+     * @param objectName
+     * @return
+     */
+    CompletableFuture<Void> deleteAsync(String objectName);
+
+    /**
+     * 获取等待执行的任务数
+     *
+     * @return
+     */
+    int getQueueDepth();
+
+    /**
+     * 获取正在执行的任务数
+     *
+     * @return
+     */
+    int getActiveCount();
+
+    /**
+     * 获取被拒绝的任务数
+     *
+     * @return
+     */
+    long getRejectedCount();
+}
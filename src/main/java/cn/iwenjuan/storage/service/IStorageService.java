@@ -1,11 +1,22 @@
 package cn.iwenjuan.storage.service;
 
+import cn.iwenjuan.storage.domain.ChunkPart;
+import cn.iwenjuan.storage.domain.ChunkUploadSession;
+import cn.iwenjuan.storage.domain.DeleteResponse;
+import cn.iwenjuan.storage.domain.ObjectStat;
+import cn.iwenjuan.storage.domain.PresignedUrl;
 import cn.iwenjuan.storage.domain.UploadResponse;
+import cn.iwenjuan.storage.domain.UploadResult;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.File;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
 
 /**
  * @author li1244
@@ -59,6 +70,66 @@ public interface IStorageService {
      */
     UploadResponse upload(InputStream inputStream, String originalFilename, String uid, long fileSize) throws Exception;
 
+    /**
+     * 批量上传，多个文件并发上传，同时上传的文件数和文件总大小受配置限制
+     *
+     * @param multipartFiles
+     * @return 每个文件的上传结果，与传入的顺序一致，单个文件上传失败不影响其他文件
+     */
+    List<UploadResult> uploadAll(List<MultipartFile> multipartFiles);
+
+    /**
+     * 批量上传本地文件，多个文件并发上传，同时上传的文件数和文件总大小受配置限制
+     *
+     * @param paths
+     * @return 每个文件的上传结果，与传入的顺序一致，单个文件上传失败不影响其他文件
+     */
+    List<UploadResult> uploadAllPaths(List<Path> paths);
+
+    /**
+     * 初始化分片上传任务
+     *
+     * @param originalFilename
+     * @param fileSize
+     * @param uid               文件唯一标识，可以为空，不为空且文件已存在时无需再上传分片
+     * @return
+     */
+    ChunkUploadSession initChunkUpload(String originalFilename, long fileSize, String uid);
+
+    /**
+     * 上传分片，分片可以乱序、并发上传，重复上传同一分片会覆盖之前的分片
+     *
+     * @param uploadId
+     * @param partNumber    分片序号，从1开始
+     * @param inputStream
+     * @param partSize
+     * @return
+     */
+    ChunkPart uploadChunk(String uploadId, int partNumber, InputStream inputStream, long partSize);
+
+    /**
+     * 查询分片上传任务及已上传的分片，用于断点续传
+     *
+     * @param uploadId
+     * @return
+     */
+    ChunkUploadSession getChunkUpload(String uploadId);
+
+    /**
+     * 完成分片上传，合并所有分片
+     *
+     * @param uploadId
+     * @return
+     */
+    UploadResponse completeChunkUpload(String uploadId);
+
+    /**
+     * 取消分片上传，删除已上传的分片
+     *
+     * @param uploadId
+     */
+    void abortChunkUpload(String uploadId);
+
     /**
      * 判断文件是否允许上传
      *
@@ -75,6 +146,22 @@ public interface IStorageService {
      */
     boolean exceedMaxSize(long fileSize);
 
+    /**
+     * 判断文件是否存在
+     *
+     * @param objectName
+     * @return
+     */
+    boolean exists(String objectName);
+
+    /**
+     * 获取文件信息
+     *
+     * @param objectName
+     * @return 文件不存在时返回null
+     */
+    ObjectStat stat(String objectName);
+
     /**
      * 文件下载
      *
@@ -83,10 +170,62 @@ public interface IStorageService {
      */
     void download(OutputStream outputStream, String objectName);
 
+    /**
+     * 文件下载，只下载指定范围的内容，用于断点续传、视频拖动播放等场景
+     *
+     * @param outputStream
+     * @param objectName
+     * @param offset        起始位置
+     * @param length        下载长度，小于0时下载到文件末尾
+     */
+    void download(OutputStream outputStream, String objectName, long offset, long length);
+
+    /**
+     * 文件下载到通道，通道需要为阻塞模式
+     *
+     * @param channel
+     * @param objectName
+     */
+    void download(WritableByteChannel channel, String objectName);
+
+    /**
+     * 文件下载到本地文件，目标文件已存在时覆盖
+     *
+     * @param target
+     * @param objectName
+     */
+    void download(Path target, String objectName);
+
+    /**
+     * 生成预签名上传地址，客户端使用该地址直接上传文件到存储平台
+     *
+     * @param objectName    文件路径
+     * @param ttl           有效期
+     * @return
+     */
+    PresignedUrl presignUpload(String objectName, Duration ttl);
+
+    /**
+     * 生成预签名下载地址，客户端使用该地址直接从存储平台下载文件
+     *
+     * @param objectName    文件路径
+     * @param ttl           有效期
+     * @return
+     */
+    PresignedUrl presignDownload(String objectName, Duration ttl);
+
     /**
      * 删除已上传文件
      *
      * @param objectName
      */
     void delete(String objectName);
+
+    /**
+     * 批量删除已上传文件，使用存储平台的批量删除接口，文件不存在时视为删除成功
+     *
+     * @param objectNames
+     * @return 每个文件的删除结果，与传入的顺序一致
+     */
+    List<DeleteResponse> deleteAll(Collection<String> objectNames);
 }
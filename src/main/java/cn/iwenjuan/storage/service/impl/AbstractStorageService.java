@@ -1,48 +1,275 @@
 package cn.iwenjuan.storage.service.impl;
 
+import cn.iwenjuan.storage.cache.PresignedUrlCache;
+import cn.iwenjuan.storage.chunk.FileChunkSessionStore;
+import cn.iwenjuan.storage.chunk.IChunkSessionStore;
 import cn.iwenjuan.storage.config.StorageProperties;
+import cn.iwenjuan.storage.domain.ChunkPart;
+import cn.iwenjuan.storage.domain.ChunkUploadSession;
+import cn.iwenjuan.storage.domain.DeleteResponse;
+import cn.iwenjuan.storage.domain.PresignedUrl;
 import cn.iwenjuan.storage.domain.UploadResponse;
+import cn.iwenjuan.storage.domain.UploadResult;
 import cn.iwenjuan.storage.exception.FileDownloadException;
 import cn.iwenjuan.storage.exception.FileUploadException;
+import cn.iwenjuan.storage.exception.StorageException;
 import cn.iwenjuan.storage.exception.enums.StorageErrorCode;
 import cn.iwenjuan.storage.service.IStorageService;
+import cn.iwenjuan.storage.utils.DateUtils;
+import cn.iwenjuan.storage.utils.ExecutorUtils;
+import cn.iwenjuan.storage.utils.FileChannelInputStream;
 import cn.iwenjuan.storage.utils.IdUtils;
+import cn.iwenjuan.storage.utils.InFlightBytesLimiter;
 import cn.iwenjuan.storage.utils.Md5Utils;
 import cn.iwenjuan.storage.utils.StringUtils;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
 
 /**
  * @author li1244
  * @date 2023/3/21 10:25
  */
 @Slf4j
-public abstract class AbstractStorageService implements IStorageService {
+public abstract class AbstractStorageService implements IStorageService, DisposableBean {
 
     protected static final String SLASH = "/";
 
+    /**
+     * 临时文件名前缀，边上传边计算MD5时使用
+     */
+    protected static final String TEMP_UID_PREFIX = "tmp_";
+
+    /**
+     * 分片临时文件目录
+     */
+    protected static final String CHUNK_PARTS_DIR = "parts";
+
+    /**
+     * 对象存储允许的最大分片数
+     */
+    protected static final int MAX_PART_COUNT = 10000;
+
+    /**
+     * 对象存储单次批量删除允许的最大文件数
+     */
+    protected static final int MAX_DELETE_BATCH_SIZE = 1000;
+
+    /**
+     * 最多缓存的预签名地址个数
+     */
+    private static final int PRESIGNED_URL_CACHE_SIZE = 10000;
+
+    /**
+     * 按位置读取文件计算MD5值时的缓冲区大小
+     */
+    private static final int DIGEST_BUFFER_SIZE = 64 * 1024;
+
     protected StorageProperties storageProperties;
 
+    private volatile IChunkSessionStore chunkSessionStore;
+
+    private volatile ExecutorService multipartExecutor;
+
+    private volatile ExecutorService batchExecutor;
+
+    private volatile ExecutorService uploadExecutor;
+
+    private volatile InFlightBytesLimiter inFlightBytesLimiter;
+
+    private volatile ScheduledExecutorService chunkCleanExecutor;
+
+    private final PresignedUrlCache presignedUrlCache = new PresignedUrlCache(PRESIGNED_URL_CACHE_SIZE);
+
     public AbstractStorageService(StorageProperties storageProperties) {
         this.storageProperties = storageProperties;
     }
 
+    public void setChunkSessionStore(IChunkSessionStore chunkSessionStore) {
+        this.chunkSessionStore = chunkSessionStore;
+    }
+
+    /**
+     * 获取分片上传任务存储，未设置时使用基于本地文件的存储
+     * @return
+     */
+    protected IChunkSessionStore getChunkSessionStore() {
+        if (chunkSessionStore == null) {
+            synchronized (this) {
+                if (chunkSessionStore == null) {
+                    chunkSessionStore = new FileChunkSessionStore(storageProperties.getChunkPath());
+                }
+            }
+        }
+        return chunkSessionStore;
+    }
+
+    public void setMultipartExecutor(ExecutorService multipartExecutor) {
+        this.multipartExecutor = multipartExecutor;
+    }
+
+    /**
+     * 获取并发分片上传线程池，未设置时按配置创建有界线程池
+     * @return
+     */
+    protected ExecutorService getMultipartExecutor() {
+        if (multipartExecutor == null) {
+            synchronized (this) {
+                if (multipartExecutor == null) {
+                    int maxThreads = Math.max(storageProperties.getMultipart().getMaxThreads(), 1);
+                    multipartExecutor = ExecutorUtils.newBoundedExecutor("storage-multipart-", maxThreads, maxThreads);
+                }
+            }
+        }
+        return multipartExecutor;
+    }
+
+    public void setBatchExecutor(ExecutorService batchExecutor) {
+        this.batchExecutor = batchExecutor;
+    }
+
+    /**
+     * 获取批量删除线程池，未设置时按配置创建有界线程池
+     * @return
+     */
+    protected ExecutorService getBatchExecutor() {
+        if (batchExecutor == null) {
+            synchronized (this) {
+                if (batchExecutor == null) {
+                    int concurrency = Math.max(storageProperties.getBatch().getConcurrency(), 1);
+                    batchExecutor = ExecutorUtils.newBoundedExecutor("storage-batch-", concurrency, concurrency);
+                }
+            }
+        }
+        return batchExecutor;
+    }
+
+    public void setUploadExecutor(ExecutorService uploadExecutor) {
+        this.uploadExecutor = uploadExecutor;
+    }
+
+    /**
+     * 获取批量上传线程池，未设置时按配置创建有界线程池
+     * @return
+     */
+    protected ExecutorService getUploadExecutor() {
+        if (uploadExecutor == null) {
+            synchronized (this) {
+                if (uploadExecutor == null) {
+                    int concurrency = Math.max(storageProperties.getBatch().getUploadConcurrency(), 1);
+                    uploadExecutor = ExecutorUtils.newBoundedExecutor("storage-upload-", concurrency, concurrency);
+                }
+            }
+        }
+        return uploadExecutor;
+    }
+
+    /**
+     * 获取批量上传的传输字节数限制，所有批量上传共用
+     * @return
+     */
+    protected InFlightBytesLimiter getInFlightBytesLimiter() {
+        if (inFlightBytesLimiter == null) {
+            synchronized (this) {
+                if (inFlightBytesLimiter == null) {
+                    inFlightBytesLimiter = new InFlightBytesLimiter(storageProperties.getBatch().getMaxInFlightSize());
+                }
+            }
+        }
+        return inFlightBytesLimiter;
+    }
+
+    /**
+     * 第一次初始化分片上传时启动过期分片上传任务的定时清理
+     */
+    protected void scheduleChunkClean() {
+        long interval = storageProperties.getChunk().getCleanInterval();
+        if (chunkCleanExecutor != null || interval <= 0 || storageProperties.getChunk().getExpire() <= 0) {
+            return;
+        }
+        synchronized (this) {
+            if (chunkCleanExecutor == null) {
+                ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(ExecutorUtils.newThreadFactory("storage-chunk-clean-"));
+                executor.scheduleWithFixedDelay(() -> {
+                    try {
+                        cleanExpiredChunkUploads();
+                    } catch (RuntimeException e) {
+                        // 异常会终止定时任务，记录后继续下一次清理
+                        log.error("【清理过期分片上传任务异常】：{}", e);
+                    }
+                }, interval, interval, TimeUnit.MILLISECONDS);
+                chunkCleanExecutor = executor;
+            }
+        }
+    }
+
+    /**
+     * 取消超过过期时间未更新的分片上传任务，删除存储平台上的分片和分片文件；只处理当前存储平台的任务
+     *
+     * @return 取消的任务个数
+     */
+    public int cleanExpiredChunkUploads() {
+        long expire = storageProperties.getChunk().getExpire();
+        if (expire <= 0) {
+            return 0;
+        }
+        int count = 0;
+        for (String uploadId : getChunkSessionStore().listExpired(System.currentTimeMillis() - expire)) {
+            ChunkUploadSession session = getChunkSessionStore().get(uploadId);
+            if (session == null || !getPlatformName().equals(session.getPlatform())) {
+                continue;
+            }
+            abortChunkUpload(uploadId);
+            log.info("【取消过期分片上传任务】：uploadId：{}，fileName：{}", uploadId, session.getFileName());
+            count++;
+        }
+        return count;
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        ExecutorUtils.shutdown(chunkCleanExecutor);
+        ExecutorUtils.shutdown(multipartExecutor);
+        ExecutorUtils.shutdown(batchExecutor);
+        ExecutorUtils.shutdown(uploadExecutor);
+    }
+
     @Override
     public UploadResponse upload(MultipartFile multipartFile) {
 
         if (multipartFile == null || multipartFile.isEmpty()) {
             throw new FileUploadException(StorageErrorCode.FILE_IS_EMPTY);
         }
-        String uid;
+        String originalFilename = multipartFile.getOriginalFilename();
         try {
-            uid = Md5Utils.md5(multipartFile.getInputStream());
-        } catch (IOException e) {
-            log.error("【文件上传异常】：originalFilename：{}，{}", multipartFile.getOriginalFilename(), e);
+            return uploadWithDigest(multipartFile.getInputStream(), originalFilename, multipartFile.getSize());
+        } catch (FileUploadException e) {
+            throw e;
+        } catch (Exception e) {
+            log.error("【文件上传异常】：originalFilename：{}，{}", originalFilename, e);
             throw new FileUploadException(StorageErrorCode.FILE_UPLOAD_ERROR_CODE);
         }
-        return upload(multipartFile, uid);
     }
 
     @Override
@@ -68,14 +295,14 @@ public abstract class AbstractStorageService implements IStorageService {
         if (file == null || !file.exists()) {
             throw new FileUploadException(StorageErrorCode.FILE_IS_EMPTY);
         }
-        String uid;
         try {
-            uid = Md5Utils.md5(new FileInputStream(file));
-        } catch (IOException e) {
+            return uploadWithDigest(new FileInputStream(file), file.getName(), file.length());
+        } catch (FileUploadException e) {
+            throw e;
+        } catch (Exception e) {
             log.error("【文件上传异常】：filename：{}，{}", file.getName(), e);
             throw new FileUploadException(StorageErrorCode.FILE_UPLOAD_ERROR_CODE);
         }
-        return upload(file, uid);
     }
 
     @Override
@@ -105,6 +332,377 @@ public abstract class AbstractStorageService implements IStorageService {
         return uploadForInputStream(inputStream, originalFilename, uid, fileSize);
     }
 
+    /**
+     * 文件上传，上传的同时计算文件MD5值，文件流只读取一次
+     * 先以临时文件名上传，上传完成后再根据MD5值将文件重命名为最终文件名
+     *
+     * @param inputStream
+     * @param originalFilename
+     * @param fileSize
+     * @return
+     * @throws Exception
+     */
+    protected UploadResponse uploadWithDigest(InputStream inputStream, String originalFilename, long fileSize) throws Exception {
+        try {
+            // 判断文件是否允许上传
+            allowedToUpload(originalFilename);
+            // 判断文件大小
+            exceedMaxSize(fileSize);
+
+            MessageDigest digest = Md5Utils.getDigest();
+            String tempUid = TEMP_UID_PREFIX.concat(IdUtils.randomUUID());
+            // 本地文件的文件流保留文件通道，并发分片上传时仍可以按位置读取
+            InputStream digestInputStream = inputStream instanceof FileInputStream
+                    ? new FileDigestInputStream((FileInputStream) inputStream, digest)
+                    : new DigestInputStream(inputStream, digest);
+            UploadResponse response = uploadForInputStream(digestInputStream, originalFilename, tempUid, fileSize);
+            String uid = Md5Utils.toHex(digest.digest());
+            try {
+                verifyUpload(response, uid);
+                return commitUpload(response, uid);
+            } catch (Exception e) {
+                log.error("【文件上传异常】：重命名临时文件失败，originalFilename：{}，tempFileUrl：{}，{}", originalFilename, response.getFileUrl(), e);
+                deleteQuietly(response.getFileUrl());
+                throw e;
+            }
+        } finally {
+            try {
+                inputStream.close();
+            } catch (IOException e) {
+                log.error("【关闭文件流异常】：originalFilename：{}，{}", originalFilename, e);
+            }
+        }
+    }
+
+    /**
+     * 校验上传到存储平台的文件内容与上传时计算的MD5值是否一致，默认不校验
+     *
+     * @param response  以临时文件名上传的结果
+     * @param md5       上传时计算的MD5值
+     * @throws Exception
+     */
+    protected void verifyUpload(UploadResponse response, String md5) throws Exception {
+    }
+
+    /**
+     * 提交上传结果：将临时文件重命名为以文件MD5值命名的最终文件
+     *
+     * @param response  以临时文件名上传的结果
+     * @param uid       文件MD5值
+     * @return
+     * @throws Exception
+     */
+    protected UploadResponse commitUpload(UploadResponse response, String uid) throws Exception {
+        String fileUrl = getFileUrl(response.getPath(), response.getFileName(), uid);
+        boolean renamed = renameObject(response.getFileUrl(), fileUrl, response.getFileSize());
+        return response.setFileUrl(fileUrl).setUid(uid).setDeduplicated(!renamed);
+    }
+
+    @Override
+    public List<DeleteResponse> deleteAll(Collection<String> objectNames) {
+        List<DeleteResponse> responses = new ArrayList<>(objectNames.size());
+        if (objectNames.isEmpty()) {
+            return responses;
+        }
+        List<String> names = new ArrayList<>(objectNames);
+        int batchSize = Math.max(Math.min(storageProperties.getBatch().getSize(), getMaxDeleteBatchSize()), 1);
+        if (names.size() <= batchSize) {
+            return deleteBatchQuietly(names);
+        }
+        // 分批并发删除，线程池已满时由调用线程执行，不会堆积大量批次
+        List<Future<List<DeleteResponse>>> futures = new ArrayList<>();
+        for (int from = 0; from < names.size(); from += batchSize) {
+            List<String> batch = names.subList(from, Math.min(from + batchSize, names.size()));
+            futures.add(getBatchExecutor().submit(() -> deleteBatchQuietly(batch)));
+        }
+        boolean interrupted = false;
+        for (int i = 0; i < futures.size(); i++) {
+            List<String> batch = names.subList(i * batchSize, Math.min((i + 1) * batchSize, names.size()));
+            try {
+                if (interrupted) {
+                    futures.get(i).cancel(false);
+                    responses.addAll(failures(batch, "批量删除被中断"));
+                } else {
+                    responses.addAll(futures.get(i).get());
+                }
+            } catch (InterruptedException e) {
+                interrupted = true;
+                futures.get(i).cancel(false);
+                responses.addAll(failures(batch, "批量删除被中断"));
+            } catch (ExecutionException | CancellationException e) {
+                responses.addAll(failures(batch, e.getMessage()));
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        return responses;
+    }
+
+    /**
+     * 删除一批文件，异常时整批视为删除失败
+     *
+     * @param objectNames
+     * @return
+     */
+    private List<DeleteResponse> deleteBatchQuietly(List<String> objectNames) {
+        try {
+            return deleteBatch(objectNames);
+        } catch (Exception e) {
+            log.error("【批量删除文件异常】：count：{}，{}", objectNames.size(), e);
+            return failures(objectNames, e.getMessage());
+        }
+    }
+
+    private List<DeleteResponse> failures(List<String> objectNames, String errorMessage) {
+        List<DeleteResponse> responses = new ArrayList<>(objectNames.size());
+        for (String objectName : objectNames) {
+            responses.add(DeleteResponse.failure(objectName, errorMessage));
+        }
+        return responses;
+    }
+
+    /**
+     * 删除一批文件，默认逐个删除，支持批量删除的存储平台重写该方法
+     *
+     * @param objectNames   文件数不超过getMaxDeleteBatchSize
+     * @return 每个文件的删除结果，与传入的顺序一致
+     * @throws Exception
+     */
+    protected List<DeleteResponse> deleteBatch(List<String> objectNames) throws Exception {
+        List<DeleteResponse> responses = new ArrayList<>(objectNames.size());
+        for (String objectName : objectNames) {
+            try {
+                delete(objectName);
+                responses.add(DeleteResponse.success(objectName));
+            } catch (Exception e) {
+                log.error("【删除文件异常】：objectName：{}，{}", objectName, e);
+                responses.add(DeleteResponse.failure(objectName, e.getMessage()));
+            }
+        }
+        return responses;
+    }
+
+    /**
+     * 每批删除的最大文件数，逐个删除的存储平台使用较小的批次，使多个批次可以并发执行
+     *
+     * @return
+     */
+    protected int getMaxDeleteBatchSize() {
+        return 100;
+    }
+
+    /**
+     * 删除文件，忽略异常
+     *
+     * @param objectName
+     */
+    protected void deleteQuietly(String objectName) {
+        try {
+            delete(objectName);
+        } catch (Exception e) {
+            log.error("【删除文件异常】：objectName：{}，{}", objectName, e);
+        }
+    }
+
+    @Override
+    public List<UploadResult> uploadAll(List<MultipartFile> multipartFiles) {
+        return uploadConcurrently(multipartFiles, MultipartFile::getOriginalFilename, MultipartFile::getSize, this::upload);
+    }
+
+    @Override
+    public List<UploadResult> uploadAllPaths(List<Path> paths) {
+        return uploadConcurrently(paths, path -> String.valueOf(path.getFileName()), path -> path.toFile().length(), path -> upload(path.toFile()));
+    }
+
+    /**
+     * 并发上传多个文件，提交前先申请传输字节数，超过上限时等待其他文件上传完成
+     *
+     * @param files
+     * @param fileNameFunction
+     * @param fileSizeFunction
+     * @param uploadFunction
+     * @param <T>
+     * @return
+     */
+    private <T> List<UploadResult> uploadConcurrently(List<T> files, Function<T, String> fileNameFunction,
+                                                      ToLongFunction<T> fileSizeFunction, Function<T, UploadResponse> uploadFunction) {
+        InFlightBytesLimiter limiter = getInFlightBytesLimiter();
+        List<Future<UploadResult>> futures = new ArrayList<>(files.size());
+        boolean interrupted = false;
+        for (T file : files) {
+            String fileName = fileNameFunction.apply(file);
+            if (interrupted) {
+                futures.add(CompletableFuture.completedFuture(UploadResult.failure(fileName, "批量上传被中断")));
+                continue;
+            }
+            long permits;
+            try {
+                permits = limiter.acquire(fileSizeFunction.applyAsLong(file));
+            } catch (InterruptedException e) {
+                interrupted = true;
+                futures.add(CompletableFuture.completedFuture(UploadResult.failure(fileName, "批量上传被中断")));
+                continue;
+            }
+            try {
+                futures.add(getUploadExecutor().submit(() -> {
+                    try {
+                        return UploadResult.success(uploadFunction.apply(file));
+                    } catch (Exception e) {
+                        log.error("【文件上传异常】：originalFilename：{}，{}", fileName, e);
+                        return UploadResult.failure(fileName, e.getMessage());
+                    } finally {
+                        limiter.release(permits);
+                    }
+                }));
+            } catch (RejectedExecutionException e) {
+                limiter.release(permits);
+                futures.add(CompletableFuture.completedFuture(UploadResult.failure(fileName, e.getMessage())));
+            }
+        }
+        // 被中断时不再等待，已提交的文件不取消（取消排队中的任务会导致传输字节数无法释放），继续在后台上传
+        List<UploadResult> results = new ArrayList<>(files.size());
+        for (int i = 0; i < futures.size(); i++) {
+            Future<UploadResult> future = futures.get(i);
+            String fileName = fileNameFunction.apply(files.get(i));
+            try {
+                if (interrupted && !future.isDone()) {
+                    results.add(UploadResult.failure(fileName, "批量上传被中断"));
+                } else {
+                    results.add(future.get());
+                }
+            } catch (InterruptedException e) {
+                interrupted = true;
+                results.add(UploadResult.failure(fileName, "批量上传被中断"));
+            } catch (ExecutionException e) {
+                results.add(UploadResult.failure(fileName, e.getMessage()));
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        return results;
+    }
+
+    @Override
+    public ChunkUploadSession initChunkUpload(String originalFilename, long fileSize, String uid) {
+        // 判断文件是否允许上传
+        allowedToUpload(originalFilename);
+        // 判断文件大小
+        exceedMaxSize(fileSize);
+
+        long chunkSize = storageProperties.getChunk().getChunkSize();
+        if (chunkSize <= 0) {
+            throw new FileUploadException(StorageErrorCode.CONFIG_ERROR);
+        }
+        scheduleChunkClean();
+        String path = getPath();
+        ChunkUploadSession session = new ChunkUploadSession()
+                .setUploadId(IdUtils.randomUUID())
+                .setPlatform(getPlatformName())
+                .setFileName(originalFilename)
+                .setFileSize(fileSize)
+                .setChunkSize(chunkSize)
+                .setChunkCount((int) ((fileSize + chunkSize - 1) / chunkSize))
+                .setUid(uid)
+                .setPath(path)
+                .setFileUrl(getFileUrl(path, originalFilename, uid))
+                .setCreateTime(DateUtils.now());
+        try {
+            if (StringUtils.isNotBlank(uid) && exists(session.getFileUrl())) {
+                // 文件已上传过，无需上传分片
+                session.setExists(true);
+            } else {
+                session.setMultipartUploadId(initiateMultipartUpload(session));
+            }
+        } catch (FileUploadException e) {
+            throw e;
+        } catch (Exception e) {
+            log.error("【初始化分片上传异常】：originalFilename：{}，{}", originalFilename, e);
+            throw new FileUploadException(StorageErrorCode.FILE_UPLOAD_ERROR_CODE);
+        }
+        getChunkSessionStore().save(session);
+        return session;
+    }
+
+    @Override
+    public ChunkPart uploadChunk(String uploadId, int partNumber, InputStream inputStream, long partSize) {
+        try {
+            ChunkUploadSession session = getChunkSession(uploadId);
+            if (session.isExists()) {
+                return new ChunkPart().setPartNumber(partNumber).setPartSize(partSize);
+            }
+            if (partNumber < 1 || partNumber > session.getChunkCount() || partSize != getChunkSize(session, partNumber)) {
+                throw new FileUploadException(StorageErrorCode.CHUNK_IS_INVALID);
+            }
+            ChunkPart part = uploadPart(session, partNumber, inputStream, partSize);
+            getChunkSessionStore().savePart(uploadId, part);
+            return part;
+        } catch (FileUploadException e) {
+            throw e;
+        } catch (Exception e) {
+            log.error("【分片上传异常】：uploadId：{}，partNumber：{}，{}", uploadId, partNumber, e);
+            throw new FileUploadException(StorageErrorCode.FILE_UPLOAD_ERROR_CODE);
+        } finally {
+            try {
+                inputStream.close();
+            } catch (IOException e) {
+                log.error("【关闭文件流异常】：uploadId：{}，partNumber：{}，{}", uploadId, partNumber, e);
+            }
+        }
+    }
+
+    @Override
+    public ChunkUploadSession getChunkUpload(String uploadId) {
+        ChunkUploadSession session = getChunkSession(uploadId);
+        return session.setParts(getChunkSessionStore().listParts(uploadId));
+    }
+
+    @Override
+    public UploadResponse completeChunkUpload(String uploadId) {
+        ChunkUploadSession session = getChunkSession(uploadId);
+        try {
+            if (!session.isExists()) {
+                List<ChunkPart> parts = getChunkSessionStore().listParts(uploadId);
+                if (parts.size() != session.getChunkCount()) {
+                    throw new FileUploadException(StorageErrorCode.CHUNK_IS_INCOMPLETE);
+                }
+                completeMultipartUpload(session, parts);
+            }
+        } catch (FileUploadException e) {
+            throw e;
+        } catch (Exception e) {
+            log.error("【完成分片上传异常】：uploadId：{}，{}", uploadId, e);
+            throw new FileUploadException(StorageErrorCode.FILE_UPLOAD_ERROR_CODE);
+        }
+        getChunkSessionStore().remove(uploadId);
+        return new UploadResponse()
+                .setPlatform(session.getPlatform())
+                .setFileName(session.getFileName())
+                .setFileSize(session.getFileSize())
+                .setFileUrl(session.getFileUrl())
+                .setPath(session.getPath())
+                .setUid(session.getUid())
+                .setUploadTime(DateUtils.now())
+                .setDeduplicated(session.isExists());
+    }
+
+    @Override
+    public void abortChunkUpload(String uploadId) {
+        ChunkUploadSession session = getChunkSessionStore().get(uploadId);
+        if (session == null) {
+            return;
+        }
+        try {
+            if (!session.isExists()) {
+                abortMultipartUpload(session);
+            }
+        } catch (Exception e) {
+            log.error("【取消分片上传异常】：uploadId：{}，{}", uploadId, e);
+        }
+        getChunkSessionStore().remove(uploadId);
+    }
+
     @Override
     public boolean allowedToUpload(String originalFilename) {
         if (StringUtils.isBlank(originalFilename)) {
@@ -153,30 +751,374 @@ public abstract class AbstractStorageService implements IStorageService {
         return true;
     }
 
+    @Override
+    public boolean exists(String objectName) {
+        return stat(objectName) != null;
+    }
+
     @Override
     public void download(OutputStream outputStream, String objectName) {
-        InputStream inputStream = null;
+        download(outputStream, objectName, 0, -1);
+    }
+
+    @Override
+    public void download(OutputStream outputStream, String objectName, long offset, long length) {
+        if (offset < 0) {
+            throw new FileDownloadException(StorageErrorCode.FILE_RANGE_IS_INVALID);
+        }
+        if (length == 0) {
+            return;
+        }
         try {
-            inputStream = getInputStream(objectName);
-            int len;
-            byte[] buffer = new byte[8192];
-            while ((len = inputStream.read(buffer)) > 0) {
-                outputStream.write(buffer, 0, len);
-            }
+            writeTo(outputStream, objectName, offset, length);
         } catch (FileDownloadException e) {
             throw e;
         } catch (Exception e) {
-            log.error("【文件下载异常】：objectName：{}，{}", objectName, e);
+            log.error("【文件下载异常】：objectName：{}，offset：{}，length：{}，{}", objectName, offset, length, e);
             throw new FileDownloadException(StorageErrorCode.FILE_NOT_EXIST);
+        }
+    }
+
+    /**
+     * 将文件指定范围的内容写入输出流，默认读取getInputStream返回的文件流写入，
+     * 文件流只在回调中有效的存储平台（fastdfs）需要重写，在回调中直接写入输出流
+     *
+     * @param outputStream
+     * @param objectName
+     * @param offset        起始位置
+     * @param length        读取长度，小于0时读取到文件末尾
+     * @throws Exception
+     */
+    protected void writeTo(OutputStream outputStream, String objectName, long offset, long length) throws Exception {
+        try (InputStream inputStream = getInputStream(objectName, offset, length)) {
+            copy(inputStream, outputStream);
+        }
+    }
+
+    /**
+     * 复制输入流到输出流
+     *
+     * @param inputStream
+     * @param outputStream
+     * @return 复制的字节数
+     * @throws IOException
+     */
+    protected static long copy(InputStream inputStream, OutputStream outputStream) throws IOException {
+        long total = 0;
+        int len;
+        byte[] buffer = new byte[8192];
+        while ((len = inputStream.read(buffer)) > 0) {
+            outputStream.write(buffer, 0, len);
+            total += len;
+        }
+        return total;
+    }
+
+    @Override
+    public void download(WritableByteChannel channel, String objectName) {
+        download(Channels.newOutputStream(channel), objectName);
+    }
+
+    @Override
+    public void download(Path target, String objectName) {
+        boolean success = false;
+        try (FileChannel channel = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            download(channel, objectName);
+            success = true;
+        } catch (IOException e) {
+            log.error("【文件下载异常】：objectName：{}，target：{}，{}", objectName, target, e);
+            throw new FileDownloadException(StorageErrorCode.FILE_DOWNLOAD_ERROR);
         } finally {
-            if (inputStream != null) {
+            if (!success) {
+                // 删除未写完的文件
+                target.toFile().delete();
+            }
+        }
+    }
+
+    @Override
+    public PresignedUrl presignUpload(String objectName, Duration ttl) {
+        return presign(true, objectName, ttl);
+    }
+
+    @Override
+    public PresignedUrl presignDownload(String objectName, Duration ttl) {
+        return presign(false, objectName, ttl);
+    }
+
+    /**
+     * 生成预签名地址，剩余有效期充足的地址直接复用
+     *
+     * @param upload
+     * @param objectName
+     * @param ttl
+     * @return
+     */
+    private PresignedUrl presign(boolean upload, String objectName, Duration ttl) {
+        if (StringUtils.isBlank(objectName) || ttl == null || ttl.getSeconds() <= 0) {
+            throw new StorageException(StorageErrorCode.PRESIGN_ERROR);
+        }
+        if (upload) {
+            // 判断文件格式
+            allowedToUpload(objectName);
+        }
+        String cacheKey = (upload ? "upload:" : "download:").concat(String.valueOf(ttl.getSeconds())).concat(":").concat(objectName);
+        PresignedUrl presignedUrl = presignedUrlCache.get(cacheKey, ttl);
+        if (presignedUrl != null) {
+            return presignedUrl;
+        }
+        try {
+            presignedUrl = upload ? generatePresignedUploadUrl(objectName, ttl) : generatePresignedDownloadUrl(objectName, ttl);
+        } catch (StorageException e) {
+            throw e;
+        } catch (Exception e) {
+            log.error("【生成预签名地址异常】：objectName：{}，{}", objectName, e);
+            throw new StorageException(StorageErrorCode.PRESIGN_ERROR);
+        }
+        presignedUrlCache.put(cacheKey, presignedUrl);
+        return presignedUrl;
+    }
+
+    /**
+     * 是否为边上传边计算MD5时使用的临时文件名，临时文件名随机生成，上传前无需判断文件是否已存在
+     *
+     * @param uid
+     * @return
+     */
+    protected boolean isTempUid(String uid) {
+        return uid != null && uid.startsWith(TEMP_UID_PREFIX);
+    }
+
+    /**
+     * 是否使用并发分片上传
+     *
+     * @param fileSize
+     * @return
+     */
+    protected boolean isParallelUpload(long fileSize) {
+        StorageProperties.MultipartProperties multipart = storageProperties.getMultipart();
+        return multipart != null && multipart.isEnabled() && multipart.getPartSize() > 0 && fileSize >= multipart.getThreshold();
+    }
+
+    /**
+     * 并发分片上传大文件，复用分片上传的存储平台接口
+     * 源文件为FileInputStream时各分片直接按位置读取文件，上传时计算MD5值的文件流由提交分片的线程按顺序按位置读取分片计算MD5值，
+     * 不需要分片大小的缓冲区；其他文件流按顺序将分片读取到缓冲区后提交到线程池上传，
+     * 单个文件同时占用的缓冲区不超过配置的并发数；任一分片失败时取消上传
+     *
+     * @param response    上传结果，包含文件名、文件大小、存储路径和文件地址
+     * @param inputStream
+     * @throws Exception
+     */
+    protected void parallelUpload(UploadResponse response, InputStream inputStream) throws Exception {
+        String fileUrl = response.getFileUrl();
+        long fileSize = response.getFileSize();
+        StorageProperties.MultipartProperties multipart = storageProperties.getMultipart();
+        long partSize = Math.max(multipart.getPartSize(), (fileSize + MAX_PART_COUNT - 1) / MAX_PART_COUNT);
+        ChunkUploadSession session = new ChunkUploadSession()
+                .setUploadId(IdUtils.randomUUID())
+                .setPlatform(getPlatformName())
+                .setFileName(response.getFileName())
+                .setFileSize(fileSize)
+                .setChunkSize(partSize)
+                .setChunkCount((int) ((fileSize + partSize - 1) / partSize))
+                .setUid(response.getUid())
+                .setPath(response.getPath())
+                .setFileUrl(fileUrl)
+                .setCreateTime(DateUtils.now());
+        session.setMultipartUploadId(initiateMultipartUpload(session));
+
+        FileChannel channel = null;
+        MessageDigest digest = null;
+        if (inputStream instanceof FileInputStream) {
+            channel = ((FileInputStream) inputStream).getChannel();
+        } else if (inputStream instanceof FileDigestInputStream) {
+            channel = ((FileDigestInputStream) inputStream).channel;
+            digest = ((FileDigestInputStream) inputStream).getMessageDigest();
+        }
+        long basePosition = channel == null ? 0 : channel.position();
+        ByteBuffer digestBuffer = digest == null ? null : ByteBuffer.allocate(DIGEST_BUFFER_SIZE);
+        Semaphore permits = new Semaphore(Math.max(multipart.getConcurrency(), 1));
+        AtomicReference<Exception> failure = new AtomicReference<>();
+        List<Future<ChunkPart>> futures = new ArrayList<>(session.getChunkCount());
+        try {
+            for (int partNumber = 1; partNumber <= session.getChunkCount() && failure.get() == null; partNumber++) {
+                permits.acquire();
+                int number = partNumber;
+                long size = getChunkSize(session, partNumber);
+                InputStream partStream;
                 try {
-                    inputStream.close();
-                } catch (IOException e) {
-                    e.printStackTrace();
+                    if (channel != null) {
+                        long position = basePosition + (partNumber - 1) * partSize;
+                        if (digest != null) {
+                            updateDigest(channel, digest, digestBuffer, position, size);
+                        }
+                        partStream = new FileChannelInputStream(channel, position, size);
+                    } else {
+                        partStream = new ByteArrayInputStream(readFully(inputStream, size));
+                    }
+                } catch (Exception e) {
+                    permits.release();
+                    throw e;
                 }
+                futures.add(getMultipartExecutor().submit(() -> {
+                    try {
+                        return uploadPart(session, number, partStream, size);
+                    } catch (Exception e) {
+                        failure.compareAndSet(null, e);
+                        throw e;
+                    } finally {
+                        permits.release();
+                    }
+                }));
+            }
+            List<ChunkPart> parts = new ArrayList<>(futures.size());
+            for (Future<ChunkPart> future : futures) {
+                try {
+                    parts.add(future.get());
+                } catch (ExecutionException e) {
+                    throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+                }
+            }
+            completeMultipartUpload(session, parts);
+        } catch (Exception e) {
+            for (Future<ChunkPart> future : futures) {
+                future.cancel(true);
+            }
+            try {
+                abortMultipartUpload(session);
+            } catch (Exception ex) {
+                log.error("【取消分片上传异常】：fileUrl：{}，{}", fileUrl, ex);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * 按位置读取文件的指定范围更新摘要，不改变文件通道的位置
+     *
+     * @param channel
+     * @param digest
+     * @param buffer
+     * @param position
+     * @param size
+     * @throws IOException
+     */
+    private static void updateDigest(FileChannel channel, MessageDigest digest, ByteBuffer buffer, long position, long size) throws IOException {
+        long end = position + size;
+        while (position < end) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), end - position));
+            int len = channel.read(buffer, position);
+            if (len < 0) {
+                throw new EOFException("文件流长度小于文件大小");
+            }
+            buffer.flip();
+            digest.update(buffer);
+            position += len;
+        }
+    }
+
+    /**
+     * 从输入流读取指定长度的数据
+     *
+     * @param inputStream
+     * @param size
+     * @return
+     * @throws IOException
+     */
+    private byte[] readFully(InputStream inputStream, long size) throws IOException {
+        byte[] buffer = new byte[(int) size];
+        int offset = 0;
+        while (offset < buffer.length) {
+            int len = inputStream.read(buffer, offset, buffer.length - offset);
+            if (len < 0) {
+                throw new EOFException("文件流长度小于文件大小");
+            }
+            offset += len;
+        }
+        return buffer;
+    }
+
+    /**
+     * 获取分片上传任务
+     *
+     * @param uploadId
+     * @return
+     */
+    protected ChunkUploadSession getChunkSession(String uploadId) {
+        ChunkUploadSession session = getChunkSessionStore().get(uploadId);
+        if (session == null) {
+            throw new FileUploadException(StorageErrorCode.CHUNK_SESSION_NOT_EXIST);
+        }
+        return session;
+    }
+
+    /**
+     * 获取指定分片的大小
+     *
+     * @param session
+     * @param partNumber
+     * @return
+     */
+    protected long getChunkSize(ChunkUploadSession session, int partNumber) {
+        if (partNumber < session.getChunkCount()) {
+            return session.getChunkSize();
+        }
+        return session.getFileSize() - session.getChunkSize() * (session.getChunkCount() - 1);
+    }
+
+    /**
+     * 获取分片临时文件，用于不支持乱序分片上传的存储平台（本地存储、fastdfs）
+     *
+     * @param session
+     * @param partNumber
+     * @return
+     */
+    protected File getChunkPartFile(ChunkUploadSession session, int partNumber) {
+        return Paths.get(storageProperties.getChunkPath(), CHUNK_PARTS_DIR, session.getUploadId(), String.valueOf(partNumber)).toFile();
+    }
+
+    /**
+     * 将分片写入临时文件，先写入临时文件再重命名，避免合并时读取到未写完的分片
+     *
+     * @param session
+     * @param partNumber
+     * @param inputStream
+     * @param partSize
+     * @return
+     * @throws IOException
+     */
+    protected ChunkPart writeChunkPartFile(ChunkUploadSession session, int partNumber, InputStream inputStream, long partSize) throws IOException {
+        Path partFile = getChunkPartFile(session, partNumber).toPath();
+        Files.createDirectories(partFile.getParent());
+        Path temp = partFile.resolveSibling(partFile.getFileName().toString().concat(".").concat(IdUtils.randomUUID()));
+        try {
+            long size = Files.copy(inputStream, temp, StandardCopyOption.REPLACE_EXISTING);
+            if (size != partSize) {
+                throw new FileUploadException(StorageErrorCode.CHUNK_IS_INVALID);
+            }
+            Files.move(temp, partFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        return new ChunkPart().setPartNumber(partNumber).setPartSize(partSize);
+    }
+
+    /**
+     * 删除分片临时文件
+     *
+     * @param session
+     */
+    protected void deleteChunkPartFiles(ChunkUploadSession session) {
+        File dir = Paths.get(storageProperties.getChunkPath(), CHUNK_PARTS_DIR, session.getUploadId()).toFile();
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
             }
         }
+        dir.delete();
     }
 
     /**
@@ -187,9 +1129,21 @@ public abstract class AbstractStorageService implements IStorageService {
      * @return
      */
     protected String getFileUrl(String originalFilename, String uid) {
+        return getFileUrl(getPath(), originalFilename, uid);
+    }
+
+    /**
+     * 获取文件地址
+     *
+     * @param path
+     * @param originalFilename
+     * @param uid
+     * @return
+     */
+    protected String getFileUrl(String path, String originalFilename, String uid) {
         String suffix = originalFilename.substring(originalFilename.lastIndexOf(".") + 1).toLowerCase();
         String fileName = StringUtils.isBlank(uid) ? IdUtils.randomUUID().concat(".").concat(suffix) : uid.concat(".").concat(suffix);
-        return getPath().concat(fileName);
+        return path.concat(fileName);
     }
 
     /**
@@ -197,7 +1151,7 @@ public abstract class AbstractStorageService implements IStorageService {
      * @return
      */
     protected String getPath() {
-        StorageProperties.PlatformType platform = storageProperties.getPlatform();
+        StorageProperties.PlatformType platform = getPlatform();
         switch (platform) {
             case local:
                 StorageProperties.LocalProperties local = storageProperties.getLocal();
@@ -237,12 +1191,32 @@ public abstract class AbstractStorageService implements IStorageService {
         return path;
     }
 
+    /**
+     * 获取对象存储的key，去掉开头的斜杠
+     * @param objectName
+     * @return
+     */
+    protected String getObjectKey(String objectName) {
+        if (objectName.startsWith(SLASH)) {
+            return objectName.substring(1);
+        }
+        return objectName;
+    }
+
+    /**
+     * 获取存储平台，各存储平台的实现返回自己的平台，同时使用多个存储平台时不依赖配置中的platform
+     * @return
+     */
+    protected StorageProperties.PlatformType getPlatform() {
+        return storageProperties.getPlatform();
+    }
+
     /**
      * 获取存储平台名称
      * @return
      */
     protected String getPlatformName() {
-        return storageProperties.getPlatform().name();
+        return getPlatform().name();
     }
 
     /**
@@ -262,6 +1236,92 @@ public abstract class AbstractStorageService implements IStorageService {
      * @return
      * @throws Exception
      */
-    protected abstract InputStream getInputStream(String objectName) throws Exception;
+    protected InputStream getInputStream(String objectName) throws Exception {
+        return getInputStream(objectName, 0, -1);
+    }
+
+    /**
+     * 获取文件指定范围的文件流
+     * @param objectName
+     * @param offset        起始位置
+     * @param length        读取长度，小于0时读取到文件末尾
+     * @return
+     * @throws Exception
+     */
+    protected abstract InputStream getInputStream(String objectName, long offset, long length) throws Exception;
+
+    /**
+     * 初始化存储平台的分片上传
+     * @param session
+     * @return 存储平台的分片上传ID，没有则返回null
+     * @throws Exception
+     */
+    protected abstract String initiateMultipartUpload(ChunkUploadSession session) throws Exception;
+
+    /**
+     * 上传分片
+     * @param session
+     * @param partNumber
+     * @param inputStream
+     * @param partSize
+     * @return
+     * @throws Exception
+     */
+    protected abstract ChunkPart uploadPart(ChunkUploadSession session, int partNumber, InputStream inputStream, long partSize) throws Exception;
+
+    /**
+     * 合并分片，fastdfs需要在合并后设置session的fileUrl
+     * @param session
+     * @param parts     按分片序号排序的全部分片
+     * @throws Exception
+     */
+    protected abstract void completeMultipartUpload(ChunkUploadSession session, List<ChunkPart> parts) throws Exception;
+
+    /**
+     * 取消分片上传
+     * @param session
+     * @throws Exception
+     */
+    protected abstract void abortMultipartUpload(ChunkUploadSession session) throws Exception;
+
+    /**
+     * 生成预签名上传地址
+     * @param objectName
+     * @param ttl
+     * @return
+     * @throws Exception
+     */
+    protected abstract PresignedUrl generatePresignedUploadUrl(String objectName, Duration ttl) throws Exception;
+
+    /**
+     * 生成预签名下载地址
+     * @param objectName
+     * @param ttl
+     * @return
+     * @throws Exception
+     */
+    protected abstract PresignedUrl generatePresignedDownloadUrl(String objectName, Duration ttl) throws Exception;
+
+    /**
+     * 重命名文件，目标文件已存在（文件已上传过）时直接删除源文件
+     * @param sourceObjectName
+     * @param targetObjectName
+     * @param fileSize
+     * @return 目标文件已存在时返回false
+     * @throws Exception
+     */
+    protected abstract boolean renameObject(String sourceObjectName, String targetObjectName, long fileSize) throws Exception;
+
+    /**
+     * 本地文件的摘要输入流，保留文件通道供并发分片上传按位置读取
+     */
+    private static class FileDigestInputStream extends DigestInputStream {
 
+        private final FileChannel channel;
+
+        FileDigestInputStream(FileInputStream inputStream, MessageDigest digest) {
+            super(inputStream, digest);
+            this.channel = inputStream.getChannel();
+        }
+    }
 }
@@ -1,15 +1,28 @@
 package cn.iwenjuan.storage.service.impl;
 
 import cn.iwenjuan.storage.config.StorageProperties;
+import cn.iwenjuan.storage.domain.ChunkPart;
+import cn.iwenjuan.storage.domain.ChunkUploadSession;
+import cn.iwenjuan.storage.domain.DeleteResponse;
+import cn.iwenjuan.storage.domain.ObjectStat;
+import cn.iwenjuan.storage.domain.PresignedUrl;
 import cn.iwenjuan.storage.domain.UploadResponse;
 import cn.iwenjuan.storage.exception.FileDownloadException;
+import cn.iwenjuan.storage.exception.FileUploadException;
+import cn.iwenjuan.storage.exception.StorageException;
 import cn.iwenjuan.storage.exception.enums.StorageErrorCode;
 import cn.iwenjuan.storage.utils.DateUtils;
+import com.aliyun.oss.HttpMethod;
 import com.aliyun.oss.OSS;
-import com.aliyun.oss.model.OSSObject;
+import com.aliyun.oss.OSSErrorCode;
+import com.aliyun.oss.OSSException;
+import com.aliyun.oss.model.*;
 import lombok.extern.slf4j.Slf4j;
 
 import java.io.InputStream;
+import java.net.URL;
+import java.time.Duration;
+import java.util.*;
 
 /**
  * @author li1244
@@ -18,6 +31,16 @@ import java.io.InputStream;
 @Slf4j
 public class AliyunStorageService extends AbstractStorageService {
 
+    /**
+     * 简单拷贝支持的最大文件大小：1G
+     */
+    private static final long MAX_COPY_OBJECT_SIZE = 1024L * 1024 * 1024;
+
+    /**
+     * 分片拷贝的分片大小：256M
+     */
+    private static final long COPY_PART_SIZE = 256L * 1024 * 1024;
+
     private StorageProperties.AliyunOssProperties aliyunOssProperties;
 
     private OSS ossClient;
@@ -28,6 +51,38 @@ public class AliyunStorageService extends AbstractStorageService {
         this.ossClient = ossClient;
     }
 
+    @Override
+    protected StorageProperties.PlatformType getPlatform() {
+        return StorageProperties.PlatformType.aliyun;
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        try {
+            super.destroy();
+        } finally {
+            // 关闭连接池和空闲连接清理线程
+            ossClient.shutdown();
+        }
+    }
+
+    @Override
+    protected void verifyUpload(UploadResponse response, String md5) throws Exception {
+        if (!aliyunOssProperties.isMd5CheckEnabled()) {
+            return;
+        }
+        ObjectMetadata metadata = ossClient.getObjectMetadata(aliyunOssProperties.getBucketName(), getObjectKey(response.getFileUrl()));
+        String etag = metadata.getETag();
+        // 分片上传的ETag不是文件的MD5值，无法校验
+        if (etag == null || etag.contains("-")) {
+            return;
+        }
+        if (!etag.equalsIgnoreCase(md5)) {
+            log.error("【文件上传异常】：文件MD5值与OSS返回的ETag不一致，fileUrl：{}，md5：{}，etag：{}", response.getFileUrl(), md5, etag);
+            throw new FileUploadException(StorageErrorCode.FILE_UPLOAD_ERROR_CODE);
+        }
+    }
+
     @Override
     public UploadResponse uploadForInputStream(InputStream inputStream, String originalFilename, String uid, long fileSize) throws Exception {
 
@@ -44,19 +99,17 @@ public class AliyunStorageService extends AbstractStorageService {
                     .setUid(uid)
                     .setUploadTime(DateUtils.now());
 
-            String key = fileUrl;
-            if (key.startsWith(SLASH)) {
-                key = key.substring(1);
+            String key = getObjectKey(fileUrl);
+            if (!isTempUid(uid) && exists(fileUrl)) {
+                // 文件已上传过，不再上传
+                return response;
             }
-            try {
-                OSSObject ossObject = ossClient.getObject(aliyunOssProperties.getBucketName(), key);
-                if (ossObject != null) {
-                    return response;
-                }
-            } catch (Exception e) {
 
+            if (isParallelUpload(fileSize)) {
+                // 大文件并发分片上传
+                parallelUpload(response, inputStream);
+                return response;
             }
-
             ossClient.putObject(aliyunOssProperties.getBucketName(), key, inputStream);
             return response;
         } catch (Exception e) {
@@ -66,26 +119,183 @@ public class AliyunStorageService extends AbstractStorageService {
     }
 
     @Override
-    public void delete(String objectName) {
-        String key = objectName;
-        if (key.startsWith(SLASH)) {
-            key = key.substring(1);
+    public boolean exists(String objectName) {
+        try {
+            return ossClient.doesObjectExist(aliyunOssProperties.getBucketName(), getObjectKey(objectName));
+        } catch (Exception e) {
+            log.error("【获取文件信息异常】：objectName：{}，{}", objectName, e);
+            throw new StorageException(StorageErrorCode.FILE_STAT_ERROR);
+        }
+    }
+
+    @Override
+    public ObjectStat stat(String objectName) {
+        try {
+            ObjectMetadata metadata = ossClient.getObjectMetadata(aliyunOssProperties.getBucketName(), getObjectKey(objectName));
+            return new ObjectStat()
+                    .setObjectName(objectName)
+                    .setFileSize(metadata.getContentLength())
+                    .setLastModified(metadata.getLastModified())
+                    .setEtag(metadata.getETag());
+        } catch (OSSException e) {
+            if (OSSErrorCode.NO_SUCH_KEY.equals(e.getErrorCode())) {
+                return null;
+            }
+            log.error("【获取文件信息异常】：objectName：{}，{}", objectName, e);
+            throw new StorageException(StorageErrorCode.FILE_STAT_ERROR);
+        } catch (Exception e) {
+            log.error("【获取文件信息异常】：objectName：{}，{}", objectName, e);
+            throw new StorageException(StorageErrorCode.FILE_STAT_ERROR);
         }
+    }
+
+    @Override
+    public void delete(String objectName) {
+        String key = getObjectKey(objectName);
         ossClient.deleteObject(aliyunOssProperties.getBucketName(), key);
     }
 
     @Override
-    protected InputStream getInputStream(String objectName) throws Exception {
-        String key = objectName;
-        if (key.startsWith(SLASH)) {
-            key = key.substring(1);
+    protected boolean renameObject(String sourceObjectName, String targetObjectName, long fileSize) throws Exception {
+        String bucketName = aliyunOssProperties.getBucketName();
+        String sourceKey = getObjectKey(sourceObjectName);
+        String targetKey = getObjectKey(targetObjectName);
+        boolean exists = exists(targetObjectName);
+        if (!exists) {
+            if (fileSize <= MAX_COPY_OBJECT_SIZE) {
+                ossClient.copyObject(bucketName, sourceKey, bucketName, targetKey);
+            } else {
+                // 超过1G的文件不支持简单拷贝，需要使用分片拷贝
+                multipartCopyObject(bucketName, sourceKey, targetKey, fileSize);
+            }
+        }
+        ossClient.deleteObject(bucketName, sourceKey);
+        return !exists;
+    }
+
+    /**
+     * 分片拷贝文件
+     *
+     * @param bucketName
+     * @param sourceKey
+     * @param targetKey
+     * @param fileSize
+     */
+    private void multipartCopyObject(String bucketName, String sourceKey, String targetKey, long fileSize) {
+        String uploadId = ossClient.initiateMultipartUpload(new InitiateMultipartUploadRequest(bucketName, targetKey)).getUploadId();
+        try {
+            List<PartETag> partETags = new ArrayList<>();
+            int partNumber = 1;
+            for (long beginIndex = 0; beginIndex < fileSize; beginIndex += COPY_PART_SIZE) {
+                long partSize = Math.min(COPY_PART_SIZE, fileSize - beginIndex);
+                UploadPartCopyRequest request = new UploadPartCopyRequest(bucketName, sourceKey, bucketName, targetKey, uploadId, partNumber++, beginIndex, partSize);
+                partETags.add(ossClient.uploadPartCopy(request).getPartETag());
+            }
+            ossClient.completeMultipartUpload(new CompleteMultipartUploadRequest(bucketName, targetKey, uploadId, partETags));
+        } catch (RuntimeException e) {
+            ossClient.abortMultipartUpload(new AbortMultipartUploadRequest(bucketName, targetKey, uploadId));
+            throw e;
+        }
+    }
+
+    @Override
+    protected String initiateMultipartUpload(ChunkUploadSession session) {
+        InitiateMultipartUploadRequest request = new InitiateMultipartUploadRequest(aliyunOssProperties.getBucketName(), getObjectKey(session.getFileUrl()));
+        return ossClient.initiateMultipartUpload(request).getUploadId();
+    }
+
+    @Override
+    protected ChunkPart uploadPart(ChunkUploadSession session, int partNumber, InputStream inputStream, long partSize) {
+        UploadPartRequest request = new UploadPartRequest(aliyunOssProperties.getBucketName(), getObjectKey(session.getFileUrl()),
+                session.getMultipartUploadId(), partNumber, inputStream, partSize);
+        PartETag partETag = ossClient.uploadPart(request).getPartETag();
+        return new ChunkPart().setPartNumber(partNumber).setPartSize(partSize).setEtag(partETag.getETag());
+    }
+
+    @Override
+    protected void completeMultipartUpload(ChunkUploadSession session, List<ChunkPart> parts) {
+        List<PartETag> partETags = new ArrayList<>(parts.size());
+        for (ChunkPart part : parts) {
+            partETags.add(new PartETag(part.getPartNumber(), part.getEtag()));
         }
+        ossClient.completeMultipartUpload(new CompleteMultipartUploadRequest(aliyunOssProperties.getBucketName(), getObjectKey(session.getFileUrl()),
+                session.getMultipartUploadId(), partETags));
+    }
+
+    @Override
+    protected void abortMultipartUpload(ChunkUploadSession session) {
+        ossClient.abortMultipartUpload(new AbortMultipartUploadRequest(aliyunOssProperties.getBucketName(), getObjectKey(session.getFileUrl()),
+                session.getMultipartUploadId()));
+    }
+
+    @Override
+    protected InputStream getInputStream(String objectName, long offset, long length) throws Exception {
+        String key = getObjectKey(objectName);
         try {
-            OSSObject ossObject = ossClient.getObject(aliyunOssProperties.getBucketName(), key);
+            GetObjectRequest request = new GetObjectRequest(aliyunOssProperties.getBucketName(), key);
+            if (offset > 0 || length > 0) {
+                // 结束位置为-1时读取到文件末尾
+                request.setRange(offset, length > 0 ? offset + length - 1 : -1);
+            }
+            OSSObject ossObject = ossClient.getObject(request);
             return ossObject.getObjectContent();
         } catch (Exception e) {
             log.error("【文件下载异常】：objectName：{}，{}", objectName, e);
             throw new FileDownloadException(StorageErrorCode.FILE_NOT_EXIST);
         }
     }
+
+    @Override
+    protected List<DeleteResponse> deleteBatch(List<String> objectNames) {
+        Set<String> keys = new LinkedHashSet<>(objectNames.size() * 2);
+        for (String objectName : objectNames) {
+            keys.add(getObjectKey(objectName));
+        }
+        // 非静默模式返回删除成功的文件（包括不存在的文件），未返回的文件视为删除失败
+        DeleteObjectsResult result = ossClient.deleteObjects(new DeleteObjectsRequest(aliyunOssProperties.getBucketName())
+                .withKeys(new ArrayList<>(keys))
+                .withQuiet(false));
+        Set<String> deleted = new HashSet<>(result.getDeletedObjects());
+        List<DeleteResponse> responses = new ArrayList<>(objectNames.size());
+        for (String objectName : objectNames) {
+            if (deleted.contains(getObjectKey(objectName))) {
+                responses.add(DeleteResponse.success(objectName));
+            } else {
+                responses.add(DeleteResponse.failure(objectName, StorageErrorCode.DELETE_ERROR.getMessage()));
+            }
+        }
+        return responses;
+    }
+
+    @Override
+    protected int getMaxDeleteBatchSize() {
+        return MAX_DELETE_BATCH_SIZE;
+    }
+
+    @Override
+    protected PresignedUrl generatePresignedUploadUrl(String objectName, Duration ttl) {
+        return generatePresignedUrl(HttpMethod.PUT, objectName, ttl);
+    }
+
+    @Override
+    protected PresignedUrl generatePresignedDownloadUrl(String objectName, Duration ttl) {
+        return generatePresignedUrl(HttpMethod.GET, objectName, ttl);
+    }
+
+    /**
+     * 生成预签名地址
+     * @param method
+     * @param objectName
+     * @param ttl
+     * @return
+     */
+    private PresignedUrl generatePresignedUrl(HttpMethod method, String objectName, Duration ttl) {
+        Date expireTime = new Date(System.currentTimeMillis() + ttl.toMillis());
+        URL url = ossClient.generatePresignedUrl(aliyunOssProperties.getBucketName(), getObjectKey(objectName), expireTime, method);
+        return new PresignedUrl()
+                .setObjectName(objectName)
+                .setUrl(url.toString())
+                .setMethod(method.name())
+                .setExpireTime(expireTime);
+    }
 }
@@ -0,0 +1,299 @@
+package cn.iwenjuan.storage.service.impl;
+
+import cn.iwenjuan.storage.config.StorageProperties;
+import cn.iwenjuan.storage.domain.UploadResponse;
+import cn.iwenjuan.storage.exception.StorageException;
+import cn.iwenjuan.storage.exception.enums.StorageErrorCode;
+import cn.iwenjuan.storage.service.IAsyncStorageService;
+import cn.iwenjuan.storage.service.IStorageService;
+import cn.iwenjuan.storage.utils.ExecutorUtils;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 异步存储服务，包装同步的存储服务，任务在独立的有界线程池中执行
+ * 同时访问存储平台的任务数受concurrency限制，超出的任务进入等待队列，等待队列已满时任务直接失败；
+ * 设置路由服务后按存储平台分别排队，每个存储平台同时执行的任务数受platformConcurrency限制，慢的存储平台不会占满所有并发数
+ *
+ * @author li1244
+ * @date 2023/4/13 10:30
+ */
+@Slf4j
+public class AsyncStorageService implements IAsyncStorageService, DisposableBean {
+
+    private final IStorageService storageService;
+
+    private final ExecutorService executor;
+
+    /**
+     * 线程池是否由当前服务创建，由当前服务创建的线程池在销毁时关闭
+     */
+    private final boolean ownExecutor;
+
+    private final int concurrency;
+
+    private final int queueCapacity;
+
+    private final Semaphore permits;
+
+    /**
+     * 未设置路由服务或无法识别存储平台的任务使用的等待队列
+     */
+    private final Lane defaultLane = new Lane();
+
+    private final Map<StorageProperties.PlatformType, Lane> lanes = new ConcurrentHashMap<>();
+
+    private volatile RoutingStorageService routingStorageService;
+
+    private volatile int platformConcurrency;
+
+    private final AtomicInteger queueDepth = new AtomicInteger();
+
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    /**
+     * @param storageService    同步存储服务
+     * @param threads           线程数
+     * @param concurrency       同时访问存储平台的任务数
+     * @param queueCapacity     等待执行的任务数上限
+     */
+    public AsyncStorageService(IStorageService storageService, int threads, int concurrency, int queueCapacity) {
+        this(storageService, ExecutorUtils.newBoundedExecutor("storage-async-", Math.max(threads, 1), Math.max(concurrency, 1),
+                new ThreadPoolExecutor.AbortPolicy()), true, concurrency, queueCapacity);
+    }
+
+    /**
+     * 使用外部线程池，多个存储平台可以共用一个线程池，各自限制并发数
+     *
+     * @param storageService    同步存储服务
+     * @param executor          线程池，由调用方负责关闭
+     * @param concurrency       同时访问存储平台的任务数
+     * @param queueCapacity     等待执行的任务数上限
+     */
+    public AsyncStorageService(IStorageService storageService, ExecutorService executor, int concurrency, int queueCapacity) {
+        this(storageService, executor, false, concurrency, queueCapacity);
+    }
+
+    private AsyncStorageService(IStorageService storageService, ExecutorService executor, boolean ownExecutor, int concurrency, int queueCapacity) {
+        this.storageService = storageService;
+        this.executor = executor;
+        this.ownExecutor = ownExecutor;
+        this.concurrency = Math.max(concurrency, 1);
+        this.queueCapacity = queueCapacity;
+        this.permits = new Semaphore(this.concurrency);
+    }
+
+    /**
+     * 设置路由服务，任务按路由服务选择的存储平台分别排队
+     *
+     * @param routingStorageService
+     */
+    public void setRoutingStorageService(RoutingStorageService routingStorageService) {
+        this.routingStorageService = routingStorageService;
+    }
+
+    /**
+     * 设置每个存储平台同时执行的任务数，小于等于0时只受concurrency限制
+     *
+     * @param platformConcurrency
+     */
+    public void setPlatformConcurrency(int platformConcurrency) {
+        this.platformConcurrency = platformConcurrency;
+    }
+
+    @Override
+    public CompletableFuture<UploadResponse> uploadAsync(MultipartFile multipartFile) {
+        return submit(uploadLane(multipartFile.getOriginalFilename(), multipartFile.getSize()), () -> storageService.upload(multipartFile));
+    }
+
+    @Override
+    public CompletableFuture<UploadResponse> uploadAsync(MultipartFile multipartFile, String uid) {
+        return submit(uploadLane(multipartFile.getOriginalFilename(), multipartFile.getSize()), () -> storageService.upload(multipartFile, uid));
+    }
+
+    @Override
+    public CompletableFuture<UploadResponse> uploadAsync(File file) {
+        return submit(uploadLane(file.getName(), file.length()), () -> storageService.upload(file));
+    }
+
+    @Override
+    public CompletableFuture<UploadResponse> uploadAsync(File file, String uid) {
+        return submit(uploadLane(file.getName(), file.length()), () -> storageService.upload(file, uid));
+    }
+
+    @Override
+    public CompletableFuture<UploadResponse> uploadAsync(InputStream inputStream, String originalFilename, String uid, long fileSize) {
+        return submit(uploadLane(originalFilename, fileSize), () -> storageService.upload(inputStream, originalFilename, uid, fileSize));
+    }
+
+    @Override
+    public CompletableFuture<Void> downloadAsync(OutputStream outputStream, String objectName) {
+        return submit(objectLane(objectName), () -> {
+            storageService.download(outputStream, objectName);
+            return null;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> deleteAsync(String objectName) {
+        return submit(objectLane(objectName), () -> {
+            storageService.delete(objectName);
+            return null;
+        });
+    }
+
+    @Override
+    public int getQueueDepth() {
+        return queueDepth.get();
+    }
+
+    @Override
+    public int getActiveCount() {
+        return concurrency - permits.availablePermits();
+    }
+
+    @Override
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    /**
+     * 获取存储平台正在执行的任务数
+     *
+     * @param platform
+     * @return
+     */
+    public int getActiveCount(StorageProperties.PlatformType platform) {
+        Lane lane = lanes.get(platform);
+        return lane == null ? 0 : lane.active.get();
+    }
+
+    /**
+     * 获取包装的同步存储服务
+     *
+     * @return
+     */
+    public IStorageService getStorageService() {
+        return storageService;
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        if (ownExecutor) {
+            ExecutorUtils.shutdown(executor);
+        }
+    }
+
+    private Lane uploadLane(String originalFilename, long fileSize) {
+        RoutingStorageService router = routingStorageService;
+        return router == null ? defaultLane : lane(router.getUploadPlatform(originalFilename, fileSize));
+    }
+
+    private Lane objectLane(String objectName) {
+        RoutingStorageService router = routingStorageService;
+        return router == null ? defaultLane : lane(router.getPlatform(objectName));
+    }
+
+    private Lane lane(StorageProperties.PlatformType platform) {
+        return platform == null ? defaultLane : lanes.computeIfAbsent(platform, key -> new Lane());
+    }
+
+    /**
+     * 提交任务，任务进入所属存储平台的等待队列后按并发数限制调度到线程池执行
+     *
+     * @param lane
+     * @param task
+     * @param <T>
+     * @return
+     */
+    private <T> CompletableFuture<T> submit(Lane lane, Callable<T> task) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        if (queueDepth.incrementAndGet() > queueCapacity) {
+            queueDepth.decrementAndGet();
+            rejectedCount.incrementAndGet();
+            log.warn("【异步存储任务被拒绝】：等待队列已满，queueCapacity：{}", queueCapacity);
+            future.completeExceptionally(new StorageException(StorageErrorCode.ASYNC_QUEUE_IS_FULL));
+            return future;
+        }
+        lane.pending.offer(() -> {
+            try {
+                if (!future.isDone()) {
+                    future.complete(task.call());
+                }
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            } finally {
+                lane.active.decrementAndGet();
+                permits.release();
+                dispatch();
+            }
+        });
+        dispatch();
+        return future;
+    }
+
+    /**
+     * 在并发数允许的范围内，将各存储平台等待队列中的任务交给线程池执行，已达到并发数的存储平台不影响其他存储平台
+     * 占用并发数在锁内进行，避免两个调度线程同时占用又释放并发数导致任务无人调度；被线程池拒绝的任务在锁外执行
+     */
+    private void dispatch() {
+        List<Runnable> rejected = null;
+        synchronized (this) {
+            rejected = dispatch(defaultLane, rejected);
+            for (Lane lane : lanes.values()) {
+                rejected = dispatch(lane, rejected);
+            }
+        }
+        if (rejected != null) {
+            // 线程池已关闭或已满，在当前线程执行以完成future并释放并发数
+            log.warn("【异步存储任务被线程池拒绝】：在调用线程中执行");
+            for (Runnable runnable : rejected) {
+                runnable.run();
+            }
+        }
+    }
+
+    private List<Runnable> dispatch(Lane lane, List<Runnable> rejected) {
+        int limit = platformConcurrency;
+        while (!lane.pending.isEmpty() && (limit <= 0 || lane.active.get() < limit) && permits.tryAcquire()) {
+            Runnable runnable = lane.pending.poll();
+            if (runnable == null) {
+                permits.release();
+                break;
+            }
+            lane.active.incrementAndGet();
+            queueDepth.decrementAndGet();
+            try {
+                executor.execute(runnable);
+            } catch (RejectedExecutionException e) {
+                if (rejected == null) {
+                    rejected = new ArrayList<>();
+                }
+                rejected.add(runnable);
+            }
+        }
+        return rejected;
+    }
+
+    /**
+     * 一个存储平台的等待队列
+     */
+    private static class Lane {
+
+        private final Queue<Runnable> pending = new ConcurrentLinkedQueue<>();
+
+        private final AtomicInteger active = new AtomicInteger();
+    }
+}
@@ -0,0 +1,208 @@
+package cn.iwenjuan.storage.service.impl;
+
+import cn.iwenjuan.storage.cache.DiskCache;
+import cn.iwenjuan.storage.domain.DeleteResponse;
+import cn.iwenjuan.storage.exception.FileDownloadException;
+import cn.iwenjuan.storage.exception.enums.StorageErrorCode;
+import cn.iwenjuan.storage.service.IStorageService;
+import cn.iwenjuan.storage.utils.TeeOutputStream;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * 带本地磁盘缓存的存储服务，用于minio、fastdfs、阿里云OSS、七牛云OSS等远程存储平台
+ * 下载时优先读取缓存文件，未缓存时从存储平台下载，同时写入缓存；
+ * 上传的文件以MD5值命名，同一文件地址的内容不会变化，删除文件时删除对应的缓存；
+ * 写入缓存前获取缓存的版本号，下载期间文件被删除时不写入缓存
+ *
+ * @author li1244
+ * @date 2023/4/17 11:20
+ */
+@Slf4j
+public class CachingStorageService extends DelegatingStorageService {
+
+    private final DiskCache diskCache;
+
+    private final long maxObjectSize;
+
+    /**
+     * @param delegate          被包装的存储服务
+     * @param diskCache         磁盘缓存
+     * @param maxObjectSize     允许缓存的最大文件大小，单位字节
+     */
+    public CachingStorageService(IStorageService delegate, DiskCache diskCache, long maxObjectSize) {
+        super(delegate);
+        this.diskCache = diskCache;
+        this.maxObjectSize = maxObjectSize;
+    }
+
+    public DiskCache getDiskCache() {
+        return diskCache;
+    }
+
+    @Override
+    public void download(OutputStream outputStream, String objectName) {
+        Path cacheFile = diskCache.get(objectName);
+        if (cacheFile != null) {
+            try (FileChannel fileChannel = FileChannel.open(cacheFile, StandardOpenOption.READ)) {
+                transferTo(fileChannel, 0, fileChannel.size(), Channels.newChannel(outputStream));
+                return;
+            } catch (NoSuchFileException e) {
+                // 缓存文件已被淘汰，从存储平台下载
+            } catch (IOException e) {
+                log.error("【文件下载异常】：读取缓存文件失败，objectName：{}，{}", objectName, e);
+                throw new FileDownloadException(StorageErrorCode.FILE_DOWNLOAD_ERROR);
+            }
+        }
+        downloadAndCache(outputStream, objectName);
+    }
+
+    @Override
+    public void download(OutputStream outputStream, String objectName, long offset, long length) {
+        Path cacheFile = diskCache.get(objectName);
+        if (cacheFile != null) {
+            try (FileChannel fileChannel = FileChannel.open(cacheFile, StandardOpenOption.READ)) {
+                long size = fileChannel.size();
+                long count = length < 0 ? size - offset : Math.min(length, size - offset);
+                transferTo(fileChannel, offset, count, Channels.newChannel(outputStream));
+                return;
+            } catch (NoSuchFileException e) {
+                // 缓存文件已被淘汰，从存储平台下载
+            } catch (IOException e) {
+                log.error("【文件下载异常】：读取缓存文件失败，objectName：{}，{}", objectName, e);
+                throw new FileDownloadException(StorageErrorCode.FILE_DOWNLOAD_ERROR);
+            }
+        }
+        // 部分下载不写入缓存
+        delegate.download(outputStream, objectName, offset, length);
+    }
+
+    @Override
+    public void download(WritableByteChannel channel, String objectName) {
+        Path cacheFile = diskCache.get(objectName);
+        if (cacheFile != null) {
+            try (FileChannel fileChannel = FileChannel.open(cacheFile, StandardOpenOption.READ)) {
+                transferTo(fileChannel, 0, fileChannel.size(), channel);
+                return;
+            } catch (NoSuchFileException e) {
+                // 缓存文件已被淘汰，从存储平台下载
+            } catch (IOException e) {
+                log.error("【文件下载异常】：读取缓存文件失败，objectName：{}，{}", objectName, e);
+                throw new FileDownloadException(StorageErrorCode.FILE_DOWNLOAD_ERROR);
+            }
+        }
+        downloadAndCache(Channels.newOutputStream(channel), objectName);
+    }
+
+    @Override
+    public void download(Path target, String objectName) {
+        Path cacheFile = diskCache.get(objectName);
+        if (cacheFile != null) {
+            try {
+                Files.copy(cacheFile, target, StandardCopyOption.REPLACE_EXISTING);
+                return;
+            } catch (NoSuchFileException e) {
+                // 缓存文件已被淘汰，从存储平台下载
+            } catch (IOException e) {
+                log.error("【文件下载异常】：复制缓存文件失败，objectName：{}，target：{}，{}", objectName, target, e);
+                throw new FileDownloadException(StorageErrorCode.FILE_DOWNLOAD_ERROR);
+            }
+        }
+        long generation = diskCache.getGeneration(objectName);
+        delegate.download(target, objectName);
+        Path tempFile = null;
+        try {
+            if (Files.size(target) <= maxObjectSize) {
+                tempFile = diskCache.createTempFile();
+                Files.copy(target, tempFile, StandardCopyOption.REPLACE_EXISTING);
+                diskCache.commit(objectName, tempFile, generation);
+            }
+        } catch (IOException e) {
+            log.error("【写入文件缓存异常】：objectName：{}，{}", objectName, e);
+            deleteQuietly(tempFile);
+        }
+    }
+
+    @Override
+    public void delete(String objectName) {
+        delegate.delete(objectName);
+        diskCache.invalidate(objectName);
+    }
+
+    @Override
+    public List<DeleteResponse> deleteAll(Collection<String> objectNames) {
+        List<DeleteResponse> responses = delegate.deleteAll(objectNames);
+        for (String objectName : objectNames) {
+            diskCache.invalidate(objectName);
+        }
+        return responses;
+    }
+
+    /**
+     * 从存储平台下载文件，同时写入缓存，写入缓存失败不影响下载
+     *
+     * @param outputStream
+     * @param objectName
+     */
+    private void downloadAndCache(OutputStream outputStream, String objectName) {
+        long generation = diskCache.getGeneration(objectName);
+        Path tempFile;
+        OutputStream cacheOutputStream;
+        try {
+            tempFile = diskCache.createTempFile();
+            cacheOutputStream = Files.newOutputStream(tempFile);
+        } catch (IOException e) {
+            log.error("【写入文件缓存异常】：objectName：{}，{}", objectName, e);
+            delegate.download(outputStream, objectName);
+            return;
+        }
+        TeeOutputStream teeOutputStream = new TeeOutputStream(outputStream, cacheOutputStream, maxObjectSize);
+        boolean success = false;
+        try {
+            delegate.download(teeOutputStream, objectName);
+            success = true;
+        } finally {
+            boolean cacheable = teeOutputStream.closeBranch() && success;
+            try {
+                if (cacheable) {
+                    diskCache.commit(objectName, tempFile, generation);
+                } else {
+                    Files.deleteIfExists(tempFile);
+                }
+            } catch (IOException e) {
+                log.error("【写入文件缓存异常】：objectName：{}，{}", objectName, e);
+                deleteQuietly(tempFile);
+            }
+        }
+    }
+
+    private void transferTo(FileChannel fileChannel, long position, long count, WritableByteChannel target) throws IOException {
+        long end = position + count;
+        while (position < end) {
+            position += fileChannel.transferTo(position, end - position, target);
+        }
+    }
+
+    private void deleteQuietly(Path file) {
+        if (file == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            log.error("【删除缓存临时文件异常】：file：{}，{}", file, e);
+        }
+    }
+}
@@ -0,0 +1,317 @@
+package cn.iwenjuan.storage.service.impl;
+
+import cn.iwenjuan.storage.exception.FileDownloadException;
+import cn.iwenjuan.storage.exception.enums.StorageErrorCode;
+import cn.iwenjuan.storage.service.IStorageService;
+import cn.iwenjuan.storage.utils.ExecutorUtils;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 合并同一文件并发下载的存储服务
+ * 同一文件同时只从存储平台下载一次：由下载线程从存储平台下载并写入临时文件，
+ * 第一个请求和下载期间到达的其他请求一样从临时文件中读取已下载的内容，并等待后续内容写入，
+ * 任何一个请求的客户端较慢都不会拖慢下载；所有请求结束后删除临时文件
+ *
+ * @author li1244
+ * @date 2023/4/19 10:20
+ */
+@Slf4j
+public class CoalescingStorageService extends DelegatingStorageService {
+
+    private static final String SPILL_FILE_PREFIX = "flight-";
+
+    private static final String SPILL_FILE_SUFFIX = ".tmp";
+
+    private static final int DEFAULT_FETCH_THREADS = 16;
+
+    private final Path spillPath;
+
+    private final ThreadPoolExecutor fetchExecutor;
+
+    private final ConcurrentHashMap<String, Flight> flights = new ConcurrentHashMap<>();
+
+    private final AtomicLong fetchCount = new AtomicLong();
+
+    private final AtomicLong coalescedCount = new AtomicLong();
+
+    /**
+     * @param delegate      被包装的存储服务
+     * @param spillPath     临时文件目录
+     */
+    public CoalescingStorageService(IStorageService delegate, String spillPath) {
+        this(delegate, spillPath, DEFAULT_FETCH_THREADS);
+    }
+
+    /**
+     * @param delegate      被包装的存储服务
+     * @param spillPath     临时文件目录
+     * @param fetchThreads  下载线程数，下载线程都在使用时由第一个请求的线程下载完成后再读取临时文件
+     */
+    public CoalescingStorageService(IStorageService delegate, String spillPath, int fetchThreads) {
+        super(delegate);
+        this.spillPath = Paths.get(spillPath);
+        this.fetchExecutor = new ThreadPoolExecutor(0, Math.max(fetchThreads, 1), 60, TimeUnit.SECONDS,
+                new SynchronousQueue<>(), ExecutorUtils.newThreadFactory("storage-coalesce-fetch-"),
+                // 线程池已满或已关闭时都由提交任务的线程下载，保证flight一定会结束
+                (runnable, executor) -> runnable.run());
+    }
+
+    /**
+     * 获取从存储平台下载的次数
+     *
+     * @return
+     */
+    public long getFetchCount() {
+        return fetchCount.get();
+    }
+
+    /**
+     * 获取合并到其他请求的下载次数
+     *
+     * @return
+     */
+    public long getCoalescedCount() {
+        return coalescedCount.get();
+    }
+
+    @Override
+    public void download(OutputStream outputStream, String objectName) {
+        while (true) {
+            Flight flight = flights.get(objectName);
+            if (flight == null) {
+                Flight created = createFlight();
+                if (created == null) {
+                    // 无法创建临时文件时不合并下载
+                    fetchCount.incrementAndGet();
+                    delegate.download(outputStream, objectName);
+                    return;
+                }
+                flight = flights.putIfAbsent(objectName, created);
+                if (flight == null) {
+                    // 下载线程持有一个引用，第一个请求持有创建时的引用
+                    created.retain();
+                    fetchCount.incrementAndGet();
+                    fetchExecutor.execute(() -> fetch(created, objectName));
+                    try {
+                        follow(created, outputStream, objectName);
+                    } finally {
+                        created.release();
+                    }
+                    return;
+                }
+                created.release();
+            }
+            if (flight.retain()) {
+                coalescedCount.incrementAndGet();
+                try {
+                    follow(flight, outputStream, objectName);
+                } finally {
+                    flight.release();
+                }
+                return;
+            }
+            // 下载已结束且临时文件已删除，重新下载
+            flights.remove(objectName, flight);
+        }
+    }
+
+    @Override
+    public void download(WritableByteChannel channel, String objectName) {
+        download(Channels.newOutputStream(channel), objectName);
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        ExecutorUtils.shutdown(fetchExecutor);
+        super.destroy();
+    }
+
+    private Flight createFlight() {
+        try {
+            Files.createDirectories(spillPath);
+            return new Flight(Files.createTempFile(spillPath, SPILL_FILE_PREFIX, SPILL_FILE_SUFFIX));
+        } catch (IOException e) {
+            log.error("【创建下载临时文件异常】：spillPath：{}，{}", spillPath, e);
+            return null;
+        }
+    }
+
+    /**
+     * 从存储平台下载文件，只写入临时文件，失败时记录到flight中由读取的请求抛出
+     *
+     * @param flight
+     * @param objectName
+     */
+    private void fetch(Flight flight, String objectName) {
+        SpillOutputStream spillOutputStream = null;
+        RuntimeException failure = null;
+        try {
+            spillOutputStream = new SpillOutputStream(flight);
+            delegate.download(spillOutputStream, objectName);
+        } catch (IOException e) {
+            log.error("【文件下载异常】：写入下载临时文件失败，objectName：{}，{}", objectName, e);
+            failure = new FileDownloadException(StorageErrorCode.FILE_DOWNLOAD_ERROR);
+        } catch (RuntimeException e) {
+            failure = e;
+        } finally {
+            if (spillOutputStream != null) {
+                spillOutputStream.closeSpill();
+            }
+            flight.complete(failure);
+            flights.remove(objectName, flight);
+            flight.release();
+        }
+    }
+
+    /**
+     * 从临时文件中读取其他请求正在下载的内容
+     *
+     * @param flight
+     * @param outputStream
+     * @param objectName
+     */
+    private void follow(Flight flight, OutputStream outputStream, String objectName) {
+        try (FileChannel channel = FileChannel.open(flight.file, StandardOpenOption.READ)) {
+            WritableByteChannel target = Channels.newChannel(outputStream);
+            long position = 0;
+            while (true) {
+                long written = flight.await(position);
+                if (flight.failure != null) {
+                    throw flight.failure;
+                }
+                if (written > position) {
+                    position += channel.transferTo(position, written - position, target);
+                } else {
+                    // 下载已完成且已读取全部内容
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            log.error("【文件下载异常】：objectName：{}，{}", objectName, e);
+            throw new FileDownloadException(StorageErrorCode.FILE_DOWNLOAD_ERROR);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new FileDownloadException(StorageErrorCode.FILE_DOWNLOAD_ERROR);
+        }
+    }
+
+    /**
+     * 一次正在进行的下载
+     */
+    private static class Flight {
+
+        private final Path file;
+
+        /**
+         * 引用计数，下载线程和每个读取的请求各持有一个引用，计数为0时删除临时文件
+         */
+        private final AtomicInteger refCount = new AtomicInteger(1);
+
+        private long written;
+
+        private boolean done;
+
+        private volatile RuntimeException failure;
+
+        Flight(Path file) {
+            this.file = file;
+        }
+
+        synchronized void advance(long length) {
+            written += length;
+            notifyAll();
+        }
+
+        synchronized void complete(RuntimeException failure) {
+            this.failure = failure;
+            this.done = true;
+            notifyAll();
+        }
+
+        /**
+         * 等待写入位置超过指定位置或下载结束
+         *
+         * @param position
+         * @return 已写入的长度
+         * @throws InterruptedException
+         */
+        synchronized long await(long position) throws InterruptedException {
+            while (!done && written <= position) {
+                wait();
+            }
+            return written;
+        }
+
+        boolean retain() {
+            while (true) {
+                int count = refCount.get();
+                if (count == 0) {
+                    return false;
+                }
+                if (refCount.compareAndSet(count, count + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        void release() {
+            if (refCount.decrementAndGet() == 0) {
+                try {
+                    Files.deleteIfExists(file);
+                } catch (IOException e) {
+                    log.error("【删除下载临时文件异常】：file：{}，{}", file, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * 写入临时文件并通知读取的请求
+     */
+    private static class SpillOutputStream extends OutputStream {
+
+        private final Flight flight;
+
+        private final OutputStream spill;
+
+        SpillOutputStream(Flight flight) throws IOException {
+            this.flight = flight;
+            this.spill = Files.newOutputStream(flight.file);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int off, int len) throws IOException {
+            spill.write(bytes, off, len);
+            flight.advance(len);
+        }
+
+        void closeSpill() {
+            try {
+                spill.close();
+            } catch (IOException e) {
+                log.error("【关闭下载临时文件异常】：file：{}，{}", flight.file, e);
+            }
+        }
+    }
+}
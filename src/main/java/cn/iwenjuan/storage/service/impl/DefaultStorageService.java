@@ -1,6 +1,10 @@
 package cn.iwenjuan.storage.service.impl;
 
 import cn.iwenjuan.storage.config.StorageProperties;
+import cn.iwenjuan.storage.domain.ChunkPart;
+import cn.iwenjuan.storage.domain.ChunkUploadSession;
+import cn.iwenjuan.storage.domain.ObjectStat;
+import cn.iwenjuan.storage.domain.PresignedUrl;
 import cn.iwenjuan.storage.domain.UploadResponse;
 import cn.iwenjuan.storage.exception.FileDownloadException;
 import cn.iwenjuan.storage.exception.FileUploadException;
@@ -9,6 +13,8 @@ import cn.iwenjuan.storage.exception.enums.StorageErrorCode;
 import lombok.extern.slf4j.Slf4j;
 
 import java.io.InputStream;
+import java.time.Duration;
+import java.util.List;
 
 /**
  * @author li1244
@@ -17,17 +23,38 @@ import java.io.InputStream;
 @Slf4j
 public class DefaultStorageService extends AbstractStorageService {
 
+    /**
+     * 配置错误的存储平台
+     */
+    private final StorageProperties.PlatformType platform;
+
     public DefaultStorageService(StorageProperties storageProperties) {
+        this(storageProperties, storageProperties.getPlatform());
+    }
+
+    public DefaultStorageService(StorageProperties storageProperties, StorageProperties.PlatformType platform) {
         super(storageProperties);
+        this.platform = platform;
         printErrorConfigLog();
     }
 
+    @Override
+    protected StorageProperties.PlatformType getPlatform() {
+        return platform;
+    }
+
     @Override
     public UploadResponse uploadForInputStream(InputStream inputStream, String originalFilename, String uid, long fileSize) throws Exception {
         printErrorConfigLog();
         throw new FileUploadException(StorageErrorCode.CONFIG_ERROR);
     }
 
+    @Override
+    public ObjectStat stat(String objectName) {
+        printErrorConfigLog();
+        throw new StorageException(StorageErrorCode.CONFIG_ERROR);
+    }
+
     @Override
     public void delete(String objectName) {
         printErrorConfigLog();
@@ -35,7 +62,37 @@ public class DefaultStorageService extends AbstractStorageService {
     }
 
     @Override
-    protected InputStream getInputStream(String objectName) throws Exception {
+    protected String initiateMultipartUpload(ChunkUploadSession session) throws Exception {
+        printErrorConfigLog();
+        throw new FileUploadException(StorageErrorCode.CONFIG_ERROR);
+    }
+
+    @Override
+    protected ChunkPart uploadPart(ChunkUploadSession session, int partNumber, InputStream inputStream, long partSize) throws Exception {
+        printErrorConfigLog();
+        throw new FileUploadException(StorageErrorCode.CONFIG_ERROR);
+    }
+
+    @Override
+    protected void completeMultipartUpload(ChunkUploadSession session, List<ChunkPart> parts) throws Exception {
+        printErrorConfigLog();
+        throw new FileUploadException(StorageErrorCode.CONFIG_ERROR);
+    }
+
+    @Override
+    protected void abortMultipartUpload(ChunkUploadSession session) throws Exception {
+        printErrorConfigLog();
+        throw new FileUploadException(StorageErrorCode.CONFIG_ERROR);
+    }
+
+    @Override
+    protected boolean renameObject(String sourceObjectName, String targetObjectName, long fileSize) throws Exception {
+        printErrorConfigLog();
+        throw new StorageException(StorageErrorCode.CONFIG_ERROR);
+    }
+
+    @Override
+    protected InputStream getInputStream(String objectName, long offset, long length) throws Exception {
         printErrorConfigLog();
         throw new FileDownloadException(StorageErrorCode.CONFIG_ERROR);
     }
@@ -44,7 +101,6 @@ public class DefaultStorageService extends AbstractStorageService {
      * 打印错误日志
      */
     private void printErrorConfigLog() {
-        StorageProperties.PlatformType platform = storageProperties.getPlatform();
         if (platform == null) {
             log.error("未检测到存储平台，请检查配置：{}", storageProperties);
         } else {
@@ -69,4 +125,15 @@ public class DefaultStorageService extends AbstractStorageService {
         }
     }
 
+    @Override
+    protected PresignedUrl generatePresignedUploadUrl(String objectName, Duration ttl) {
+        printErrorConfigLog();
+        throw new StorageException(StorageErrorCode.CONFIG_ERROR);
+    }
+
+    @Override
+    protected PresignedUrl generatePresignedDownloadUrl(String objectName, Duration ttl) {
+        printErrorConfigLog();
+        throw new StorageException(StorageErrorCode.CONFIG_ERROR);
+    }
 }
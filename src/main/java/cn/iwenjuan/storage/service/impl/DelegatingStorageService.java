@@ -0,0 +1,172 @@
+package cn.iwenjuan.storage.service.impl;
+
+import cn.iwenjuan.storage.domain.ChunkPart;
+import cn.iwenjuan.storage.domain.ChunkUploadSession;
+import cn.iwenjuan.storage.domain.DeleteResponse;
+import cn.iwenjuan.storage.domain.ObjectStat;
+import cn.iwenjuan.storage.domain.PresignedUrl;
+import cn.iwenjuan.storage.domain.UploadResponse;
+import cn.iwenjuan.storage.domain.UploadResult;
+import cn.iwenjuan.storage.service.IStorageService;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * 存储服务装饰器基类，默认将所有方法委托给被包装的存储服务，子类按需重写
+ *
+ * @author li1244
+ * @date 2023/4/17 9:20
+ */
+public abstract class DelegatingStorageService implements IStorageService, DisposableBean {
+
+    protected final IStorageService delegate;
+
+    public DelegatingStorageService(IStorageService delegate) {
+        this.delegate = delegate;
+    }
+
+    /**
+     * 获取被包装的存储服务
+     *
+     * @return
+     */
+    public IStorageService getDelegate() {
+        return delegate;
+    }
+
+    @Override
+    public UploadResponse upload(MultipartFile multipartFile) {
+        return delegate.upload(multipartFile);
+    }
+
+    @Override
+    public UploadResponse upload(MultipartFile multipartFile, String uid) {
+        return delegate.upload(multipartFile, uid);
+    }
+
+    @Override
+    public UploadResponse upload(File file) {
+        return delegate.upload(file);
+    }
+
+    @Override
+    public UploadResponse upload(File file, String uid) {
+        return delegate.upload(file, uid);
+    }
+
+    @Override
+    public UploadResponse upload(InputStream inputStream, String originalFilename, String uid, long fileSize) throws Exception {
+        return delegate.upload(inputStream, originalFilename, uid, fileSize);
+    }
+
+    @Override
+    public List<UploadResult> uploadAll(List<MultipartFile> multipartFiles) {
+        return delegate.uploadAll(multipartFiles);
+    }
+
+    @Override
+    public List<UploadResult> uploadAllPaths(List<Path> paths) {
+        return delegate.uploadAllPaths(paths);
+    }
+
+    @Override
+    public ChunkUploadSession initChunkUpload(String originalFilename, long fileSize, String uid) {
+        return delegate.initChunkUpload(originalFilename, fileSize, uid);
+    }
+
+    @Override
+    public ChunkPart uploadChunk(String uploadId, int partNumber, InputStream inputStream, long partSize) {
+        return delegate.uploadChunk(uploadId, partNumber, inputStream, partSize);
+    }
+
+    @Override
+    public ChunkUploadSession getChunkUpload(String uploadId) {
+        return delegate.getChunkUpload(uploadId);
+    }
+
+    @Override
+    public UploadResponse completeChunkUpload(String uploadId) {
+        return delegate.completeChunkUpload(uploadId);
+    }
+
+    @Override
+    public void abortChunkUpload(String uploadId) {
+        delegate.abortChunkUpload(uploadId);
+    }
+
+    @Override
+    public boolean allowedToUpload(String originalFilename) {
+        return delegate.allowedToUpload(originalFilename);
+    }
+
+    @Override
+    public boolean exceedMaxSize(long fileSize) {
+        return delegate.exceedMaxSize(fileSize);
+    }
+
+    @Override
+    public boolean exists(String objectName) {
+        return delegate.exists(objectName);
+    }
+
+    @Override
+    public ObjectStat stat(String objectName) {
+        return delegate.stat(objectName);
+    }
+
+    @Override
+    public void download(OutputStream outputStream, String objectName) {
+        delegate.download(outputStream, objectName);
+    }
+
+    @Override
+    public void download(OutputStream outputStream, String objectName, long offset, long length) {
+        delegate.download(outputStream, objectName, offset, length);
+    }
+
+    @Override
+    public void download(WritableByteChannel channel, String objectName) {
+        delegate.download(channel, objectName);
+    }
+
+    @Override
+    public void download(Path target, String objectName) {
+        delegate.download(target, objectName);
+    }
+
+    @Override
+    public PresignedUrl presignUpload(String objectName, Duration ttl) {
+        return delegate.presignUpload(objectName, ttl);
+    }
+
+    @Override
+    public PresignedUrl presignDownload(String objectName, Duration ttl) {
+        return delegate.presignDownload(objectName, ttl);
+    }
+
+    @Override
+    public void delete(String objectName) {
+        delegate.delete(objectName);
+    }
+
+    @Override
+    public List<DeleteResponse> deleteAll(Collection<String> objectNames) {
+        return delegate.deleteAll(objectNames);
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        if (delegate instanceof DisposableBean) {
+            ((DisposableBean) delegate).destroy();
+        }
+    }
+}
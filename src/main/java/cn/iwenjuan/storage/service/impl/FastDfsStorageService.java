@@ -1,17 +1,41 @@
 package cn.iwenjuan.storage.service.impl;
 
 import cn.iwenjuan.storage.config.StorageProperties;
+import cn.iwenjuan.storage.domain.ChunkPart;
+import cn.iwenjuan.storage.domain.ChunkUploadSession;
+import cn.iwenjuan.storage.domain.DeleteResponse;
+import cn.iwenjuan.storage.domain.ObjectStat;
+import cn.iwenjuan.storage.domain.PresignedUrl;
 import cn.iwenjuan.storage.domain.UploadResponse;
 import cn.iwenjuan.storage.exception.FileUploadException;
+import cn.iwenjuan.storage.exception.FileDownloadException;
+import cn.iwenjuan.storage.exception.StorageException;
 import cn.iwenjuan.storage.exception.enums.StorageErrorCode;
 import cn.iwenjuan.storage.utils.DateUtils;
+import cn.iwenjuan.storage.utils.ExecutorUtils;
+import cn.iwenjuan.storage.utils.PipedBufferInputStream;
+import com.github.tobato.fastdfs.domain.fdfs.FileInfo;
 import com.github.tobato.fastdfs.domain.fdfs.StorePath;
 import com.github.tobato.fastdfs.domain.proto.storage.DownloadCallback;
+import com.github.tobato.fastdfs.exception.FdfsServerException;
+import com.github.tobato.fastdfs.service.AppendFileStorageClient;
 import com.github.tobato.fastdfs.service.FastFileStorageClient;
 import lombok.extern.slf4j.Slf4j;
 
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * @author li1244
@@ -20,11 +44,66 @@ import java.io.InputStream;
 @Slf4j
 public class FastDfsStorageService extends AbstractStorageService {
 
+    /**
+     * fastdfs文件不存在的错误码（ENOENT）
+     */
+    private static final int FILE_NOT_EXISTS_CODE = 2;
+
+    /**
+     * 文件流管道的缓冲区大小
+     */
+    private static final int PIPE_BUFFER_SIZE = 65536;
+
     private FastFileStorageClient fastFileStorageClient;
 
+    private AppendFileStorageClient appendFileStorageClient;
+
+    private ScheduledExecutorService trackerProbeExecutor;
+
+    private volatile ExecutorService downloadExecutor;
+
     public FastDfsStorageService(StorageProperties storageProperties, FastFileStorageClient fastFileStorageClient) {
+        this(storageProperties, fastFileStorageClient, null);
+    }
+
+    public FastDfsStorageService(StorageProperties storageProperties, FastFileStorageClient fastFileStorageClient, AppendFileStorageClient appendFileStorageClient) {
         super(storageProperties);
         this.fastFileStorageClient = fastFileStorageClient;
+        this.appendFileStorageClient = appendFileStorageClient;
+    }
+
+    /**
+     * 定时检测tracker响应时间，重新选择使用的tracker
+     *
+     * @param trackerProbe      检测任务
+     * @param intervalMillis    检测间隔，单位毫秒，小于等于0时不定时检测
+     */
+    public synchronized void scheduleTrackerProbe(Runnable trackerProbe, long intervalMillis) {
+        if (intervalMillis <= 0) {
+            return;
+        }
+        ExecutorUtils.shutdown(trackerProbeExecutor);
+        trackerProbeExecutor = Executors.newSingleThreadScheduledExecutor(ExecutorUtils.newThreadFactory("storage-fastdfs-probe-"));
+        trackerProbeExecutor.scheduleWithFixedDelay(() -> {
+            try {
+                trackerProbe.run();
+            } catch (RuntimeException e) {
+                // 异常会终止定时任务，记录后继续下一次检测
+                log.error("【fastdfs tracker检测异常】：{}", e);
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    protected StorageProperties.PlatformType getPlatform() {
+        return StorageProperties.PlatformType.fastdfs;
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        ExecutorUtils.shutdown(trackerProbeExecutor);
+        ExecutorUtils.shutdown(downloadExecutor);
+        super.destroy();
     }
 
     @Override
@@ -49,24 +128,213 @@ public class FastDfsStorageService extends AbstractStorageService {
         }
     }
 
+    @Override
+    protected UploadResponse commitUpload(UploadResponse response, String uid) {
+        // fastdfs的文件名由存储服务器生成，与uid无关，无需重命名
+        return response.setUid(uid);
+    }
+
+    @Override
+    protected boolean renameObject(String sourceObjectName, String targetObjectName, long fileSize) {
+        throw new StorageException(StorageErrorCode.OPERATION_NOT_SUPPORTED);
+    }
+
+    @Override
+    protected String initiateMultipartUpload(ChunkUploadSession session) {
+        if (appendFileStorageClient == null) {
+            log.error("未设置fastdfs追加文件客户端，不支持分片上传");
+            throw new StorageException(StorageErrorCode.OPERATION_NOT_SUPPORTED);
+        }
+        return null;
+    }
+
+    @Override
+    protected ChunkPart uploadPart(ChunkUploadSession session, int partNumber, InputStream inputStream, long partSize) throws Exception {
+        // fastdfs的追加文件只能按顺序追加，分片先保存到临时文件，合并时再按顺序追加
+        return writeChunkPartFile(session, partNumber, inputStream, partSize);
+    }
+
+    @Override
+    protected void completeMultipartUpload(ChunkUploadSession session, List<ChunkPart> parts) throws Exception {
+        String originalFilename = session.getFileName();
+        String extName = originalFilename.substring(originalFilename.lastIndexOf(".") + 1);
+        StorePath storePath = null;
+        try {
+            for (ChunkPart part : parts) {
+                File partFile = getChunkPartFile(session, part.getPartNumber());
+                try (InputStream inputStream = new FileInputStream(partFile)) {
+                    if (storePath == null) {
+                        storePath = appendFileStorageClient.uploadAppenderFile(null, inputStream, part.getPartSize(), extName);
+                    } else {
+                        appendFileStorageClient.appendFile(storePath.getGroup(), storePath.getPath(), inputStream, part.getPartSize());
+                    }
+                }
+            }
+        } catch (Exception e) {
+            if (storePath != null) {
+                appendFileStorageClient.deleteFile(storePath.getGroup(), storePath.getPath());
+            }
+            throw e;
+        }
+        session.setFileUrl(SLASH.concat(storePath.getFullPath())).setPath("");
+        deleteChunkPartFiles(session);
+    }
+
+    @Override
+    protected void abortMultipartUpload(ChunkUploadSession session) {
+        deleteChunkPartFiles(session);
+    }
+
+    @Override
+    public ObjectStat stat(String objectName) {
+        try {
+            String[] groupAndPath = getGroupAndPath(objectName);
+            if (groupAndPath == null) {
+                // 不是fastdfs的文件路径（组名/文件路径），文件不存在
+                return null;
+            }
+            FileInfo fileInfo = fastFileStorageClient.queryFileInfo(groupAndPath[0], groupAndPath[1]);
+            if (fileInfo == null) {
+                return null;
+            }
+            return new ObjectStat()
+                    .setObjectName(objectName)
+                    .setFileSize(fileInfo.getFileSize())
+                    // fastdfs的创建时间单位为秒
+                    .setLastModified(new Date(fileInfo.getCreateTime() * 1000))
+                    .setEtag(Integer.toHexString(fileInfo.getCrc32()));
+        } catch (FdfsServerException e) {
+            if (e.getErrorCode() == FILE_NOT_EXISTS_CODE) {
+                return null;
+            }
+            log.error("【获取文件信息异常】：objectName：{}，{}", objectName, e);
+            throw new StorageException(StorageErrorCode.FILE_STAT_ERROR);
+        } catch (Exception e) {
+            log.error("【获取文件信息异常】：objectName：{}，{}", objectName, e);
+            throw new StorageException(StorageErrorCode.FILE_STAT_ERROR);
+        }
+    }
+
     @Override
     public void delete(String objectName) {
         fastFileStorageClient.deleteFile(objectName);
     }
 
     @Override
-    protected InputStream getInputStream(String objectName) throws Exception {
-        if (objectName.startsWith("/")) {
-            objectName = objectName.substring(1);
+    protected List<DeleteResponse> deleteBatch(List<String> objectNames) {
+        // fastdfs客户端不支持批量删除，逐个删除，多个批次在连接池的不同连接上并发执行
+        List<DeleteResponse> responses = new ArrayList<>(objectNames.size());
+        for (String objectName : objectNames) {
+            try {
+                fastFileStorageClient.deleteFile(objectName);
+                responses.add(DeleteResponse.success(objectName));
+            } catch (FdfsServerException e) {
+                if (e.getErrorCode() == FILE_NOT_EXISTS_CODE) {
+                    responses.add(DeleteResponse.success(objectName));
+                } else {
+                    log.error("【删除文件异常】：objectName：{}，{}", objectName, e);
+                    responses.add(DeleteResponse.failure(objectName, e.getMessage()));
+                }
+            } catch (Exception e) {
+                log.error("【删除文件异常】：objectName：{}，{}", objectName, e);
+                responses.add(DeleteResponse.failure(objectName, e.getMessage()));
+            }
+        }
+        return responses;
+    }
+
+    @Override
+    protected void writeTo(OutputStream outputStream, String objectName, long offset, long length) throws Exception {
+        String[] groupAndPath = getGroupAndPath(objectName);
+        if (groupAndPath == null) {
+            throw new FileDownloadException(StorageErrorCode.FILE_NOT_EXIST);
         }
-        int index = objectName.indexOf("/");
-        String group = objectName.substring(0,index);
-        String path = objectName.substring(index + 1);
-        return fastFileStorageClient.downloadFile(group, path, new DownloadCallback<InputStream>() {
+        // fastdfs的文件流属于连接池中的连接，回调返回后连接被归还，只能在回调中读取，下载长度为0时下载到文件末尾
+        fastFileStorageClient.downloadFile(groupAndPath[0], groupAndPath[1], offset, Math.max(length, 0), new DownloadCallback<Long>() {
             @Override
-            public InputStream recv(InputStream ins) throws IOException {
-                return ins;
+            public Long recv(InputStream ins) throws IOException {
+                return copy(ins, outputStream);
+            }
+        });
+    }
+
+    /**
+     * 在下载线程中通过回调写入管道，返回管道的读取端
+     * 管道缓冲区满时下载线程等待读取，调用方关闭文件流时下载结束，连接不会被长时间占用；下载失败时读取抛出异常
+     */
+    @Override
+    protected InputStream getInputStream(String objectName, long offset, long length) throws Exception {
+        StorageProperties.FastDfsProperties fastdfs = storageProperties.getFastdfs();
+        long writeTimeout = fastdfs == null ? 0 : fastdfs.getDownloadWriteTimeout();
+        PipedBufferInputStream inputStream = new PipedBufferInputStream(PIPE_BUFFER_SIZE, writeTimeout);
+        getDownloadExecutor().execute(() -> {
+            try {
+                writeTo(inputStream.getOutputStream(), objectName, offset, length);
+                inputStream.getOutputStream().close();
+            } catch (Throwable e) {
+                inputStream.fail(e);
             }
         });
+        return inputStream;
+    }
+
+    public void setDownloadExecutor(ExecutorService downloadExecutor) {
+        this.downloadExecutor = downloadExecutor;
+    }
+
+    /**
+     * 获取文件流下载线程池，每个未读完的文件流占用一个线程和一个连接，线程数与fastdfs连接池的最大连接数相同，
+     * 超出的下载排队等待，队列满时拒绝（不能由调用方线程执行，调用方线程还要读取文件流）
+     * @return
+     */
+    protected ExecutorService getDownloadExecutor() {
+        if (downloadExecutor == null) {
+            synchronized (this) {
+                if (downloadExecutor == null) {
+                    int threads = getMaxConnections();
+                    downloadExecutor = ExecutorUtils.newBoundedExecutor("storage-fastdfs-download-", threads, threads, new ThreadPoolExecutor.AbortPolicy());
+                }
+            }
+        }
+        return downloadExecutor;
+    }
+
+    /**
+     * fastdfs连接池的最大连接数，未限制总数时按每个服务器的最大连接数计算
+     * @return
+     */
+    private int getMaxConnections() {
+        StorageProperties.FastDfsProperties fastdfs = storageProperties.getFastdfs();
+        if (fastdfs == null) {
+            return new StorageProperties.FastDfsProperties().getMaxTotalPerKey();
+        }
+        if (fastdfs.getMaxTotal() > 0) {
+            return fastdfs.getMaxTotal();
+        }
+        return Math.max(fastdfs.getMaxTotalPerKey(), 1);
+    }
+
+    /**
+     * 拆分文件路径为组名和文件路径
+     * @param objectName
+     * @return 不是组名/文件路径格式时返回null
+     */
+    private String[] getGroupAndPath(String objectName) {
+        objectName = getObjectKey(objectName);
+        int index = objectName.indexOf(SLASH);
+        if (index <= 0 || index == objectName.length() - 1) {
+            return null;
+        }
+        return new String[]{objectName.substring(0, index), objectName.substring(index + 1)};
+    }
+
+    @Override
+    protected PresignedUrl generatePresignedUploadUrl(String objectName, Duration ttl) {
+        throw new StorageException(StorageErrorCode.OPERATION_NOT_SUPPORTED);
+    }
+
+    @Override
+    protected PresignedUrl generatePresignedDownloadUrl(String objectName, Duration ttl) {
+        throw new StorageException(StorageErrorCode.OPERATION_NOT_SUPPORTED);
     }
 }
@@ -1,14 +1,28 @@
 package cn.iwenjuan.storage.service.impl;
 
 import cn.iwenjuan.storage.config.StorageProperties;
+import cn.iwenjuan.storage.domain.ChunkPart;
+import cn.iwenjuan.storage.domain.ChunkUploadSession;
+import cn.iwenjuan.storage.domain.DeleteResponse;
+import cn.iwenjuan.storage.domain.ObjectStat;
+import cn.iwenjuan.storage.domain.PresignedUrl;
 import cn.iwenjuan.storage.domain.UploadResponse;
 import cn.iwenjuan.storage.exception.FileDownloadException;
 import cn.iwenjuan.storage.exception.enums.StorageErrorCode;
+import cn.iwenjuan.storage.presign.LocalUrlSigner;
+import cn.iwenjuan.storage.utils.BoundedInputStream;
 import cn.iwenjuan.storage.utils.DateUtils;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.tomcat.util.http.fileupload.IOUtils;
 
 import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.*;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
 
 /**
  * @author li1244
@@ -19,15 +33,33 @@ public class LocalStorageService extends AbstractStorageService {
 
     private StorageProperties.LocalProperties localProperties;
 
+    private final LocalUrlSigner urlSigner;
+
     public LocalStorageService(StorageProperties storageProperties) {
+        this(storageProperties, new LocalUrlSigner(storageProperties.getLocal()));
+    }
+
+    public LocalStorageService(StorageProperties storageProperties, LocalUrlSigner urlSigner) {
         super(storageProperties);
         this.localProperties = storageProperties.getLocal();
+        this.urlSigner = urlSigner;
+    }
+
+    public LocalUrlSigner getUrlSigner() {
+        return urlSigner;
+    }
+
+    @Override
+    protected StorageProperties.PlatformType getPlatform() {
+        return StorageProperties.PlatformType.local;
     }
 
     @Override
     public UploadResponse uploadForInputStream(InputStream inputStream, String originalFilename, String uid, long fileSize) throws Exception {
 
         OutputStream outputStream = null;
+        File file = null;
+        boolean completed = false;
         try {
             String path = getPath();
             mkdir(path);
@@ -42,13 +74,15 @@ public class LocalStorageService extends AbstractStorageService {
                     .setUid(uid)
                     .setUploadTime(DateUtils.now());
 
-            File file = new File(fileUrl);
+            file = new File(fileUrl);
             if (file.exists()) {
                 // 文件已上传过，不再上传
+                completed = true;
                 return response;
             }
             outputStream = new FileOutputStream(fileUrl);
             IOUtils.copy(inputStream, outputStream);
+            completed = true;
             return response;
         } catch (Exception e) {
             log.error("【文件上传异常】：originalFilename：{}，{}", originalFilename, e);
@@ -68,7 +102,78 @@ public class LocalStorageService extends AbstractStorageService {
                     e.printStackTrace();
                 }
             }
+            if (!completed && file != null) {
+                // 上传失败，删除未写完的文件
+                file.delete();
+            }
+        }
+    }
+
+    @Override
+    protected boolean renameObject(String sourceObjectName, String targetObjectName, long fileSize) throws Exception {
+        Path source = Paths.get(sourceObjectName);
+        Path target = Paths.get(targetObjectName);
+        try {
+            // ATOMIC_MOVE在目标文件存在时会直接覆盖，使用硬链接保证只有一个上传能创建目标文件
+            Files.createLink(target, source);
+        } catch (FileAlreadyExistsException e) {
+            // 文件已上传过，删除临时文件
+            Files.deleteIfExists(source);
+            return false;
+        } catch (UnsupportedOperationException | FileSystemException e) {
+            // 文件系统不支持硬链接，不覆盖已存在的文件
+            try {
+                Files.move(source, target);
+                return true;
+            } catch (FileAlreadyExistsException ex) {
+                Files.deleteIfExists(source);
+                return false;
+            }
+        }
+        Files.deleteIfExists(source);
+        return true;
+    }
+
+    @Override
+    protected String initiateMultipartUpload(ChunkUploadSession session) {
+        return null;
+    }
+
+    @Override
+    protected ChunkPart uploadPart(ChunkUploadSession session, int partNumber, InputStream inputStream, long partSize) throws Exception {
+        return writeChunkPartFile(session, partNumber, inputStream, partSize);
+    }
+
+    @Override
+    protected void completeMultipartUpload(ChunkUploadSession session, List<ChunkPart> parts) throws Exception {
+        Path target = Paths.get(session.getFileUrl());
+        if (!Files.exists(target)) {
+            mkdir(session.getPath());
+            Path temp = Paths.get(getFileUrl(session.getPath(), session.getFileName(), TEMP_UID_PREFIX.concat(session.getUploadId())));
+            try {
+                try (FileChannel outChannel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                    for (ChunkPart part : parts) {
+                        // 使用transferTo合并分片，数据不经过用户态缓冲区
+                        try (FileChannel inChannel = FileChannel.open(getChunkPartFile(session, part.getPartNumber()).toPath(), StandardOpenOption.READ)) {
+                            long position = 0;
+                            long size = inChannel.size();
+                            while (position < size) {
+                                position += inChannel.transferTo(position, size - position, outChannel);
+                            }
+                        }
+                    }
+                }
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
         }
+        deleteChunkPartFiles(session);
+    }
+
+    @Override
+    protected void abortMultipartUpload(ChunkUploadSession session) {
+        deleteChunkPartFiles(session);
     }
 
     /**
@@ -82,14 +187,64 @@ public class LocalStorageService extends AbstractStorageService {
         }
     }
 
+    /**
+     * 使用FileChannel.transferTo下载，目标为socket或文件通道时由操作系统直接复制数据（Linux下为sendfile），不经过用户态缓冲区
+     *
+     * @param channel
+     * @param objectName
+     */
     @Override
-    protected InputStream getInputStream(String objectName) {
+    public void download(WritableByteChannel channel, String objectName) {
+        try (FileChannel fileChannel = FileChannel.open(Paths.get(objectName), StandardOpenOption.READ)) {
+            long position = 0;
+            long size = fileChannel.size();
+            while (position < size) {
+                position += fileChannel.transferTo(position, size - position, channel);
+            }
+        } catch (NoSuchFileException e) {
+            log.error("【文件下载异常】：objectName：{}，{}", objectName, e);
+            throw new FileDownloadException(StorageErrorCode.FILE_NOT_EXIST);
+        } catch (IOException e) {
+            log.error("【文件下载异常】：objectName：{}，{}", objectName, e);
+            throw new FileDownloadException(StorageErrorCode.FILE_DOWNLOAD_ERROR);
+        }
+    }
+
+    @Override
+    protected InputStream getInputStream(String objectName, long offset, long length) throws IOException {
+        FileInputStream inputStream;
         try {
-            return new FileInputStream(objectName);
+            inputStream = new FileInputStream(objectName);
         } catch (FileNotFoundException e) {
             log.error("【文件下载异常】：objectName：{}，{}", objectName, e);
             throw new FileDownloadException(StorageErrorCode.FILE_NOT_EXIST);
         }
+        try {
+            if (offset > 0) {
+                inputStream.getChannel().position(offset);
+            }
+        } catch (IOException e) {
+            inputStream.close();
+            throw e;
+        }
+        return length < 0 ? inputStream : new BoundedInputStream(inputStream, length);
+    }
+
+    @Override
+    public boolean exists(String objectName) {
+        return new File(objectName).isFile();
+    }
+
+    @Override
+    public ObjectStat stat(String objectName) {
+        File file = new File(objectName);
+        if (!file.isFile()) {
+            return null;
+        }
+        return new ObjectStat()
+                .setObjectName(objectName)
+                .setFileSize(file.length())
+                .setLastModified(new Date(file.lastModified()));
     }
 
     @Override
@@ -99,4 +254,29 @@ public class LocalStorageService extends AbstractStorageService {
             file.delete();
         }
     }
+
+    @Override
+    protected List<DeleteResponse> deleteBatch(List<String> objectNames) {
+        List<DeleteResponse> responses = new ArrayList<>(objectNames.size());
+        for (String objectName : objectNames) {
+            try {
+                Files.deleteIfExists(Paths.get(objectName));
+                responses.add(DeleteResponse.success(objectName));
+            } catch (IOException | InvalidPathException e) {
+                log.error("【删除文件异常】：objectName：{}，{}", objectName, e);
+                responses.add(DeleteResponse.failure(objectName, e.getMessage()));
+            }
+        }
+        return responses;
+    }
+
+    @Override
+    protected PresignedUrl generatePresignedUploadUrl(String objectName, Duration ttl) {
+        return urlSigner.presign("PUT", objectName, ttl);
+    }
+
+    @Override
+    protected PresignedUrl generatePresignedDownloadUrl(String objectName, Duration ttl) {
+        return urlSigner.presign("GET", objectName, ttl);
+    }
 }
@@ -0,0 +1,152 @@
+package cn.iwenjuan.storage.service.impl;
+
+import cn.iwenjuan.storage.cache.MemoryCache;
+import cn.iwenjuan.storage.domain.DeleteResponse;
+import cn.iwenjuan.storage.exception.FileDownloadException;
+import cn.iwenjuan.storage.exception.enums.StorageErrorCode;
+import cn.iwenjuan.storage.service.IStorageService;
+import cn.iwenjuan.storage.utils.TeeOutputStream;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * 带内存缓存的存储服务，用于头像、图标等频繁下载的小文件
+ * 下载时优先读取内存缓存，未缓存时从存储平台下载，文件不超过缓存的最大文件大小时放入缓存；删除文件时删除对应的缓存
+ *
+ * @author li1244
+ * @date 2023/4/18 14:10
+ */
+@Slf4j
+public class MemoryCachingStorageService extends DelegatingStorageService {
+
+    private final MemoryCache memoryCache;
+
+    private final int maxObjectSize;
+
+    /**
+     * @param delegate          被包装的存储服务
+     * @param memoryCache       内存缓存
+     * @param maxObjectSize     允许缓存的最大文件大小，单位字节
+     */
+    public MemoryCachingStorageService(IStorageService delegate, MemoryCache memoryCache, int maxObjectSize) {
+        super(delegate);
+        this.memoryCache = memoryCache;
+        this.maxObjectSize = maxObjectSize;
+    }
+
+    public MemoryCache getMemoryCache() {
+        return memoryCache;
+    }
+
+    @Override
+    public void download(OutputStream outputStream, String objectName) {
+        ByteBuffer buffer = memoryCache.get(objectName);
+        if (buffer != null) {
+            write(buffer, Channels.newChannel(outputStream), objectName);
+            return;
+        }
+        downloadAndCache(outputStream, objectName);
+    }
+
+    @Override
+    public void download(OutputStream outputStream, String objectName, long offset, long length) {
+        // 与存储平台一致校验下载范围，命中缓存和未命中时结果相同
+        if (offset < 0) {
+            throw new FileDownloadException(StorageErrorCode.FILE_RANGE_IS_INVALID);
+        }
+        if (length == 0) {
+            return;
+        }
+        ByteBuffer buffer = memoryCache.get(objectName);
+        if (buffer != null) {
+            if (offset >= buffer.limit()) {
+                throw new FileDownloadException(StorageErrorCode.FILE_RANGE_IS_INVALID);
+            }
+            buffer.position((int) offset);
+            if (length > 0 && offset + length < buffer.limit()) {
+                buffer.limit((int) (offset + length));
+            }
+            write(buffer, Channels.newChannel(outputStream), objectName);
+            return;
+        }
+        // 部分下载不放入缓存
+        delegate.download(outputStream, objectName, offset, length);
+    }
+
+    @Override
+    public void download(WritableByteChannel channel, String objectName) {
+        ByteBuffer buffer = memoryCache.get(objectName);
+        if (buffer != null) {
+            write(buffer, channel, objectName);
+            return;
+        }
+        downloadAndCache(Channels.newOutputStream(channel), objectName);
+    }
+
+    @Override
+    public void download(Path target, String objectName) {
+        ByteBuffer buffer = memoryCache.get(objectName);
+        if (buffer == null) {
+            delegate.download(target, objectName);
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            write(buffer, channel, objectName);
+        } catch (IOException e) {
+            log.error("【文件下载异常】：objectName：{}，target：{}，{}", objectName, target, e);
+            throw new FileDownloadException(StorageErrorCode.FILE_DOWNLOAD_ERROR);
+        }
+    }
+
+    @Override
+    public void delete(String objectName) {
+        delegate.delete(objectName);
+        memoryCache.invalidate(objectName);
+    }
+
+    @Override
+    public List<DeleteResponse> deleteAll(Collection<String> objectNames) {
+        List<DeleteResponse> responses = delegate.deleteAll(objectNames);
+        for (String objectName : objectNames) {
+            memoryCache.invalidate(objectName);
+        }
+        return responses;
+    }
+
+    /**
+     * 从存储平台下载文件，文件不超过缓存的最大文件大小时放入缓存
+     *
+     * @param outputStream
+     * @param objectName
+     */
+    private void downloadAndCache(OutputStream outputStream, String objectName) {
+        ByteArrayOutputStream cacheOutputStream = new ByteArrayOutputStream();
+        TeeOutputStream teeOutputStream = new TeeOutputStream(outputStream, cacheOutputStream, maxObjectSize);
+        delegate.download(teeOutputStream, objectName);
+        if (teeOutputStream.closeBranch() && cacheOutputStream.size() > 0) {
+            memoryCache.put(objectName, cacheOutputStream.toByteArray(), cacheOutputStream.size());
+        }
+    }
+
+    private void write(ByteBuffer buffer, WritableByteChannel channel, String objectName) {
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } catch (IOException e) {
+            log.error("【文件下载异常】：objectName：{}，{}", objectName, e);
+            throw new FileDownloadException(StorageErrorCode.FILE_DOWNLOAD_ERROR);
+        }
+    }
+}
@@ -0,0 +1,603 @@
+package cn.iwenjuan.storage.service.impl;
+
+import cn.iwenjuan.storage.domain.*;
+import cn.iwenjuan.storage.exception.BaseException;
+import cn.iwenjuan.storage.exception.enums.StorageErrorCode;
+import cn.iwenjuan.storage.service.IStorageService;
+import io.micrometer.core.instrument.*;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 记录存储服务指标的存储服务，包装在最外层，记录调用方看到的耗时（包含缓存命中）
+ * storage.operation：每种操作的耗时（按平台、操作、结果区分，发布配置的百分位数）
+ * storage.inflight：每种操作正在执行的数量
+ * storage.bytes：上传、下载的字节数
+ * storage.upload.deduplicated：文件已上传过、未保存新文件的上传次数
+ * storage.errors：按StorageErrorCode区分的异常次数
+ * 所有指标在创建时注册，调用时不再创建对象，下载的计数输出流按线程复用
+ *
+ * @author li1244
+ * @date 2023/4/24 9:40
+ */
+public class MetricsStorageService extends DelegatingStorageService {
+
+    private static final StorageErrorCode[] ERROR_CODES = StorageErrorCode.values();
+
+    private static final String UNKNOWN_ERROR = "UNKNOWN";
+
+    private final Clock clock;
+
+    private final OperationMeters[] operationMeters;
+
+    private final Counter uploadBytes;
+
+    private final Counter downloadBytes;
+
+    private final Counter deduplicated;
+
+    /**
+     * 按ERROR_CODES的顺序排列，最后一个为未知异常
+     */
+    private final Counter[] errors;
+
+    private final ThreadLocal<CountingOutputStream> countingOutputStreams = ThreadLocal.withInitial(CountingOutputStream::new);
+
+    /**
+     * @param delegate              被包装的存储服务
+     * @param registry
+     * @param platform              存储平台名称
+     * @param percentiles           耗时指标发布的百分位数
+     * @param percentileHistogram   是否发布耗时直方图
+     */
+    public MetricsStorageService(IStorageService delegate, MeterRegistry registry, String platform, double[] percentiles, boolean percentileHistogram) {
+        super(delegate);
+        this.clock = registry.config().clock();
+        Operation[] operations = Operation.values();
+        this.operationMeters = new OperationMeters[operations.length];
+        for (Operation operation : operations) {
+            operationMeters[operation.ordinal()] = new OperationMeters(registry, platform, operation, percentiles, percentileHistogram);
+        }
+        this.uploadBytes = Counter.builder("storage.bytes").description("上传、下载的字节数").baseUnit("bytes")
+                .tags("platform", platform, "direction", "upload").register(registry);
+        this.downloadBytes = Counter.builder("storage.bytes").description("上传、下载的字节数").baseUnit("bytes")
+                .tags("platform", platform, "direction", "download").register(registry);
+        this.deduplicated = Counter.builder("storage.upload.deduplicated").description("文件已上传过、未保存新文件的上传次数")
+                .tags("platform", platform).register(registry);
+        this.errors = new Counter[ERROR_CODES.length + 1];
+        for (int i = 0; i < ERROR_CODES.length; i++) {
+            errors[i] = errorCounter(registry, platform, ERROR_CODES[i].name(), String.valueOf(ERROR_CODES[i].getCode()));
+        }
+        errors[ERROR_CODES.length] = errorCounter(registry, platform, UNKNOWN_ERROR, UNKNOWN_ERROR);
+    }
+
+    private static Counter errorCounter(MeterRegistry registry, String platform, String error, String code) {
+        return Counter.builder("storage.errors").description("按错误码区分的异常次数")
+                .tags("platform", platform, "error", error, "code", code).register(registry);
+    }
+
+    @Override
+    public UploadResponse upload(MultipartFile multipartFile) {
+        long start = begin(Operation.UPLOAD);
+        try {
+            UploadResponse response = delegate.upload(multipartFile);
+            uploaded(response);
+            end(Operation.UPLOAD, start, null);
+            return response;
+        } catch (Throwable e) {
+            end(Operation.UPLOAD, start, e);
+            throw e;
+        }
+    }
+
+    @Override
+    public UploadResponse upload(MultipartFile multipartFile, String uid) {
+        long start = begin(Operation.UPLOAD);
+        try {
+            UploadResponse response = delegate.upload(multipartFile, uid);
+            uploaded(response);
+            end(Operation.UPLOAD, start, null);
+            return response;
+        } catch (Throwable e) {
+            end(Operation.UPLOAD, start, e);
+            throw e;
+        }
+    }
+
+    @Override
+    public UploadResponse upload(File file) {
+        long start = begin(Operation.UPLOAD);
+        try {
+            UploadResponse response = delegate.upload(file);
+            uploaded(response);
+            end(Operation.UPLOAD, start, null);
+            return response;
+        } catch (Throwable e) {
+            end(Operation.UPLOAD, start, e);
+            throw e;
+        }
+    }
+
+    @Override
+    public UploadResponse upload(File file, String uid) {
+        long start = begin(Operation.UPLOAD);
+        try {
+            UploadResponse response = delegate.upload(file, uid);
+            uploaded(response);
+            end(Operation.UPLOAD, start, null);
+            return response;
+        } catch (Throwable e) {
+            end(Operation.UPLOAD, start, e);
+            throw e;
+        }
+    }
+
+    @Override
+    public UploadResponse upload(InputStream inputStream, String originalFilename, String uid, long fileSize) throws Exception {
+        long start = begin(Operation.UPLOAD);
+        try {
+            UploadResponse response = delegate.upload(inputStream, originalFilename, uid, fileSize);
+            uploaded(response);
+            end(Operation.UPLOAD, start, null);
+            return response;
+        } catch (Throwable e) {
+            end(Operation.UPLOAD, start, e);
+            throw e;
+        }
+    }
+
+    @Override
+    public List<UploadResult> uploadAll(List<MultipartFile> multipartFiles) {
+        long start = begin(Operation.UPLOAD_ALL);
+        try {
+            List<UploadResult> results = delegate.uploadAll(multipartFiles);
+            uploaded(results);
+            end(Operation.UPLOAD_ALL, start, null);
+            return results;
+        } catch (Throwable e) {
+            end(Operation.UPLOAD_ALL, start, e);
+            throw e;
+        }
+    }
+
+    @Override
+    public List<UploadResult> uploadAllPaths(List<Path> paths) {
+        long start = begin(Operation.UPLOAD_ALL);
+        try {
+            List<UploadResult> results = delegate.uploadAllPaths(paths);
+            uploaded(results);
+            end(Operation.UPLOAD_ALL, start, null);
+            return results;
+        } catch (Throwable e) {
+            end(Operation.UPLOAD_ALL, start, e);
+            throw e;
+        }
+    }
+
+    @Override
+    public ChunkUploadSession initChunkUpload(String originalFilename, long fileSize, String uid) {
+        long start = begin(Operation.INIT_CHUNK_UPLOAD);
+        try {
+            ChunkUploadSession session = delegate.initChunkUpload(originalFilename, fileSize, uid);
+            end(Operation.INIT_CHUNK_UPLOAD, start, null);
+            return session;
+        } catch (Throwable e) {
+            end(Operation.INIT_CHUNK_UPLOAD, start, e);
+            throw e;
+        }
+    }
+
+    @Override
+    public ChunkPart uploadChunk(String uploadId, int partNumber, InputStream inputStream, long partSize) {
+        long start = begin(Operation.UPLOAD_CHUNK);
+        try {
+            ChunkPart part = delegate.uploadChunk(uploadId, partNumber, inputStream, partSize);
+            uploadBytes.increment(partSize);
+            end(Operation.UPLOAD_CHUNK, start, null);
+            return part;
+        } catch (Throwable e) {
+            end(Operation.UPLOAD_CHUNK, start, e);
+            throw e;
+        }
+    }
+
+    @Override
+    public UploadResponse completeChunkUpload(String uploadId) {
+        long start = begin(Operation.COMPLETE_CHUNK_UPLOAD);
+        try {
+            UploadResponse response = delegate.completeChunkUpload(uploadId);
+            if (response != null && response.isDeduplicated()) {
+                deduplicated.increment();
+            }
+            end(Operation.COMPLETE_CHUNK_UPLOAD, start, null);
+            return response;
+        } catch (Throwable e) {
+            end(Operation.COMPLETE_CHUNK_UPLOAD, start, e);
+            throw e;
+        }
+    }
+
+    @Override
+    public void abortChunkUpload(String uploadId) {
+        long start = begin(Operation.ABORT_CHUNK_UPLOAD);
+        try {
+            delegate.abortChunkUpload(uploadId);
+            end(Operation.ABORT_CHUNK_UPLOAD, start, null);
+        } catch (Throwable e) {
+            end(Operation.ABORT_CHUNK_UPLOAD, start, e);
+            throw e;
+        }
+    }
+
+    @Override
+    public boolean exists(String objectName) {
+        long start = begin(Operation.EXISTS);
+        try {
+            boolean exists = delegate.exists(objectName);
+            end(Operation.EXISTS, start, null);
+            return exists;
+        } catch (Throwable e) {
+            end(Operation.EXISTS, start, e);
+            throw e;
+        }
+    }
+
+    @Override
+    public ObjectStat stat(String objectName) {
+        long start = begin(Operation.STAT);
+        try {
+            ObjectStat stat = delegate.stat(objectName);
+            end(Operation.STAT, start, null);
+            return stat;
+        } catch (Throwable e) {
+            end(Operation.STAT, start, e);
+            throw e;
+        }
+    }
+
+    @Override
+    public void download(OutputStream outputStream, String objectName) {
+        long start = begin(Operation.DOWNLOAD);
+        CountingOutputStream counting = countingOutputStream(outputStream);
+        try {
+            delegate.download(counting, objectName);
+            end(Operation.DOWNLOAD, start, null);
+        } catch (Throwable e) {
+            end(Operation.DOWNLOAD, start, e);
+            throw e;
+        } finally {
+            downloadBytes.increment(counting.release());
+        }
+    }
+
+    @Override
+    public void download(OutputStream outputStream, String objectName, long offset, long length) {
+        long start = begin(Operation.DOWNLOAD);
+        CountingOutputStream counting = countingOutputStream(outputStream);
+        try {
+            delegate.download(counting, objectName, offset, length);
+            end(Operation.DOWNLOAD, start, null);
+        } catch (Throwable e) {
+            end(Operation.DOWNLOAD, start, e);
+            throw e;
+        } finally {
+            downloadBytes.increment(counting.release());
+        }
+    }
+
+    /**
+     * 文件通道、套接字通道不包装，本地存储可以直接从文件通道零拷贝写入，文件通道的字节数按位置的变化计算，
+     * 套接字通道没有位置，不统计字节数；其他通道包装为计数通道
+     */
+    @Override
+    public void download(WritableByteChannel channel, String objectName) {
+        long start = begin(Operation.DOWNLOAD);
+        long position = position(channel);
+        CountingChannel counting = position < 0 && !(channel instanceof SocketChannel) ? new CountingChannel(channel) : null;
+        try {
+            delegate.download(counting != null ? counting : channel, objectName);
+            end(Operation.DOWNLOAD, start, null);
+        } catch (Throwable e) {
+            end(Operation.DOWNLOAD, start, e);
+            throw e;
+        } finally {
+            if (counting != null) {
+                downloadBytes.increment(counting.count);
+            }
+        }
+        if (position >= 0) {
+            long written = position(channel) - position;
+            if (written > 0) {
+                downloadBytes.increment(written);
+            }
+        }
+    }
+
+    @Override
+    public void download(Path target, String objectName) {
+        long start = begin(Operation.DOWNLOAD);
+        try {
+            delegate.download(target, objectName);
+            end(Operation.DOWNLOAD, start, null);
+        } catch (Throwable e) {
+            end(Operation.DOWNLOAD, start, e);
+            throw e;
+        }
+        try {
+            downloadBytes.increment(Files.size(target));
+        } catch (IOException e) {
+            // 文件已被其他线程移走，不影响下载结果
+        }
+    }
+
+    @Override
+    public PresignedUrl presignUpload(String objectName, Duration ttl) {
+        long start = begin(Operation.PRESIGN);
+        try {
+            PresignedUrl presignedUrl = delegate.presignUpload(objectName, ttl);
+            end(Operation.PRESIGN, start, null);
+            return presignedUrl;
+        } catch (Throwable e) {
+            end(Operation.PRESIGN, start, e);
+            throw e;
+        }
+    }
+
+    @Override
+    public PresignedUrl presignDownload(String objectName, Duration ttl) {
+        long start = begin(Operation.PRESIGN);
+        try {
+            PresignedUrl presignedUrl = delegate.presignDownload(objectName, ttl);
+            end(Operation.PRESIGN, start, null);
+            return presignedUrl;
+        } catch (Throwable e) {
+            end(Operation.PRESIGN, start, e);
+            throw e;
+        }
+    }
+
+    @Override
+    public void delete(String objectName) {
+        long start = begin(Operation.DELETE);
+        try {
+            delegate.delete(objectName);
+            end(Operation.DELETE, start, null);
+        } catch (Throwable e) {
+            end(Operation.DELETE, start, e);
+            throw e;
+        }
+    }
+
+    @Override
+    public List<DeleteResponse> deleteAll(Collection<String> objectNames) {
+        long start = begin(Operation.DELETE_ALL);
+        try {
+            List<DeleteResponse> responses = delegate.deleteAll(objectNames);
+            end(Operation.DELETE_ALL, start, null);
+            return responses;
+        } catch (Throwable e) {
+            end(Operation.DELETE_ALL, start, e);
+            throw e;
+        }
+    }
+
+    private long begin(Operation operation) {
+        operationMeters[operation.ordinal()].inFlight.incrementAndGet();
+        return clock.monotonicTime();
+    }
+
+    private void end(Operation operation, long start, Throwable failure) {
+        long duration = clock.monotonicTime() - start;
+        OperationMeters meters = operationMeters[operation.ordinal()];
+        meters.inFlight.decrementAndGet();
+        if (failure == null) {
+            meters.success.record(duration, TimeUnit.NANOSECONDS);
+            return;
+        }
+        meters.failure.record(duration, TimeUnit.NANOSECONDS);
+        errors[errorIndex(failure)].increment();
+    }
+
+    private static int errorIndex(Throwable failure) {
+        if (failure instanceof BaseException) {
+            int code = ((BaseException) failure).getCode();
+            for (int i = 0; i < ERROR_CODES.length; i++) {
+                if (ERROR_CODES[i].getCode() == code) {
+                    return i;
+                }
+            }
+        }
+        return ERROR_CODES.length;
+    }
+
+    private void uploaded(UploadResponse response) {
+        if (response == null) {
+            return;
+        }
+        if (response.isDeduplicated()) {
+            deduplicated.increment();
+        } else {
+            uploadBytes.increment(response.getFileSize());
+        }
+    }
+
+    private void uploaded(List<UploadResult> results) {
+        for (int i = 0; i < results.size(); i++) {
+            UploadResult result = results.get(i);
+            if (result.isSuccess()) {
+                uploaded(result.getResponse());
+            }
+        }
+    }
+
+    /**
+     * 获取当前线程复用的计数输出流，被包装的存储服务在同一线程中再次下载时创建新的计数输出流
+     */
+    private CountingOutputStream countingOutputStream(OutputStream outputStream) {
+        CountingOutputStream counting = countingOutputStreams.get();
+        if (counting.out != null) {
+            counting = new CountingOutputStream();
+        }
+        counting.out = outputStream;
+        return counting;
+    }
+
+    /**
+     * 获取通道的当前位置，不支持位置的通道返回-1
+     */
+    private static long position(WritableByteChannel channel) {
+        if (!(channel instanceof SeekableByteChannel) || !channel.isOpen()) {
+            return -1;
+        }
+        try {
+            return ((SeekableByteChannel) channel).position();
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * 操作类型
+     */
+    private enum Operation {
+
+        UPLOAD("upload"),
+
+        UPLOAD_ALL("upload.all"),
+
+        INIT_CHUNK_UPLOAD("chunk.init"),
+
+        UPLOAD_CHUNK("chunk.upload"),
+
+        COMPLETE_CHUNK_UPLOAD("chunk.complete"),
+
+        ABORT_CHUNK_UPLOAD("chunk.abort"),
+
+        EXISTS("exists"),
+
+        STAT("stat"),
+
+        DOWNLOAD("download"),
+
+        PRESIGN("presign"),
+
+        DELETE("delete"),
+
+        DELETE_ALL("delete.all");
+
+        private final String tag;
+
+        Operation(String tag) {
+            this.tag = tag;
+        }
+    }
+
+    private static class OperationMeters {
+
+        private final Timer success;
+
+        private final Timer failure;
+
+        private final AtomicInteger inFlight = new AtomicInteger();
+
+        OperationMeters(MeterRegistry registry, String platform, Operation operation, double[] percentiles, boolean percentileHistogram) {
+            this.success = timer(registry, platform, operation, "success", percentiles, percentileHistogram);
+            this.failure = timer(registry, platform, operation, "error", percentiles, percentileHistogram);
+            Gauge.builder("storage.inflight", inFlight, AtomicInteger::get).description("正在执行的操作数")
+                    .tags("platform", platform, "operation", operation.tag).register(registry);
+        }
+
+        private static Timer timer(MeterRegistry registry, String platform, Operation operation, String outcome, double[] percentiles, boolean percentileHistogram) {
+            return Timer.builder("storage.operation").description("存储服务操作耗时")
+                    .tags("platform", platform, "operation", operation.tag, "outcome", outcome)
+                    .publishPercentiles(percentiles)
+                    .publishPercentileHistogram(percentileHistogram)
+                    .register(registry);
+        }
+    }
+
+    /**
+     * 记录写入字节数的输出流，下载完成后release，供当前线程的下一次下载复用
+     */
+    private static class CountingOutputStream extends OutputStream {
+
+        private OutputStream out;
+
+        private long count;
+
+        long release() {
+            long written = count;
+            out = null;
+            count = 0;
+            return written;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] bytes, int off, int len) throws IOException {
+            out.write(bytes, off, len);
+            count += len;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+
+    /**
+     * 记录写入字节数的通道
+     */
+    private static class CountingChannel implements WritableByteChannel {
+
+        private final WritableByteChannel channel;
+
+        private long count;
+
+        CountingChannel(WritableByteChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            int written = channel.write(src);
+            count += written;
+            return written;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return channel.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package cn.iwenjuan.storage.service.impl;
+
+import io.minio.MinioAsyncClient;
+import io.minio.messages.Part;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * minio分片上传客户端，MinioClient未公开分片上传相关的接口，通过继承MinioAsyncClient调用
+ *
+ * @author li1244
+ * @date 2023/4/10 14:20
+ */
+public class MinioMultipartClient extends MinioAsyncClient {
+
+    public MinioMultipartClient(MinioAsyncClient client) {
+        super(client);
+    }
+
+    /**
+     * 初始化分片上传
+     *
+     * @param bucketName
+     * @param objectName
+     * @return 分片上传ID
+     * @throws Exception
+     */
+    public String createMultipartUpload(String bucketName, String objectName) throws Exception {
+        return get(createMultipartUploadAsync(bucketName, null, objectName, null, null)).result().uploadId();
+    }
+
+    /**
+     * 上传分片
+     *
+     * @param bucketName
+     * @param objectName
+     * @param uploadId
+     * @param partNumber
+     * @param data          分片数据，支持InputStream、RandomAccessFile、byte[]
+     * @param partSize
+     * @return 分片ETag
+     * @throws Exception
+     */
+    public String uploadPart(String bucketName, String objectName, String uploadId, int partNumber, Object data, long partSize) throws Exception {
+        return get(uploadPartAsync(bucketName, null, objectName, data, partSize, uploadId, partNumber, null, null)).etag();
+    }
+
+    /**
+     * 完成分片上传
+     *
+     * @param bucketName
+     * @param objectName
+     * @param uploadId
+     * @param parts
+     * @throws Exception
+     */
+    public void completeMultipartUpload(String bucketName, String objectName, String uploadId, Part[] parts) throws Exception {
+        get(completeMultipartUploadAsync(bucketName, null, objectName, uploadId, parts, null, null));
+    }
+
+    /**
+     * 取消分片上传
+     *
+     * @param bucketName
+     * @param objectName
+     * @param uploadId
+     * @throws Exception
+     */
+    public void abortMultipartUpload(String bucketName, String objectName, String uploadId) throws Exception {
+        get(abortMultipartUploadAsync(bucketName, null, objectName, uploadId, null, null));
+    }
+
+    /**
+     * 等待异步请求完成，抛出请求失败的原始异常
+     *
+     * @param future
+     * @return
+     * @throws Exception
+     */
+    private static <T> T get(CompletableFuture<T> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+    }
+}
@@ -1,15 +1,34 @@
 package cn.iwenjuan.storage.service.impl;
 
 import cn.iwenjuan.storage.config.StorageProperties;
+import cn.iwenjuan.storage.domain.ChunkPart;
+import cn.iwenjuan.storage.domain.ChunkUploadSession;
+import cn.iwenjuan.storage.domain.DeleteResponse;
+import cn.iwenjuan.storage.domain.ObjectStat;
+import cn.iwenjuan.storage.domain.PresignedUrl;
 import cn.iwenjuan.storage.domain.UploadResponse;
 import cn.iwenjuan.storage.exception.FileDownloadException;
+import cn.iwenjuan.storage.exception.StorageException;
 import cn.iwenjuan.storage.exception.enums.StorageErrorCode;
 import cn.iwenjuan.storage.utils.DateUtils;
 import io.minio.*;
+import io.minio.errors.ErrorResponseException;
+import io.minio.http.Method;
+import io.minio.messages.DeleteError;
+import io.minio.messages.DeleteObject;
+import io.minio.messages.Part;
 import lombok.extern.slf4j.Slf4j;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 /**
  * @author li1244
@@ -18,16 +37,32 @@ import java.io.InputStream;
 @Slf4j
 public class MinioStorageService extends AbstractStorageService {
 
+    private static final String NO_SUCH_KEY = "NoSuchKey";
+
+    private static final String NO_SUCH_OBJECT = "NoSuchObject";
+
     private MinioClient minioClient;
 
     private StorageProperties.MinioProperties minioProperties;
 
+    private MinioMultipartClient multipartClient;
+
     public MinioStorageService(StorageProperties storageProperties, MinioClient minioClient) {
+        this(storageProperties, minioClient, null);
+    }
+
+    public MinioStorageService(StorageProperties storageProperties, MinioClient minioClient, MinioMultipartClient multipartClient) {
         super(storageProperties);
         this.minioClient = minioClient;
+        this.multipartClient = multipartClient;
         this.minioProperties = storageProperties.getMinio();
     }
 
+    @Override
+    protected StorageProperties.PlatformType getPlatform() {
+        return StorageProperties.PlatformType.minio;
+    }
+
     @Override
     public UploadResponse uploadForInputStream(InputStream inputStream, String originalFilename, String uid, long fileSize) throws Exception {
 
@@ -45,11 +80,16 @@ public class MinioStorageService extends AbstractStorageService {
                     .setUid(uid)
                     .setUploadTime(DateUtils.now());
 
-            if (objectExist(fileUrl)) {
+            if (!isTempUid(uid) && exists(fileUrl)) {
                 // 文件已上传过，不再上传
                 return response;
             }
 
+            if (isParallelUpload(fileSize)) {
+                // 大文件并发分片上传
+                parallelUpload(response, inputStream);
+                return response;
+            }
             // 上传文件到minio
             minioClient.putObject(PutObjectArgs.builder()
                     .bucket(minioProperties.getBucketName())
@@ -71,33 +111,105 @@ public class MinioStorageService extends AbstractStorageService {
         }
     }
 
-    /**
-     * 判断文件是否已经上传
-     *
-     * @param objectName
-     * @return
-     */
-    private boolean objectExist(String objectName) {
-
+    @Override
+    public ObjectStat stat(String objectName) {
         try {
-            GetObjectResponse object = minioClient.getObject(GetObjectArgs.builder()
+            StatObjectResponse response = minioClient.statObject(StatObjectArgs.builder()
                     .bucket(minioProperties.getBucketName())
                     .object(objectName)
                     .build());
-            if (object != null) {
-                return true;
+            return new ObjectStat()
+                    .setObjectName(objectName)
+                    .setFileSize(response.size())
+                    .setLastModified(response.lastModified() == null ? null : Date.from(response.lastModified().toInstant()))
+                    .setEtag(response.etag());
+        } catch (ErrorResponseException e) {
+            String code = e.errorResponse().code();
+            if (NO_SUCH_KEY.equals(code) || NO_SUCH_OBJECT.equals(code)) {
+                return null;
             }
+            log.error("【获取文件信息异常】：objectName：{}，{}", objectName, e);
+            throw new StorageException(StorageErrorCode.FILE_STAT_ERROR);
         } catch (Exception e) {
-            log.error("【获取存储对象异常】：objectName：{}，{}", objectName, e);
-            return false;
+            log.error("【获取文件信息异常】：objectName：{}，{}", objectName, e);
+            throw new StorageException(StorageErrorCode.FILE_STAT_ERROR);
+        }
+    }
+
+    @Override
+    protected boolean renameObject(String sourceObjectName, String targetObjectName, long fileSize) throws Exception {
+        boolean exists = exists(targetObjectName);
+        if (!exists) {
+            // composeObject在对象超过5G时会自动使用分片拷贝，copyObject不支持
+            minioClient.composeObject(ComposeObjectArgs.builder()
+                    .bucket(minioProperties.getBucketName())
+                    .object(targetObjectName)
+                    .sources(Collections.singletonList(ComposeSource.builder()
+                            .bucket(minioProperties.getBucketName())
+                            .object(sourceObjectName)
+                            .build()))
+                    .build());
+        }
+        minioClient.removeObject(RemoveObjectArgs.builder()
+                .bucket(minioProperties.getBucketName())
+                .object(sourceObjectName)
+                .build());
+        return !exists;
+    }
+
+    @Override
+    protected String initiateMultipartUpload(ChunkUploadSession session) throws Exception {
+        return getMultipartClient().createMultipartUpload(minioProperties.getBucketName(), session.getFileUrl());
+    }
+
+    @Override
+    protected ChunkPart uploadPart(ChunkUploadSession session, int partNumber, InputStream inputStream, long partSize) throws Exception {
+        String etag = getMultipartClient().uploadPart(minioProperties.getBucketName(), session.getFileUrl(), session.getMultipartUploadId(), partNumber, inputStream, partSize);
+        return new ChunkPart().setPartNumber(partNumber).setPartSize(partSize).setEtag(etag);
+    }
+
+    @Override
+    protected void completeMultipartUpload(ChunkUploadSession session, List<ChunkPart> parts) throws Exception {
+        Part[] minioParts = new Part[parts.size()];
+        for (int i = 0; i < parts.size(); i++) {
+            minioParts[i] = new Part(parts.get(i).getPartNumber(), parts.get(i).getEtag());
+        }
+        getMultipartClient().completeMultipartUpload(minioProperties.getBucketName(), session.getFileUrl(), session.getMultipartUploadId(), minioParts);
+    }
+
+    @Override
+    protected void abortMultipartUpload(ChunkUploadSession session) throws Exception {
+        getMultipartClient().abortMultipartUpload(minioProperties.getBucketName(), session.getFileUrl(), session.getMultipartUploadId());
+    }
+
+    @Override
+    protected boolean isParallelUpload(long fileSize) {
+        return multipartClient != null && super.isParallelUpload(fileSize);
+    }
+
+    /**
+     * 获取分片上传客户端
+     * @return
+     */
+    private MinioMultipartClient getMultipartClient() {
+        if (multipartClient == null) {
+            log.error("未设置minio分片上传客户端，不支持分片上传");
+            throw new StorageException(StorageErrorCode.OPERATION_NOT_SUPPORTED);
         }
-        return true;
+        return multipartClient;
     }
 
     @Override
-    protected InputStream getInputStream(String objectName) throws Exception {
+    protected InputStream getInputStream(String objectName, long offset, long length) throws Exception {
         try {
-            return minioClient.getObject(GetObjectArgs.builder().bucket(minioProperties.getBucketName()).object(objectName).build());
+            GetObjectArgs.Builder builder = GetObjectArgs.builder().bucket(minioProperties.getBucketName()).object(objectName);
+            if (offset > 0 || length > 0) {
+                builder.offset(offset);
+            }
+            if (length > 0) {
+                builder.length(length);
+            }
+            return minioClient.getObject(builder.build());
         } catch (Exception e) {
             log.error("【文件下载异常】：objectName：{}，{}", objectName, e);
             throw new FileDownloadException(StorageErrorCode.FILE_NOT_EXIST);
@@ -115,4 +227,71 @@ public class MinioStorageService extends AbstractStorageService {
             log.error("【删除已上传文件异常】：objectName：{}，{}", objectName, e);
         }
     }
+
+    @Override
+    protected List<DeleteResponse> deleteBatch(List<String> objectNames) {
+        List<DeleteObject> objects = new ArrayList<>(objectNames.size());
+        for (String objectName : objectNames) {
+            objects.add(new DeleteObject(objectName));
+        }
+        // removeObjects是延迟执行的，遍历结果时才会发送请求，只返回删除失败的文件
+        Iterable<Result<DeleteError>> results = minioClient.removeObjects(RemoveObjectsArgs.builder()
+                .bucket(minioProperties.getBucketName())
+                .objects(objects)
+                .build());
+        Map<String, String> errors = new HashMap<>();
+        try {
+            for (Result<DeleteError> result : results) {
+                DeleteError error = result.get();
+                errors.put(error.objectName(), error.message());
+            }
+        } catch (Exception e) {
+            log.error("【批量删除文件异常】：count：{}，{}", objectNames.size(), e);
+            throw new StorageException(StorageErrorCode.DELETE_ERROR);
+        }
+        List<DeleteResponse> responses = new ArrayList<>(objectNames.size());
+        for (String objectName : objectNames) {
+            String error = errors.get(objectName);
+            responses.add(error == null ? DeleteResponse.success(objectName) : DeleteResponse.failure(objectName, error));
+        }
+        return responses;
+    }
+
+    @Override
+    protected int getMaxDeleteBatchSize() {
+        return MAX_DELETE_BATCH_SIZE;
+    }
+
+    @Override
+    protected PresignedUrl generatePresignedUploadUrl(String objectName, Duration ttl) throws Exception {
+        return generatePresignedUrl(Method.PUT, objectName, ttl);
+    }
+
+    @Override
+    protected PresignedUrl generatePresignedDownloadUrl(String objectName, Duration ttl) throws Exception {
+        return generatePresignedUrl(Method.GET, objectName, ttl);
+    }
+
+    /**
+     * 生成预签名地址
+     * @param method
+     * @param objectName
+     * @param ttl
+     * @return
+     * @throws Exception
+     */
+    private PresignedUrl generatePresignedUrl(Method method, String objectName, Duration ttl) throws Exception {
+        Date expireTime = new Date(System.currentTimeMillis() + ttl.toMillis());
+        String url = minioClient.getPresignedObjectUrl(GetPresignedObjectUrlArgs.builder()
+                .method(method)
+                .bucket(minioProperties.getBucketName())
+                .object(objectName)
+                .expiry((int) ttl.getSeconds(), TimeUnit.SECONDS)
+                .build());
+        return new PresignedUrl()
+                .setObjectName(objectName)
+                .setUrl(url)
+                .setMethod(method.name())
+                .setExpireTime(expireTime);
+    }
 }
@@ -1,24 +1,36 @@
 package cn.iwenjuan.storage.service.impl;
 
 import cn.iwenjuan.storage.config.StorageProperties;
+import cn.iwenjuan.storage.domain.ChunkPart;
+import cn.iwenjuan.storage.domain.ChunkUploadSession;
+import cn.iwenjuan.storage.domain.DeleteResponse;
+import cn.iwenjuan.storage.domain.ObjectStat;
+import cn.iwenjuan.storage.domain.PresignedUrl;
 import cn.iwenjuan.storage.domain.UploadResponse;
 import cn.iwenjuan.storage.exception.FileDownloadException;
+import cn.iwenjuan.storage.exception.StorageException;
 import cn.iwenjuan.storage.exception.enums.StorageErrorCode;
+import cn.iwenjuan.storage.utils.BoundedInputStream;
 import cn.iwenjuan.storage.utils.DateUtils;
 import cn.iwenjuan.storage.utils.HttpUtils;
 import cn.iwenjuan.storage.utils.StringUtils;
 import com.qiniu.common.QiniuException;
-import com.qiniu.storage.BucketManager;
-import com.qiniu.storage.Configuration;
-import com.qiniu.storage.Region;
-import com.qiniu.storage.UploadManager;
+import com.qiniu.http.Client;
+import com.qiniu.storage.*;
+import com.qiniu.storage.model.BatchStatus;
+import com.qiniu.storage.model.FileInfo;
 import com.qiniu.util.Auth;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.client.ClientHttpResponse;
 
 import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
+import java.time.Duration;
+import java.util.*;
 
 /**
  * @author li1244
@@ -27,13 +39,34 @@ import java.io.OutputStream;
 @Slf4j
 public class QiniuStorageService extends AbstractStorageService {
 
+    /**
+     * 七牛云目标文件已存在的错误码
+     */
+    private static final int FILE_EXISTS_CODE = 614;
+
+    /**
+     * 七牛云文件不存在的错误码
+     */
+    private static final int FILE_NOT_EXISTS_CODE = 612;
+
     private StorageProperties.QiniuOssProperties qiniuOssProperties;
 
     private Auth auth;
 
-    private UploadManager uploadManager;
+    private volatile UploadManager uploadManager;
+
+    private volatile BucketManager bucketManager;
+
+    private volatile Configuration configuration;
+
+    private volatile Client client;
+
+    /**
+     * 存储空间的上传域名，按查询结果的有效期缓存
+     */
+    private volatile String upHost;
 
-    private BucketManager bucketManager;
+    private volatile long upHostExpireTime;
 
     public QiniuStorageService(StorageProperties storageProperties, Auth auth) {
         super(storageProperties);
@@ -49,9 +82,37 @@ public class QiniuStorageService extends AbstractStorageService {
      * @return
      */
     private Configuration configuration() {
-        // 构造一个带指定 Region 对象的配置类
-        Configuration configuration = new Configuration(Region.autoRegion());
-        return configuration;
+        Configuration result = configuration;
+        if (result == null) {
+            synchronized (this) {
+                result = configuration;
+                if (result == null) {
+                    // 构造一个带指定 Region 对象的配置类
+                    result = new Configuration(Region.autoRegion());
+                    configuration = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 构建分片上传使用的http客户端
+     *
+     * @return
+     */
+    private Client getClient() {
+        Client result = client;
+        if (result == null) {
+            synchronized (this) {
+                result = client;
+                if (result == null) {
+                    result = new Client(configuration());
+                    client = result;
+                }
+            }
+        }
+        return result;
     }
 
     /**
@@ -60,10 +121,17 @@ public class QiniuStorageService extends AbstractStorageService {
      * @return
      */
     private UploadManager getUploadManager() {
-        if (uploadManager == null) {
-            uploadManager = new UploadManager(configuration());
+        UploadManager result = uploadManager;
+        if (result == null) {
+            synchronized (this) {
+                result = uploadManager;
+                if (result == null) {
+                    result = new UploadManager(configuration());
+                    uploadManager = result;
+                }
+            }
         }
-        return uploadManager;
+        return result;
     }
 
     /**
@@ -72,10 +140,51 @@ public class QiniuStorageService extends AbstractStorageService {
      * @return
      */
     private BucketManager getBucketManager() {
-        if (bucketManager == null) {
-            bucketManager = new BucketManager(auth, configuration());
+        BucketManager result = bucketManager;
+        if (result == null) {
+            synchronized (this) {
+                result = bucketManager;
+                if (result == null) {
+                    result = new BucketManager(auth, configuration());
+                    bucketManager = result;
+                }
+            }
         }
-        return bucketManager;
+        return result;
+    }
+
+    /**
+     * 查询存储空间所在区域的上传域名
+     *
+     * @param uploadToken
+     * @return
+     * @throws QiniuException
+     */
+    private String getUpHost(String uploadToken) throws QiniuException {
+        String host = upHost;
+        if (host != null && System.currentTimeMillis() < upHostExpireTime) {
+            return host;
+        }
+        String scheme = configuration().useHttpsDomains ? "https://" : "http://";
+        ApiQueryRegion.Request request = new ApiQueryRegion.Request(scheme.concat(Configuration.defaultUcHost), uploadToken);
+        ApiQueryRegion.Response response = new ApiQueryRegion(getClient()).request(request);
+        List<String> upHosts = response.getDefaultRegionUpHosts();
+        if (upHosts == null || upHosts.isEmpty()) {
+            throw new QiniuException(new IllegalStateException("未查询到上传域名"));
+        }
+        host = upHosts.get(0);
+        if (!host.contains("://")) {
+            host = scheme.concat(host);
+        }
+        Long ttl = response.getDefaultRegionTTL();
+        upHostExpireTime = System.currentTimeMillis() + (ttl == null ? 86400L : ttl) * 1000;
+        upHost = host;
+        return host;
+    }
+
+    @Override
+    protected StorageProperties.PlatformType getPlatform() {
+        return StorageProperties.PlatformType.qiniu;
     }
 
     @Override
@@ -93,10 +202,11 @@ public class QiniuStorageService extends AbstractStorageService {
                     .setUid(uid)
                     .setUploadTime(DateUtils.now());
 
-            String key = fileUrl;
-            if (key.startsWith(SLASH)) {
-                key = key.substring(1);
+            if (!isTempUid(uid) && exists(fileUrl)) {
+                // 文件已上传过，不再上传
+                return uploadResponse;
             }
+            String key = getObjectKey(fileUrl);
             // 生成上传凭证，然后准备上传
             String uploadToken = auth.uploadToken(qiniuOssProperties.getBucketName(), key);
             // 上传文件
@@ -110,11 +220,27 @@ public class QiniuStorageService extends AbstractStorageService {
     }
 
     @Override
-    public void delete(String objectName) {
-        String key = objectName;
-        if (key.startsWith(SLASH)) {
-            key = key.substring(1);
+    public ObjectStat stat(String objectName) {
+        try {
+            FileInfo fileInfo = getBucketManager().stat(qiniuOssProperties.getBucketName(), getObjectKey(objectName));
+            return new ObjectStat()
+                    .setObjectName(objectName)
+                    .setFileSize(fileInfo.fsize)
+                    // 七牛云的上传时间单位为100纳秒
+                    .setLastModified(new Date(fileInfo.putTime / 10000))
+                    .setEtag(fileInfo.hash);
+        } catch (QiniuException e) {
+            if (e.code() == FILE_NOT_EXISTS_CODE) {
+                return null;
+            }
+            log.error("【获取文件信息异常】：objectName：{}，{}", objectName, e);
+            throw new StorageException(StorageErrorCode.FILE_STAT_ERROR);
         }
+    }
+
+    @Override
+    public void delete(String objectName) {
+        String key = getObjectKey(objectName);
         try {
             getBucketManager().delete(qiniuOssProperties.getBucketName(), key);
         } catch (QiniuException e) {
@@ -123,46 +249,204 @@ public class QiniuStorageService extends AbstractStorageService {
     }
 
     @Override
-    public void download(OutputStream outputStream, String objectName) {
+    protected List<DeleteResponse> deleteBatch(List<String> objectNames) throws Exception {
+        String[] keys = new String[objectNames.size()];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = getObjectKey(objectNames.get(i));
+        }
+        BucketManager.BatchOperations operations = new BucketManager.BatchOperations()
+                .addDeleteOp(qiniuOssProperties.getBucketName(), keys);
+        // 部分失败时返回298，每个操作的结果与请求顺序一致
+        BatchStatus[] statuses = getBucketManager().batch(operations).jsonToObject(BatchStatus[].class);
+        List<DeleteResponse> responses = new ArrayList<>(objectNames.size());
+        for (int i = 0; i < objectNames.size(); i++) {
+            String objectName = objectNames.get(i);
+            BatchStatus status = statuses[i];
+            if (status.code == 200 || status.code == FILE_NOT_EXISTS_CODE) {
+                responses.add(DeleteResponse.success(objectName));
+            } else {
+                responses.add(DeleteResponse.failure(objectName, status.data == null ? String.valueOf(status.code) : status.data.error));
+            }
+        }
+        return responses;
+    }
+
+    @Override
+    protected int getMaxDeleteBatchSize() {
+        return MAX_DELETE_BATCH_SIZE;
+    }
+
+    @Override
+    protected boolean renameObject(String sourceObjectName, String targetObjectName, long fileSize) throws Exception {
+        String bucketName = qiniuOssProperties.getBucketName();
+        String sourceKey = getObjectKey(sourceObjectName);
+        String targetKey = getObjectKey(targetObjectName);
+        try {
+            // 七牛云的移动操作只修改元数据，不会拷贝文件内容
+            getBucketManager().move(bucketName, sourceKey, bucketName, targetKey, false);
+            return true;
+        } catch (QiniuException e) {
+            if (e.code() != FILE_EXISTS_CODE) {
+                throw e;
+            }
+            // 文件已上传过，删除临时文件
+            getBucketManager().delete(bucketName, sourceKey);
+            return false;
+        }
+    }
+
+    @Override
+    protected String initiateMultipartUpload(ChunkUploadSession session) throws Exception {
+        String key = getObjectKey(session.getFileUrl());
+        String uploadToken = auth.uploadToken(qiniuOssProperties.getBucketName(), key);
+        ApiUploadV2InitUpload.Request request = new ApiUploadV2InitUpload.Request(getUpHost(uploadToken), uploadToken).setKey(key);
+        return new ApiUploadV2InitUpload(getClient()).request(request).getUploadId();
+    }
+
+    @Override
+    protected ChunkPart uploadPart(ChunkUploadSession session, int partNumber, InputStream inputStream, long partSize) throws Exception {
+        String key = getObjectKey(session.getFileUrl());
+        String uploadToken = auth.uploadToken(qiniuOssProperties.getBucketName(), key);
+        ApiUploadV2UploadPart.Request request = new ApiUploadV2UploadPart.Request(getUpHost(uploadToken), uploadToken, session.getMultipartUploadId(), partNumber)
+                .setKey(key)
+                .setUploadData(inputStream, null, partSize);
+        String etag = new ApiUploadV2UploadPart(getClient()).request(request).getEtag();
+        return new ChunkPart().setPartNumber(partNumber).setPartSize(partSize).setEtag(etag);
+    }
+
+    @Override
+    protected void completeMultipartUpload(ChunkUploadSession session, List<ChunkPart> parts) throws Exception {
+        String key = getObjectKey(session.getFileUrl());
+        String uploadToken = auth.uploadToken(qiniuOssProperties.getBucketName(), key);
+        List<Map<String, Object>> partsInfo = new ArrayList<>(parts.size());
+        for (ChunkPart part : parts) {
+            Map<String, Object> partInfo = new HashMap<>(4);
+            partInfo.put(ApiUploadV2CompleteUpload.Request.PART_NUMBER, part.getPartNumber());
+            partInfo.put(ApiUploadV2CompleteUpload.Request.PART_ETG, part.getEtag());
+            partsInfo.add(partInfo);
+        }
+        ApiUploadV2CompleteUpload.Request request = new ApiUploadV2CompleteUpload.Request(getUpHost(uploadToken), uploadToken, session.getMultipartUploadId(), partsInfo)
+                .setKey(key)
+                .setFileName(session.getFileName());
+        new ApiUploadV2CompleteUpload(getClient()).request(request);
+    }
+
+    @Override
+    protected void abortMultipartUpload(ChunkUploadSession session) throws Exception {
+        String key = getObjectKey(session.getFileUrl());
+        String uploadToken = auth.uploadToken(qiniuOssProperties.getBucketName(), key);
+        ApiUploadV2AbortUpload.Request request = new ApiUploadV2AbortUpload.Request(getUpHost(uploadToken), uploadToken, session.getMultipartUploadId())
+                .setKey(key);
+        new ApiUploadV2AbortUpload(getClient()).request(request);
+    }
+
+    @Override
+    protected InputStream getInputStream(String objectName, long offset, long length) throws Exception {
         if (StringUtils.isBlank(qiniuOssProperties.getDomain())) {
             log.error("检测到七牛云OSS存储平台，但未配置七牛云访问域名，无法下载文件：{}", qiniuOssProperties);
             throw new FileDownloadException(StorageErrorCode.CONFIG_ERROR);
         }
-        String key = objectName;
-        if (key.startsWith(SLASH)) {
-            key = key.substring(1);
-        }
+        String key = getObjectKey(objectName);
         String domain = qiniuOssProperties.getDomain();
         if (!domain.endsWith(SLASH)) {
             domain = domain.concat(SLASH);
         }
+        Map<String, String> headers = null;
+        if (offset > 0 || length > 0) {
+            headers = Collections.singletonMap(HttpHeaders.RANGE, "bytes=" + offset + "-" + (length > 0 ? String.valueOf(offset + length - 1) : ""));
+        }
+        String privateDownloadUrl = auth.privateDownloadUrl(domain.concat(key));
+        ClientHttpResponse response = HttpUtils.getForResponse(privateDownloadUrl, headers);
         try {
-            String privateDownloadUrl = auth.privateDownloadUrl(domain.concat(key));
-            byte[] bytes = HttpUtils.getWithHeaders(privateDownloadUrl, null, null, byte[].class);
-            outputStream.write(bytes);
-        } catch (IOException e) {
-            log.error("【文件下载异常】：objectName：{}，{}", objectName, e);
-            throw new FileDownloadException(StorageErrorCode.FILE_NOT_EXIST);
+            HttpStatus status = response.getStatusCode();
+            if (status == HttpStatus.NOT_FOUND) {
+                throw new FileDownloadException(StorageErrorCode.FILE_NOT_EXIST);
+            }
+            if (status == HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE) {
+                // 起始位置超出文件大小
+                response.close();
+                return new ByteArrayInputStream(new byte[0]);
+            }
+            if (!status.is2xxSuccessful()) {
+                log.error("【文件下载异常】：objectName：{}，status：{}", objectName, status);
+                throw new FileDownloadException(StorageErrorCode.FILE_DOWNLOAD_ERROR);
+            }
+            InputStream inputStream = new FilterInputStream(response.getBody()) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        response.close();
+                    }
+                }
+            };
+            if (headers != null && status != HttpStatus.PARTIAL_CONTENT) {
+                // 服务端未按Range返回时，跳过起始位置之前的内容并限制读取长度
+                skipFully(inputStream, offset);
+                if (length > 0) {
+                    inputStream = new BoundedInputStream(inputStream, length);
+                }
+            }
+            return inputStream;
+        } catch (Exception e) {
+            response.close();
+            throw e;
+        }
+    }
+
+    /**
+     * 跳过输入流中指定长度的内容
+     *
+     * @param inputStream
+     * @param n
+     * @throws IOException
+     */
+    private void skipFully(InputStream inputStream, long n) throws IOException {
+        while (n > 0) {
+            long skipped = inputStream.skip(n);
+            if (skipped <= 0) {
+                if (inputStream.read() < 0) {
+                    return;
+                }
+                skipped = 1;
+            }
+            n -= skipped;
         }
     }
 
     @Override
-    protected InputStream getInputStream(String objectName) throws Exception {
-        String key = objectName;
-        if (key.startsWith(SLASH)) {
-            key = key.substring(1);
+    protected PresignedUrl generatePresignedUploadUrl(String objectName, Duration ttl) throws Exception {
+        Date expireTime = new Date(System.currentTimeMillis() + ttl.toMillis());
+        String key = getObjectKey(objectName);
+        // 七牛云使用表单上传，上传凭证限定了文件名
+        String uploadToken = auth.uploadToken(qiniuOssProperties.getBucketName(), key, ttl.getSeconds(), null);
+        Map<String, String> formData = new HashMap<>(4);
+        formData.put("token", uploadToken);
+        formData.put("key", key);
+        return new PresignedUrl()
+                .setObjectName(objectName)
+                .setUrl(getUpHost(uploadToken))
+                .setMethod("POST")
+                .setFormData(formData)
+                .setExpireTime(expireTime);
+    }
+
+    @Override
+    protected PresignedUrl generatePresignedDownloadUrl(String objectName, Duration ttl) {
+        if (StringUtils.isBlank(qiniuOssProperties.getDomain())) {
+            log.error("检测到七牛云OSS存储平台，但未配置七牛云访问域名，无法生成下载地址：{}", qiniuOssProperties);
+            throw new StorageException(StorageErrorCode.CONFIG_ERROR);
         }
+        Date expireTime = new Date(System.currentTimeMillis() + ttl.toMillis());
         String domain = qiniuOssProperties.getDomain();
         if (!domain.endsWith(SLASH)) {
             domain = domain.concat(SLASH);
         }
-        try {
-            String privateDownloadUrl = auth.privateDownloadUrl(domain.concat(key));
-            byte[] bytes = HttpUtils.getWithHeaders(privateDownloadUrl, null, null, byte[].class);
-            return new ByteArrayInputStream(bytes);
-        } catch (Exception e) {
-            log.error("【文件下载异常】：objectName：{}，{}", objectName, e);
-            throw new FileDownloadException(StorageErrorCode.FILE_NOT_EXIST);
-        }
+        return new PresignedUrl()
+                .setObjectName(objectName)
+                .setUrl(auth.privateDownloadUrl(domain.concat(getObjectKey(objectName)), ttl.getSeconds()))
+                .setMethod("GET")
+                .setExpireTime(expireTime);
     }
 }
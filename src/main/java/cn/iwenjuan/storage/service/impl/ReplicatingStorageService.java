@@ -0,0 +1,453 @@
+package cn.iwenjuan.storage.service.impl;
+
+import cn.iwenjuan.storage.config.StorageProperties;
+import cn.iwenjuan.storage.domain.UploadResponse;
+import cn.iwenjuan.storage.domain.UploadResult;
+import cn.iwenjuan.storage.exception.StorageException;
+import cn.iwenjuan.storage.exception.enums.StorageErrorCode;
+import cn.iwenjuan.storage.replication.ReplicationLog;
+import cn.iwenjuan.storage.replication.ReplicationRecord;
+import cn.iwenjuan.storage.replication.ReplicationTask;
+import cn.iwenjuan.storage.service.IStorageService;
+import cn.iwenjuan.storage.utils.ExecutorUtils;
+import cn.iwenjuan.storage.utils.StringUtils;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 跨存储平台复制的存储服务
+ * 文件上传到主存储平台后，先将复制任务写入本地日志（WAL）再返回，由后台线程将文件复制到副本存储平台：
+ * 按批取出到期的任务，并发复制的文件数不超过配置的并发数，完成记录按批写入日志；失败的任务按指数退避重试，重启后继续复制未完成的任务
+ * 副本使用与主存储平台相同的文件名（uid）上传，重试时副本存储平台中已存在的文件不会重复保存
+ *
+ * @author li1244
+ * @date 2023/4/27 14:10
+ */
+@Slf4j
+public class ReplicatingStorageService extends DelegatingStorageService {
+
+    private static final String SPOOL_DIR = "spool";
+
+    private static final String SPOOL_FILE_PREFIX = "replica-";
+
+    private static final String SPOOL_FILE_SUFFIX = ".tmp";
+
+    /**
+     * 等待任务或并发数的间隔，单位毫秒，每次等待后写入已完成的记录
+     */
+    private static final long POLL_INTERVAL = 100;
+
+    /**
+     * 关闭时等待正在复制的任务完成的时间，单位秒，未完成的任务重启后继续复制
+     */
+    private static final long SHUTDOWN_TIMEOUT = 10;
+
+    private final Map<String, Replica> replicas = new LinkedHashMap<>();
+
+    private final ReplicationLog replicationLog;
+
+    private final Path spoolPath;
+
+    private final int batchSize;
+
+    private final long retryInterval;
+
+    private final long maxRetryInterval;
+
+    private final int maxAttempts;
+
+    private final DelayQueue<ReplicationTask> queue = new DelayQueue<>();
+
+    /**
+     * 已完成或已放弃、等待写入完成记录的任务
+     */
+    private final Queue<ReplicationTask> finished = new ConcurrentLinkedQueue<>();
+
+    private final Semaphore permits;
+
+    private final ExecutorService executor;
+
+    private final Thread dispatcher;
+
+    private volatile boolean running = true;
+
+    /**
+     * @param delegate          主存储平台的存储服务
+     * @param replicas          副本存储平台名称和存储服务
+     * @param replicationLog    复制任务日志，未完成的任务在此恢复
+     * @param replication       复制配置
+     */
+    public ReplicatingStorageService(IStorageService delegate, Map<String, IStorageService> replicas, ReplicationLog replicationLog,
+                                     StorageProperties.ReplicationProperties replication) {
+        super(delegate);
+        replicas.forEach((name, storageService) -> this.replicas.put(name, new Replica(storageService)));
+        this.replicationLog = replicationLog;
+        this.spoolPath = replicationLog.getPath().resolve(SPOOL_DIR);
+        this.batchSize = Math.max(replication.getBatchSize(), 1);
+        this.retryInterval = Math.max(replication.getRetryInterval(), 1);
+        this.maxRetryInterval = Math.max(replication.getMaxRetryInterval(), this.retryInterval);
+        this.maxAttempts = replication.getMaxAttempts();
+        int concurrency = Math.max(replication.getConcurrency(), 1);
+        this.permits = new Semaphore(concurrency);
+        this.executor = ExecutorUtils.newBoundedExecutor("storage-replication-", concurrency, concurrency);
+        recover();
+        this.dispatcher = ExecutorUtils.newThreadFactory("storage-replication-dispatcher-").newThread(this::dispatch);
+        this.dispatcher.start();
+    }
+
+    /**
+     * 获取副本存储平台名称
+     *
+     * @return
+     */
+    public Set<String> getTargets() {
+        return Collections.unmodifiableSet(replicas.keySet());
+    }
+
+    /**
+     * 获取副本存储平台的存储服务
+     *
+     * @param target
+     * @return 不是副本存储平台时返回null
+     */
+    public IStorageService getReplica(String target) {
+        Replica replica = replicas.get(target);
+        return replica == null ? null : replica.storageService;
+    }
+
+    /**
+     * 获取等待复制到副本存储平台的文件数
+     *
+     * @param target
+     * @return
+     */
+    public int getPendingCount(String target) {
+        Replica replica = replicas.get(target);
+        return replica == null ? 0 : replica.pendingCount.get();
+    }
+
+    /**
+     * 获取复制延迟：最早的未完成任务已等待的时间，没有未完成的任务时为0
+     *
+     * @param target
+     * @return 单位毫秒
+     */
+    public long getLag(String target) {
+        Replica replica = replicas.get(target);
+        Map.Entry<Long, Long> oldest = replica == null ? null : replica.pending.firstEntry();
+        return oldest == null ? 0 : Math.max(System.currentTimeMillis() - oldest.getValue(), 0);
+    }
+
+    /**
+     * 获取已复制到副本存储平台的文件数
+     *
+     * @param target
+     * @return
+     */
+    public long getReplicatedCount(String target) {
+        Replica replica = replicas.get(target);
+        return replica == null ? 0 : replica.replicatedCount.get();
+    }
+
+    /**
+     * 获取复制失败的次数，包括重试失败
+     *
+     * @param target
+     * @return
+     */
+    public long getFailureCount(String target) {
+        Replica replica = replicas.get(target);
+        return replica == null ? 0 : replica.failureCount.get();
+    }
+
+    /**
+     * 获取放弃复制的文件数（超过最大复制次数、主存储平台文件已删除）
+     *
+     * @param target
+     * @return
+     */
+    public long getAbandonedCount(String target) {
+        Replica replica = replicas.get(target);
+        return replica == null ? 0 : replica.abandonedCount.get();
+    }
+
+    @Override
+    public UploadResponse upload(MultipartFile multipartFile) {
+        return enqueue(delegate.upload(multipartFile));
+    }
+
+    @Override
+    public UploadResponse upload(MultipartFile multipartFile, String uid) {
+        return enqueue(delegate.upload(multipartFile, uid));
+    }
+
+    @Override
+    public UploadResponse upload(File file) {
+        return enqueue(delegate.upload(file));
+    }
+
+    @Override
+    public UploadResponse upload(File file, String uid) {
+        return enqueue(delegate.upload(file, uid));
+    }
+
+    @Override
+    public UploadResponse upload(InputStream inputStream, String originalFilename, String uid, long fileSize) throws Exception {
+        return enqueue(delegate.upload(inputStream, originalFilename, uid, fileSize));
+    }
+
+    @Override
+    public List<UploadResult> uploadAll(List<MultipartFile> multipartFiles) {
+        return enqueueAll(delegate.uploadAll(multipartFiles));
+    }
+
+    @Override
+    public List<UploadResult> uploadAllPaths(List<Path> paths) {
+        return enqueueAll(delegate.uploadAllPaths(paths));
+    }
+
+    @Override
+    public UploadResponse completeChunkUpload(String uploadId) {
+        return enqueue(delegate.completeChunkUpload(uploadId));
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        running = false;
+        dispatcher.interrupt();
+        dispatcher.join(TimeUnit.SECONDS.toMillis(SHUTDOWN_TIMEOUT));
+        executor.shutdown();
+        if (!executor.awaitTermination(SHUTDOWN_TIMEOUT, TimeUnit.SECONDS)) {
+            executor.shutdownNow();
+        }
+        flush();
+        replicationLog.close();
+        for (Replica replica : replicas.values()) {
+            if (replica.storageService instanceof DisposableBean) {
+                ((DisposableBean) replica.storageService).destroy();
+            }
+        }
+        super.destroy();
+    }
+
+    private List<UploadResult> enqueueAll(List<UploadResult> results) {
+        for (UploadResult result : results) {
+            if (result.isSuccess()) {
+                enqueue(result.getResponse());
+            }
+        }
+        return results;
+    }
+
+    /**
+     * 为上传成功的文件创建复制任务，写入日志后返回
+     *
+     * @param response
+     * @return
+     */
+    private UploadResponse enqueue(UploadResponse response) {
+        // 文件已上传过时，第一次上传已创建复制任务
+        if (response == null || response.isDeduplicated() || replicas.isEmpty()) {
+            return response;
+        }
+        String fileUrl = response.getFileUrl();
+        String name = fileUrl.substring(fileUrl.lastIndexOf('/') + 1);
+        int index = name.lastIndexOf('.');
+        ReplicationRecord record = new ReplicationRecord()
+                .setCreateTime(System.currentTimeMillis())
+                .setObjectName(fileUrl)
+                .setFileName(StringUtils.isBlank(response.getFileName()) ? name : response.getFileName())
+                .setUid(StringUtils.isNotBlank(response.getUid()) ? response.getUid() : index > 0 ? name.substring(0, index) : name)
+                .setFileSize(response.getFileSize())
+                .setTargets(new ArrayList<>(replicas.keySet()));
+        try {
+            replicationLog.append(record);
+        } catch (IOException e) {
+            // 仍然复制，但重启前未完成时会丢失该任务
+            log.error("【写入复制任务日志异常】：objectName：{}，{}", fileUrl, e);
+        }
+        schedule(record);
+        return response;
+    }
+
+    private void schedule(ReplicationRecord record) {
+        for (String target : record.getTargets()) {
+            Replica replica = replicas.get(target);
+            if (replica != null) {
+                replica.pending.put(record.getId(), record.getCreateTime());
+                replica.pendingCount.incrementAndGet();
+                queue.add(new ReplicationTask(record, target));
+            }
+        }
+    }
+
+    /**
+     * 恢复日志中未完成的任务，已不是副本存储平台的任务直接放弃
+     */
+    private void recover() {
+        List<ReplicationRecord> records;
+        try {
+            records = replicationLog.recover();
+        } catch (IOException e) {
+            log.error("【读取复制任务日志异常】：path：{}，{}", replicationLog.getPath(), e);
+            throw new StorageException(StorageErrorCode.CONFIG_ERROR);
+        }
+        for (ReplicationRecord record : records) {
+            for (String target : record.getTargets()) {
+                if (!replicas.containsKey(target)) {
+                    log.warn("【副本存储平台已移除，放弃复制】：objectName：{}，target：{}", record.getObjectName(), target);
+                    finished.add(new ReplicationTask(record, target));
+                }
+            }
+            schedule(record);
+        }
+    }
+
+    private void dispatch() {
+        List<ReplicationTask> batch = new ArrayList<>(batchSize);
+        try {
+            while (running) {
+                ReplicationTask first = queue.poll(POLL_INTERVAL, TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch, batchSize - 1);
+                    for (ReplicationTask task : batch) {
+                        while (!permits.tryAcquire(POLL_INTERVAL, TimeUnit.MILLISECONDS)) {
+                            flush();
+                        }
+                        executor.execute(() -> replicate(task));
+                    }
+                    batch.clear();
+                }
+                flush();
+            }
+        } catch (InterruptedException e) {
+            // 关闭时未开始的任务仍在日志中，重启后继续复制
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void replicate(ReplicationTask task) {
+        ReplicationRecord record = task.getRecord();
+        Replica replica = replicas.get(task.getTarget());
+        try {
+            copy(record, replica.storageService);
+            replica.replicatedCount.incrementAndGet();
+            finish(task, replica);
+        } catch (Exception e) {
+            replica.failureCount.incrementAndGet();
+            if (!sourceExists(record.getObjectName())) {
+                log.warn("【主存储平台文件已删除，放弃复制】：objectName：{}，target：{}", record.getObjectName(), task.getTarget());
+                replica.abandonedCount.incrementAndGet();
+                finish(task, replica);
+            } else if (maxAttempts > 0 && task.getAttempts() + 1 >= maxAttempts) {
+                log.error("【复制失败次数超过上限，放弃复制】：objectName：{}，target：{}，attempts：{}，{}", record.getObjectName(), task.getTarget(), maxAttempts, e);
+                replica.abandonedCount.incrementAndGet();
+                finish(task, replica);
+            } else {
+                long delay = getRetryDelay(task.getAttempts());
+                log.warn("【复制文件异常，稍后重试】：objectName：{}，target：{}，attempts：{}，delay：{}，{}", record.getObjectName(), task.getTarget(), task.getAttempts() + 1, delay, e.getMessage());
+                task.retryAfter(delay);
+                queue.add(task);
+            }
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * 从主存储平台下载到临时文件，再以相同的uid上传到副本存储平台
+     */
+    private void copy(ReplicationRecord record, IStorageService target) throws Exception {
+        Files.createDirectories(spoolPath);
+        Path spool = Files.createTempFile(spoolPath, SPOOL_FILE_PREFIX, SPOOL_FILE_SUFFIX);
+        try {
+            delegate.download(spool, record.getObjectName());
+            try (InputStream inputStream = Files.newInputStream(spool)) {
+                target.upload(inputStream, record.getFileName(), record.getUid(), Files.size(spool));
+            }
+        } finally {
+            Files.deleteIfExists(spool);
+        }
+    }
+
+    private boolean sourceExists(String objectName) {
+        try {
+            return delegate.exists(objectName);
+        } catch (Exception e) {
+            // 无法确认时按存在处理，继续重试
+            return true;
+        }
+    }
+
+    /**
+     * 指数退避：第n次重试等待retryInterval * 2^(n-1)，不超过maxRetryInterval，并随机减少最多一半，避免大量任务同时重试
+     */
+    private long getRetryDelay(int attempts) {
+        long delay = retryInterval << Math.min(attempts, 30);
+        if (delay <= 0 || delay > maxRetryInterval) {
+            delay = maxRetryInterval;
+        }
+        return delay - ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+    }
+
+    private void finish(ReplicationTask task, Replica replica) {
+        if (replica.pending.remove(task.getRecord().getId()) != null) {
+            replica.pendingCount.decrementAndGet();
+        }
+        finished.add(task);
+    }
+
+    /**
+     * 批量写入完成记录，写入失败时下次再写
+     */
+    private void flush() {
+        if (finished.isEmpty()) {
+            return;
+        }
+        List<ReplicationTask> tasks = new ArrayList<>();
+        ReplicationTask task;
+        while ((task = finished.poll()) != null) {
+            tasks.add(task);
+        }
+        try {
+            replicationLog.complete(tasks);
+        } catch (IOException e) {
+            log.error("【写入复制完成记录异常】：tasks：{}，{}", tasks.size(), e);
+            finished.addAll(tasks);
+        }
+    }
+
+    private static class Replica {
+
+        final IStorageService storageService;
+
+        /**
+         * 未完成的任务ID和创建时间，任务ID按创建顺序递增，第一个即为最早的任务
+         */
+        final ConcurrentSkipListMap<Long, Long> pending = new ConcurrentSkipListMap<>();
+
+        final AtomicInteger pendingCount = new AtomicInteger();
+
+        final AtomicLong replicatedCount = new AtomicLong();
+
+        final AtomicLong failureCount = new AtomicLong();
+
+        final AtomicLong abandonedCount = new AtomicLong();
+
+        Replica(IStorageService storageService) {
+            this.storageService = storageService;
+        }
+    }
+}
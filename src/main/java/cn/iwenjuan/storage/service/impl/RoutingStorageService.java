@@ -0,0 +1,559 @@
+package cn.iwenjuan.storage.service.impl;
+
+import cn.iwenjuan.storage.config.StorageProperties;
+import cn.iwenjuan.storage.domain.ChunkPart;
+import cn.iwenjuan.storage.domain.ChunkUploadSession;
+import cn.iwenjuan.storage.domain.DeleteResponse;
+import cn.iwenjuan.storage.domain.ObjectStat;
+import cn.iwenjuan.storage.domain.PresignedUrl;
+import cn.iwenjuan.storage.domain.UploadResponse;
+import cn.iwenjuan.storage.domain.UploadResult;
+import cn.iwenjuan.storage.service.IStorageService;
+import cn.iwenjuan.storage.utils.StringUtils;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.BeanUtils;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.*;
+
+/**
+ * 多存储平台路由，同时使用多个存储平台：
+ * 上传按配置的规则（文件大小、文件格式、原始文件名前缀）选择存储平台，没有匹配的规则时使用默认存储平台；
+ * 下载、删除等操作按文件地址中的存储平台标识（如minio:/files/xxx.mp4）或各平台的存储路径前缀选择存储平台，都无法识别时使用默认存储平台
+ * 存储平台和规则在创建时确定，之后只读，选择存储平台不加锁：按存储平台标识直接查表，按路径前缀和规则选择时开销只与存储平台数、规则数有关
+ *
+ * @author li1244
+ * @date 2023/4/26 10:20
+ */
+@Slf4j
+public class RoutingStorageService implements IStorageService, DisposableBean {
+
+    /**
+     * 文件地址中存储平台标识和对象名之间的分隔符
+     */
+    public static final String TAG_SEPARATOR = ":";
+
+    private static final String SLASH = "/";
+
+    /**
+     * 存储平台名称 -> 存储平台，用于识别文件地址中的存储平台标识
+     */
+    private static final Map<String, StorageProperties.PlatformType> PLATFORMS = new HashMap<>();
+
+    static {
+        for (StorageProperties.PlatformType platform : StorageProperties.PlatformType.values()) {
+            PLATFORMS.put(platform.name(), platform);
+        }
+    }
+
+    /**
+     * 存储平台 -> 存储平台的存储服务
+     */
+    private final EnumMap<StorageProperties.PlatformType, Backend> backends = new EnumMap<>(StorageProperties.PlatformType.class);
+
+    /**
+     * 按存储路径长度倒序的存储平台，用于按路径前缀识别存储平台
+     */
+    private final Backend[] pathBackends;
+
+    private final Backend defaultBackend;
+
+    private final Rule[] rules;
+
+    private final boolean tagFileUrl;
+
+    /**
+     * @param storageServices   各存储平台的存储服务
+     * @param storageProperties
+     */
+    public RoutingStorageService(Map<StorageProperties.PlatformType, IStorageService> storageServices, StorageProperties storageProperties) {
+        StorageProperties.RouteProperties route = storageProperties.getRoute();
+        StorageProperties.PlatformType defaultPlatform = route.getDefaultPlatform() == null ? storageProperties.getPlatform() : route.getDefaultPlatform();
+        if (!storageServices.containsKey(defaultPlatform)) {
+            throw new IllegalArgumentException("默认存储平台未配置：" + defaultPlatform);
+        }
+        this.tagFileUrl = route.isTagFileUrl();
+        for (Map.Entry<StorageProperties.PlatformType, IStorageService> entry : storageServices.entrySet()) {
+            backends.put(entry.getKey(), new Backend(entry.getKey(), entry.getValue(), getStoragePath(storageProperties, entry.getKey())));
+        }
+        this.defaultBackend = backends.get(defaultPlatform);
+        this.pathBackends = backends.values().stream()
+                .filter(backend -> backend.path != null)
+                .sorted(Comparator.comparingInt((Backend backend) -> backend.path.length()).reversed())
+                .toArray(Backend[]::new);
+        List<Rule> rules = new ArrayList<>();
+        for (StorageProperties.RouteRule rule : route.getRules()) {
+            Backend backend = getBackend(rule.getPlatform());
+            if (backend == null) {
+                log.error("【多存储平台】：上传规则的存储平台未配置，忽略该规则：{}", rule);
+                continue;
+            }
+            rules.add(new Rule(rule, backend));
+        }
+        this.rules = rules.toArray(new Rule[0]);
+    }
+
+    /**
+     * 获取存储平台的存储服务
+     *
+     * @param platform
+     * @return 未配置该存储平台时返回null
+     */
+    public IStorageService getStorageService(StorageProperties.PlatformType platform) {
+        Backend backend = getBackend(platform);
+        return backend == null ? null : backend.storageService;
+    }
+
+    /**
+     * 获取文件所在存储平台
+     *
+     * @param objectName
+     * @return
+     */
+    public StorageProperties.PlatformType getPlatform(String objectName) {
+        return resolve(objectName).platform;
+    }
+
+    /**
+     * 获取上传文件时使用的存储平台
+     *
+     * @param originalFilename
+     * @param fileSize
+     * @return
+     */
+    public StorageProperties.PlatformType getUploadPlatform(String originalFilename, long fileSize) {
+        return route(originalFilename, fileSize).platform;
+    }
+
+    private Backend getBackend(StorageProperties.PlatformType platform) {
+        return platform == null ? null : backends.get(platform);
+    }
+
+    /**
+     * 按规则选择上传的存储平台
+     */
+    private Backend route(String originalFilename, long fileSize) {
+        if (rules.length == 0 || originalFilename == null) {
+            return defaultBackend;
+        }
+        String ext = originalFilename.substring(originalFilename.lastIndexOf(".") + 1).toLowerCase();
+        for (Rule rule : rules) {
+            if (rule.matches(originalFilename, ext, fileSize)) {
+                return rule.backend;
+            }
+        }
+        return defaultBackend;
+    }
+
+    /**
+     * 按文件地址中的存储平台标识或存储路径前缀识别存储平台
+     */
+    private Backend resolve(String objectName) {
+        if (objectName == null) {
+            return defaultBackend;
+        }
+        int index = objectName.indexOf(TAG_SEPARATOR);
+        if (index > 0) {
+            Backend backend = getBackend(PLATFORMS.get(objectName.substring(0, index)));
+            if (backend != null) {
+                return backend;
+            }
+        }
+        for (Backend backend : pathBackends) {
+            if (objectName.startsWith(backend.path)) {
+                return backend;
+            }
+        }
+        return defaultBackend;
+    }
+
+    /**
+     * 去掉存储平台标识，得到存储平台中的对象名
+     */
+    private static String untag(Backend backend, String objectName) {
+        return objectName != null && objectName.startsWith(backend.tag) ? objectName.substring(backend.tag.length()) : objectName;
+    }
+
+    private String tag(Backend backend, String objectName) {
+        return tagFileUrl && objectName != null ? backend.tag.concat(objectName) : objectName;
+    }
+
+    private UploadResponse tag(Backend backend, UploadResponse response) {
+        if (response != null) {
+            response.setFileUrl(tag(backend, response.getFileUrl()));
+        }
+        return response;
+    }
+
+    /**
+     * 复制分片上传任务，上传ID和文件地址加上存储平台标识，不修改存储平台保存的任务
+     */
+    private ChunkUploadSession tag(Backend backend, ChunkUploadSession session) {
+        if (session == null || !tagFileUrl) {
+            return session;
+        }
+        ChunkUploadSession copy = new ChunkUploadSession();
+        BeanUtils.copyProperties(session, copy);
+        return copy.setUploadId(tag(backend, session.getUploadId())).setFileUrl(tag(backend, session.getFileUrl()));
+    }
+
+    @Override
+    public UploadResponse upload(MultipartFile multipartFile) {
+        Backend backend = route(multipartFile.getOriginalFilename(), multipartFile.getSize());
+        return tag(backend, backend.storageService.upload(multipartFile));
+    }
+
+    @Override
+    public UploadResponse upload(MultipartFile multipartFile, String uid) {
+        Backend backend = route(multipartFile.getOriginalFilename(), multipartFile.getSize());
+        return tag(backend, backend.storageService.upload(multipartFile, uid));
+    }
+
+    @Override
+    public UploadResponse upload(File file) {
+        Backend backend = route(file.getName(), file.length());
+        return tag(backend, backend.storageService.upload(file));
+    }
+
+    @Override
+    public UploadResponse upload(File file, String uid) {
+        Backend backend = route(file.getName(), file.length());
+        return tag(backend, backend.storageService.upload(file, uid));
+    }
+
+    @Override
+    public UploadResponse upload(InputStream inputStream, String originalFilename, String uid, long fileSize) throws Exception {
+        Backend backend = route(originalFilename, fileSize);
+        return tag(backend, backend.storageService.upload(inputStream, originalFilename, uid, fileSize));
+    }
+
+    @Override
+    public List<UploadResult> uploadAll(List<MultipartFile> multipartFiles) {
+        Backend[] targets = new Backend[multipartFiles.size()];
+        for (int i = 0; i < targets.length; i++) {
+            MultipartFile multipartFile = multipartFiles.get(i);
+            targets[i] = route(multipartFile.getOriginalFilename(), multipartFile.getSize());
+        }
+        return uploadAll(multipartFiles, targets, IStorageService::uploadAll);
+    }
+
+    @Override
+    public List<UploadResult> uploadAllPaths(List<Path> paths) {
+        Backend[] targets = new Backend[paths.size()];
+        for (int i = 0; i < targets.length; i++) {
+            Path path = paths.get(i);
+            targets[i] = route(String.valueOf(path.getFileName()), path.toFile().length());
+        }
+        return uploadAll(paths, targets, IStorageService::uploadAllPaths);
+    }
+
+    /**
+     * 按存储平台分组批量上传，结果按原顺序返回
+     */
+    private <T> List<UploadResult> uploadAll(List<T> files, Backend[] targets, BatchUpload<T> batchUpload) {
+        UploadResult[] results = new UploadResult[files.size()];
+        for (Backend backend : backends.values()) {
+            List<T> group = new ArrayList<>();
+            List<Integer> indexes = new ArrayList<>();
+            for (int i = 0; i < targets.length; i++) {
+                if (targets[i] == backend) {
+                    group.add(files.get(i));
+                    indexes.add(i);
+                }
+            }
+            if (group.isEmpty()) {
+                continue;
+            }
+            List<UploadResult> groupResults = batchUpload.upload(backend.storageService, group);
+            for (int i = 0; i < groupResults.size(); i++) {
+                UploadResult result = groupResults.get(i);
+                tag(backend, result.getResponse());
+                results[indexes.get(i)] = result;
+            }
+        }
+        return Arrays.asList(results);
+    }
+
+    @Override
+    public ChunkUploadSession initChunkUpload(String originalFilename, long fileSize, String uid) {
+        Backend backend = route(originalFilename, fileSize);
+        return tag(backend, backend.storageService.initChunkUpload(originalFilename, fileSize, uid));
+    }
+
+    @Override
+    public ChunkPart uploadChunk(String uploadId, int partNumber, InputStream inputStream, long partSize) {
+        Backend backend = resolve(uploadId);
+        return backend.storageService.uploadChunk(untag(backend, uploadId), partNumber, inputStream, partSize);
+    }
+
+    @Override
+    public ChunkUploadSession getChunkUpload(String uploadId) {
+        Backend backend = resolve(uploadId);
+        return tag(backend, backend.storageService.getChunkUpload(untag(backend, uploadId)));
+    }
+
+    @Override
+    public UploadResponse completeChunkUpload(String uploadId) {
+        Backend backend = resolve(uploadId);
+        return tag(backend, backend.storageService.completeChunkUpload(untag(backend, uploadId)));
+    }
+
+    @Override
+    public void abortChunkUpload(String uploadId) {
+        Backend backend = resolve(uploadId);
+        backend.storageService.abortChunkUpload(untag(backend, uploadId));
+    }
+
+    @Override
+    public boolean allowedToUpload(String originalFilename) {
+        return defaultBackend.storageService.allowedToUpload(originalFilename);
+    }
+
+    @Override
+    public boolean exceedMaxSize(long fileSize) {
+        return defaultBackend.storageService.exceedMaxSize(fileSize);
+    }
+
+    @Override
+    public boolean exists(String objectName) {
+        Backend backend = resolve(objectName);
+        return backend.storageService.exists(untag(backend, objectName));
+    }
+
+    @Override
+    public ObjectStat stat(String objectName) {
+        Backend backend = resolve(objectName);
+        ObjectStat stat = backend.storageService.stat(untag(backend, objectName));
+        if (stat == null) {
+            return null;
+        }
+        return new ObjectStat()
+                .setObjectName(objectName)
+                .setFileSize(stat.getFileSize())
+                .setLastModified(stat.getLastModified())
+                .setEtag(stat.getEtag());
+    }
+
+    @Override
+    public void download(OutputStream outputStream, String objectName) {
+        Backend backend = resolve(objectName);
+        backend.storageService.download(outputStream, untag(backend, objectName));
+    }
+
+    @Override
+    public void download(OutputStream outputStream, String objectName, long offset, long length) {
+        Backend backend = resolve(objectName);
+        backend.storageService.download(outputStream, untag(backend, objectName), offset, length);
+    }
+
+    @Override
+    public void download(WritableByteChannel channel, String objectName) {
+        Backend backend = resolve(objectName);
+        backend.storageService.download(channel, untag(backend, objectName));
+    }
+
+    @Override
+    public void download(Path target, String objectName) {
+        Backend backend = resolve(objectName);
+        backend.storageService.download(target, untag(backend, objectName));
+    }
+
+    @Override
+    public PresignedUrl presignUpload(String objectName, Duration ttl) {
+        Backend backend = resolve(objectName);
+        return withObjectName(backend.storageService.presignUpload(untag(backend, objectName), ttl), objectName);
+    }
+
+    @Override
+    public PresignedUrl presignDownload(String objectName, Duration ttl) {
+        Backend backend = resolve(objectName);
+        return withObjectName(backend.storageService.presignDownload(untag(backend, objectName), ttl), objectName);
+    }
+
+    /**
+     * 复制预签名地址，对象名使用调用方传入的文件地址，存储平台返回的可能是缓存的对象，不能修改
+     */
+    private static PresignedUrl withObjectName(PresignedUrl presignedUrl, String objectName) {
+        if (presignedUrl == null) {
+            return null;
+        }
+        return new PresignedUrl()
+                .setObjectName(objectName)
+                .setUrl(presignedUrl.getUrl())
+                .setMethod(presignedUrl.getMethod())
+                .setFormData(presignedUrl.getFormData())
+                .setExpireTime(presignedUrl.getExpireTime());
+    }
+
+    @Override
+    public void delete(String objectName) {
+        Backend backend = resolve(objectName);
+        backend.storageService.delete(untag(backend, objectName));
+    }
+
+    @Override
+    public List<DeleteResponse> deleteAll(Collection<String> objectNames) {
+        List<String> names = new ArrayList<>(objectNames);
+        DeleteResponse[] responses = new DeleteResponse[names.size()];
+        Backend[] targets = new Backend[names.size()];
+        for (int i = 0; i < targets.length; i++) {
+            targets[i] = resolve(names.get(i));
+        }
+        for (Backend backend : backends.values()) {
+            List<String> group = new ArrayList<>();
+            List<Integer> indexes = new ArrayList<>();
+            for (int i = 0; i < targets.length; i++) {
+                if (targets[i] == backend) {
+                    group.add(untag(backend, names.get(i)));
+                    indexes.add(i);
+                }
+            }
+            if (group.isEmpty()) {
+                continue;
+            }
+            List<DeleteResponse> groupResponses = backend.storageService.deleteAll(group);
+            for (int i = 0; i < groupResponses.size(); i++) {
+                int index = indexes.get(i);
+                responses[index] = groupResponses.get(i).setObjectName(names.get(index));
+            }
+        }
+        return Arrays.asList(responses);
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        for (Backend backend : backends.values()) {
+            if (backend.storageService instanceof DisposableBean) {
+                try {
+                    ((DisposableBean) backend.storageService).destroy();
+                } catch (Exception e) {
+                    log.error("【多存储平台】：关闭存储服务异常，platform：{}，{}", backend.platform, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * 获取存储平台配置的存储路径，用于按路径前缀识别存储平台；未配置或为根目录时返回null，不按路径识别
+     */
+    private static String getStoragePath(StorageProperties storageProperties, StorageProperties.PlatformType platform) {
+        String path;
+        switch (platform) {
+            case local:
+                path = storageProperties.getLocal() == null ? null : storageProperties.getLocal().getPath();
+                break;
+            case minio:
+                path = storageProperties.getMinio() == null ? null : storageProperties.getMinio().getPath();
+                break;
+            case aliyun:
+                path = storageProperties.getAliyun() == null ? null : storageProperties.getAliyun().getPath();
+                break;
+            case qiniu:
+                path = storageProperties.getQiniu() == null ? null : storageProperties.getQiniu().getPath();
+                break;
+            case fastdfs:
+            default:
+                path = null;
+        }
+        if (StringUtils.isBlank(path) || SLASH.equals(path.trim())) {
+            return null;
+        }
+        path = path.trim();
+        return path.endsWith(SLASH) ? path : path.concat(SLASH);
+    }
+
+    @FunctionalInterface
+    private interface BatchUpload<T> {
+
+        List<UploadResult> upload(IStorageService storageService, List<T> files);
+    }
+
+    private static class Backend {
+
+        final StorageProperties.PlatformType platform;
+
+        final IStorageService storageService;
+
+        /**
+         * 存储平台标识，如minio:
+         */
+        final String tag;
+
+        /**
+         * 存储路径，以/结尾
+         */
+        final String path;
+
+        Backend(StorageProperties.PlatformType platform, IStorageService storageService, String path) {
+            this.platform = platform;
+            this.storageService = storageService;
+            this.tag = platform.name().concat(TAG_SEPARATOR);
+            this.path = path;
+        }
+    }
+
+    private static class Rule {
+
+        final Backend backend;
+
+        final long minSize;
+
+        final long maxSize;
+
+        /**
+         * 文件格式，为null表示不限制
+         */
+        final Set<String> extensions;
+
+        /**
+         * 原始文件名前缀，为null表示不限制
+         */
+        final String[] prefixes;
+
+        Rule(StorageProperties.RouteRule rule, Backend backend) {
+            this.backend = backend;
+            this.minSize = rule.getMinSize();
+            this.maxSize = rule.getMaxSize();
+            this.extensions = StringUtils.isBlank(rule.getExtensions()) ? null : new HashSet<>(split(rule.getExtensions().toLowerCase()));
+            this.prefixes = StringUtils.isBlank(rule.getPrefixes()) ? null : split(rule.getPrefixes()).toArray(new String[0]);
+        }
+
+        boolean matches(String originalFilename, String ext, long fileSize) {
+            if (minSize >= 0 && fileSize < minSize) {
+                return false;
+            }
+            if (maxSize >= 0 && fileSize >= maxSize) {
+                return false;
+            }
+            if (extensions != null && !extensions.contains(ext)) {
+                return false;
+            }
+            if (prefixes != null) {
+                for (String prefix : prefixes) {
+                    if (originalFilename.startsWith(prefix)) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+            return true;
+        }
+
+        private static List<String> split(String value) {
+            List<String> values = new ArrayList<>();
+            for (String item : value.split(",")) {
+                if (!item.trim().isEmpty()) {
+                    values.add(item.trim());
+                }
+            }
+            return values;
+        }
+    }
+}
@@ -0,0 +1,621 @@
+package cn.iwenjuan.storage.service.impl;
+
+import cn.iwenjuan.storage.config.StorageProperties;
+import cn.iwenjuan.storage.domain.DeleteResponse;
+import cn.iwenjuan.storage.domain.ObjectStat;
+import cn.iwenjuan.storage.domain.PresignedUrl;
+import cn.iwenjuan.storage.domain.UploadResponse;
+import cn.iwenjuan.storage.domain.UploadResult;
+import cn.iwenjuan.storage.exception.FileDownloadException;
+import cn.iwenjuan.storage.exception.StorageException;
+import cn.iwenjuan.storage.exception.enums.StorageErrorCode;
+import cn.iwenjuan.storage.service.IStorageService;
+import cn.iwenjuan.storage.tiering.AccessTracker;
+import cn.iwenjuan.storage.tiering.TierEntry;
+import cn.iwenjuan.storage.tiering.TierIndex;
+import cn.iwenjuan.storage.utils.ExecutorUtils;
+import cn.iwenjuan.storage.utils.Md5Utils;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+/**
+ * 分层存储服务，上传的文件保存在热存储中，长时间未访问的文件由后台任务迁移到冷存储，冷存储中频繁访问的文件迁移回热存储
+ * 迁移后文件地址不变，读取时按索引从文件所在的存储层读取；开启分层存储前上传的文件不在索引中，始终从热存储读取，不参与迁移
+ * 迁移速度受每秒迁移的字节数限制，避免影响正常的上传、下载
+ *
+ * @author li1244
+ * @date 2023/4/28 14:20
+ */
+@Slf4j
+public class TieredStorageService extends DelegatingStorageService {
+
+    private static final String SPOOL_DIR = "spool";
+
+    private static final String SPOOL_FILE_PREFIX = "tier-";
+
+    private static final String SPOOL_FILE_SUFFIX = ".tmp";
+
+    /**
+     * 索引修改使用的分段锁个数
+     */
+    private static final int LOCK_STRIPES = 64;
+
+    private final IStorageService cold;
+
+    private final TierIndex tierIndex;
+
+    private final AccessTracker accessTracker;
+
+    private final Path spoolPath;
+
+    private final long coldAfter;
+
+    /**
+     * 访问时间写入索引的精度，访问统计中的访问时间比索引中的新超过该值时才写入索引
+     */
+    private final long accessTimePrecision;
+
+    private final int promoteFrequency;
+
+    private final long maxBytesPerSecond;
+
+    private final int maxMigrations;
+
+    private final int maxScans;
+
+    private final Object[] locks = new Object[LOCK_STRIPES];
+
+    private final AtomicBoolean migrating = new AtomicBoolean();
+
+    private final AtomicLong demotedCount = new AtomicLong();
+
+    private final AtomicLong promotedCount = new AtomicLong();
+
+    private final AtomicLong migratedBytes = new AtomicLong();
+
+    private final ScheduledExecutorService scheduler;
+
+    private volatile boolean running = true;
+
+    /**
+     * @param hot               热存储的存储服务，上传的文件保存在热存储中
+     * @param cold              冷存储的存储服务
+     * @param tierIndex         分层存储索引
+     * @param accessTracker     文件访问统计
+     * @param tiering           分层存储配置
+     */
+    public TieredStorageService(IStorageService hot, IStorageService cold, TierIndex tierIndex, AccessTracker accessTracker,
+                                StorageProperties.TieringProperties tiering) {
+        super(hot);
+        this.cold = cold;
+        this.tierIndex = tierIndex;
+        this.accessTracker = accessTracker;
+        this.spoolPath = tierIndex.getPath().resolve(SPOOL_DIR);
+        this.coldAfter = tiering.getColdAfter();
+        this.accessTimePrecision = Math.max(coldAfter / 8, 1000);
+        this.promoteFrequency = tiering.getPromoteFrequency();
+        this.maxBytesPerSecond = tiering.getMaxBytesPerSecond();
+        this.maxMigrations = tiering.getMaxMigrations() > 0 ? tiering.getMaxMigrations() : Integer.MAX_VALUE;
+        this.maxScans = tiering.getMaxScans() > 0 ? tiering.getMaxScans() : Integer.MAX_VALUE;
+        try {
+            tierIndex.open();
+        } catch (IOException e) {
+            log.error("【打开分层存储索引异常】：path：{}，{}", tierIndex.getPath(), e);
+            throw new StorageException(StorageErrorCode.CONFIG_ERROR);
+        }
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
+        }
+        if (tiering.getInterval() > 0) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(ExecutorUtils.newThreadFactory("storage-tiering-"));
+            scheduler.scheduleWithFixedDelay(this::migrate, tiering.getInterval(), tiering.getInterval(), TimeUnit.MILLISECONDS);
+        } else {
+            scheduler = null;
+        }
+    }
+
+    /**
+     * 获取冷存储的存储服务
+     *
+     * @return
+     */
+    public IStorageService getCold() {
+        return cold;
+    }
+
+    /**
+     * 判断文件是否在冷存储中
+     *
+     * @param objectName
+     * @return
+     */
+    public boolean isCold(String objectName) {
+        TierEntry entry = getRelocatedEntry(objectName);
+        return entry != null && entry.isCold();
+    }
+
+    /**
+     * 获取迁移到冷存储的文件数
+     *
+     * @return
+     */
+    public long getDemotedCount() {
+        return demotedCount.get();
+    }
+
+    /**
+     * 获取迁移回热存储的文件数
+     *
+     * @return
+     */
+    public long getPromotedCount() {
+        return promotedCount.get();
+    }
+
+    /**
+     * 获取迁移的总字节数
+     *
+     * @return
+     */
+    public long getMigratedBytes() {
+        return migratedBytes.get();
+    }
+
+    @Override
+    public UploadResponse upload(MultipartFile multipartFile) {
+        return track(delegate.upload(multipartFile));
+    }
+
+    @Override
+    public UploadResponse upload(MultipartFile multipartFile, String uid) {
+        return track(delegate.upload(multipartFile, uid));
+    }
+
+    @Override
+    public UploadResponse upload(File file) {
+        return track(delegate.upload(file));
+    }
+
+    @Override
+    public UploadResponse upload(File file, String uid) {
+        return track(delegate.upload(file, uid));
+    }
+
+    @Override
+    public UploadResponse upload(InputStream inputStream, String originalFilename, String uid, long fileSize) throws Exception {
+        return track(delegate.upload(inputStream, originalFilename, uid, fileSize));
+    }
+
+    @Override
+    public List<UploadResult> uploadAll(List<MultipartFile> multipartFiles) {
+        return trackAll(delegate.uploadAll(multipartFiles));
+    }
+
+    @Override
+    public List<UploadResult> uploadAllPaths(List<Path> paths) {
+        return trackAll(delegate.uploadAllPaths(paths));
+    }
+
+    @Override
+    public UploadResponse completeChunkUpload(String uploadId) {
+        return track(delegate.completeChunkUpload(uploadId));
+    }
+
+    @Override
+    public boolean exists(String objectName) {
+        TierEntry entry = getRelocatedEntry(objectName);
+        if (getTier(entry).exists(getLocation(entry, objectName))) {
+            return true;
+        }
+        TierEntry current = getRelocatedEntry(objectName);
+        return !isSameLocation(entry, current) && getTier(current).exists(getLocation(current, objectName));
+    }
+
+    @Override
+    public ObjectStat stat(String objectName) {
+        TierEntry entry = getRelocatedEntry(objectName);
+        ObjectStat stat = getTier(entry).stat(getLocation(entry, objectName));
+        if (stat == null) {
+            // 读取期间文件迁移到另一个存储层，重新读取索引后再查询一次
+            TierEntry current = getRelocatedEntry(objectName);
+            if (isSameLocation(entry, current)) {
+                return null;
+            }
+            stat = getTier(current).stat(getLocation(current, objectName));
+        }
+        if (stat == null) {
+            return null;
+        }
+        return new ObjectStat()
+                .setObjectName(objectName)
+                .setFileSize(stat.getFileSize())
+                .setLastModified(stat.getLastModified())
+                .setEtag(stat.getEtag());
+    }
+
+    @Override
+    public void download(OutputStream outputStream, String objectName) {
+        accessTracker.record(objectName);
+        readThrough(objectName, (tier, location) -> tier.download(outputStream, location));
+    }
+
+    @Override
+    public void download(OutputStream outputStream, String objectName, long offset, long length) {
+        accessTracker.record(objectName);
+        readThrough(objectName, (tier, location) -> tier.download(outputStream, location, offset, length));
+    }
+
+    @Override
+    public void download(WritableByteChannel channel, String objectName) {
+        accessTracker.record(objectName);
+        readThrough(objectName, (tier, location) -> tier.download(channel, location));
+    }
+
+    @Override
+    public void download(Path target, String objectName) {
+        accessTracker.record(objectName);
+        readThrough(objectName, (tier, location) -> tier.download(target, location));
+    }
+
+    @Override
+    public PresignedUrl presignDownload(String objectName, Duration ttl) {
+        accessTracker.record(objectName);
+        TierEntry entry = getRelocatedEntry(objectName);
+        PresignedUrl presignedUrl = getTier(entry).presignDownload(getLocation(entry, objectName), ttl);
+        if (presignedUrl == null) {
+            return null;
+        }
+        // 存储平台返回的可能是缓存的对象，不能修改
+        return new PresignedUrl()
+                .setObjectName(objectName)
+                .setUrl(presignedUrl.getUrl())
+                .setMethod(presignedUrl.getMethod())
+                .setFormData(presignedUrl.getFormData())
+                .setExpireTime(presignedUrl.getExpireTime());
+    }
+
+    @Override
+    public void delete(String objectName) {
+        TierEntry entry = removeEntry(objectName);
+        getTier(entry).delete(getLocation(entry, objectName));
+    }
+
+    @Override
+    public List<DeleteResponse> deleteAll(Collection<String> objectNames) {
+        List<String> names = new ArrayList<>(objectNames);
+        DeleteResponse[] responses = new DeleteResponse[names.size()];
+        List<String> hotLocations = new ArrayList<>();
+        List<Integer> hotIndexes = new ArrayList<>();
+        List<String> coldLocations = new ArrayList<>();
+        List<Integer> coldIndexes = new ArrayList<>();
+        for (int i = 0; i < names.size(); i++) {
+            TierEntry entry = removeEntry(names.get(i));
+            if (entry != null && entry.isCold()) {
+                coldLocations.add(entry.getLocation());
+                coldIndexes.add(i);
+            } else {
+                hotLocations.add(getLocation(entry, names.get(i)));
+                hotIndexes.add(i);
+            }
+        }
+        if (!hotLocations.isEmpty()) {
+            fill(responses, names, hotIndexes, delegate.deleteAll(hotLocations));
+        }
+        if (!coldLocations.isEmpty()) {
+            fill(responses, names, coldIndexes, cold.deleteAll(coldLocations));
+        }
+        return Arrays.asList(responses);
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        running = false;
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        if (cold instanceof DisposableBean) {
+            ((DisposableBean) cold).destroy();
+        }
+        tierIndex.close();
+        super.destroy();
+    }
+
+    /**
+     * 执行一次迁移：从上次结束的位置遍历最多maxScans条索引，将超过coldAfter未访问的文件迁移到冷存储，将迁移到冷存储后又被访问、且近期访问频率达到promoteFrequency的文件迁移回热存储
+     * 后台任务按配置的间隔调用，也可以手动调用；正在迁移时直接返回
+     *
+     * @return 本次迁移的文件数
+     */
+    public int migrate() {
+        if (!migrating.compareAndSet(false, true)) {
+            return 0;
+        }
+        int migrated = 0;
+        long bytes = 0;
+        long start = System.nanoTime();
+        try {
+            Iterator<TierEntry> iterator = tierIndex.scan(maxScans).iterator();
+            while (running && migrated < maxMigrations && iterator.hasNext()) {
+                TierEntry entry = saveAccessTime(iterator.next());
+                long now = System.currentTimeMillis();
+                long idle = now - getLastAccessTime(entry);
+                boolean demote = !entry.isCold() && idle >= coldAfter;
+                // 访问频率包含迁移到冷存储前的访问，只有迁移后又被访问过才迁移回热存储，避免文件在两个存储层之间反复迁移
+                boolean promote = entry.isCold() && promoteFrequency > 0 && idle < coldAfter
+                        && accessTracker.isAccessedSince(entry.getObjectName(), entry.getMigrateTime())
+                        && accessTracker.frequency(entry.getObjectName()) >= promoteFrequency;
+                if ((demote || promote) && migrate(entry, now)) {
+                    migrated++;
+                    bytes += entry.getFileSize();
+                    throttle(bytes, start);
+                }
+            }
+        } catch (IOException e) {
+            log.error("【读取分层存储索引异常】：path：{}，{}", tierIndex.getPath(), e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            migrating.set(false);
+        }
+        if (migrated > 0) {
+            log.info("【分层存储迁移】：migrated：{}，bytes：{}，elapsed：{}ms", migrated, bytes, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        }
+        return migrated;
+    }
+
+    /**
+     * 复制到另一个存储层，提交前索引已变化（文件已删除或重新上传）时删除复制的文件，不修改索引
+     *
+     * @param entry
+     * @param now
+     * @return 是否迁移成功
+     */
+    private boolean migrate(TierEntry entry, long now) {
+        boolean demote = !entry.isCold();
+        IStorageService source = demote ? delegate : cold;
+        IStorageService target = demote ? cold : delegate;
+        Path spool = null;
+        try {
+            Files.createDirectories(spoolPath);
+            spool = Files.createTempFile(spoolPath, SPOOL_FILE_PREFIX, SPOOL_FILE_SUFFIX);
+            source.download(spool, entry.getLocation());
+            UploadResponse response;
+            try (InputStream inputStream = Files.newInputStream(spool)) {
+                // 使用文件地址的MD5值作为文件名，不同文件不会重名，重试时不会重复保存
+                response = target.upload(inputStream, entry.getFileName(), Md5Utils.md5(entry.getObjectName()), Files.size(spool));
+            }
+            boolean committed;
+            synchronized (lockFor(entry.getObjectName())) {
+                TierEntry current = tierIndex.get(entry.getObjectName());
+                committed = current != null && current.isCold() == entry.isCold() && current.getLocation().equals(entry.getLocation());
+                if (committed) {
+                    tierIndex.put(new TierEntry()
+                            .setObjectName(entry.getObjectName())
+                            .setCold(demote)
+                            .setLocation(response.getFileUrl())
+                            .setFileName(entry.getFileName())
+                            .setFileSize(entry.getFileSize())
+                            .setCreateTime(entry.getCreateTime())
+                            .setMigrateTime(now)
+                            .setAccessTime(current.getAccessTime()));
+                }
+            }
+            if (!committed) {
+                target.delete(response.getFileUrl());
+                return false;
+            }
+            // 已开始的读取可能仍在读取原文件，本地存储删除后已打开的文件仍可以读完；
+            // 提交前读取到原地址、删除后才开始下载的读取会收到文件不存在，由readThrough重新读取索引后从新地址读取
+            source.delete(entry.getLocation());
+            (demote ? demotedCount : promotedCount).incrementAndGet();
+            migratedBytes.addAndGet(entry.getFileSize());
+            log.info("【分层存储迁移】：objectName：{}，direction：{}，from：{}，to：{}", entry.getObjectName(), demote ? "demote" : "promote", entry.getLocation(), response.getFileUrl());
+            return true;
+        } catch (Exception e) {
+            log.error("【分层存储迁移异常】：objectName：{}，location：{}，{}", entry.getObjectName(), entry.getLocation(), e);
+            return false;
+        } finally {
+            if (spool != null) {
+                spool.toFile().delete();
+            }
+        }
+    }
+
+    /**
+     * 按已迁移的字节数等待，使平均迁移速度不超过maxBytesPerSecond
+     */
+    private void throttle(long bytes, long start) throws InterruptedException {
+        if (maxBytesPerSecond <= 0) {
+            return;
+        }
+        long expected = (long) (bytes * 1e9 / maxBytesPerSecond);
+        long elapsed = System.nanoTime() - start;
+        if (expected > elapsed) {
+            TimeUnit.NANOSECONDS.sleep(expected - elapsed);
+        }
+    }
+
+    /**
+     * 最近访问时间，统计开始后未访问过时按索引中保存的访问时间和上传、迁移时间计算
+     */
+    private long getLastAccessTime(TierEntry entry) {
+        long accessTime = Math.max(accessTracker.getLastAccessTime(entry.getObjectName()), entry.getAccessTime());
+        return Math.max(accessTime, Math.max(entry.getCreateTime(), entry.getMigrateTime()));
+    }
+
+    /**
+     * 将访问统计中的访问时间按accessTimePrecision的精度写入索引，重启后访问统计清空，仍能按上次访问时间判断是否长时间未访问
+     *
+     * @param entry
+     * @return 更新后的索引
+     */
+    private TierEntry saveAccessTime(TierEntry entry) {
+        long accessTime = accessTracker.getLastAccessTime(entry.getObjectName());
+        if (accessTime - entry.getAccessTime() <= accessTimePrecision) {
+            return entry;
+        }
+        try {
+            synchronized (lockFor(entry.getObjectName())) {
+                TierEntry current = tierIndex.get(entry.getObjectName());
+                if (current == null || current.isCold() != entry.isCold() || !current.getLocation().equals(entry.getLocation())) {
+                    return entry;
+                }
+                tierIndex.put(current.setAccessTime(Math.max(current.getAccessTime(), accessTime)));
+                return current;
+            }
+        } catch (IOException e) {
+            log.error("【写入分层存储索引异常】：objectName：{}，{}", entry.getObjectName(), e);
+            return entry;
+        }
+    }
+
+    private List<UploadResult> trackAll(List<UploadResult> results) {
+        for (UploadResult result : results) {
+            if (result.isSuccess()) {
+                track(result.getResponse());
+            }
+        }
+        return results;
+    }
+
+    /**
+     * 上传成功后将文件加入索引；文件已迁移过时删除另一存储层中的旧文件
+     *
+     * @param response
+     * @return
+     */
+    private UploadResponse track(UploadResponse response) {
+        if (response == null) {
+            return null;
+        }
+        String objectName = response.getFileUrl();
+        accessTracker.record(objectName);
+        TierEntry previous;
+        try {
+            synchronized (lockFor(objectName)) {
+                previous = tierIndex.get(objectName);
+                if (previous != null && !previous.isCold() && objectName.equals(previous.getLocation())) {
+                    return response;
+                }
+                tierIndex.put(new TierEntry()
+                        .setObjectName(objectName)
+                        .setCold(false)
+                        .setLocation(objectName)
+                        .setFileName(response.getFileName())
+                        .setFileSize(response.getFileSize())
+                        .setCreateTime(System.currentTimeMillis()));
+            }
+        } catch (IOException e) {
+            // 不在索引中的文件从热存储读取，不参与迁移
+            log.error("【写入分层存储索引异常】：objectName：{}，{}", objectName, e);
+            return response;
+        }
+        if (previous != null) {
+            try {
+                getTier(previous).delete(previous.getLocation());
+            } catch (Exception e) {
+                log.error("【删除已迁移的旧文件异常】：objectName：{}，location：{}，{}", objectName, previous.getLocation(), e);
+            }
+        }
+        return response;
+    }
+
+    private TierEntry getEntry(String objectName) {
+        try {
+            return tierIndex.get(objectName);
+        } catch (IOException e) {
+            log.error("【读取分层存储索引异常】：objectName：{}，{}", objectName, e);
+            return null;
+        }
+    }
+
+    /**
+     * 读取文件时只需要已迁移过的文件的索引，未迁移过的文件从热存储的上传地址读取
+     */
+    private TierEntry getRelocatedEntry(String objectName) {
+        try {
+            return tierIndex.getRelocated(objectName);
+        } catch (IOException e) {
+            log.error("【读取分层存储索引异常】：objectName：{}，{}", objectName, e);
+            return null;
+        }
+    }
+
+    private TierEntry removeEntry(String objectName) {
+        synchronized (lockFor(objectName)) {
+            TierEntry entry = getEntry(objectName);
+            if (entry != null) {
+                try {
+                    tierIndex.remove(objectName);
+                } catch (IOException e) {
+                    log.error("【删除分层存储索引异常】：objectName：{}，{}", objectName, e);
+                }
+            }
+            return entry;
+        }
+    }
+
+    /**
+     * 从文件所在的存储层读取，文件不存在时重新读取索引，读取索引后文件已迁移到新地址时从新地址再读取一次
+     * 文件不存在的异常在写入数据前抛出，重试不会重复写入
+     *
+     * @param objectName
+     * @param read
+     */
+    private void readThrough(String objectName, BiConsumer<IStorageService, String> read) {
+        TierEntry entry = getRelocatedEntry(objectName);
+        try {
+            read.accept(getTier(entry), getLocation(entry, objectName));
+        } catch (FileDownloadException e) {
+            if (e.getCode() != StorageErrorCode.FILE_NOT_EXIST.getCode()) {
+                throw e;
+            }
+            TierEntry current = getRelocatedEntry(objectName);
+            if (isSameLocation(entry, current)) {
+                throw e;
+            }
+            log.info("【分层存储读取】：文件已迁移，从新地址读取，objectName：{}，location：{}", objectName, getLocation(current, objectName));
+            read.accept(getTier(current), getLocation(current, objectName));
+        }
+    }
+
+    private boolean isSameLocation(TierEntry entry, TierEntry current) {
+        return getTier(entry) == getTier(current) && Objects.equals(getLocation(entry, null), getLocation(current, null));
+    }
+
+    private IStorageService getTier(TierEntry entry) {
+        return entry != null && entry.isCold() ? cold : delegate;
+    }
+
+    private static String getLocation(TierEntry entry, String objectName) {
+        return entry == null ? objectName : entry.getLocation();
+    }
+
+    private Object lockFor(String objectName) {
+        return locks[(objectName.hashCode() & Integer.MAX_VALUE) % LOCK_STRIPES];
+    }
+
+    private static void fill(DeleteResponse[] responses, List<String> names, List<Integer> indexes, List<DeleteResponse> tierResponses) {
+        for (int i = 0; i < tierResponses.size(); i++) {
+            int index = indexes.get(i);
+            responses[index] = tierResponses.get(i).setObjectName(names.get(index));
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package cn.iwenjuan.storage.tiering;
+
+import cn.iwenjuan.storage.cache.FrequencySketch;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * 文件访问统计，使用固定大小的数组记录所有文件的访问频率和最近访问时间，占用内存与文件个数无关
+ * 访问频率使用FrequencySketch，计数随时间减半；最近访问时间按秒记录在两个哈希位置，每个位置保存映射到该位置的文件中最近的访问时间，
+ * 读取时取较小值。哈希冲突只会使文件显得更近被访问过，不会把正在使用的文件误判为冷数据
+ *
+ * @author li1244
+ * @date 2023/4/28 10:10
+ */
+public class AccessTracker {
+
+    private static final int[] SEEDS = {0x9e3779b9, 0x85ebca6b};
+
+    private final FrequencySketch frequencySketch;
+
+    /**
+     * 访问时间，为距统计开始时间的秒数加1，0表示统计开始后未访问过
+     */
+    private final AtomicIntegerArray accessTimes;
+
+    private final int mask;
+
+    private final long startTime;
+
+    /**
+     * @param expectedObjects   预计的文件个数
+     */
+    public AccessTracker(int expectedObjects) {
+        int size = tableSizeFor(Math.max(expectedObjects, 16));
+        this.frequencySketch = new FrequencySketch(expectedObjects);
+        this.accessTimes = new AtomicIntegerArray(size);
+        this.mask = size - 1;
+        this.startTime = System.currentTimeMillis();
+    }
+
+    /**
+     * 获取统计开始时间，单位毫秒
+     *
+     * @return
+     */
+    public long getStartTime() {
+        return startTime;
+    }
+
+    /**
+     * 记录一次访问
+     *
+     * @param objectName
+     */
+    public void record(String objectName) {
+        synchronized (frequencySketch) {
+            frequencySketch.increment(objectName);
+        }
+        int now = (int) ((System.currentTimeMillis() - startTime) / 1000) + 1;
+        int hash = objectName.hashCode();
+        for (int seed : SEEDS) {
+            int index = indexOf(hash, seed);
+            int previous = accessTimes.get(index);
+            while (previous < now && !accessTimes.compareAndSet(index, previous, now)) {
+                previous = accessTimes.get(index);
+            }
+        }
+    }
+
+    /**
+     * 获取访问频率，最大为15
+     *
+     * @param objectName
+     * @return
+     */
+    public int frequency(String objectName) {
+        synchronized (frequencySketch) {
+            return frequencySketch.frequency(objectName);
+        }
+    }
+
+    /**
+     * 获取最近访问时间，精确到秒（向下取整），统计开始后未访问过时返回0
+     *
+     * @param objectName
+     * @return 单位毫秒
+     */
+    public long getLastAccessTime(String objectName) {
+        int accessTime = getAccessTime(objectName);
+        return accessTime == 0 ? 0 : startTime + (accessTime - 1) * 1000L;
+    }
+
+    /**
+     * 判断指定时间之后是否访问过，与指定时间在同一秒内的访问不计算在内
+     *
+     * @param objectName
+     * @param time          单位毫秒
+     * @return
+     */
+    public boolean isAccessedSince(String objectName, long time) {
+        int accessTime = getAccessTime(objectName);
+        if (time < startTime) {
+            return accessTime > 0;
+        }
+        return accessTime > (time - startTime) / 1000 + 1;
+    }
+
+    private int getAccessTime(String objectName) {
+        int hash = objectName.hashCode();
+        int accessTime = Integer.MAX_VALUE;
+        for (int seed : SEEDS) {
+            accessTime = Math.min(accessTime, accessTimes.get(indexOf(hash, seed)));
+        }
+        return accessTime;
+    }
+
+    private int indexOf(int hash, int seed) {
+        int h = hash * seed;
+        h ^= h >>> 16;
+        h *= 0x45d9f3b;
+        h ^= h >>> 16;
+        return h & mask;
+    }
+
+    private static int tableSizeFor(int capacity) {
+        int size = Integer.highestOneBit(capacity - 1) << 1;
+        return Math.min(Math.max(size, 16), 1 << 30);
+    }
+}
@@ -0,0 +1,50 @@
+package cn.iwenjuan.storage.tiering;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.experimental.Accessors;
+
+/**
+ * 分层存储中文件所在的存储层
+ *
+ * @author li1244
+ * @date 2023/4/28 10:40
+ */
+@Data
+@Accessors(chain = true)
+@NoArgsConstructor
+public class TierEntry {
+
+    /**
+     * 上传时返回的文件地址，迁移后不变
+     */
+    private String objectName;
+    /**
+     * 是否在冷存储中
+     */
+    private boolean cold;
+    /**
+     * 文件在当前存储层中的地址
+     */
+    private String location;
+    /**
+     * 原始文件名称
+     */
+    private String fileName;
+    /**
+     * 文件大小
+     */
+    private long fileSize;
+    /**
+     * 上传时间，单位毫秒
+     */
+    private long createTime;
+    /**
+     * 最近一次迁移的时间，单位毫秒，未迁移过时为0
+     */
+    private long migrateTime;
+    /**
+     * 最近一次访问的时间，单位毫秒，由迁移任务按访问统计定期更新，重启后访问统计清空时使用
+     */
+    private long accessTime;
+}
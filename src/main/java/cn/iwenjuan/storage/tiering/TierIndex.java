@@ -0,0 +1,315 @@
+package cn.iwenjuan.storage.tiering;
+
+import cn.iwenjuan.storage.utils.IdUtils;
+import cn.iwenjuan.storage.utils.Md5Utils;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * 基于本地文件的分层存储索引，每个文件的存储层信息保存为一个独立的二进制记录文件（按文件地址的MD5值分为256个目录），不占用堆内存
+ * 记录格式为：版本(byte) + 是否在冷存储中(boolean) + 文件大小、上传时间、迁移时间、访问时间(long) + 文件地址、当前地址、原始文件名称(UTF)
+ * 另外使用内存映射的位图标记已迁移过（在冷存储中或已迁移回热存储、地址已变化）的文件：未标记的文件仍在热存储的上传地址，读取时不需要读索引文件。
+ * 位图不随文件删除清除标记，哈希冲突或已删除的文件只会多读一次索引文件
+ *
+ * @author li1244
+ * @date 2023/4/28 11:00
+ */
+@Slf4j
+public class TierIndex implements Closeable {
+
+    private static final String ENTRIES_DIR = "entries";
+
+    private static final String FILTER_FILE = "relocated.bits";
+
+    private static final String TEMP_FILE_SUFFIX = ".tmp";
+
+    private static final byte RECORD_VERSION = 1;
+
+    private static final int BUCKETS = 256;
+
+    private final Path path;
+
+    private final Path rootPath;
+
+    private final Path filterPath;
+
+    /**
+     * 位图的字节数，为2的幂
+     */
+    private final int filterSize;
+
+    private FileChannel filterChannel;
+
+    private MappedByteBuffer filter;
+
+    /**
+     * 每次修改位图后递增，读取位图前先读取该字段，保证读到其他线程设置的标记
+     */
+    private volatile int filterVersion;
+
+    /**
+     * 下一次遍历开始的目录序号
+     */
+    private int cursor;
+
+    /**
+     * @param path              索引目录，索引保存在该目录下的entries目录
+     * @param expectedObjects   预计的文件个数，用于确定位图大小（每个文件1字节）
+     */
+    public TierIndex(String path, int expectedObjects) {
+        this.path = Paths.get(path);
+        this.rootPath = this.path.resolve(ENTRIES_DIR);
+        this.filterPath = this.path.resolve(FILTER_FILE);
+        this.filterSize = tableSizeFor(expectedObjects);
+    }
+
+    /**
+     * 获取索引目录
+     *
+     * @return
+     */
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * 打开位图，位图不存在或大小与配置不一致时遍历索引重建；只能调用一次
+     *
+     * @throws IOException
+     */
+    public synchronized void open() throws IOException {
+        if (filter != null) {
+            throw new IllegalStateException("tier index is already open");
+        }
+        Files.createDirectories(path);
+        if (!Files.exists(filterPath) || Files.size(filterPath) != filterSize) {
+            rebuildFilter();
+        }
+        filterChannel = FileChannel.open(filterPath, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        filter = filterChannel.map(FileChannel.MapMode.READ_WRITE, 0, filterSize);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (filterChannel != null) {
+            filter.force();
+            filterChannel.close();
+        }
+    }
+
+    /**
+     * 获取文件的存储层信息
+     *
+     * @param objectName
+     * @return 不在索引中时返回null
+     * @throws IOException
+     */
+    public TierEntry get(String objectName) throws IOException {
+        try {
+            return read(getEntryPath(objectName));
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 获取已迁移过的文件的存储层信息，未迁移过的文件只检查位图，不读取索引文件
+     *
+     * @param objectName
+     * @return 不在索引中或仍在热存储的上传地址时返回null
+     * @throws IOException
+     */
+    public TierEntry getRelocated(String objectName) throws IOException {
+        if (!isMarked(objectName)) {
+            return null;
+        }
+        TierEntry entry = get(objectName);
+        return entry != null && isRelocated(entry) ? entry : null;
+    }
+
+    /**
+     * 保存文件的存储层信息，先写临时文件再重命名，保证读取到的都是完整的；已迁移过的文件先在位图中标记再写入
+     *
+     * @param entry
+     * @throws IOException
+     */
+    public void put(TierEntry entry) throws IOException {
+        if (isRelocated(entry)) {
+            mark(entry.getObjectName());
+        }
+        Path file = getEntryPath(entry.getObjectName());
+        Files.createDirectories(file.getParent());
+        Path temp = file.resolveSibling(file.getFileName().toString() + "." + IdUtils.randomUUID() + TEMP_FILE_SUFFIX);
+        try {
+            Files.write(temp, encode(entry));
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * 删除文件的存储层信息
+     *
+     * @param objectName
+     * @throws IOException
+     */
+    public void remove(String objectName) throws IOException {
+        Files.deleteIfExists(getEntryPath(objectName));
+    }
+
+    /**
+     * 从上次结束的目录开始遍历索引，按目录读取，读取的条数达到limit后停止，下次从下一个目录继续；遍历完所有目录后从头开始
+     * 同一个目录中的记录全部返回，返回的条数可能超过limit
+     *
+     * @param limit
+     * @return
+     * @throws IOException
+     */
+    public synchronized List<TierEntry> scan(int limit) throws IOException {
+        List<TierEntry> entries = new ArrayList<>();
+        for (int i = 0; i < BUCKETS && entries.size() < limit; i++) {
+            Path bucket = rootPath.resolve(String.format("%02x", cursor));
+            cursor = (cursor + 1) % BUCKETS;
+            readBucket(bucket, entries);
+        }
+        return entries;
+    }
+
+    private void readBucket(Path bucket, List<TierEntry> entries) throws IOException {
+        if (!Files.isDirectory(bucket)) {
+            return;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(bucket)) {
+            for (Path file : files) {
+                if (file.getFileName().toString().endsWith(TEMP_FILE_SUFFIX)) {
+                    continue;
+                }
+                try {
+                    entries.add(read(file));
+                } catch (NoSuchFileException e) {
+                    // 读取前被删除
+                } catch (IOException e) {
+                    log.error("【读取分层存储索引异常】：file：{}，{}", file, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * 遍历所有索引文件重建位图，先写临时文件再重命名
+     *
+     * @throws IOException
+     */
+    private void rebuildFilter() throws IOException {
+        byte[] bits = new byte[filterSize];
+        int relocated = 0;
+        if (Files.isDirectory(rootPath)) {
+            try (Stream<Path> buckets = Files.list(rootPath)) {
+                for (Path bucket : (Iterable<Path>) buckets::iterator) {
+                    List<TierEntry> entries = new ArrayList<>();
+                    readBucket(bucket, entries);
+                    for (TierEntry entry : entries) {
+                        if (isRelocated(entry)) {
+                            int index = indexOf(entry.getObjectName());
+                            bits[index >>> 3] |= 1 << (index & 7);
+                            relocated++;
+                        }
+                    }
+                }
+            }
+        }
+        Path temp = filterPath.resolveSibling(FILTER_FILE + "." + IdUtils.randomUUID() + TEMP_FILE_SUFFIX);
+        try {
+            Files.write(temp, bits);
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        Files.move(temp, filterPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        log.info("【重建分层存储索引位图】：path：{}，relocated：{}", filterPath, relocated);
+    }
+
+    private boolean isMarked(String objectName) {
+        // 先读取volatile字段，保证读到其他线程设置的标记
+        int version = filterVersion;
+        int index = indexOf(objectName);
+        return (filter.get(index >>> 3) & (1 << (index & 7))) != 0;
+    }
+
+    /**
+     * 在位图中标记文件，新增标记时刷盘，保证索引文件中的已迁移记录都有标记
+     */
+    private synchronized void mark(String objectName) throws IOException {
+        int index = indexOf(objectName);
+        byte bits = filter.get(index >>> 3);
+        byte marked = (byte) (bits | (1 << (index & 7)));
+        if (marked != bits) {
+            filter.put(index >>> 3, marked);
+            filter.force();
+            filterVersion++;
+        }
+    }
+
+    private int indexOf(String objectName) {
+        int h = objectName.hashCode() * 0x9e3779b9;
+        h ^= h >>> 16;
+        return h & (filterSize * 8 - 1);
+    }
+
+    private static boolean isRelocated(TierEntry entry) {
+        return entry.isCold() || !entry.getObjectName().equals(entry.getLocation());
+    }
+
+    private Path getEntryPath(String objectName) {
+        String name = Md5Utils.md5(objectName);
+        return rootPath.resolve(name.substring(0, 2)).resolve(name);
+    }
+
+    private static byte[] encode(TierEntry entry) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        try (DataOutputStream outputStream = new DataOutputStream(bytes)) {
+            outputStream.writeByte(RECORD_VERSION);
+            outputStream.writeBoolean(entry.isCold());
+            outputStream.writeLong(entry.getFileSize());
+            outputStream.writeLong(entry.getCreateTime());
+            outputStream.writeLong(entry.getMigrateTime());
+            outputStream.writeLong(entry.getAccessTime());
+            outputStream.writeUTF(entry.getObjectName());
+            outputStream.writeUTF(entry.getLocation());
+            outputStream.writeUTF(entry.getFileName() == null ? "" : entry.getFileName());
+        }
+        return bytes.toByteArray();
+    }
+
+    private static TierEntry read(Path file) throws IOException {
+        try (DataInputStream inputStream = new DataInputStream(new ByteArrayInputStream(Files.readAllBytes(file)))) {
+            byte version = inputStream.readByte();
+            if (version != RECORD_VERSION) {
+                throw new IOException("unsupported tier index record version: " + version);
+            }
+            return new TierEntry()
+                    .setCold(inputStream.readBoolean())
+                    .setFileSize(inputStream.readLong())
+                    .setCreateTime(inputStream.readLong())
+                    .setMigrateTime(inputStream.readLong())
+                    .setAccessTime(inputStream.readLong())
+                    .setObjectName(inputStream.readUTF())
+                    .setLocation(inputStream.readUTF())
+                    .setFileName(inputStream.readUTF());
+        }
+    }
+
+    private static int tableSizeFor(int capacity) {
+        int size = Integer.highestOneBit(capacity - 1) << 1;
+        return Math.min(Math.max(size, 1024), 1 << 27);
+    }
+}
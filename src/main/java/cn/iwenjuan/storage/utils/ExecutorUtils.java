@@ -0,0 +1,66 @@
+package cn.iwenjuan.storage.utils;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author li1244
+ * @date 2023/4/12 15:06
+ */
+public class ExecutorUtils {
+
+    /**
+     * 创建有界线程池，队列满时由提交任务的线程执行，起到限流的作用
+     *
+     * @param threadNamePrefix  线程名前缀
+     * @param threads           线程数
+     * @param queueCapacity     队列大小
+     * @return
+     */
+    public static ThreadPoolExecutor newBoundedExecutor(String threadNamePrefix, int threads, int queueCapacity) {
+        return newBoundedExecutor(threadNamePrefix, threads, queueCapacity, new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    /**
+     * 创建有界线程池
+     *
+     * @param threadNamePrefix  线程名前缀
+     * @param threads           线程数
+     * @param queueCapacity     队列大小
+     * @param rejectedHandler   队列满时的拒绝策略
+     * @return
+     */
+    public static ThreadPoolExecutor newBoundedExecutor(String threadNamePrefix, int threads, int queueCapacity, RejectedExecutionHandler rejectedHandler) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(Math.max(queueCapacity, 1)), newThreadFactory(threadNamePrefix), rejectedHandler);
+        // 空闲时回收核心线程
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * 创建守护线程工厂
+     *
+     * @param threadNamePrefix
+     * @return
+     */
+    public static ThreadFactory newThreadFactory(String threadNamePrefix) {
+        AtomicInteger threadNumber = new AtomicInteger(1);
+        return runnable -> {
+            Thread thread = new Thread(runnable, threadNamePrefix.concat(String.valueOf(threadNumber.getAndIncrement())));
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * 关闭线程池
+     *
+     * @param executor
+     */
+    public static void shutdown(ExecutorService executor) {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+}
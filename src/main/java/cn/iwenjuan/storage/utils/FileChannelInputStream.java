@@ -0,0 +1,68 @@
+package cn.iwenjuan.storage.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * 读取文件指定区间的输入流，使用FileChannel按位置读取，不改变FileChannel的当前位置，
+ * 多个线程可以同时读取同一个文件的不同区间
+ *
+ * @author li1244
+ * @date 2023/4/12 15:30
+ */
+public class FileChannelInputStream extends InputStream {
+
+    private final FileChannel channel;
+
+    private long position;
+
+    private final long end;
+
+    /**
+     * @param channel   文件通道，关闭该输入流时不会关闭文件通道
+     * @param position  起始位置
+     * @param length    读取长度
+     */
+    public FileChannelInputStream(FileChannel channel, long position, long length) {
+        this.channel = channel;
+        this.position = position;
+        this.end = position + length;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] bytes = new byte[1];
+        int len = read(bytes, 0, 1);
+        return len <= 0 ? -1 : bytes[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] bytes, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        long remaining = end - position;
+        if (remaining <= 0) {
+            return -1;
+        }
+        int read = channel.read(ByteBuffer.wrap(bytes, off, (int) Math.min(len, remaining)), position);
+        if (read > 0) {
+            position += read;
+        }
+        return read;
+    }
+
+    @Override
+    public long skip(long n) {
+        long skipped = Math.max(0, Math.min(n, end - position));
+        position += skipped;
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return (int) Math.min(end - position, Integer.MAX_VALUE);
+    }
+}
@@ -1,10 +1,17 @@
 package cn.iwenjuan.storage.utils;
 
+import cn.iwenjuan.storage.config.StorageProperties;
 import cn.iwenjuan.storage.context.SpringApplicationContext;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.http.*;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.ClientHttpResponse;
 import org.springframework.http.client.SimpleClientHttpRequestFactory;
 import org.springframework.http.converter.HttpMessageConverter;
 import org.springframework.http.converter.StringHttpMessageConverter;
+import org.springframework.util.ClassUtils;
 import org.springframework.web.client.RestTemplate;
 
 import javax.net.ssl.HttpsURLConnection;
@@ -30,21 +37,57 @@ import java.util.Objects;
  * @author li1244
  * @date 2023/3/23 17:12
  */
+@Slf4j
 public class HttpUtils {
 
     public static final int HTTP_READ_TIMEOUT = 60000;
     public static final int HTTP_CONN_TIMEOUT = 60000;
 
-    private static RestTemplate restTemplate;
+    private static volatile RestTemplate restTemplate;
+
+    /**
+     * 自行创建的请求工厂，使用Spring注册的restTemplate时为null
+     */
+    private static ClientHttpRequestFactory requestFactory;
 
     private static RestTemplate getRestTemplate() {
-        if (restTemplate != null) {
-            return restTemplate;
+        RestTemplate template = restTemplate;
+        if (template == null) {
+            synchronized (HttpUtils.class) {
+                template = restTemplate;
+                if (template == null) {
+                    template = createRestTemplate();
+                    restTemplate = template;
+                }
+            }
+        }
+        return template;
+    }
+
+    /**
+     * 关闭自行创建的http客户端（连接池和空闲连接检测线程），关闭后再次请求时重新创建；使用Spring注册的restTemplate时不关闭
+     */
+    public static void close() {
+        ClientHttpRequestFactory factory;
+        synchronized (HttpUtils.class) {
+            factory = requestFactory;
+            requestFactory = null;
+            restTemplate = null;
         }
+        if (factory instanceof DisposableBean) {
+            try {
+                ((DisposableBean) factory).destroy();
+            } catch (Exception e) {
+                log.error("【关闭http客户端异常】：{}", e);
+            }
+        }
+    }
+
+    private static RestTemplate createRestTemplate() {
         try {
-            restTemplate = SpringApplicationContext.getBean("restTemplate");
-            if (restTemplate != null) {
-                return restTemplate;
+            RestTemplate template = SpringApplicationContext.getBean("restTemplate");
+            if (template != null) {
+                return template;
             }
         } catch (Exception e) {
         }
@@ -69,34 +112,62 @@ public class HttpUtils {
         try {
             sslContext = SSLContext.getInstance("TLS");
             sslContext.init(null, trustManagers, new SecureRandom());
-            sslContext.getSocketFactory();
         } catch (NoSuchAlgorithmException | KeyManagementException e) {
             throw new RuntimeException(e);
         }
-        SimpleClientHttpRequestFactory factory = new SimpleClientHttpRequestFactory() {
-            @Override
-            protected void prepareConnection(HttpURLConnection connection, @NotNull String httpMethod) throws IOException {
-                super.prepareConnection(connection, httpMethod);
-                if (connection instanceof HttpsURLConnection) {
-                    // 设置SSL连接工厂，忽略证书配置
-                    ((HttpsURLConnection) connection).setSSLSocketFactory(sslContext.getSocketFactory());
+        StorageProperties.HttpProperties http = getHttpProperties();
+        ClientHttpRequestFactory factory;
+        if (ClassUtils.isPresent(PooledHttpClientFactory.POOLING_CONNECTION_MANAGER_CLASS, HttpUtils.class.getClassLoader())) {
+            // 引入httpclient依赖时使用连接池
+            factory = PooledHttpClientFactory.create(http, sslContext);
+        } else {
+            SimpleClientHttpRequestFactory simpleFactory = new SimpleClientHttpRequestFactory() {
+                @Override
+                protected void prepareConnection(HttpURLConnection connection, @NotNull String httpMethod) throws IOException {
+                    super.prepareConnection(connection, httpMethod);
+                    if (connection instanceof HttpsURLConnection) {
+                        // 设置SSL连接工厂，忽略证书配置
+                        ((HttpsURLConnection) connection).setSSLSocketFactory(sslContext.getSocketFactory());
+                    }
                 }
-            }
-        };
-        // 设置连接超时时间
-        factory.setConnectTimeout(HTTP_CONN_TIMEOUT);
-        // 设置响应超时时间
-        factory.setReadTimeout(HTTP_READ_TIMEOUT);
-        restTemplate = new RestTemplate(factory);
+            };
+            // 设置连接超时时间
+            simpleFactory.setConnectTimeout(http.getConnectTimeout());
+            // 设置响应超时时间
+            simpleFactory.setReadTimeout(http.getReadTimeout());
+            // 请求内容直接写入连接，不在内存中缓冲
+            simpleFactory.setBufferRequestBody(false);
+            factory = simpleFactory;
+        }
+        requestFactory = factory;
+        RestTemplate template = new RestTemplate(factory);
         // 解决中文乱码问题
-        List<HttpMessageConverter<?>> httpMessageConverters = restTemplate.getMessageConverters();
+        List<HttpMessageConverter<?>> httpMessageConverters = template.getMessageConverters();
         httpMessageConverters.stream().forEach(httpMessageConverter -> {
             if (httpMessageConverter instanceof StringHttpMessageConverter) {
                 StringHttpMessageConverter messageConverter = (StringHttpMessageConverter) httpMessageConverter;
                 messageConverter.setDefaultCharset(Charset.forName("UTF-8"));
             }
         });
-        return restTemplate;
+        return template;
+    }
+
+    /**
+     * 获取http客户端配置，未注册存储配置时使用默认配置
+     * @return
+     */
+    private static StorageProperties.HttpProperties getHttpProperties() {
+        try {
+            StorageProperties storageProperties = SpringApplicationContext.getBean(StorageProperties.class);
+            if (storageProperties != null && storageProperties.getHttp() != null) {
+                return storageProperties.getHttp();
+            }
+        } catch (Exception e) {
+        }
+        StorageProperties.HttpProperties http = new StorageProperties.HttpProperties();
+        http.setConnectTimeout(HTTP_CONN_TIMEOUT);
+        http.setReadTimeout(HTTP_READ_TIMEOUT);
+        return http;
     }
 
     /**
@@ -161,6 +232,25 @@ public class HttpUtils {
         return responseEntity.getBody();
     }
 
+    /**
+     * 发送get请求，以流的方式读取响应内容，响应内容不会全部读入内存
+     * 调用方读取完成后需要关闭返回的响应
+     * @param url       请求地址
+     * @param headers   请求头
+     * @return
+     * @throws IOException
+     */
+    public static ClientHttpResponse getForResponse(String url, Map<String, String> headers) throws IOException {
+        RestTemplate restTemplate = getRestTemplate();
+        ClientHttpRequest request = restTemplate.getRequestFactory().createRequest(restTemplate.getUriTemplateHandler().expand(url), HttpMethod.GET);
+        if (Objects.nonNull(headers)) {
+            for (Map.Entry<String, String> entry : headers.entrySet()) {
+                request.getHeaders().add(entry.getKey(), entry.getValue());
+            }
+        }
+        return request.execute();
+    }
+
     /**
      * 发送post请求
      * @param url       请求地址
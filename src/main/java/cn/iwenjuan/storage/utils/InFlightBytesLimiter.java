@@ -0,0 +1,56 @@
+package cn.iwenjuan.storage.utils;
+
+/**
+ * 限制同时传输的总字节数，超过上限时阻塞等待其他传输完成
+ * 单个超过上限的文件按上限计算，可以单独传输，不会永远等待
+ *
+ * @author li1244
+ * @date 2023/4/21 15:20
+ */
+public class InFlightBytesLimiter {
+
+    private final long maxBytes;
+
+    private long inFlightBytes;
+
+    /**
+     * @param maxBytes  同时传输的总字节数上限
+     */
+    public InFlightBytesLimiter(long maxBytes) {
+        this.maxBytes = Math.max(maxBytes, 1);
+    }
+
+    /**
+     * 申请传输字节数，超过上限时阻塞
+     *
+     * @param bytes
+     * @return 实际申请的字节数，传输完成后调用release释放
+     * @throws InterruptedException
+     */
+    public synchronized long acquire(long bytes) throws InterruptedException {
+        long permits = Math.min(Math.max(bytes, 0), maxBytes);
+        while (inFlightBytes + permits > maxBytes) {
+            wait();
+        }
+        inFlightBytes += permits;
+        return permits;
+    }
+
+    /**
+     * 释放传输字节数
+     *
+     * @param permits   acquire返回的字节数
+     */
+    public synchronized void release(long permits) {
+        inFlightBytes -= permits;
+        notifyAll();
+    }
+
+    public synchronized long getInFlightBytes() {
+        return inFlightBytes;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+}
@@ -4,6 +4,8 @@ import org.springframework.util.DigestUtils;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 
 /**
  * @author li1244
@@ -11,6 +13,8 @@ import java.io.InputStream;
  */
 public class Md5Utils {
 
+    private static final char[] HEX_CHARS = {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'};
+
     /**
      * MD5加密
      *
@@ -32,4 +36,32 @@ public class Md5Utils {
         return DigestUtils.md5DigestAsHex(inputStream);
     }
 
+    /**
+     * 获取MD5摘要实例，配合{@link java.security.DigestInputStream}可在读取文件流的同时计算MD5值
+     *
+     * @return
+     */
+    public static MessageDigest getDigest() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 摘要结果转十六进制字符串
+     *
+     * @param digest
+     * @return
+     */
+    public static String toHex(byte[] digest) {
+        char[] chars = new char[digest.length * 2];
+        for (int i = 0; i < digest.length; i++) {
+            chars[i * 2] = HEX_CHARS[(digest[i] >>> 4) & 0xF];
+            chars[i * 2 + 1] = HEX_CHARS[digest[i] & 0xF];
+        }
+        return new String(chars);
+    }
+
 }
@@ -0,0 +1,182 @@
+package cn.iwenjuan.storage.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 固定大小缓冲区的管道输入流，写入线程通过getOutputStream写入，读取线程读取
+ * 缓冲区满时写入线程等待；写入线程失败时调用fail，读取线程读完已写入的内容后抛出异常，不会把未写完的内容当作完整内容；
+ * 读取线程关闭输入流后，写入线程的写入抛出IOException，可以及时结束写入
+ * 与java.io.PipedInputStream不同，不依赖写入线程是否存活判断写入结束，可以在线程池中写入；可以设置写入超时，读取线程长时间不读取时写入抛出异常
+ *
+ * @author li1244
+ * @date 2023/4/23 14:20
+ */
+public class PipedBufferInputStream extends InputStream {
+
+    private final byte[] buffer;
+
+    private final OutputStream outputStream = new PipeOutputStream();
+
+    /**
+     * 缓冲区满时写入的最长等待时间，单位毫秒，小于等于0时一直等待
+     */
+    private final long writeTimeout;
+
+    /**
+     * 下一个读取的位置
+     */
+    private int readPosition;
+
+    /**
+     * 缓冲区中未读取的字节数
+     */
+    private int count;
+
+    private boolean writeClosed;
+
+    private boolean readClosed;
+
+    private Throwable failure;
+
+    /**
+     * @param bufferSize    缓冲区大小
+     */
+    public PipedBufferInputStream(int bufferSize) {
+        this(bufferSize, 0);
+    }
+
+    /**
+     * @param bufferSize    缓冲区大小
+     * @param writeTimeout  缓冲区满时写入的最长等待时间，单位毫秒，小于等于0时一直等待
+     */
+    public PipedBufferInputStream(int bufferSize, long writeTimeout) {
+        this.buffer = new byte[Math.max(bufferSize, 1)];
+        this.writeTimeout = writeTimeout;
+    }
+
+    /**
+     * 获取写入端，写入完成后需要关闭
+     *
+     * @return
+     */
+    public OutputStream getOutputStream() {
+        return outputStream;
+    }
+
+    /**
+     * 写入失败，读取线程读完已写入的内容后抛出异常
+     *
+     * @param cause
+     */
+    public synchronized void fail(Throwable cause) {
+        if (!writeClosed) {
+            failure = cause;
+            writeClosed = true;
+            notifyAll();
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] bytes = new byte[1];
+        int len = read(bytes, 0, 1);
+        return len < 0 ? -1 : bytes[0] & 0xff;
+    }
+
+    @Override
+    public synchronized int read(byte[] bytes, int off, int len) throws IOException {
+        if (readClosed) {
+            throw new IOException("Pipe closed");
+        }
+        if (len == 0) {
+            return 0;
+        }
+        try {
+            while (count == 0 && !writeClosed) {
+                wait();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+        if (count == 0) {
+            if (failure != null) {
+                throw failure instanceof IOException ? (IOException) failure : new IOException(failure);
+            }
+            return -1;
+        }
+        int n = Math.min(len, Math.min(count, buffer.length - readPosition));
+        System.arraycopy(buffer, readPosition, bytes, off, n);
+        readPosition = (readPosition + n) % buffer.length;
+        count -= n;
+        notifyAll();
+        return n;
+    }
+
+    @Override
+    public synchronized int available() {
+        return count;
+    }
+
+    @Override
+    public synchronized void close() {
+        readClosed = true;
+        count = 0;
+        notifyAll();
+    }
+
+    private class PipeOutputStream extends OutputStream {
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int off, int len) throws IOException {
+            synchronized (PipedBufferInputStream.this) {
+                while (len > 0) {
+                    try {
+                        long deadline = writeTimeout > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(writeTimeout) : 0;
+                        while (count == buffer.length && !readClosed && !writeClosed) {
+                            if (writeTimeout <= 0) {
+                                PipedBufferInputStream.this.wait();
+                                continue;
+                            }
+                            long remaining = deadline - System.nanoTime();
+                            if (remaining <= 0) {
+                                throw new InterruptedIOException("Pipe write timed out after " + writeTimeout + "ms");
+                            }
+                            TimeUnit.NANOSECONDS.timedWait(PipedBufferInputStream.this, remaining);
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException();
+                    }
+                    if (readClosed || writeClosed) {
+                        throw new IOException("Pipe closed");
+                    }
+                    int writePosition = (readPosition + count) % buffer.length;
+                    int n = Math.min(len, Math.min(buffer.length - count, buffer.length - writePosition));
+                    System.arraycopy(bytes, off, buffer, writePosition, n);
+                    count += n;
+                    off += n;
+                    len -= n;
+                    PipedBufferInputStream.this.notifyAll();
+                }
+            }
+        }
+
+        @Override
+        public void close() {
+            synchronized (PipedBufferInputStream.this) {
+                writeClosed = true;
+                PipedBufferInputStream.this.notifyAll();
+            }
+        }
+    }
+}
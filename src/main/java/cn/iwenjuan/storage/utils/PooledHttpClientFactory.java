@@ -0,0 +1,79 @@
+package cn.iwenjuan.storage.utils;
+
+import cn.iwenjuan.storage.config.StorageProperties;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+
+import javax.net.ssl.SSLContext;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 基于httpclient连接池的请求工厂，只在引入httpclient依赖时使用
+ *
+ * @author li1244
+ * @date 2023/4/22 10:15
+ */
+class PooledHttpClientFactory {
+
+    /**
+     * 空闲超过该时间的连接在使用前检查是否可用，单位毫秒
+     */
+    private static final int VALIDATE_AFTER_INACTIVITY = 2000;
+
+    static final String POOLING_CONNECTION_MANAGER_CLASS = "org.apache.http.impl.conn.PoolingHttpClientConnectionManager";
+
+    private PooledHttpClientFactory() {
+    }
+
+    /**
+     * 创建请求工厂
+     *
+     * @param http          http客户端配置
+     * @param sslContext    SSL上下文
+     * @return
+     */
+    static HttpComponentsClientHttpRequestFactory create(StorageProperties.HttpProperties http, SSLContext sslContext) {
+        Registry<ConnectionSocketFactory> registry = RegistryBuilder.<ConnectionSocketFactory>create()
+                .register("http", PlainConnectionSocketFactory.getSocketFactory())
+                .register("https", new SSLConnectionSocketFactory(sslContext))
+                .build();
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager(registry);
+        connectionManager.setMaxTotal(Math.max(http.getMaxConnections(), 1));
+        connectionManager.setDefaultMaxPerRoute(Math.max(http.getMaxConnectionsPerRoute(), 1));
+        connectionManager.setValidateAfterInactivity(VALIDATE_AFTER_INACTIVITY);
+
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectTimeout(http.getConnectTimeout())
+                .setSocketTimeout(http.getReadTimeout())
+                .setConnectionRequestTimeout(http.getConnectionRequestTimeout())
+                .build();
+        long keepAlive = http.getKeepAlive();
+        // 服务端返回的Keep-Alive时间更短时以服务端为准
+        ConnectionKeepAliveStrategy keepAliveStrategy = (response, context) -> {
+            long duration = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+            return duration > 0 ? Math.min(duration, keepAlive) : keepAlive;
+        };
+        CloseableHttpClient httpClient = HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(requestConfig)
+                .setKeepAliveStrategy(keepAliveStrategy)
+                // 后台线程定期关闭过期和空闲的连接
+                .evictExpiredConnections()
+                .evictIdleConnections(http.getIdleTimeout(), TimeUnit.MILLISECONDS)
+                .build();
+        HttpComponentsClientHttpRequestFactory factory = new HttpComponentsClientHttpRequestFactory(httpClient);
+        // 请求内容直接写入连接，不在内存中缓冲
+        factory.setBufferRequestBody(false);
+        return factory;
+    }
+}
@@ -0,0 +1,81 @@
+package cn.iwenjuan.storage.utils;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * 同时写入主输出流和分支输出流，用于下载时同时写入缓存
+ * 分支写入失败或超过大小限制时停止写入分支，不影响主输出流
+ *
+ * @author li1244
+ * @date 2023/4/18 9:30
+ */
+@Slf4j
+public class TeeOutputStream extends OutputStream {
+
+    private final OutputStream out;
+
+    private final OutputStream branch;
+
+    private final long maxBranchSize;
+
+    private long branchSize;
+
+    private boolean branchFailed;
+
+    /**
+     * @param out               主输出流
+     * @param branch            分支输出流
+     * @param maxBranchSize     分支最多写入的字节数
+     */
+    public TeeOutputStream(OutputStream out, OutputStream branch, long maxBranchSize) {
+        this.out = out;
+        this.branch = branch;
+        this.maxBranchSize = maxBranchSize;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] bytes, int off, int len) throws IOException {
+        out.write(bytes, off, len);
+        if (branchFailed) {
+            return;
+        }
+        branchSize += len;
+        if (branchSize > maxBranchSize) {
+            branchFailed = true;
+            return;
+        }
+        try {
+            branch.write(bytes, off, len);
+        } catch (IOException e) {
+            log.error("【写入分支输出流异常】：{}", e.getMessage());
+            branchFailed = true;
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    /**
+     * 关闭分支输出流，主输出流由调用方关闭
+     *
+     * @return 分支是否完整写入
+     */
+    public boolean closeBranch() {
+        try {
+            branch.close();
+        } catch (IOException e) {
+            branchFailed = true;
+        }
+        return !branchFailed;
+    }
+}
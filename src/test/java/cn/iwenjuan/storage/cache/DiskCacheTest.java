@@ -0,0 +1,100 @@
+package cn.iwenjuan.storage.cache;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author li1244
+ * @date 2023/4/17 16:10
+ */
+class DiskCacheTest {
+
+    @TempDir
+    Path tempDir;
+
+    private static Path commit(DiskCache cache, String key, int size) throws IOException {
+        Path tempFile = cache.createTempFile();
+        Files.write(tempFile, new byte[size]);
+        return cache.commit(key, tempFile);
+    }
+
+    @Test
+    void committedFilesAreReturned() throws IOException {
+        DiskCache cache = new DiskCache(tempDir.toString(), 100);
+        assertNull(cache.get("/files/a.pdf"));
+        Path file = commit(cache, "/files/a.pdf", 60);
+
+        assertEquals(file, cache.get("/files/a.pdf"));
+        assertEquals(60, Files.size(file));
+        assertEquals(60, cache.getSize());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+
+        cache.invalidate("/files/a.pdf");
+        assertNull(cache.get("/files/a.pdf"));
+        assertFalse(Files.exists(file));
+        assertEquals(0, cache.getSize());
+    }
+
+    @Test
+    void leastRecentlyUsedFilesAreEvicted() throws IOException {
+        DiskCache cache = new DiskCache(tempDir.toString(), 100);
+        Path first = commit(cache, "/files/a.pdf", 40);
+        commit(cache, "/files/b.pdf", 40);
+        assertNotNull(cache.get("/files/a.pdf"));
+        commit(cache, "/files/c.pdf", 40);
+
+        assertEquals(1, cache.getEvictionCount());
+        assertEquals(80, cache.getSize());
+        assertNull(cache.get("/files/b.pdf"));
+        assertEquals(first, cache.get("/files/a.pdf"));
+        assertNotNull(cache.get("/files/c.pdf"));
+    }
+
+    @Test
+    void commitsStartedBeforeInvalidateAreDropped() throws IOException {
+        DiskCache cache = new DiskCache(tempDir.toString(), 100);
+        long generation = cache.getGeneration("/files/a.pdf");
+        Path tempFile = cache.createTempFile();
+        Files.write(tempFile, new byte[60]);
+        cache.invalidate("/files/a.pdf");
+
+        assertNull(cache.commit("/files/a.pdf", tempFile, generation));
+        assertFalse(Files.exists(tempFile));
+        assertNull(cache.get("/files/a.pdf"));
+        assertEquals(0, cache.getSize());
+
+        // 删除后开始的写入正常加入缓存
+        assertNotNull(commit(cache, "/files/a.pdf", 60));
+        assertNotNull(cache.get("/files/a.pdf"));
+    }
+
+    @Test
+    void oversizedFilesAreNotCached() throws IOException {
+        DiskCache cache = new DiskCache(tempDir.toString(), 100);
+        Path tempFile = cache.createTempFile();
+        Files.write(tempFile, new byte[101]);
+        assertNull(cache.commit("/files/a.pdf", tempFile));
+        assertFalse(Files.exists(tempFile));
+        assertEquals(0, cache.getSize());
+    }
+
+    @Test
+    void cacheIsReloadedAfterRestart() throws IOException {
+        DiskCache cache = new DiskCache(tempDir.toString(), 100);
+        Path file = commit(cache, "/files/a.pdf", 60);
+        // 上次未写完的临时文件在重启时删除
+        Path tempFile = cache.createTempFile();
+
+        DiskCache reloaded = new DiskCache(tempDir.toString(), 100);
+        assertEquals(file, reloaded.get("/files/a.pdf"));
+        assertEquals(60, reloaded.getSize());
+        assertFalse(Files.exists(tempFile));
+    }
+}
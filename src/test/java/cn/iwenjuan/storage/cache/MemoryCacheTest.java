@@ -0,0 +1,91 @@
+package cn.iwenjuan.storage.cache;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author li1244
+ * @date 2023/4/18 16:20
+ */
+class MemoryCacheTest {
+
+    private static byte[] content(int size, int value) {
+        byte[] content = new byte[size];
+        Arrays.fill(content, (byte) value);
+        return content;
+    }
+
+    private static void access(MemoryCache cache, String key, int times) {
+        for (int i = 0; i < times; i++) {
+            cache.get(key);
+        }
+    }
+
+    @Test
+    void cachedDataIsReturnedReadOnly() {
+        MemoryCache cache = new MemoryCache(100, 16, false);
+        assertNull(cache.get("a"));
+        assertTrue(cache.put("a", content(60, 1), 50));
+
+        ByteBuffer buffer = cache.get("a");
+        assertTrue(buffer.isReadOnly());
+        assertEquals(50, buffer.remaining());
+        assertEquals(1, buffer.get(0));
+        assertEquals(50, cache.getSize());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    void frequentlyReadKeysEvictLeastRecentlyUsed() {
+        MemoryCache cache = new MemoryCache(100, 16, true);
+        access(cache, "a", 1);
+        assertTrue(cache.put("a", content(60, 1), 60));
+        access(cache, "b", 3);
+        assertTrue(cache.put("b", content(60, 2), 60));
+
+        assertEquals(1, cache.getEvictionCount());
+        assertEquals(1, cache.getCount());
+        assertEquals(60, cache.getSize());
+        assertNull(cache.get("a"));
+        assertEquals(2, cache.get("b").get(0));
+    }
+
+    @Test
+    void rarelyReadKeysAreRejected() {
+        MemoryCache cache = new MemoryCache(100, 16, false);
+        access(cache, "a", 3);
+        assertTrue(cache.put("a", content(60, 1), 60));
+        access(cache, "b", 1);
+        assertFalse(cache.put("b", content(60, 2), 60));
+        assertFalse(cache.put("c", content(101, 3), 101));
+
+        assertEquals(2, cache.getRejectionCount());
+        assertEquals(0, cache.getEvictionCount());
+        assertEquals(1, cache.get("a").get(0));
+        assertNull(cache.get("b"));
+    }
+
+    @Test
+    void rejectedReplacementKeepsExistingEntry() {
+        MemoryCache cache = new MemoryCache(100, 16, false);
+        assertTrue(cache.put("a", content(60, 1), 60));
+        access(cache, "b", 3);
+        assertTrue(cache.put("b", content(40, 2), 40));
+
+        // 替换后超过容量，且b比a更常用，替换被拒绝时保留原来的数据
+        assertFalse(cache.put("a", content(80, 3), 80));
+        assertEquals(60, cache.get("a").remaining());
+        assertEquals(100, cache.getSize());
+
+        // 不超过容量时直接替换
+        assertTrue(cache.put("a", content(50, 4), 50));
+        assertEquals(4, cache.get("a").get(0));
+        assertEquals(90, cache.getSize());
+        assertEquals(2, cache.getCount());
+    }
+}
@@ -0,0 +1,64 @@
+package cn.iwenjuan.storage.cache;
+
+import cn.iwenjuan.storage.domain.PresignedUrl;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author li1244
+ * @date 2023/4/20 15:40
+ */
+class PresignedUrlCacheTest {
+
+    private static final Duration TTL = Duration.ofHours(1);
+
+    private static PresignedUrl presignedUrl(String objectName, long expireInMillis) {
+        return new PresignedUrl()
+                .setObjectName(objectName)
+                .setUrl("http://localhost/" + objectName)
+                .setMethod("POST")
+                .setFormData(new HashMap<>(Collections.singletonMap("token", "t")))
+                .setExpireTime(new Date(System.currentTimeMillis() + expireInMillis));
+    }
+
+    @Test
+    void callersCannotModifyCachedUrls() {
+        PresignedUrlCache cache = new PresignedUrlCache(16);
+        PresignedUrl original = presignedUrl("a", TTL.toMillis());
+        cache.put("a", original);
+        original.setUrl("changed");
+
+        PresignedUrl first = cache.get("a", TTL);
+        first.setUrl("changed");
+        first.getFormData().put("key", "a");
+        first.getExpireTime().setTime(0);
+
+        PresignedUrl second = cache.get("a", TTL);
+        assertEquals("http://localhost/a", second.getUrl());
+        assertEquals(Collections.singletonMap("token", "t"), second.getFormData());
+        assertTrue(second.getExpireTime().getTime() > System.currentTimeMillis());
+    }
+
+    @Test
+    void fullCacheEvictsSoonestToExpire() {
+        PresignedUrlCache cache = new PresignedUrlCache(16);
+        for (int i = 0; i < 16; i++) {
+            // 有效期依次变长
+            cache.put("url" + i, presignedUrl("url" + i, TTL.toMillis() + i * 1000L));
+        }
+        cache.put("new", presignedUrl("new", TTL.toMillis()));
+
+        assertNull(cache.get("url0", TTL));
+        assertNull(cache.get("url1", TTL));
+        for (int i = 2; i < 16; i++) {
+            assertNotNull(cache.get("url" + i, TTL));
+        }
+        assertNotNull(cache.get("new", TTL));
+    }
+}
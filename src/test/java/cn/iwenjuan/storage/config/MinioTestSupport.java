@@ -0,0 +1,19 @@
+package cn.iwenjuan.storage.config;
+
+import okhttp3.OkHttpClient;
+
+/**
+ * 其他包中的测试通过该类使用与StorageConfiguration相同的方式创建minio的OkHttpClient
+ *
+ * @author li1244
+ * @date 2023/4/25 14:20
+ */
+public class MinioTestSupport {
+
+    private MinioTestSupport() {
+    }
+
+    public static OkHttpClient createHttpClient(StorageProperties.MinioProperties minio) {
+        return MinioHttpClientFactory.create(minio);
+    }
+}
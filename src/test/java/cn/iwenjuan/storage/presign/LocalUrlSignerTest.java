@@ -0,0 +1,58 @@
+package cn.iwenjuan.storage.presign;
+
+import cn.iwenjuan.storage.config.StorageProperties;
+import cn.iwenjuan.storage.domain.PresignedUrl;
+import cn.iwenjuan.storage.exception.StorageException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author li1244
+ * @date 2023/4/20 15:30
+ */
+class LocalUrlSignerTest {
+
+    @TempDir
+    Path tempDir;
+
+    private LocalUrlSigner urlSigner() {
+        StorageProperties.LocalProperties localProperties = new StorageProperties.LocalProperties();
+        localProperties.setPath(tempDir.resolve("files").toString());
+        localProperties.setPresignUrl("http://localhost:8080/storage/presigned");
+        localProperties.setSignKey("test");
+        return new LocalUrlSigner(localProperties);
+    }
+
+    @Test
+    void filesUnderLocalPathAreSigned() {
+        LocalUrlSigner urlSigner = urlSigner();
+        String objectName = tempDir.resolve("files").resolve("20230420").resolve("a.pdf").toString();
+        assertEquals(tempDir.resolve("files").resolve("20230420").resolve("a.pdf").toAbsolutePath(), urlSigner.resolve(objectName));
+        PresignedUrl presignedUrl = urlSigner.presign("PUT", objectName, Duration.ofMinutes(5));
+        String signature = presignedUrl.getUrl().substring(presignedUrl.getUrl().lastIndexOf('=') + 1);
+        long expires = presignedUrl.getExpireTime().getTime() / 1000;
+        assertTrue(urlSigner.verify("PUT", objectName, expires, signature));
+        assertFalse(urlSigner.verify("GET", objectName, expires, signature));
+    }
+
+    @Test
+    void filesOutsideLocalPathAreRejected() {
+        LocalUrlSigner urlSigner = urlSigner();
+        String[] objectNames = {
+                "../../etc/cron.d/x.txt",
+                tempDir.resolve("files").resolve("..").resolve("x.txt").toString(),
+                tempDir.resolve("other").resolve("x.txt").toString(),
+                tempDir.resolve("files").toString(),
+                tempDir.resolve("files").resolve(".replication").resolve("wal-00000000000000000001.log").toString()
+        };
+        for (String objectName : objectNames) {
+            assertNull(urlSigner.resolve(objectName), objectName);
+            assertThrows(StorageException.class, () -> urlSigner.presign("PUT", objectName, Duration.ofMinutes(5)), objectName);
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package cn.iwenjuan.storage.service.impl;
+
+import cn.iwenjuan.storage.config.StorageProperties;
+import cn.iwenjuan.storage.domain.DeleteResponse;
+import cn.iwenjuan.storage.domain.UploadResponse;
+import cn.iwenjuan.storage.exception.FileDownloadException;
+import com.aliyun.oss.ClientBuilderConfiguration;
+import com.aliyun.oss.OSS;
+import com.aliyun.oss.OSSClientBuilder;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 阿里云OSS客户端对测试服务的基本读写：上传、按范围下载、复制（上传时重命名临时文件）和批量删除
+ * 测试服务只模拟S3协议中两者一致的部分，不校验签名
+ *
+ * @author li1244
+ * @date 2023/4/27 10:20
+ */
+class AliyunStorageServiceTest {
+
+    @TempDir
+    Path tempDir;
+
+    private final byte[] data = new byte[100000];
+
+    private S3StandIn standIn;
+
+    private AliyunStorageService storageService;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        new Random(1).nextBytes(data);
+        standIn = new S3StandIn(MinioStorageServiceTest.BUCKET_NAME);
+        StorageProperties storageProperties = MinioStorageServiceTest.storageProperties(standIn, tempDir);
+        storageProperties.setPlatform(StorageProperties.PlatformType.aliyun);
+        StorageProperties.AliyunOssProperties aliyun = new StorageProperties.AliyunOssProperties();
+        aliyun.setEndpoint(standIn.getEndpoint());
+        aliyun.setAccessKey("accessKey");
+        aliyun.setSecretKey("secretKey");
+        aliyun.setBucketName(MinioStorageServiceTest.BUCKET_NAME);
+        aliyun.setPath("/files");
+        aliyun.setMaxErrorRetry(0);
+        storageProperties.setAliyun(aliyun);
+        storageService = new AliyunStorageService(storageProperties, ossClient(aliyun));
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        storageService.destroy();
+        standIn.close();
+    }
+
+    /**
+     * 与StorageConfiguration相同的方式创建OSS客户端，endpoint为IP地址时使用路径方式访问bucket
+     */
+    private static OSS ossClient(StorageProperties.AliyunOssProperties aliyun) {
+        ClientBuilderConfiguration configuration = new ClientBuilderConfiguration();
+        configuration.setSupportCname(false);
+        configuration.setMaxErrorRetry(aliyun.getMaxErrorRetry());
+        configuration.setCrcCheckEnabled(aliyun.isCrcCheckEnabled());
+        return new OSSClientBuilder().build(aliyun.getEndpoint(), aliyun.getAccessKey(), aliyun.getSecretKey(), configuration);
+    }
+
+    @Test
+    void uploadAndDownloadRange() throws Exception {
+        UploadResponse response = storageService.upload(new ByteArrayInputStream(data), "a.bin", "a", data.length);
+        assertEquals(1, standIn.getRequestCount(S3StandIn.PUT_OBJECT));
+        assertArrayEquals(data, standIn.getObject(MinioStorageServiceTest.BUCKET_NAME, response.getFileUrl()));
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        storageService.download(outputStream, response.getFileUrl(), 1000, 5000);
+        assertArrayEquals(Arrays.copyOfRange(data, 1000, 6000), outputStream.toByteArray());
+
+        outputStream = new ByteArrayOutputStream();
+        storageService.download(outputStream, response.getFileUrl());
+        assertArrayEquals(data, outputStream.toByteArray());
+
+        assertThrows(FileDownloadException.class, () -> storageService.download(new ByteArrayOutputStream(), "/files/none.bin"));
+    }
+
+    @Test
+    void uploadFileIsCopiedToDigestName() throws Exception {
+        Path file = tempDir.resolve("a.bin");
+        Files.write(file, data);
+
+        UploadResponse first = storageService.upload(file.toFile());
+        assertFalse(first.isDeduplicated());
+        assertEquals(1, standIn.getRequestCount(S3StandIn.COPY_OBJECT));
+        assertEquals(1, standIn.getObjectCount());
+        assertArrayEquals(data, standIn.getObject(MinioStorageServiceTest.BUCKET_NAME, first.getFileUrl()));
+
+        UploadResponse second = storageService.upload(file.toFile());
+        assertTrue(second.isDeduplicated());
+        assertEquals(first.getFileUrl(), second.getFileUrl());
+        assertEquals(1, standIn.getRequestCount(S3StandIn.COPY_OBJECT));
+        assertEquals(1, standIn.getObjectCount());
+    }
+
+    @Test
+    void deleteAll() {
+        for (int i = 0; i < 5; i++) {
+            standIn.putObject(MinioStorageServiceTest.BUCKET_NAME, "/files/" + i + ".bin", new byte[]{(byte) i});
+        }
+        storageService.delete("/files/0.bin");
+        assertNull(standIn.getObject(MinioStorageServiceTest.BUCKET_NAME, "/files/0.bin"));
+
+        List<DeleteResponse> responses = storageService.deleteAll(Arrays.asList("/files/1.bin", "/files/2.bin", "/files/3.bin"));
+        assertEquals(3, responses.size());
+        assertTrue(responses.stream().allMatch(DeleteResponse::isSuccess));
+        assertEquals(1, standIn.getRequestCount(S3StandIn.DELETE_OBJECTS));
+        assertEquals(1, standIn.getObjectCount());
+    }
+}
@@ -0,0 +1,120 @@
+package cn.iwenjuan.storage.service.impl;
+
+import cn.iwenjuan.storage.config.StorageProperties;
+import cn.iwenjuan.storage.domain.UploadResponse;
+import cn.iwenjuan.storage.service.IStorageService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author li1244
+ * @date 2023/4/13 16:20
+ */
+class AsyncStorageServiceTest {
+
+    private final CountDownLatch gate = new CountDownLatch(1);
+
+    private final StubStorageService slow = new StubStorageService(gate);
+
+    private final StubStorageService fast = new StubStorageService(null);
+
+    private AsyncStorageService asyncStorageService;
+
+    @BeforeEach
+    void setUp() {
+        StorageProperties storageProperties = new StorageProperties();
+        storageProperties.setPlatform(StorageProperties.PlatformType.local);
+        StorageProperties.RouteRule rule = new StorageProperties.RouteRule();
+        rule.setPlatform(StorageProperties.PlatformType.minio);
+        rule.setExtensions("mp4");
+        storageProperties.getRoute().setRules(Collections.singletonList(rule));
+        Map<StorageProperties.PlatformType, IStorageService> storageServices = new LinkedHashMap<>();
+        storageServices.put(StorageProperties.PlatformType.local, fast);
+        storageServices.put(StorageProperties.PlatformType.minio, slow);
+        RoutingStorageService routingStorageService = new RoutingStorageService(storageServices, storageProperties);
+
+        asyncStorageService = new AsyncStorageService(routingStorageService, 4, 4, 100);
+        asyncStorageService.setRoutingStorageService(routingStorageService);
+        asyncStorageService.setPlatformConcurrency(2);
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        gate.countDown();
+        asyncStorageService.destroy();
+    }
+
+    @Test
+    void slowPlatformDoesNotTakeAllPermits() throws Exception {
+        List<CompletableFuture<UploadResponse>> slowUploads = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            slowUploads.add(upload("a" + i + ".mp4"));
+        }
+        awaitStarted(slow, 2);
+        assertEquals(2, asyncStorageService.getActiveCount(StorageProperties.PlatformType.minio));
+        assertEquals(2, asyncStorageService.getQueueDepth());
+
+        // 另一个存储平台的任务不需要等待较慢的存储平台
+        assertNotNull(upload("b.png").get(10, TimeUnit.SECONDS));
+        assertEquals(1, fast.started.get());
+        assertEquals(2, slow.started.get());
+
+        gate.countDown();
+        for (CompletableFuture<UploadResponse> future : slowUploads) {
+            assertNotNull(future.get(10, TimeUnit.SECONDS));
+        }
+        assertEquals(4, slow.started.get());
+        assertEquals(0, asyncStorageService.getQueueDepth());
+    }
+
+    private CompletableFuture<UploadResponse> upload(String originalFilename) {
+        return asyncStorageService.uploadAsync(new ByteArrayInputStream(new byte[16]), originalFilename, null, 16);
+    }
+
+    private static void awaitStarted(StubStorageService storageService, int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (storageService.started.get() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(count, storageService.started.get());
+    }
+
+    /**
+     * 模拟存储平台：gate不为空时等待测试放行后再返回上传结果
+     */
+    private static class StubStorageService extends DelegatingStorageService {
+
+        private final CountDownLatch gate;
+
+        private final AtomicInteger started = new AtomicInteger();
+
+        StubStorageService(CountDownLatch gate) {
+            super(null);
+            this.gate = gate;
+        }
+
+        @Override
+        public UploadResponse upload(InputStream inputStream, String originalFilename, String uid, long fileSize) throws Exception {
+            started.incrementAndGet();
+            if (gate != null) {
+                gate.await();
+            }
+            return new UploadResponse().setFileName(originalFilename).setFileUrl("/files/" + originalFilename);
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package cn.iwenjuan.storage.service.impl;
+
+import cn.iwenjuan.storage.cache.DiskCache;
+import cn.iwenjuan.storage.domain.DeleteResponse;
+import cn.iwenjuan.storage.exception.FileDownloadException;
+import cn.iwenjuan.storage.exception.enums.StorageErrorCode;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author li1244
+ * @date 2023/4/17 16:30
+ */
+class CachingStorageServiceTest {
+
+    private static final String OBJECT_NAME = "/bucket/a.png";
+
+    @TempDir
+    Path tempDir;
+
+    private final byte[] data = new byte[64 * 1024];
+
+    private final AtomicInteger backendCalls = new AtomicInteger();
+
+    private volatile boolean deleted;
+
+    private volatile CountDownLatch started = new CountDownLatch(0);
+
+    private volatile CountDownLatch gate = new CountDownLatch(0);
+
+    private ExecutorService executor;
+
+    private DiskCache diskCache;
+
+    private CachingStorageService storageService;
+
+    @BeforeEach
+    void setUp() {
+        new Random(1).nextBytes(data);
+        executor = Executors.newSingleThreadExecutor();
+        diskCache = new DiskCache(tempDir.resolve("cache").toString(), 1024 * 1024);
+        storageService = new CachingStorageService(new StubStorageService(), diskCache, 1024 * 1024);
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    private byte[] download() {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        storageService.download(outputStream, OBJECT_NAME);
+        return outputStream.toByteArray();
+    }
+
+    @Test
+    void downloadsAreServedFromCache() {
+        assertArrayEquals(data, download());
+        assertArrayEquals(data, download());
+        assertEquals(1, backendCalls.get());
+        assertEquals(data.length, diskCache.getSize());
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        storageService.download(outputStream, OBJECT_NAME, 100, 200);
+        assertArrayEquals(Arrays.copyOfRange(data, 100, 300), outputStream.toByteArray());
+        assertEquals(1, backendCalls.get());
+    }
+
+    @Test
+    void deleteDuringFillIsNotCached() throws Exception {
+        started = new CountDownLatch(1);
+        gate = new CountDownLatch(1);
+        Future<byte[]> fill = executor.submit(this::download);
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+
+        // 下载开始后删除文件，下载完成后不能把已删除的文件写入缓存
+        storageService.delete(OBJECT_NAME);
+        gate.countDown();
+        assertArrayEquals(data, fill.get(10, TimeUnit.SECONDS));
+        assertNull(diskCache.get(OBJECT_NAME));
+        assertThrows(FileDownloadException.class, this::download);
+    }
+
+    @Test
+    void deleteDuringPathFillIsNotCached() throws Exception {
+        started = new CountDownLatch(1);
+        gate = new CountDownLatch(1);
+        Path target = tempDir.resolve("a.png");
+        Future<?> fill = executor.submit(() -> storageService.download(target, OBJECT_NAME));
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+
+        storageService.deleteAll(Collections.singletonList(OBJECT_NAME));
+        gate.countDown();
+        fill.get(10, TimeUnit.SECONDS);
+        assertArrayEquals(data, Files.readAllBytes(target));
+        assertNull(diskCache.get(OBJECT_NAME));
+    }
+
+    /**
+     * 模拟存储平台：先返回一部分内容，等待测试放行后再返回剩余内容
+     */
+    private class StubStorageService extends DelegatingStorageService {
+
+        StubStorageService() {
+            super(null);
+        }
+
+        @Override
+        public void download(OutputStream outputStream, String objectName) {
+            if (deleted) {
+                throw new FileDownloadException(StorageErrorCode.FILE_NOT_EXIST);
+            }
+            backendCalls.incrementAndGet();
+            try {
+                outputStream.write(data, 0, 1024);
+                started.countDown();
+                gate.await();
+                outputStream.write(data, 1024, data.length - 1024);
+            } catch (IOException | InterruptedException e) {
+                throw new FileDownloadException(StorageErrorCode.FILE_DOWNLOAD_ERROR);
+            }
+        }
+
+        @Override
+        public void download(Path target, String objectName) {
+            try (OutputStream outputStream = Files.newOutputStream(target)) {
+                download(outputStream, objectName);
+            } catch (IOException e) {
+                throw new FileDownloadException(StorageErrorCode.FILE_DOWNLOAD_ERROR);
+            }
+        }
+
+        @Override
+        public void delete(String objectName) {
+            deleted = true;
+        }
+
+        @Override
+        public List<DeleteResponse> deleteAll(Collection<String> objectNames) {
+            deleted = true;
+            return Collections.emptyList();
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package cn.iwenjuan.storage.service.impl;
+
+import cn.iwenjuan.storage.exception.FileDownloadException;
+import cn.iwenjuan.storage.exception.enums.StorageErrorCode;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author li1244
+ * @date 2023/4/19 15:30
+ */
+class CoalescingStorageServiceTest {
+
+    private static final int CONCURRENCY = 32;
+
+    @TempDir
+    Path spillPath;
+
+    private final byte[] data = new byte[256 * 1024];
+
+    private final AtomicInteger backendCalls = new AtomicInteger();
+
+    private final CountDownLatch gate = new CountDownLatch(1);
+
+    private volatile boolean backendFails;
+
+    private ExecutorService executor;
+
+    private CoalescingStorageService storageService;
+
+    @BeforeEach
+    void setUp() {
+        new Random(1).nextBytes(data);
+        executor = Executors.newFixedThreadPool(CONCURRENCY);
+        storageService = new CoalescingStorageService(new StubStorageService(), spillPath.toString());
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        executor.shutdownNow();
+        storageService.destroy();
+    }
+
+    @Test
+    void concurrentDownloadsShareOneBackendFetch() throws Exception {
+        List<Future<byte[]>> futures = submitDownloads();
+        awaitFollowers();
+        gate.countDown();
+
+        for (Future<byte[]> future : futures) {
+            assertArrayEquals(data, future.get(10, TimeUnit.SECONDS));
+        }
+        assertEquals(1, backendCalls.get());
+        assertEquals(1, storageService.getFetchCount());
+        assertEquals(CONCURRENCY - 1, storageService.getCoalescedCount());
+        assertSpillFilesDeleted();
+    }
+
+    @Test
+    void slowLeaderDoesNotThrottleFollowers() throws Exception {
+        CountDownLatch leaderWriting = new CountDownLatch(1);
+        CountDownLatch leaderResume = new CountDownLatch(1);
+        ByteArrayOutputStream leaderOut = new ByteArrayOutputStream();
+        Future<?> leader = executor.submit(() -> storageService.download(new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] bytes, int off, int len) throws IOException {
+                leaderWriting.countDown();
+                try {
+                    leaderResume.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                leaderOut.write(bytes, off, len);
+            }
+        }, "/bucket/a.png"));
+        assertTrue(leaderWriting.await(10, TimeUnit.SECONDS));
+
+        List<Future<byte[]>> futures = new ArrayList<>();
+        for (int i = 0; i < CONCURRENCY - 1; i++) {
+            futures.add(executor.submit(() -> {
+                ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+                storageService.download(outputStream, "/bucket/a.png");
+                return outputStream.toByteArray();
+            }));
+        }
+        awaitFollowers();
+        gate.countDown();
+
+        // 第一个请求的客户端阻塞时其他请求仍能读取完整内容
+        for (Future<byte[]> future : futures) {
+            assertArrayEquals(data, future.get(10, TimeUnit.SECONDS));
+        }
+        assertFalse(leader.isDone());
+        leaderResume.countDown();
+        leader.get(10, TimeUnit.SECONDS);
+        assertArrayEquals(data, leaderOut.toByteArray());
+        assertEquals(1, backendCalls.get());
+        assertSpillFilesDeleted();
+    }
+
+    @Test
+    void sequentialDownloadsFetchAgain() {
+        gate.countDown();
+        for (int i = 0; i < 3; i++) {
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            storageService.download(outputStream, "/bucket/a.png");
+            assertArrayEquals(data, outputStream.toByteArray());
+        }
+        assertEquals(3, backendCalls.get());
+        assertEquals(0, storageService.getCoalescedCount());
+    }
+
+    @Test
+    void backendFailureIsPropagatedToFollowers() throws Exception {
+        backendFails = true;
+        List<Future<byte[]>> futures = submitDownloads();
+        awaitFollowers();
+        gate.countDown();
+
+        for (Future<byte[]> future : futures) {
+            ExecutionException e = assertThrows(ExecutionException.class, () -> future.get(10, TimeUnit.SECONDS));
+            assertTrue(e.getCause() instanceof FileDownloadException);
+        }
+        assertEquals(1, backendCalls.get());
+        assertSpillFilesDeleted();
+    }
+
+    private List<Future<byte[]>> submitDownloads() {
+        List<Future<byte[]>> futures = new ArrayList<>();
+        for (int i = 0; i < CONCURRENCY; i++) {
+            futures.add(executor.submit(() -> {
+                ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+                storageService.download(outputStream, "/bucket/a.png");
+                return outputStream.toByteArray();
+            }));
+        }
+        return futures;
+    }
+
+    /**
+     * 等待所有请求合并到第一个请求的下载中，避免依赖线程调度时间
+     */
+    private void awaitFollowers() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (storageService.getCoalescedCount() < CONCURRENCY - 1 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(CONCURRENCY - 1, storageService.getCoalescedCount());
+    }
+
+    /**
+     * 临时文件由最后释放引用的线程删除，可能是下载线程，稍作等待
+     */
+    private void assertSpillFilesDeleted() throws IOException, InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (countSpillFiles() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(0, countSpillFiles());
+    }
+
+    private long countSpillFiles() throws IOException {
+        try (java.util.stream.Stream<Path> files = Files.list(spillPath)) {
+            return files.count();
+        }
+    }
+
+    /**
+     * 模拟存储平台：先返回一部分内容，等待测试放行后再返回剩余内容
+     */
+    private class StubStorageService extends DelegatingStorageService {
+
+        StubStorageService() {
+            super(null);
+        }
+
+        @Override
+        public void download(OutputStream outputStream, String objectName) {
+            backendCalls.incrementAndGet();
+            try {
+                outputStream.write(data, 0, 1024);
+                gate.await();
+                if (backendFails) {
+                    throw new FileDownloadException(StorageErrorCode.FILE_DOWNLOAD_ERROR);
+                }
+                outputStream.write(data, 1024, data.length - 1024);
+            } catch (IOException | InterruptedException e) {
+                throw new FileDownloadException(StorageErrorCode.FILE_DOWNLOAD_ERROR);
+            }
+        }
+    }
+}
@@ -0,0 +1,344 @@
+package cn.iwenjuan.storage.service.impl;
+
+import cn.iwenjuan.storage.config.StorageProperties;
+import cn.iwenjuan.storage.exception.FileDownloadException;
+import com.github.tobato.fastdfs.domain.conn.FdfsConnectionManager;
+import com.github.tobato.fastdfs.domain.conn.FdfsConnectionPool;
+import com.github.tobato.fastdfs.domain.conn.PooledConnectionFactory;
+import com.github.tobato.fastdfs.domain.fdfs.GroupState;
+import com.github.tobato.fastdfs.domain.fdfs.StorageNode;
+import com.github.tobato.fastdfs.domain.fdfs.StorageNodeInfo;
+import com.github.tobato.fastdfs.domain.fdfs.StorageState;
+import com.github.tobato.fastdfs.service.DefaultFastFileStorageClient;
+import com.github.tobato.fastdfs.service.TrackerClient;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author li1244
+ * @date 2023/4/23 16:10
+ */
+class FastDfsStorageServiceTest {
+
+    private static final String OBJECT_NAME = "/group1/M00/00/00/a.bin";
+
+    private static final String OTHER_OBJECT_NAME = "/group1/M00/00/00/b.bin";
+
+    private final byte[] data = new byte[4 * 1024 * 1024];
+
+    private FastDfsStandIn standIn;
+
+    private FdfsConnectionPool pool;
+
+    private DefaultFastFileStorageClient client;
+
+    private FastDfsStorageService storageService;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        new Random(1).nextBytes(data);
+        standIn = new FastDfsStandIn();
+        standIn.files.put("group1/M00/00/00/a.bin", data);
+        standIn.files.put("group1/M00/00/00/b.bin", Arrays.copyOf(data, 1024));
+
+        PooledConnectionFactory connectionFactory = new PooledConnectionFactory();
+        connectionFactory.setSoTimeout(10000);
+        connectionFactory.setConnectTimeout(1000);
+        pool = new FdfsConnectionPool(connectionFactory);
+        // 每个服务器只有一个连接，连接未归还时后续请求无法获取连接
+        pool.setMaxTotalPerKey(1);
+        pool.setMaxWait(Duration.ofMillis(5000));
+        client = new DefaultFastFileStorageClient();
+        client.setTrackerClientService(new StubTrackerClient(standIn.getPort()));
+        client.setConnectionManager(new FdfsConnectionManager(pool));
+        storageService = new FastDfsStorageService(new StorageProperties(), client);
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        storageService.destroy();
+        pool.close();
+        standIn.close();
+    }
+
+    @Test
+    void downloadWritesWholeFileToOutputStream() {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        storageService.download(outputStream, OBJECT_NAME);
+        assertArrayEquals(data, outputStream.toByteArray());
+    }
+
+    @Test
+    void downloadRange() {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        storageService.download(outputStream, OBJECT_NAME, 1000, 5000);
+        assertArrayEquals(Arrays.copyOfRange(data, 1000, 6000), outputStream.toByteArray());
+
+        outputStream = new ByteArrayOutputStream();
+        storageService.download(outputStream, OBJECT_NAME, data.length - 10, -1);
+        assertArrayEquals(Arrays.copyOfRange(data, data.length - 10, data.length), outputStream.toByteArray());
+    }
+
+    @Test
+    void downloadMissingFileFails() {
+        assertThrows(FileDownloadException.class, () -> storageService.download(new ByteArrayOutputStream(), "/group1/M00/00/00/none.bin"));
+    }
+
+    @Test
+    void namesWithoutGroupAreMissing() {
+        // 分片上传指定uid时按uid检查文件是否存在，文件名不包含组名
+        assertNull(storageService.stat("e10adc3949ba59abbe56e057f20f883e.pdf"));
+        assertFalse(storageService.exists("/e10adc3949ba59abbe56e057f20f883e.pdf"));
+        assertFalse(storageService.exists("group1/"));
+        assertThrows(FileDownloadException.class, () -> storageService.download(new ByteArrayOutputStream(), "a.pdf"));
+    }
+
+    @Test
+    void inputStreamReadsWholeFile() throws Exception {
+        try (InputStream inputStream = storageService.getInputStream(OBJECT_NAME)) {
+            assertArrayEquals(data, readAll(inputStream));
+        }
+        // 读完后连接已归还
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        storageService.download(outputStream, OTHER_OBJECT_NAME);
+        assertEquals(1024, outputStream.size());
+    }
+
+    @Test
+    void inputStreamIsReadableBeforeServerSendsRemainingContent() throws Exception {
+        standIn.pause = new CountDownLatch(1);
+        try (InputStream inputStream = storageService.getInputStream(OBJECT_NAME, 0, -1)) {
+            byte[] head = new byte[FastDfsStandIn.FIRST_CHUNK_SIZE];
+            new DataInputStream(inputStream).readFully(head);
+            assertArrayEquals(Arrays.copyOf(data, head.length), head);
+            standIn.pause.countDown();
+            byte[] rest = readAll(inputStream);
+            assertEquals(data.length - head.length, rest.length);
+        }
+    }
+
+    @Test
+    void closingInputStreamEarlyReleasesConnection() throws Exception {
+        InputStream inputStream = storageService.getInputStream(OBJECT_NAME);
+        assertEquals(data[0] & 0xff, inputStream.read());
+        inputStream.close();
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        storageService.download(outputStream, OTHER_OBJECT_NAME);
+        assertArrayEquals(Arrays.copyOf(data, 1024), outputStream.toByteArray());
+    }
+
+    @Test
+    void unreadInputStreamTimesOutAndReleasesConnection() throws Exception {
+        StorageProperties storageProperties = new StorageProperties();
+        storageProperties.setFastdfs(new StorageProperties.FastDfsProperties());
+        storageProperties.getFastdfs().setDownloadWriteTimeout(200);
+        FastDfsStorageService timeoutStorageService = new FastDfsStorageService(storageProperties, client);
+        try (InputStream inputStream = timeoutStorageService.getInputStream(OBJECT_NAME)) {
+            assertEquals(data[0] & 0xff, inputStream.read());
+            // 不再读取，写入超时后下载结束，连接归还
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            timeoutStorageService.download(outputStream, OTHER_OBJECT_NAME);
+            assertArrayEquals(Arrays.copyOf(data, 1024), outputStream.toByteArray());
+            // 已写入缓冲区的内容读完后抛出异常，不会当作完整的文件
+            assertThrows(IOException.class, () -> readAll(inputStream));
+        } finally {
+            timeoutStorageService.destroy();
+        }
+    }
+
+    @Test
+    void inputStreamOfMissingFileFailsOnRead() throws Exception {
+        try (InputStream inputStream = storageService.getInputStream("/group1/M00/00/00/none.bin")) {
+            assertThrows(IOException.class, () -> readAll(inputStream));
+        }
+    }
+
+    private static byte[] readAll(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int len;
+        while ((len = inputStream.read(buffer)) > 0) {
+            outputStream.write(buffer, 0, len);
+        }
+        return outputStream.toByteArray();
+    }
+
+    /**
+     * 实现fastdfs storage下载协议（STORAGE_PROTO_CMD_DOWNLOAD_FILE）和连接检测（FDFS_PROTO_CMD_ACTIVE_TEST）的测试服务
+     */
+    private static class FastDfsStandIn implements Closeable {
+
+        static final int FIRST_CHUNK_SIZE = 16384;
+
+        private static final byte CMD_DOWNLOAD_FILE = 14;
+
+        private static final byte CMD_ACTIVE_TEST = 111;
+
+        private static final byte CMD_RESP = 100;
+
+        private static final byte STATUS_FILE_NOT_EXISTS = 2;
+
+        private static final int GROUP_NAME_LENGTH = 16;
+
+        final Map<String, byte[]> files = new ConcurrentHashMap<>();
+
+        /**
+         * 不为null时发送第一块内容后等待放行
+         */
+        volatile CountDownLatch pause;
+
+        private final ServerSocket serverSocket;
+
+        private final ExecutorService executor = Executors.newCachedThreadPool();
+
+        FastDfsStandIn() throws IOException {
+            serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+            executor.execute(this::accept);
+        }
+
+        int getPort() {
+            return serverSocket.getLocalPort();
+        }
+
+        private void accept() {
+            while (!serverSocket.isClosed()) {
+                try {
+                    Socket socket = serverSocket.accept();
+                    executor.execute(() -> serve(socket));
+                } catch (IOException e) {
+                    return;
+                }
+            }
+        }
+
+        private void serve(Socket socket) {
+            try (Socket s = socket) {
+                DataInputStream in = new DataInputStream(s.getInputStream());
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+                while (true) {
+                    long bodyLength = in.readLong();
+                    byte cmd = in.readByte();
+                    in.readByte();
+                    byte[] body = new byte[(int) bodyLength];
+                    in.readFully(body);
+                    if (cmd == CMD_ACTIVE_TEST) {
+                        writeHead(out, 0, (byte) 0);
+                        out.flush();
+                    } else if (cmd == CMD_DOWNLOAD_FILE) {
+                        download(body, out);
+                    } else {
+                        return;
+                    }
+                }
+            } catch (IOException | InterruptedException e) {
+                // 客户端关闭连接
+            }
+        }
+
+        private void download(byte[] body, DataOutputStream out) throws IOException, InterruptedException {
+            DataInputStream request = new DataInputStream(new ByteArrayInputStream(body));
+            long offset = request.readLong();
+            long length = request.readLong();
+            String group = new String(body, 16, GROUP_NAME_LENGTH, StandardCharsets.UTF_8).trim();
+            String path = new String(body, 16 + GROUP_NAME_LENGTH, body.length - 16 - GROUP_NAME_LENGTH, StandardCharsets.UTF_8);
+            byte[] file = files.get(group + "/" + path);
+            if (file == null) {
+                writeHead(out, 0, STATUS_FILE_NOT_EXISTS);
+                out.flush();
+                return;
+            }
+            int from = (int) offset;
+            int to = length == 0 ? file.length : (int) Math.min(file.length, offset + length);
+            writeHead(out, to - from, (byte) 0);
+            int first = Math.min(FIRST_CHUNK_SIZE, to - from);
+            out.write(file, from, first);
+            out.flush();
+            CountDownLatch latch = pause;
+            if (latch != null) {
+                latch.await(10, TimeUnit.SECONDS);
+            }
+            out.write(file, from + first, to - from - first);
+            out.flush();
+        }
+
+        private static void writeHead(DataOutputStream out, long bodyLength, byte status) throws IOException {
+            out.writeLong(bodyLength);
+            out.writeByte(CMD_RESP);
+            out.writeByte(status);
+        }
+
+        @Override
+        public void close() throws IOException {
+            serverSocket.close();
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * 所有文件都从测试服务下载
+     */
+    private static class StubTrackerClient implements TrackerClient {
+
+        private final int port;
+
+        StubTrackerClient(int port) {
+            this.port = port;
+        }
+
+        @Override
+        public StorageNodeInfo getFetchStorage(String groupName, String filename) {
+            return new StorageNodeInfo(InetAddress.getLoopbackAddress().getHostAddress(), port);
+        }
+
+        @Override
+        public StorageNode getStoreStorage() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public StorageNode getStoreStorage(String groupName) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public StorageNodeInfo getUpdateStorage(String groupName, String filename) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<GroupState> listGroups() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<StorageState> listStorages(String groupName) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<StorageState> listStorages(String groupName, String storageIpAddr) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void deleteStorage(String groupName, String storageIpAddr) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package cn.iwenjuan.storage.service.impl;
+
+import cn.iwenjuan.storage.cache.MemoryCache;
+import cn.iwenjuan.storage.config.StorageProperties;
+import cn.iwenjuan.storage.exception.FileDownloadException;
+import cn.iwenjuan.storage.exception.enums.StorageErrorCode;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author li1244
+ * @date 2023/4/18 16:40
+ */
+class MemoryCachingStorageServiceTest {
+
+    @TempDir
+    Path tempDir;
+
+    private final byte[] data = new byte[4096];
+
+    private MemoryCache memoryCache;
+
+    private MemoryCachingStorageService storageService;
+
+    @BeforeEach
+    void setUp() {
+        new Random(1).nextBytes(data);
+        StorageProperties storageProperties = new StorageProperties();
+        storageProperties.setPlatform(StorageProperties.PlatformType.local);
+        storageProperties.setMaxSize(-1);
+        storageProperties.getLocal().setPath(tempDir.resolve("files").toString());
+        memoryCache = new MemoryCache(1024 * 1024, 16, false);
+        storageService = new MemoryCachingStorageService(new LocalStorageService(storageProperties), memoryCache, 1024 * 1024);
+    }
+
+    private byte[] download(String objectName, long offset, long length) {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        storageService.download(outputStream, objectName, offset, length);
+        return outputStream.toByteArray();
+    }
+
+    private void assertInvalidRange(String objectName, long offset) {
+        FileDownloadException e = assertThrows(FileDownloadException.class, () -> download(objectName, offset, 10));
+        assertEquals(StorageErrorCode.FILE_RANGE_IS_INVALID.getCode(), e.getCode());
+    }
+
+    @Test
+    void rangesAreValidatedOnHitAndMiss() throws Exception {
+        String fileUrl = storageService.upload(new ByteArrayInputStream(data), "a.bin", null, data.length).getFileUrl();
+        // 未缓存
+        assertInvalidRange(fileUrl, -1);
+        assertArrayEquals(Arrays.copyOfRange(data, 100, 200), download(fileUrl, 100, 100));
+        assertEquals(0, memoryCache.getCount());
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        storageService.download(outputStream, fileUrl);
+        assertArrayEquals(data, outputStream.toByteArray());
+        assertEquals(1, memoryCache.getCount());
+
+        // 命中缓存
+        assertInvalidRange(fileUrl, -1);
+        assertInvalidRange(fileUrl, data.length);
+        assertArrayEquals(Arrays.copyOfRange(data, 100, 200), download(fileUrl, 100, 100));
+        assertArrayEquals(Arrays.copyOfRange(data, 4000, 4096), download(fileUrl, 4000, -1));
+        assertArrayEquals(Arrays.copyOfRange(data, 4000, 4096), download(fileUrl, 4000, 1000));
+        assertEquals(0, download(fileUrl, 100, 0).length);
+    }
+}
@@ -0,0 +1,66 @@
+package cn.iwenjuan.storage.service.impl;
+
+import cn.iwenjuan.storage.domain.ObjectStat;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * @author li1244
+ * @date 2023/4/24 15:10
+ */
+class MetricsStorageServiceTest {
+
+    private final byte[] data = new byte[4096];
+
+    private final AtomicInteger statCalls = new AtomicInteger();
+
+    @Test
+    void channelDownloadsAreCountedWithoutStat() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        MetricsStorageService storageService = new MetricsStorageService(new StubStorageService(), registry, "minio", new double[0], false);
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        storageService.download(Channels.newChannel(outputStream), "/bucket/a.bin");
+
+        assertArrayEquals(data, outputStream.toByteArray());
+        assertEquals(0, statCalls.get());
+        assertEquals(data.length, registry.get("storage.bytes").tag("direction", "download").counter().count());
+    }
+
+    /**
+     * 模拟存储平台：分多次写入通道，stat只记录调用次数
+     */
+    private class StubStorageService extends DelegatingStorageService {
+
+        StubStorageService() {
+            super(null);
+        }
+
+        @Override
+        public void download(WritableByteChannel channel, String objectName) {
+            try {
+                for (int i = 0; i < data.length; i += 1024) {
+                    channel.write(ByteBuffer.wrap(data, i, 1024));
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        public ObjectStat stat(String objectName) {
+            statCalls.incrementAndGet();
+            return null;
+        }
+    }
+}
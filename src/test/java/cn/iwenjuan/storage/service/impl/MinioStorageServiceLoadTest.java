@@ -0,0 +1,237 @@
+package cn.iwenjuan.storage.service.impl;
+
+import cn.iwenjuan.storage.config.StorageProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * minio存储服务压力测试，在不同并发数下上传、下载文件，输出耗时的p50、p99和吞吐量
+ * 默认不执行，使用mvn test -Pload-test执行；可以通过系统属性调整：
+ * load.size文件大小（默认1M），load.concurrency并发数（默认1,16,64,256），load.operations每个线程的操作次数（默认8）
+ *
+ * @author li1244
+ * @date 2023/4/25 16:40
+ */
+@Slf4j
+@Tag("load")
+class MinioStorageServiceLoadTest {
+
+    private static final int SIZE = Integer.getInteger("load.size", 1024 * 1024);
+
+    private static final int OPERATIONS = Integer.getInteger("load.operations", 8);
+
+    private static final int[] CONCURRENCY = Arrays.stream(System.getProperty("load.concurrency", "1,16,64,256").split(","))
+            .mapToInt(value -> Integer.parseInt(value.trim()))
+            .toArray();
+
+    @TempDir
+    Path tempDir;
+
+    private final byte[] data = new byte[SIZE];
+
+    private S3StandIn standIn;
+
+    private MinioStorageService storageService;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        new Random(1).nextBytes(data);
+        standIn = new S3StandIn(MinioStorageServiceTest.BUCKET_NAME);
+        StorageProperties storageProperties = MinioStorageServiceTest.storageProperties(standIn, tempDir);
+        storageService = MinioStorageServiceTest.minioStorageService(storageProperties);
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        storageService.destroy();
+        standIn.close();
+    }
+
+    @Test
+    void localNetwork() throws Exception {
+        run("local");
+    }
+
+    /**
+     * 每个请求20~30ms延迟，单个请求速率不超过16MB/s
+     */
+    @Test
+    void slowNetwork() throws Exception {
+        standIn.setLatency(20);
+        standIn.setLatencyJitter(10);
+        standIn.setBandwidth(16 * 1024 * 1024);
+        run("slow");
+    }
+
+    /**
+     * 1%的请求返回503
+     */
+    @Test
+    void unreliableNetwork() throws Exception {
+        standIn.setLatency(5);
+        standIn.setErrorRate(0.01, S3StandIn.PUT_OBJECT, S3StandIn.GET_OBJECT);
+        run("unreliable");
+    }
+
+    private void run(String scenario) throws Exception {
+        // 获取bucket区域，避免第一个请求的耗时包含区域查询
+        storageService.exists("/files/none.bin");
+        log.info("【minio压力测试】：scenario：{}，size：{}，operations：{}", scenario, SIZE, OPERATIONS);
+        log.info(String.format("%-10s %12s %10s %10s %10s %10s %8s", "operation", "concurrency", "count", "p50(ms)", "p99(ms)", "MB/s", "errors"));
+        for (int concurrency : CONCURRENCY) {
+            report(upload(concurrency));
+            report(download(concurrency));
+        }
+        assertEquals(0, standIn.getPendingUploadCount());
+    }
+
+    private Result upload(int concurrency) throws Exception {
+        return execute("upload", concurrency, (worker, operation) -> {
+            String uid = "load-" + concurrency + "-" + worker + "-" + operation;
+            long start = System.nanoTime();
+            String fileUrl = storageService.upload(new ByteArrayInputStream(data), "load.bin", uid, data.length).getFileUrl();
+            long latency = System.nanoTime() - start;
+            // 删除不计入耗时，测试服务中只保留正在上传的文件
+            storageService.delete(fileUrl);
+            return latency;
+        });
+    }
+
+    private Result download(int concurrency) throws Exception {
+        for (int worker = 0; worker < concurrency; worker++) {
+            standIn.putObject(MinioStorageServiceTest.BUCKET_NAME, "/files/load-" + worker + ".bin", data);
+        }
+        try {
+            return execute("download", concurrency, (worker, operation) -> {
+                CountingOutputStream outputStream = new CountingOutputStream();
+                long start = System.nanoTime();
+                storageService.download(outputStream, "/files/load-" + worker + ".bin");
+                long latency = System.nanoTime() - start;
+                assertEquals(data.length, outputStream.count);
+                return latency;
+            });
+        } finally {
+            for (int worker = 0; worker < concurrency; worker++) {
+                storageService.delete("/files/load-" + worker + ".bin");
+            }
+        }
+    }
+
+    /**
+     * 并发执行操作，所有线程准备好后同时开始
+     */
+    private Result execute(String name, int concurrency, Operation operation) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+        try {
+            CountDownLatch ready = new CountDownLatch(concurrency);
+            CountDownLatch start = new CountDownLatch(1);
+            AtomicLong errors = new AtomicLong();
+            List<Future<List<Long>>> futures = new ArrayList<>();
+            for (int i = 0; i < concurrency; i++) {
+                int worker = i;
+                futures.add(executor.submit(() -> {
+                    List<Long> latencies = new ArrayList<>(OPERATIONS);
+                    ready.countDown();
+                    start.await();
+                    for (int j = 0; j < OPERATIONS; j++) {
+                        try {
+                            latencies.add(operation.execute(worker, j));
+                        } catch (Exception e) {
+                            errors.incrementAndGet();
+                        }
+                    }
+                    return latencies;
+                }));
+            }
+            ready.await();
+            long begin = System.nanoTime();
+            start.countDown();
+            List<Long> latencies = new ArrayList<>();
+            for (Future<List<Long>> future : futures) {
+                latencies.addAll(future.get(10, TimeUnit.MINUTES));
+            }
+            return new Result(name, concurrency, latencies, System.nanoTime() - begin, errors.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void report(Result result) {
+        long[] latencies = result.latencies.stream().mapToLong(Long::longValue).sorted().toArray();
+        double seconds = result.elapsed / 1e9;
+        double megabytes = (double) latencies.length * SIZE / (1024 * 1024);
+        log.info(String.format("%-10s %12d %10d %10.1f %10.1f %10.1f %8d", result.name, result.concurrency, latencies.length,
+                percentile(latencies, 0.5), percentile(latencies, 0.99), megabytes / seconds, result.errors));
+        assertTrue(latencies.length > 0, "all " + result.name + " operations failed");
+    }
+
+    private static double percentile(long[] sorted, double percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(percentile * sorted.length) - 1;
+        return sorted[Math.max(index, 0)] / 1e6;
+    }
+
+    @FunctionalInterface
+    private interface Operation {
+
+        /**
+         * @return 耗时，单位纳秒
+         */
+        long execute(int worker, int operation) throws Exception;
+    }
+
+    private static class Result {
+
+        final String name;
+
+        final int concurrency;
+
+        final List<Long> latencies;
+
+        final long elapsed;
+
+        final long errors;
+
+        Result(String name, int concurrency, List<Long> latencies, long elapsed, long errors) {
+            this.name = name;
+            this.concurrency = concurrency;
+            this.latencies = latencies;
+            this.elapsed = elapsed;
+            this.errors = errors;
+        }
+    }
+
+    private static class CountingOutputStream extends OutputStream {
+
+        long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package cn.iwenjuan.storage.service.impl;
+
+import cn.iwenjuan.storage.config.MinioTestSupport;
+import cn.iwenjuan.storage.config.StorageProperties;
+import cn.iwenjuan.storage.domain.ChunkUploadSession;
+import cn.iwenjuan.storage.domain.DeleteResponse;
+import cn.iwenjuan.storage.domain.ObjectStat;
+import cn.iwenjuan.storage.domain.UploadResponse;
+import cn.iwenjuan.storage.exception.FileDownloadException;
+import cn.iwenjuan.storage.exception.FileUploadException;
+import cn.iwenjuan.storage.exception.StorageException;
+import cn.iwenjuan.storage.utils.Md5Utils;
+import io.minio.MinioAsyncClient;
+import io.minio.MinioClient;
+import okhttp3.OkHttpClient;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author li1244
+ * @date 2023/4/25 14:30
+ */
+class MinioStorageServiceTest {
+
+    static final String BUCKET_NAME = "storage";
+
+    @TempDir
+    Path tempDir;
+
+    private final byte[] data = new byte[12 * 1024 * 1024];
+
+    private S3StandIn standIn;
+
+    private MinioStorageService storageService;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        new Random(1).nextBytes(data);
+        standIn = new S3StandIn(BUCKET_NAME);
+        StorageProperties storageProperties = storageProperties(standIn, tempDir);
+        // 超过6M的文件使用并发分片上传
+        storageProperties.getMultipart().setThreshold(6 * 1024 * 1024);
+        storageProperties.getMultipart().setPartSize(5 * 1024 * 1024);
+        storageService = minioStorageService(storageProperties);
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        storageService.destroy();
+        standIn.close();
+    }
+
+    /**
+     * 使用测试服务的minio配置
+     */
+    static StorageProperties storageProperties(S3StandIn standIn, Path tempDir) {
+        StorageProperties storageProperties = new StorageProperties();
+        storageProperties.setPlatform(StorageProperties.PlatformType.minio);
+        storageProperties.setMaxSize(-1);
+        storageProperties.getChunk().setPath(tempDir.resolve("chunks").toString());
+        StorageProperties.MinioProperties minio = new StorageProperties.MinioProperties();
+        minio.setEndpoint(standIn.getEndpoint());
+        minio.setAccessKey("minioadmin");
+        minio.setSecretKey("minioadmin");
+        minio.setBucketName(BUCKET_NAME);
+        minio.setPath("/files");
+        storageProperties.setMinio(minio);
+        return storageProperties;
+    }
+
+    /**
+     * 与StorageConfiguration相同的方式创建minio存储服务，同步客户端和分片上传客户端共用按配置创建的OkHttpClient
+     */
+    static MinioStorageService minioStorageService(StorageProperties storageProperties) {
+        StorageProperties.MinioProperties minio = storageProperties.getMinio();
+        OkHttpClient httpClient = MinioTestSupport.createHttpClient(minio);
+        MinioClient minioClient = MinioClient.builder().endpoint(minio.getEndpoint())
+                .credentials(minio.getAccessKey(), minio.getSecretKey())
+                .httpClient(httpClient)
+                .build();
+        MinioAsyncClient minioAsyncClient = MinioAsyncClient.builder().endpoint(minio.getEndpoint())
+                .credentials(minio.getAccessKey(), minio.getSecretKey())
+                .httpClient(httpClient)
+                .build();
+        return new MinioStorageService(storageProperties, minioClient, new MinioMultipartClient(minioAsyncClient));
+    }
+
+    @Test
+    void uploadStatAndDownload() throws Exception {
+        byte[] content = Arrays.copyOf(data, 100000);
+        UploadResponse response = storageService.upload(new ByteArrayInputStream(content), "a.bin", "a", content.length);
+        assertEquals(1, standIn.getRequestCount(S3StandIn.PUT_OBJECT));
+        assertArrayEquals(content, standIn.getObject(BUCKET_NAME, response.getFileUrl()));
+
+        ObjectStat stat = storageService.stat(response.getFileUrl());
+        assertEquals(content.length, stat.getFileSize());
+        assertNotNull(stat.getLastModified());
+        assertNotNull(stat.getEtag());
+        assertNull(storageService.stat("/files/none.bin"));
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        storageService.download(outputStream, response.getFileUrl());
+        assertArrayEquals(content, outputStream.toByteArray());
+    }
+
+    @Test
+    void downloadRange() {
+        standIn.putObject(BUCKET_NAME, "/files/a.bin", data);
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        storageService.download(outputStream, "/files/a.bin", 1000, 5000);
+        assertArrayEquals(Arrays.copyOfRange(data, 1000, 6000), outputStream.toByteArray());
+
+        outputStream = new ByteArrayOutputStream();
+        storageService.download(outputStream, "/files/a.bin", data.length - 10, -1);
+        assertArrayEquals(Arrays.copyOfRange(data, data.length - 10, data.length), outputStream.toByteArray());
+    }
+
+    @Test
+    void downloadMissingFileFails() {
+        assertThrows(FileDownloadException.class, () -> storageService.download(new ByteArrayOutputStream(), "/files/none.bin"));
+    }
+
+    @Test
+    void largeFileUsesParallelMultipartUpload() throws Exception {
+        UploadResponse response = storageService.upload(new ByteArrayInputStream(data), "large.bin", "large", data.length);
+        assertEquals(1, standIn.getRequestCount(S3StandIn.CREATE_MULTIPART_UPLOAD));
+        assertEquals(3, standIn.getRequestCount(S3StandIn.UPLOAD_PART));
+        assertEquals(1, standIn.getRequestCount(S3StandIn.COMPLETE_MULTIPART_UPLOAD));
+        assertEquals(0, standIn.getPendingUploadCount());
+        assertArrayEquals(data, standIn.getObject(BUCKET_NAME, response.getFileUrl()));
+    }
+
+    @Test
+    void largeFileUploadIsHashedPerPart() throws Exception {
+        Path file = tempDir.resolve("large.bin");
+        Files.write(file, data);
+
+        UploadResponse response = storageService.upload(file.toFile());
+        assertEquals(1, standIn.getRequestCount(S3StandIn.CREATE_MULTIPART_UPLOAD));
+        assertEquals(3, standIn.getRequestCount(S3StandIn.UPLOAD_PART));
+        assertTrue(response.getFileUrl().contains(Md5Utils.md5(new ByteArrayInputStream(data))), response.getFileUrl());
+        assertArrayEquals(data, standIn.getObject(BUCKET_NAME, response.getFileUrl()));
+    }
+
+    @Test
+    void failedMultipartUploadIsAborted() {
+        standIn.setErrorRate(1, S3StandIn.UPLOAD_PART);
+        assertThrows(Exception.class, () -> storageService.upload(new ByteArrayInputStream(data), "large.bin", "large", data.length));
+        assertEquals(1, standIn.getRequestCount(S3StandIn.ABORT_MULTIPART_UPLOAD));
+        assertEquals(0, standIn.getObjectCount());
+        assertEquals(0, standIn.getPendingUploadCount());
+    }
+
+    @Test
+    void uploadFileIsRenamedByDigestAndDeduplicated() throws Exception {
+        Path file = tempDir.resolve("a.bin");
+        Files.write(file, Arrays.copyOf(data, 100000));
+
+        UploadResponse first = storageService.upload(file.toFile());
+        assertFalse(first.isDeduplicated());
+        // 临时文件名随机生成，上传前不判断是否已存在，只有重命名时判断目标文件和复制源文件
+        assertEquals(2, standIn.getRequestCount(S3StandIn.HEAD_OBJECT));
+        assertEquals(1, standIn.getRequestCount(S3StandIn.COPY_OBJECT));
+        assertEquals(1, standIn.getObjectCount());
+
+        UploadResponse second = storageService.upload(file.toFile());
+        assertTrue(second.isDeduplicated());
+        assertEquals(first.getFileUrl(), second.getFileUrl());
+        assertEquals(1, standIn.getRequestCount(S3StandIn.COPY_OBJECT));
+        assertEquals(1, standIn.getObjectCount());
+    }
+
+    @Test
+    void expiredChunkUploadsAreAborted() throws Exception {
+        ChunkUploadSession session = storageService.initChunkUpload("c.bin", data.length, null);
+        int chunkSize = (int) session.getChunkSize();
+        storageService.uploadChunk(session.getUploadId(), 1, new ByteArrayInputStream(data, 0, chunkSize), chunkSize);
+        assertEquals(0, storageService.cleanExpiredChunkUploads());
+
+        // 任务超过24小时未更新
+        Path sessionPath = tempDir.resolve("chunks").resolve("sessions").resolve(session.getUploadId());
+        Files.setLastModifiedTime(sessionPath, FileTime.fromMillis(System.currentTimeMillis() - 86400000L - 1000));
+        assertEquals(1, storageService.cleanExpiredChunkUploads());
+        assertEquals(1, standIn.getRequestCount(S3StandIn.ABORT_MULTIPART_UPLOAD));
+        assertEquals(0, standIn.getPendingUploadCount());
+        assertFalse(Files.exists(sessionPath));
+        assertThrows(FileUploadException.class, () -> storageService.getChunkUpload(session.getUploadId()));
+    }
+
+    @Test
+    void deleteAndDeleteAll() {
+        for (int i = 0; i < 5; i++) {
+            standIn.putObject(BUCKET_NAME, "/files/" + i + ".bin", new byte[]{(byte) i});
+        }
+        storageService.delete("/files/0.bin");
+        assertNull(standIn.getObject(BUCKET_NAME, "/files/0.bin"));
+
+        List<DeleteResponse> responses = storageService.deleteAll(Arrays.asList("/files/1.bin", "/files/2.bin", "/files/3.bin"));
+        assertEquals(3, responses.size());
+        assertTrue(responses.stream().allMatch(DeleteResponse::isSuccess));
+        assertEquals(1, standIn.getRequestCount(S3StandIn.DELETE_OBJECTS));
+        assertEquals(1, standIn.getObjectCount());
+    }
+
+    @Test
+    void injectedErrorsSurfaceAsStorageExceptions() {
+        standIn.putObject(BUCKET_NAME, "/files/a.bin", new byte[]{1});
+        // 先获取bucket区域，避免区域查询失败
+        assertNotNull(storageService.stat("/files/a.bin"));
+        standIn.setErrorRate(1);
+        assertThrows(StorageException.class, () -> storageService.stat("/files/a.bin"));
+        assertThrows(FileDownloadException.class, () -> storageService.download(new ByteArrayOutputStream(), "/files/a.bin"));
+        assertTrue(standIn.getInjectedErrors() >= 2);
+    }
+
+    @Test
+    void latencyAndBandwidthAreApplied() {
+        standIn.putObject(BUCKET_NAME, "/files/a.bin", Arrays.copyOf(data, 256 * 1024));
+        assertNotNull(storageService.stat("/files/a.bin"));
+        standIn.setLatency(100);
+        standIn.setBandwidth(1024 * 1024);
+        long start = System.nanoTime();
+        storageService.download(new ByteArrayOutputStream(), "/files/a.bin");
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        // 100ms延迟加上256K按1M/s传输的250ms
+        assertTrue(elapsed >= 300, "elapsed: " + elapsed);
+    }
+}
@@ -0,0 +1,222 @@
+package cn.iwenjuan.storage.service.impl;
+
+import cn.iwenjuan.storage.config.StorageProperties;
+import cn.iwenjuan.storage.replication.ReplicationLog;
+import cn.iwenjuan.storage.replication.ReplicationRecord;
+import cn.iwenjuan.storage.replication.ReplicationTask;
+import cn.iwenjuan.storage.service.IStorageService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author li1244
+ * @date 2023/4/27 16:30
+ */
+class ReplicatingStorageServiceTest {
+
+    private static final String TARGET = "minio";
+
+    @TempDir
+    Path tempDir;
+
+    private S3StandIn standIn;
+
+    private StorageProperties storageProperties;
+
+    private ReplicatingStorageService storageService;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        standIn = new S3StandIn(MinioStorageServiceTest.BUCKET_NAME);
+        storageProperties = MinioStorageServiceTest.storageProperties(standIn, tempDir);
+        storageProperties.setPlatform(StorageProperties.PlatformType.local);
+        storageProperties.getLocal().setPath(tempDir.resolve("files").toString());
+        StorageProperties.ReplicationProperties replication = storageProperties.getReplication();
+        replication.setRetryInterval(10);
+        replication.setMaxRetryInterval(50);
+        storageService = replicatingStorageService();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        storageService.destroy();
+        standIn.close();
+    }
+
+    private ReplicatingStorageService replicatingStorageService() {
+        LocalStorageService primary = new LocalStorageService(storageProperties);
+        Map<String, IStorageService> replicas = Collections.singletonMap(TARGET, MinioStorageServiceTest.minioStorageService(storageProperties));
+        StorageProperties.ReplicationProperties replication = storageProperties.getReplication();
+        ReplicationLog replicationLog = new ReplicationLog(storageProperties.getReplicationPath(), replication.getSegmentSize(), replication.isSync());
+        return new ReplicatingStorageService(primary, replicas, replicationLog, replication);
+    }
+
+    private static void waitUntil(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "condition not met in time");
+            Thread.sleep(10);
+        }
+    }
+
+    private long segmentCount() throws IOException {
+        try (Stream<Path> stream = Files.list(tempDir.resolve("files/.replication"))) {
+            return stream.filter(path -> path.getFileName().toString().endsWith(".log")).count();
+        }
+    }
+
+    @Test
+    void uploadIsReplicatedInBackground() throws Exception {
+        byte[] content = new byte[5000];
+        new Random(1).nextBytes(content);
+        storageService.upload(new ByteArrayInputStream(content), "a.bin", "a", content.length);
+        storageService.upload(new ByteArrayInputStream(content), "b.bin", null, content.length);
+
+        waitUntil(() -> storageService.getReplicatedCount(TARGET) == 2);
+        assertEquals(0, storageService.getPendingCount(TARGET));
+        assertEquals(0, storageService.getLag(TARGET));
+        assertEquals(2, standIn.getObjectCount());
+        assertArrayEquals(content, standIn.getObject(MinioStorageServiceTest.BUCKET_NAME, "/files/a.bin"));
+    }
+
+    @Test
+    void failedReplicationIsRetried() throws Exception {
+        standIn.setErrorRate(1, S3StandIn.PUT_OBJECT);
+        storageService.upload(new ByteArrayInputStream(new byte[100]), "a.bin", "a", 100);
+
+        waitUntil(() -> storageService.getFailureCount(TARGET) >= 2);
+        assertEquals(1, storageService.getPendingCount(TARGET));
+        assertTrue(storageService.getLag(TARGET) > 0);
+        assertEquals(0, standIn.getObjectCount());
+
+        standIn.setErrorRate(0);
+        waitUntil(() -> storageService.getPendingCount(TARGET) == 0);
+        assertEquals(1, storageService.getReplicatedCount(TARGET));
+        assertEquals(1, standIn.getObjectCount());
+    }
+
+    @Test
+    void pendingReplicationsSurviveRestart() throws Exception {
+        standIn.setErrorRate(1, S3StandIn.PUT_OBJECT);
+        storageService.upload(new ByteArrayInputStream(new byte[100]), "a.bin", "a", 100);
+        storageService.upload(new ByteArrayInputStream(new byte[200]), "b.bin", "b", 200);
+        waitUntil(() -> storageService.getFailureCount(TARGET) >= 2);
+        storageService.destroy();
+        assertEquals(0, standIn.getObjectCount());
+
+        standIn.setErrorRate(0);
+        storageService = replicatingStorageService();
+        waitUntil(() -> storageService.getReplicatedCount(TARGET) == 2);
+        assertEquals(2, standIn.getObjectCount());
+        assertEquals(200, standIn.getObject(MinioStorageServiceTest.BUCKET_NAME, "/files/b.bin").length);
+        // 上次启动时的日志文件中的任务全部完成后删除
+        waitUntil(() -> {
+            try {
+                return segmentCount() == 1;
+            } catch (IOException e) {
+                return false;
+            }
+        });
+    }
+
+    @Test
+    void deletedSourceIsAbandoned() throws Exception {
+        standIn.setErrorRate(1, S3StandIn.PUT_OBJECT);
+        String fileUrl = storageService.upload(new ByteArrayInputStream(new byte[100]), "a.bin", "a", 100).getFileUrl();
+        storageService.delete(fileUrl);
+
+        waitUntil(() -> storageService.getAbandonedCount(TARGET) == 1);
+        assertEquals(0, storageService.getPendingCount(TARGET));
+        assertEquals(0, storageService.getReplicatedCount(TARGET));
+    }
+
+    @Test
+    void replicationLogTruncatesTornTail() throws Exception {
+        Path path = tempDir.resolve("wal");
+        ReplicationLog replicationLog = new ReplicationLog(path.toString(), 1024 * 1024, true);
+        assertTrue(replicationLog.recover().isEmpty());
+        ReplicationRecord first = record("/files/a.bin");
+        ReplicationRecord second = record("/files/b.bin");
+        replicationLog.append(first);
+        replicationLog.append(second);
+        replicationLog.complete(Collections.singletonList(new ReplicationTask(first, TARGET)));
+        replicationLog.close();
+        // 模拟写入记录时进程崩溃
+        try (Stream<Path> stream = Files.list(path)) {
+            Path segment = stream.findFirst().orElseThrow(IllegalStateException::new);
+            Files.write(segment, new byte[]{0, 0, 0, 40, 1, 2, 3}, StandardOpenOption.APPEND);
+        }
+
+        replicationLog = new ReplicationLog(path.toString(), 1024 * 1024, true);
+        List<ReplicationRecord> pending = replicationLog.recover();
+        assertEquals(1, pending.size());
+        assertEquals(second.getId(), pending.get(0).getId());
+        assertEquals("/files/b.bin", pending.get(0).getObjectName());
+        assertEquals(Collections.singletonList(TARGET), pending.get(0).getTargets());
+        ReplicationRecord third = record("/files/c.bin");
+        replicationLog.append(third);
+        assertEquals(second.getId() + 1, third.getId());
+        replicationLog.close();
+    }
+
+    @Test
+    void concurrentAppendsShareSyncs() throws Exception {
+        Path path = tempDir.resolve("wal");
+        // 日志文件很小，并发写入时多次切换日志文件
+        ReplicationLog replicationLog = new ReplicationLog(path.toString(), 4096, true);
+        replicationLog.recover();
+        int threads = 8;
+        int appends = 50;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < appends; i++) {
+                    ReplicationRecord record = record("/files/" + thread + "-" + i + ".bin");
+                    replicationLog.append(record);
+                    assertTrue(record.getSegment() > 0);
+                }
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get(30, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+        replicationLog.close();
+
+        ReplicationLog recovered = new ReplicationLog(path.toString(), 4096, true);
+        List<ReplicationRecord> pending = recovered.recover();
+        assertEquals(threads * appends, pending.size());
+        assertEquals(threads * appends, pending.stream().map(ReplicationRecord::getId).distinct().count());
+        recovered.close();
+    }
+
+    private static ReplicationRecord record(String objectName) {
+        return new ReplicationRecord()
+                .setCreateTime(System.currentTimeMillis())
+                .setObjectName(objectName)
+                .setFileName("a.bin")
+                .setUid("a")
+                .setFileSize(100)
+                .setTargets(new ArrayList<>(Collections.singletonList(TARGET)));
+    }
+}
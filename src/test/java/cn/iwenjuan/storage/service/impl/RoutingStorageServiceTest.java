@@ -0,0 +1,172 @@
+package cn.iwenjuan.storage.service.impl;
+
+import cn.iwenjuan.storage.chunk.FileChunkSessionStore;
+import cn.iwenjuan.storage.config.StorageProperties;
+import cn.iwenjuan.storage.domain.ChunkUploadSession;
+import cn.iwenjuan.storage.domain.DeleteResponse;
+import cn.iwenjuan.storage.domain.ObjectStat;
+import cn.iwenjuan.storage.domain.UploadResponse;
+import cn.iwenjuan.storage.service.IStorageService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author li1244
+ * @date 2023/4/26 15:10
+ */
+class RoutingStorageServiceTest {
+
+    @TempDir
+    Path tempDir;
+
+    private S3StandIn standIn;
+
+    private StorageProperties storageProperties;
+
+    private RoutingStorageService storageService;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        standIn = new S3StandIn(MinioStorageServiceTest.BUCKET_NAME);
+        storageProperties = MinioStorageServiceTest.storageProperties(standIn, tempDir);
+        storageProperties.setPlatform(StorageProperties.PlatformType.local);
+        storageProperties.getLocal().setPath(tempDir.resolve("files").toString());
+        storageProperties.getRoute().setEnabled(true);
+        storageProperties.getRoute().setPlatforms(Arrays.asList(StorageProperties.PlatformType.local, StorageProperties.PlatformType.minio));
+        // 1K以上的视频、backup_开头的文件上传到minio
+        storageProperties.getRoute().setRules(Arrays.asList(
+                rule(StorageProperties.PlatformType.minio, 1024, "mp4,MOV", null),
+                rule(StorageProperties.PlatformType.minio, -1, null, "backup_")));
+        storageService = routingStorageService();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        storageService.destroy();
+        standIn.close();
+    }
+
+    private RoutingStorageService routingStorageService() {
+        FileChunkSessionStore chunkSessionStore = new FileChunkSessionStore(storageProperties.getChunkPath());
+        Map<StorageProperties.PlatformType, IStorageService> storageServices = new LinkedHashMap<>();
+        LocalStorageService localStorageService = new LocalStorageService(storageProperties);
+        localStorageService.setChunkSessionStore(chunkSessionStore);
+        storageServices.put(StorageProperties.PlatformType.local, localStorageService);
+        MinioStorageService minioStorageService = MinioStorageServiceTest.minioStorageService(storageProperties);
+        minioStorageService.setChunkSessionStore(chunkSessionStore);
+        storageServices.put(StorageProperties.PlatformType.minio, minioStorageService);
+        return new RoutingStorageService(storageServices, storageProperties);
+    }
+
+    private static StorageProperties.RouteRule rule(StorageProperties.PlatformType platform, long minSize, String extensions, String prefixes) {
+        StorageProperties.RouteRule rule = new StorageProperties.RouteRule();
+        rule.setPlatform(platform);
+        rule.setMinSize(minSize);
+        rule.setExtensions(extensions);
+        rule.setPrefixes(prefixes);
+        return rule;
+    }
+
+    private UploadResponse upload(String originalFilename, byte[] content) throws Exception {
+        return storageService.upload(new ByteArrayInputStream(content), originalFilename, null, content.length);
+    }
+
+    private byte[] download(String objectName) {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        storageService.download(outputStream, objectName);
+        return outputStream.toByteArray();
+    }
+
+    @Test
+    void uploadsAreRoutedByRules() throws Exception {
+        byte[] small = new byte[100];
+        byte[] large = new byte[2048];
+        new Random(1).nextBytes(large);
+
+        UploadResponse smallVideo = upload("a.mp4", small);
+        UploadResponse largeVideo = upload("b.mov", large);
+        UploadResponse backup = upload("backup_2023.zip", small);
+        UploadResponse document = upload("c.pdf", large);
+
+        assertEquals("local", smallVideo.getPlatform());
+        assertTrue(smallVideo.getFileUrl().startsWith("local:"));
+        assertEquals("minio", largeVideo.getPlatform());
+        assertTrue(largeVideo.getFileUrl().startsWith("minio:/files/"));
+        assertEquals("minio", backup.getPlatform());
+        assertEquals("local", document.getPlatform());
+        assertEquals(2, standIn.getObjectCount());
+
+        assertArrayEquals(large, download(largeVideo.getFileUrl()));
+        assertArrayEquals(large, download(document.getFileUrl()));
+        assertEquals(StorageProperties.PlatformType.minio, storageService.getPlatform(largeVideo.getFileUrl()));
+        assertEquals(StorageProperties.PlatformType.minio, storageService.getUploadPlatform("x.MP4", 4096));
+    }
+
+    @Test
+    void statKeepsTaggedObjectName() throws Exception {
+        UploadResponse response = upload("b.mp4", new byte[4096]);
+        ObjectStat stat = storageService.stat(response.getFileUrl());
+        assertEquals(response.getFileUrl(), stat.getObjectName());
+        assertEquals(4096, stat.getFileSize());
+        assertTrue(storageService.exists(response.getFileUrl()));
+        assertFalse(storageService.exists("minio:/files/none.mp4"));
+    }
+
+    @Test
+    void untaggedFileUrlsAreResolvedByStoragePath() throws Exception {
+        storageProperties.getRoute().setTagFileUrl(false);
+        storageService.destroy();
+        storageService = routingStorageService();
+
+        UploadResponse minio = upload("b.mp4", new byte[4096]);
+        UploadResponse local = upload("c.pdf", new byte[4096]);
+        assertTrue(minio.getFileUrl().startsWith("/files/"));
+        assertEquals(StorageProperties.PlatformType.minio, storageService.getPlatform(minio.getFileUrl()));
+        assertEquals(StorageProperties.PlatformType.local, storageService.getPlatform(local.getFileUrl()));
+        // 无法识别的地址使用默认存储平台
+        assertEquals(StorageProperties.PlatformType.local, storageService.getPlatform("/other/a.pdf"));
+        assertEquals(4096, download(minio.getFileUrl()).length);
+    }
+
+    @Test
+    void deleteAllGroupsByPlatformAndKeepsOrder() throws Exception {
+        List<String> fileUrls = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            byte[] content = new byte[4096];
+            content[0] = (byte) i;
+            fileUrls.add(upload(i % 2 == 0 ? i + ".mp4" : i + ".pdf", content).getFileUrl());
+        }
+        List<DeleteResponse> responses = storageService.deleteAll(fileUrls);
+        assertEquals(fileUrls.size(), responses.size());
+        for (int i = 0; i < fileUrls.size(); i++) {
+            assertEquals(fileUrls.get(i), responses.get(i).getObjectName());
+            assertTrue(responses.get(i).isSuccess());
+            assertFalse(storageService.exists(fileUrls.get(i)));
+        }
+        assertEquals(0, standIn.getObjectCount());
+    }
+
+    @Test
+    void chunkUploadIdCarriesPlatform() throws Exception {
+        byte[] content = new byte[3000];
+        new Random(2).nextBytes(content);
+        ChunkUploadSession session = storageService.initChunkUpload("c.pdf", content.length, null);
+        assertTrue(session.getUploadId().startsWith("local:"));
+        assertEquals(session.getUploadId(), storageService.getChunkUpload(session.getUploadId()).getUploadId());
+
+        storageService.uploadChunk(session.getUploadId(), 1, new ByteArrayInputStream(content), content.length);
+        UploadResponse response = storageService.completeChunkUpload(session.getUploadId());
+        assertTrue(response.getFileUrl().startsWith("local:"));
+        assertArrayEquals(content, download(response.getFileUrl()));
+    }
+}
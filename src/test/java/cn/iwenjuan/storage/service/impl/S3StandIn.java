@@ -0,0 +1,752 @@
+package cn.iwenjuan.storage.service.impl;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 兼容S3协议的测试服务，实现minio客户端使用的对象接口：
+ * PUT、GET（支持Range）、HEAD、DELETE对象，复制对象，批量删除，分片上传和获取bucket区域；不校验签名
+ * 阿里云OSS客户端（endpoint为IP地址时使用路径方式访问bucket）可以使用上传、按范围下载、复制和批量删除，
+ * 其余协议差异（如OSS的分片拷贝、错误响应的解析）未模拟
+ * 可以设置响应延迟、带宽限制和错误率，用于集成测试和压力测试
+ *
+ * @author li1244
+ * @date 2023/4/25 10:10
+ */
+class S3StandIn implements Closeable {
+
+    static final String PUT_OBJECT = "PutObject";
+
+    static final String GET_OBJECT = "GetObject";
+
+    static final String HEAD_OBJECT = "HeadObject";
+
+    static final String DELETE_OBJECT = "DeleteObject";
+
+    static final String DELETE_OBJECTS = "DeleteObjects";
+
+    static final String COPY_OBJECT = "CopyObject";
+
+    static final String CREATE_MULTIPART_UPLOAD = "CreateMultipartUpload";
+
+    static final String UPLOAD_PART = "UploadPart";
+
+    static final String COMPLETE_MULTIPART_UPLOAD = "CompleteMultipartUpload";
+
+    static final String ABORT_MULTIPART_UPLOAD = "AbortMultipartUpload";
+
+    static final String GET_BUCKET_LOCATION = "GetBucketLocation";
+
+    static final String HEAD_BUCKET = "HeadBucket";
+
+    private static final String XML_HEADER = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>";
+
+    private static final String XML_NAMESPACE = "http://s3.amazonaws.com/doc/2006-03-01/";
+
+    private static final DateTimeFormatter HTTP_DATE_FORMAT = DateTimeFormatter.ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US).withZone(ZoneOffset.UTC);
+
+    private static final DateTimeFormatter ISO_DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.US).withZone(ZoneOffset.UTC);
+
+    private static final Pattern RANGE = Pattern.compile("bytes=(\\d*)-(\\d*)");
+
+    private static final Pattern KEY = Pattern.compile("<Key>(.*?)</Key>", Pattern.DOTALL);
+
+    private static final Pattern PART = Pattern.compile("<Part>(.*?)</Part>", Pattern.DOTALL);
+
+    private static final Pattern PART_NUMBER = Pattern.compile("<PartNumber>\\s*(\\d+)\\s*</PartNumber>");
+
+    private static final Pattern ETAG = Pattern.compile("<ETag>(.*?)</ETag>", Pattern.DOTALL);
+
+    private static final int TRANSFER_BUFFER_SIZE = 16384;
+
+    private final Set<String> buckets = ConcurrentHashMap.newKeySet();
+
+    private final Map<String, StoredObject> objects = new ConcurrentHashMap<>();
+
+    private final Map<String, MultipartUpload> uploads = new ConcurrentHashMap<>();
+
+    private final Map<String, AtomicLong> requestCounts = new ConcurrentHashMap<>();
+
+    private final AtomicLong injectedErrors = new AtomicLong();
+
+    private final Set<Socket> sockets = ConcurrentHashMap.newKeySet();
+
+    private final ServerSocket serverSocket;
+
+    private final ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "s3-stand-in");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * 响应延迟，单位毫秒，在读取请求内容后、返回响应前等待
+     */
+    private volatile long latency;
+
+    /**
+     * 响应延迟的随机波动，单位毫秒，实际延迟为latency加上[0, latencyJitter)的随机值
+     */
+    private volatile long latencyJitter;
+
+    /**
+     * 单个请求读取请求内容和写入响应内容的速率上限，单位字节/秒，0表示不限制
+     */
+    private volatile long bandwidth;
+
+    /**
+     * 所有连接共用的速率上限，单位字节/秒，0表示不限制
+     */
+    private volatile Throttle totalThrottle;
+
+    /**
+     * 返回503 SlowDown错误的请求比例，0到1
+     */
+    private volatile double errorRate;
+
+    /**
+     * 注入错误的操作，为空时所有操作都可能返回错误
+     */
+    private volatile Set<String> errorOperations = Collections.emptySet();
+
+    S3StandIn(String... buckets) throws IOException {
+        this.buckets.addAll(Arrays.asList(buckets));
+        serverSocket = new ServerSocket(0, 1024, InetAddress.getLoopbackAddress());
+        executor.execute(this::accept);
+    }
+
+    String getEndpoint() {
+        return "http://" + serverSocket.getInetAddress().getHostAddress() + ":" + serverSocket.getLocalPort();
+    }
+
+    void setLatency(long latency) {
+        this.latency = latency;
+    }
+
+    void setLatencyJitter(long latencyJitter) {
+        this.latencyJitter = latencyJitter;
+    }
+
+    void setBandwidth(long bandwidth) {
+        this.bandwidth = bandwidth;
+    }
+
+    void setTotalBandwidth(long totalBandwidth) {
+        this.totalThrottle = totalBandwidth > 0 ? new Throttle(totalBandwidth) : null;
+    }
+
+    /**
+     * 设置错误率
+     *
+     * @param errorRate     返回503 SlowDown错误的请求比例，0到1
+     * @param operations    注入错误的操作，不指定时所有操作都可能返回错误
+     */
+    void setErrorRate(double errorRate, String... operations) {
+        this.errorOperations = new HashSet<>(Arrays.asList(operations));
+        this.errorRate = errorRate;
+    }
+
+    void putObject(String bucket, String key, byte[] content) {
+        objects.put(objectKey(bucket, key), new StoredObject(content, "\"" + md5Hex(content) + "\""));
+    }
+
+    byte[] getObject(String bucket, String key) {
+        StoredObject object = objects.get(objectKey(bucket, key));
+        return object == null ? null : object.content;
+    }
+
+    int getObjectCount() {
+        return objects.size();
+    }
+
+    int getPendingUploadCount() {
+        return uploads.size();
+    }
+
+    long getRequestCount(String operation) {
+        AtomicLong count = requestCounts.get(operation);
+        return count == null ? 0 : count.get();
+    }
+
+    long getInjectedErrors() {
+        return injectedErrors.get();
+    }
+
+    private void accept() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                sockets.add(socket);
+                executor.execute(() -> serve(socket));
+            } catch (IOException | RejectedExecutionException e) {
+                return;
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (Socket s = socket) {
+            InputStream in = new BufferedInputStream(s.getInputStream(), TRANSFER_BUFFER_SIZE);
+            OutputStream out = new BufferedOutputStream(s.getOutputStream(), TRANSFER_BUFFER_SIZE);
+            while (true) {
+                Request request = readRequest(in, out);
+                if (request == null) {
+                    return;
+                }
+                handle(request, out);
+                out.flush();
+                if (request.close) {
+                    return;
+                }
+            }
+        } catch (IOException | InterruptedException e) {
+            // 客户端关闭连接或测试服务关闭
+        } finally {
+            sockets.remove(socket);
+        }
+    }
+
+    private Request readRequest(InputStream in, OutputStream out) throws IOException, InterruptedException {
+        String requestLine = readLine(in);
+        while (requestLine != null && requestLine.isEmpty()) {
+            requestLine = readLine(in);
+        }
+        if (requestLine == null) {
+            return null;
+        }
+        String[] parts = requestLine.split(" ");
+        Request request = new Request();
+        request.method = parts[0];
+        String target = parts[1];
+        int index = target.indexOf('?');
+        request.path = decode(index < 0 ? target : target.substring(0, index));
+        if (index >= 0) {
+            for (String parameter : target.substring(index + 1).split("&")) {
+                if (parameter.isEmpty()) {
+                    continue;
+                }
+                int equals = parameter.indexOf('=');
+                request.query.put(decode(equals < 0 ? parameter : parameter.substring(0, equals)), equals < 0 ? "" : decode(parameter.substring(equals + 1)));
+            }
+        }
+        String line;
+        while ((line = readLine(in)) != null && !line.isEmpty()) {
+            int colon = line.indexOf(':');
+            request.headers.put(line.substring(0, colon).trim().toLowerCase(Locale.ROOT), line.substring(colon + 1).trim());
+        }
+        request.close = "close".equalsIgnoreCase(request.headers.get("connection")) || parts[2].endsWith("1.0");
+        if ("100-continue".equalsIgnoreCase(request.headers.get("expect"))) {
+            out.write("HTTP/1.1 100 Continue\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1));
+            out.flush();
+        }
+        Throttle throttle = newThrottle();
+        if ("chunked".equalsIgnoreCase(request.headers.get("transfer-encoding"))) {
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            int size;
+            while ((size = Integer.parseInt(readLine(in).split(";")[0].trim(), 16)) > 0) {
+                body.write(readFully(in, size, throttle));
+                readLine(in);
+            }
+            while ((line = readLine(in)) != null && !line.isEmpty()) {
+                // 忽略trailer
+            }
+            request.body = body.toByteArray();
+        } else {
+            String contentLength = request.headers.get("content-length");
+            request.body = readFully(in, contentLength == null ? 0 : Integer.parseInt(contentLength), throttle);
+        }
+        int slash = request.path.indexOf('/', 1);
+        request.bucket = slash < 0 ? request.path.substring(1) : request.path.substring(1, slash);
+        request.key = slash < 0 ? "" : request.path.substring(slash + 1);
+        return request;
+    }
+
+    private void handle(Request request, OutputStream out) throws IOException, InterruptedException {
+        String operation = operation(request);
+        requestCounts.computeIfAbsent(operation, key -> new AtomicLong()).incrementAndGet();
+        long delay = latency + (latencyJitter > 0 ? ThreadLocalRandom.current().nextLong(latencyJitter) : 0);
+        if (delay > 0) {
+            TimeUnit.MILLISECONDS.sleep(delay);
+        }
+        Set<String> operations = errorOperations;
+        if (errorRate > 0 && (operations.isEmpty() || operations.contains(operation)) && ThreadLocalRandom.current().nextDouble() < errorRate) {
+            injectedErrors.incrementAndGet();
+            error(request, out, 503, "SlowDown", "Please reduce your request rate.");
+            return;
+        }
+        if (!buckets.contains(request.bucket)) {
+            error(request, out, 404, "NoSuchBucket", "The specified bucket does not exist");
+            return;
+        }
+        switch (operation) {
+            case GET_BUCKET_LOCATION:
+                xml(out, 200, "<LocationConstraint" + namespace(request) + "></LocationConstraint>");
+                break;
+            case HEAD_BUCKET:
+                respond(out, 200, Collections.emptyMap(), null, 0, 0, false);
+                break;
+            case PUT_OBJECT:
+                putObject(request.bucket, request.key, request.body);
+                respond(out, 200, Collections.singletonMap("ETag", objects.get(objectKey(request.bucket, request.key)).etag), null, 0, 0, false);
+                break;
+            case COPY_OBJECT:
+                copyObject(request, out);
+                break;
+            case GET_OBJECT:
+            case HEAD_OBJECT:
+                getObject(request, out, HEAD_OBJECT.equals(operation));
+                break;
+            case DELETE_OBJECT:
+                objects.remove(objectKey(request.bucket, request.key));
+                respond(out, 204, Collections.emptyMap(), null, 0, 0, false);
+                break;
+            case DELETE_OBJECTS:
+                deleteObjects(request, out);
+                break;
+            case CREATE_MULTIPART_UPLOAD:
+                String uploadId = UUID.randomUUID().toString();
+                uploads.put(uploadId, new MultipartUpload(request.bucket, request.key));
+                xml(out, 200, "<InitiateMultipartUploadResult" + namespace(request) + "><Bucket>" + escape(request.bucket) + "</Bucket><Key>"
+                        + escape(request.key) + "</Key><UploadId>" + uploadId + "</UploadId></InitiateMultipartUploadResult>");
+                break;
+            case UPLOAD_PART:
+                uploadPart(request, out);
+                break;
+            case COMPLETE_MULTIPART_UPLOAD:
+                completeMultipartUpload(request, out);
+                break;
+            case ABORT_MULTIPART_UPLOAD:
+                if (uploads.remove(request.query.get("uploadId")) == null) {
+                    error(request, out, 404, "NoSuchUpload", "The specified multipart upload does not exist.");
+                } else {
+                    respond(out, 204, Collections.emptyMap(), null, 0, 0, false);
+                }
+                break;
+            default:
+                error(request, out, 501, "NotImplemented", "A header you provided implies functionality that is not implemented");
+        }
+    }
+
+    private static String operation(Request request) {
+        boolean hasKey = !request.key.isEmpty();
+        switch (request.method) {
+            case "GET":
+                if (!hasKey && request.query.containsKey("location")) {
+                    return GET_BUCKET_LOCATION;
+                }
+                return hasKey ? GET_OBJECT : "ListObjects";
+            case "HEAD":
+                return hasKey ? HEAD_OBJECT : HEAD_BUCKET;
+            case "PUT":
+                if (request.query.containsKey("uploadId")) {
+                    return UPLOAD_PART;
+                }
+                return copySource(request) != null ? COPY_OBJECT : PUT_OBJECT;
+            case "POST":
+                if (request.query.containsKey("delete")) {
+                    return DELETE_OBJECTS;
+                }
+                if (request.query.containsKey("uploads")) {
+                    return CREATE_MULTIPART_UPLOAD;
+                }
+                return request.query.containsKey("uploadId") ? COMPLETE_MULTIPART_UPLOAD : "PostObject";
+            case "DELETE":
+                return request.query.containsKey("uploadId") ? ABORT_MULTIPART_UPLOAD : DELETE_OBJECT;
+            default:
+                return request.method;
+        }
+    }
+
+    /**
+     * 与minio服务一致，对象名去掉开头的/，minio客户端生成的复制源地址中也会去掉
+     */
+    private static String objectKey(String bucket, String key) {
+        int start = 0;
+        while (start < key.length() && key.charAt(start) == '/') {
+            start++;
+        }
+        return bucket + "/" + key.substring(start);
+    }
+
+    /**
+     * 响应内容的命名空间，阿里云OSS客户端按无命名空间的元素名解析响应
+     */
+    private static String namespace(Request request) {
+        String authorization = request.headers.get("authorization");
+        return authorization != null && authorization.startsWith("OSS ") ? "" : " xmlns=\"" + XML_NAMESPACE + "\"";
+    }
+
+    private static String copySource(Request request) {
+        String source = request.headers.get("x-amz-copy-source");
+        return source == null ? request.headers.get("x-oss-copy-source") : source;
+    }
+
+    private void copyObject(Request request, OutputStream out) throws IOException, InterruptedException {
+        String source = decode(copySource(request));
+        int slash = source.indexOf('/', 1);
+        StoredObject object = slash < 0 ? null : objects.get(objectKey(source.substring(source.startsWith("/") ? 1 : 0, slash), source.substring(slash + 1)));
+        if (object == null) {
+            error(request, out, 404, "NoSuchKey", "The specified key does not exist.");
+            return;
+        }
+        StoredObject copy = new StoredObject(object.content, object.etag);
+        objects.put(objectKey(request.bucket, request.key), copy);
+        xml(out, 200, "<CopyObjectResult" + namespace(request) + "><LastModified>" + ISO_DATE_FORMAT.format(copy.lastModified)
+                + "</LastModified><ETag>" + escape(copy.etag) + "</ETag></CopyObjectResult>");
+    }
+
+    private void getObject(Request request, OutputStream out, boolean head) throws IOException, InterruptedException {
+        StoredObject object = objects.get(objectKey(request.bucket, request.key));
+        if (object == null) {
+            error(request, out, 404, "NoSuchKey", "The specified key does not exist.");
+            return;
+        }
+        byte[] content = object.content;
+        Map<String, String> headers = new LinkedHashMap<>();
+        headers.put("ETag", object.etag);
+        headers.put("Last-Modified", HTTP_DATE_FORMAT.format(object.lastModified));
+        headers.put("Content-Type", "application/octet-stream");
+        headers.put("Accept-Ranges", "bytes");
+        String range = request.headers.get("range");
+        if (head || range == null) {
+            respond(out, 200, headers, content, 0, content.length, head);
+            return;
+        }
+        Matcher matcher = RANGE.matcher(range);
+        long from;
+        long to;
+        if (!matcher.matches() || matcher.group(1).isEmpty() && matcher.group(2).isEmpty()) {
+            from = 0;
+            to = content.length - 1;
+        } else if (matcher.group(1).isEmpty()) {
+            from = Math.max(content.length - Long.parseLong(matcher.group(2)), 0);
+            to = content.length - 1;
+        } else {
+            from = Long.parseLong(matcher.group(1));
+            to = matcher.group(2).isEmpty() ? content.length - 1 : Math.min(Long.parseLong(matcher.group(2)), content.length - 1);
+        }
+        if (from >= content.length || from > to) {
+            error(request, out, 416, "InvalidRange", "The requested range is not satisfiable");
+            return;
+        }
+        headers.put("Content-Range", "bytes " + from + "-" + to + "/" + content.length);
+        respond(out, 206, headers, content, (int) from, (int) (to - from + 1), false);
+    }
+
+    private void deleteObjects(Request request, OutputStream out) throws IOException, InterruptedException {
+        String body = new String(request.body, StandardCharsets.UTF_8);
+        boolean quiet = body.contains("<Quiet>true</Quiet>");
+        StringBuilder result = new StringBuilder("<DeleteResult" + namespace(request) + ">");
+        Matcher matcher = KEY.matcher(body);
+        while (matcher.find()) {
+            String key = unescape(matcher.group(1));
+            objects.remove(objectKey(request.bucket, key));
+            if (!quiet) {
+                result.append("<Deleted><Key>").append(escape(key)).append("</Key></Deleted>");
+            }
+        }
+        xml(out, 200, result.append("</DeleteResult>").toString());
+    }
+
+    private void uploadPart(Request request, OutputStream out) throws IOException, InterruptedException {
+        MultipartUpload upload = uploads.get(request.query.get("uploadId"));
+        if (upload == null) {
+            error(request, out, 404, "NoSuchUpload", "The specified multipart upload does not exist.");
+            return;
+        }
+        int partNumber = Integer.parseInt(request.query.get("partNumber"));
+        String etag = "\"" + md5Hex(request.body) + "\"";
+        upload.parts.put(partNumber, new StoredObject(request.body, etag));
+        respond(out, 200, Collections.singletonMap("ETag", etag), null, 0, 0, false);
+    }
+
+    private void completeMultipartUpload(Request request, OutputStream out) throws IOException, InterruptedException {
+        String uploadId = request.query.get("uploadId");
+        MultipartUpload upload = uploads.get(uploadId);
+        if (upload == null) {
+            error(request, out, 404, "NoSuchUpload", "The specified multipart upload does not exist.");
+            return;
+        }
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        ByteArrayOutputStream digests = new ByteArrayOutputStream();
+        int count = 0;
+        Matcher matcher = PART.matcher(new String(request.body, StandardCharsets.UTF_8));
+        while (matcher.find()) {
+            Matcher partNumber = PART_NUMBER.matcher(matcher.group(1));
+            Matcher etag = ETAG.matcher(matcher.group(1));
+            StoredObject part = partNumber.find() ? upload.parts.get(Integer.parseInt(partNumber.group(1))) : null;
+            if (part == null || !etag.find() || !normalizeEtag(unescape(etag.group(1))).equals(normalizeEtag(part.etag))) {
+                error(request, out, 400, "InvalidPart", "One or more of the specified parts could not be found.");
+                return;
+            }
+            content.write(part.content);
+            digests.write(md5(part.content));
+            count++;
+        }
+        uploads.remove(uploadId);
+        String etag = "\"" + toHex(md5(digests.toByteArray())) + "-" + count + "\"";
+        objects.put(objectKey(upload.bucket, upload.key), new StoredObject(content.toByteArray(), etag));
+        xml(out, 200, "<CompleteMultipartUploadResult" + namespace(request) + "><Location>" + getEndpoint() + request.path
+                + "</Location><Bucket>" + escape(upload.bucket) + "</Bucket><Key>" + escape(upload.key) + "</Key><ETag>" + escape(etag)
+                + "</ETag></CompleteMultipartUploadResult>");
+    }
+
+    private void error(Request request, OutputStream out, int status, String code, String message) throws IOException, InterruptedException {
+        String body = XML_HEADER + "<Error><Code>" + code + "</Code><Message>" + escape(message) + "</Message><BucketName>" + escape(request.bucket)
+                + "</BucketName><Key>" + escape(request.key) + "</Key><Resource>" + escape(request.path) + "</Resource><RequestId>"
+                + Long.toHexString(System.nanoTime()) + "</RequestId><HostId>s3-stand-in</HostId></Error>";
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        respond(out, status, Collections.singletonMap("Content-Type", "application/xml"), bytes, 0, bytes.length, "HEAD".equals(request.method));
+    }
+
+    private void xml(OutputStream out, int status, String body) throws IOException, InterruptedException {
+        byte[] bytes = (XML_HEADER + body).getBytes(StandardCharsets.UTF_8);
+        respond(out, status, Collections.singletonMap("Content-Type", "application/xml"), bytes, 0, bytes.length, false);
+    }
+
+    /**
+     * 写入响应，HEAD请求只写入响应头（Content-Length为内容长度）
+     */
+    private void respond(OutputStream out, int status, Map<String, String> headers, byte[] body, int offset, int length, boolean headOnly) throws IOException, InterruptedException {
+        StringBuilder head = new StringBuilder("HTTP/1.1 ").append(status).append(' ').append(reason(status)).append("\r\n");
+        head.append("Date: ").append(HTTP_DATE_FORMAT.format(ZonedDateTime.now())).append("\r\n");
+        head.append("Server: s3-stand-in\r\n");
+        head.append("x-amz-request-id: ").append(Long.toHexString(System.nanoTime())).append("\r\n");
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            head.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+        }
+        if (status != 204) {
+            head.append("Content-Length: ").append(length).append("\r\n");
+        }
+        head.append("\r\n");
+        out.write(head.toString().getBytes(StandardCharsets.ISO_8859_1));
+        if (headOnly || body == null || length == 0) {
+            return;
+        }
+        Throttle throttle = newThrottle();
+        for (int position = offset, end = offset + length; position < end; ) {
+            int n = Math.min(TRANSFER_BUFFER_SIZE, end - position);
+            acquire(throttle, n);
+            out.write(body, position, n);
+            position += n;
+        }
+    }
+
+    private static String reason(int status) {
+        switch (status) {
+            case 200:
+                return "OK";
+            case 204:
+                return "No Content";
+            case 206:
+                return "Partial Content";
+            case 400:
+                return "Bad Request";
+            case 404:
+                return "Not Found";
+            case 416:
+                return "Requested Range Not Satisfiable";
+            case 501:
+                return "Not Implemented";
+            case 503:
+                return "Service Unavailable";
+            default:
+                return "Error";
+        }
+    }
+
+    private Throttle newThrottle() {
+        long bytesPerSecond = bandwidth;
+        return bytesPerSecond > 0 ? new Throttle(bytesPerSecond) : null;
+    }
+
+    private void acquire(Throttle throttle, int bytes) throws InterruptedException {
+        long wait = 0;
+        if (throttle != null) {
+            wait = throttle.reserve(bytes);
+        }
+        Throttle total = totalThrottle;
+        if (total != null) {
+            wait = Math.max(wait, total.reserve(bytes));
+        }
+        if (wait > 0) {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+    }
+
+    private byte[] readFully(InputStream in, int length, Throttle throttle) throws IOException, InterruptedException {
+        byte[] bytes = new byte[length];
+        int position = 0;
+        while (position < length) {
+            int n = in.read(bytes, position, Math.min(TRANSFER_BUFFER_SIZE, length - position));
+            if (n < 0) {
+                throw new EOFException();
+            }
+            acquire(throttle, n);
+            position += n;
+        }
+        return bytes;
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int b;
+        while ((b = in.read()) >= 0) {
+            if (b == '\n') {
+                int length = line.length();
+                return length > 0 && line.charAt(length - 1) == '\r' ? line.substring(0, length - 1) : line.toString();
+            }
+            line.append((char) b);
+        }
+        return line.length() == 0 ? null : line.toString();
+    }
+
+    /**
+     * 百分号解码，与URLDecoder不同，不把+解码为空格
+     */
+    private static String decode(String value) {
+        if (value.indexOf('%') < 0) {
+            return value;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '%' && i + 2 < value.length()) {
+                bytes.write(Integer.parseInt(value.substring(i + 1, i + 3), 16));
+                i += 2;
+            } else {
+                byte[] encoded = String.valueOf(c).getBytes(StandardCharsets.UTF_8);
+                bytes.write(encoded, 0, encoded.length);
+            }
+        }
+        return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static String escape(String value) {
+        return value.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+    }
+
+    private static String unescape(String value) {
+        return value.replace("&quot;", "\"").replace("&lt;", "<").replace("&gt;", ">").replace("&amp;", "&");
+    }
+
+    private static String normalizeEtag(String etag) {
+        return etag.replace("\"", "").trim();
+    }
+
+    private static byte[] md5(byte[] content) {
+        try {
+            return MessageDigest.getInstance("MD5").digest(content);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String md5Hex(byte[] content) {
+        return toHex(md5(content));
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        for (Socket socket : sockets) {
+            socket.close();
+        }
+        executor.shutdownNow();
+    }
+
+    private static class Request {
+
+        String method;
+
+        String path;
+
+        String bucket;
+
+        String key;
+
+        final Map<String, String> query = new HashMap<>();
+
+        final Map<String, String> headers = new HashMap<>();
+
+        byte[] body;
+
+        boolean close;
+    }
+
+    private static class StoredObject {
+
+        final byte[] content;
+
+        final String etag;
+
+        final ZonedDateTime lastModified = ZonedDateTime.now(ZoneOffset.UTC);
+
+        StoredObject(byte[] content, String etag) {
+            this.content = content;
+            this.etag = etag;
+        }
+    }
+
+    private static class MultipartUpload {
+
+        final String bucket;
+
+        final String key;
+
+        final Map<Integer, StoredObject> parts = new ConcurrentHashMap<>();
+
+        MultipartUpload(String bucket, String key) {
+            this.bucket = bucket;
+            this.key = key;
+        }
+    }
+
+    /**
+     * 限速，按速率计算每批字节的发送时间，空闲时间不累积额度
+     */
+    private static class Throttle {
+
+        private final long bytesPerSecond;
+
+        private long next = System.nanoTime();
+
+        Throttle(long bytesPerSecond) {
+            this.bytesPerSecond = bytesPerSecond;
+        }
+
+        /**
+         * @return 传输完这批字节需要等待的时间，单位纳秒
+         */
+        synchronized long reserve(int bytes) {
+            long now = System.nanoTime();
+            if (next - now < 0) {
+                next = now;
+            }
+            next += bytes * 1000000000L / bytesPerSecond;
+            return next - now;
+        }
+    }
+}
@@ -0,0 +1,296 @@
+package cn.iwenjuan.storage.service.impl;
+
+import cn.iwenjuan.storage.config.StorageProperties;
+import cn.iwenjuan.storage.domain.DeleteResponse;
+import cn.iwenjuan.storage.domain.ObjectStat;
+import cn.iwenjuan.storage.service.IStorageService;
+import cn.iwenjuan.storage.tiering.AccessTracker;
+import cn.iwenjuan.storage.tiering.TierIndex;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author li1244
+ * @date 2023/4/28 16:40
+ */
+class TieredStorageServiceTest {
+
+    @TempDir
+    Path tempDir;
+
+    private S3StandIn standIn;
+
+    private StorageProperties storageProperties;
+
+    private TieredStorageService storageService;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        standIn = new S3StandIn(MinioStorageServiceTest.BUCKET_NAME);
+        storageProperties = MinioStorageServiceTest.storageProperties(standIn, tempDir);
+        storageProperties.setPlatform(StorageProperties.PlatformType.local);
+        storageProperties.getLocal().setPath(tempDir.resolve("files").toString());
+        StorageProperties.TieringProperties tiering = storageProperties.getTiering();
+        tiering.setColdPlatform(StorageProperties.PlatformType.minio);
+        // 手动执行迁移
+        tiering.setInterval(0);
+        tiering.setColdAfter(0);
+        tiering.setMaxBytesPerSecond(0);
+        tiering.setExpectedObjects(1024);
+        storageService = tieredStorageService();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        storageService.destroy();
+        standIn.close();
+    }
+
+    private TieredStorageService tieredStorageService() {
+        LocalStorageService hot = new LocalStorageService(storageProperties);
+        MinioStorageService cold = MinioStorageServiceTest.minioStorageService(storageProperties);
+        StorageProperties.TieringProperties tiering = storageProperties.getTiering();
+        return new TieredStorageService(hot, cold, new TierIndex(storageProperties.getTieringPath(), tiering.getExpectedObjects()),
+                new AccessTracker(tiering.getExpectedObjects()), tiering);
+    }
+
+    private String upload(String originalFilename, byte[] content) throws Exception {
+        return storageService.upload(new ByteArrayInputStream(content), originalFilename, null, content.length).getFileUrl();
+    }
+
+    private byte[] download(String objectName) {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        storageService.download(outputStream, objectName);
+        return outputStream.toByteArray();
+    }
+
+    private static byte[] content(int size, int seed) {
+        byte[] content = new byte[size];
+        new Random(seed).nextBytes(content);
+        return content;
+    }
+
+    @Test
+    void idleFilesAreDemotedAndReadThrough() throws Exception {
+        byte[] first = content(3000, 1);
+        byte[] second = content(5000, 2);
+        String firstUrl = upload("a.pdf", first);
+        String secondUrl = upload("b.pdf", second);
+
+        assertEquals(2, storageService.migrate());
+        assertEquals(2, storageService.getDemotedCount());
+        assertEquals(8000, storageService.getMigratedBytes());
+        assertEquals(2, standIn.getObjectCount());
+        assertFalse(Files.exists(Paths.get(firstUrl)));
+        assertTrue(storageService.isCold(firstUrl));
+
+        // 迁移后文件地址不变
+        assertArrayEquals(first, download(firstUrl));
+        assertArrayEquals(second, download(secondUrl));
+        assertTrue(storageService.exists(secondUrl));
+        ObjectStat stat = storageService.stat(secondUrl);
+        assertEquals(secondUrl, stat.getObjectName());
+        assertEquals(5000, stat.getFileSize());
+        // 已在冷存储中的文件不再迁移
+        assertEquals(0, storageService.migrate());
+    }
+
+    @Test
+    void recentlyAccessedFilesStayHot() throws Exception {
+        storageProperties.getTiering().setColdAfter(3600000);
+        storageService.destroy();
+        storageService = tieredStorageService();
+
+        String fileUrl = upload("a.pdf", content(100, 1));
+        assertEquals(0, storageService.migrate());
+        assertTrue(Files.exists(Paths.get(fileUrl)));
+        assertFalse(storageService.isCold(fileUrl));
+        assertEquals(0, standIn.getObjectCount());
+    }
+
+    @Test
+    void frequentlyReadColdFilesArePromoted() throws Exception {
+        byte[] content = content(4000, 3);
+        String fileUrl = upload("a.pdf", content);
+        assertEquals(1, storageService.migrate());
+        assertTrue(storageService.isCold(fileUrl));
+
+        // 重启后使用新的访问统计，并只迁移长时间未访问的文件
+        storageProperties.getTiering().setColdAfter(3600000);
+        storageService.destroy();
+        storageService = tieredStorageService();
+        assertEquals(0, storageService.migrate());
+        for (int i = 0; i < 4; i++) {
+            assertArrayEquals(content, download(fileUrl));
+        }
+        assertEquals(1, storageService.migrate());
+        assertEquals(1, storageService.getPromotedCount());
+        assertFalse(storageService.isCold(fileUrl));
+        assertEquals(0, standIn.getObjectCount());
+        assertArrayEquals(content, download(fileUrl));
+    }
+
+    @Test
+    void demotedFilesAreNotPromotedByEarlierReads() throws Exception {
+        storageProperties.getTiering().setColdAfter(200);
+        storageService.destroy();
+        storageService = tieredStorageService();
+
+        byte[] content = content(1000, 4);
+        String fileUrl = upload("a.pdf", content);
+        for (int i = 0; i < 4; i++) {
+            assertArrayEquals(content, download(fileUrl));
+        }
+        Thread.sleep(300);
+        assertEquals(1, storageService.migrate());
+        assertTrue(storageService.isCold(fileUrl));
+
+        // 迁移前的访问频率已达到promoteFrequency，但迁移后没有访问，再次迁移时仍在冷存储中
+        assertEquals(0, storageService.migrate());
+        assertTrue(storageService.isCold(fileUrl));
+        assertEquals(0, storageService.getPromotedCount());
+        assertEquals(1, standIn.getObjectCount());
+    }
+
+    @Test
+    void restartDoesNotKeepIdleFilesHot() throws Exception {
+        storageProperties.getTiering().setColdAfter(200);
+        storageService.destroy();
+        storageService = tieredStorageService();
+        String fileUrl = upload("a.pdf", content(100, 1));
+        Thread.sleep(300);
+
+        // 重启后未访问过的文件按上传时间判断，不按访问统计开始的时间判断
+        storageService.destroy();
+        storageService = tieredStorageService();
+        assertEquals(1, storageService.migrate());
+        assertTrue(storageService.isCold(fileUrl));
+    }
+
+    @Test
+    void indexScanIsBoundedAndResumes() throws Exception {
+        storageProperties.getTiering().setMaxScans(1);
+        storageService.destroy();
+        storageService = tieredStorageService();
+        byte[][] contents = new byte[3][];
+        String[] fileUrls = new String[3];
+        for (int i = 0; i < 3; i++) {
+            contents[i] = content(100 + i, i);
+            fileUrls[i] = upload(i + ".pdf", contents[i]);
+        }
+
+        // 每次只检查一个索引目录，多次迁移后全部迁移到冷存储
+        int first = storageService.migrate();
+        assertTrue(first >= 1 && first < 3, "first: " + first);
+        int migrated = first;
+        for (int i = 0; i < 256 && migrated < 3; i++) {
+            migrated += storageService.migrate();
+        }
+        assertEquals(3, migrated);
+
+        // 位图丢失后重启时按索引重建
+        storageService.destroy();
+        Files.delete(Paths.get(storageProperties.getTieringPath(), "relocated.bits"));
+        storageService = tieredStorageService();
+        for (int i = 0; i < 3; i++) {
+            assertTrue(storageService.isCold(fileUrls[i]));
+            assertArrayEquals(contents[i], download(fileUrls[i]));
+        }
+    }
+
+    @Test
+    void readsRacingAMigrationFollowTheFile() throws Exception {
+        storageService.destroy();
+        // 读取索引后、下载前执行迁移，下载时原地址的文件已删除
+        AtomicBoolean migrateBeforeRead = new AtomicBoolean();
+        LocalStorageService local = new LocalStorageService(storageProperties);
+        IStorageService hot = new DelegatingStorageService(local) {
+            @Override
+            public void download(OutputStream outputStream, String objectName) {
+                if (migrateBeforeRead.compareAndSet(true, false)) {
+                    assertEquals(1, storageService.migrate());
+                }
+                super.download(outputStream, objectName);
+            }
+        };
+        StorageProperties.TieringProperties tiering = storageProperties.getTiering();
+        storageService = new TieredStorageService(hot, MinioStorageServiceTest.minioStorageService(storageProperties),
+                new TierIndex(storageProperties.getTieringPath(), tiering.getExpectedObjects()), new AccessTracker(tiering.getExpectedObjects()), tiering);
+
+        byte[] content = content(2000, 5);
+        String fileUrl = upload("a.pdf", content);
+        migrateBeforeRead.set(true);
+        assertArrayEquals(content, download(fileUrl));
+        assertFalse(migrateBeforeRead.get());
+        assertTrue(storageService.isCold(fileUrl));
+        assertFalse(Files.exists(Paths.get(fileUrl)));
+    }
+
+    @Test
+    void deleteRemovesFileFromItsTier() throws Exception {
+        String cold = upload("a.pdf", content(100, 1));
+        storageService.migrate();
+        String hot = upload("b.pdf", content(200, 2));
+        String another = upload("c.pdf", content(300, 3));
+        assertEquals(1, standIn.getObjectCount());
+
+        storageService.delete(another);
+        assertFalse(storageService.exists(another));
+        List<DeleteResponse> responses = storageService.deleteAll(Arrays.asList(hot, cold));
+        assertEquals(hot, responses.get(0).getObjectName());
+        assertEquals(cold, responses.get(1).getObjectName());
+        assertTrue(responses.stream().allMatch(DeleteResponse::isSuccess));
+        assertFalse(storageService.exists(cold));
+        assertFalse(Files.exists(Paths.get(hot)));
+        assertEquals(0, standIn.getObjectCount());
+        assertEquals(0, storageService.migrate());
+    }
+
+    @Test
+    void migrationIsThrottled() throws Exception {
+        storageProperties.getTiering().setMaxBytesPerSecond(100 * 1024);
+        storageService.destroy();
+        storageService = tieredStorageService();
+        for (int i = 0; i < 3; i++) {
+            upload(i + ".pdf", content(20 * 1024, i));
+        }
+        long start = System.nanoTime();
+        assertEquals(3, storageService.migrate());
+        long elapsed = (System.nanoTime() - start) / 1000000;
+        // 60K按100K/s迁移不少于600ms
+        assertTrue(elapsed >= 550, "elapsed: " + elapsed);
+    }
+
+    @Test
+    void accessTrackerReportsNoAccessForUnseenFiles() {
+        AccessTracker accessTracker = new AccessTracker(1024);
+        assertEquals(0, accessTracker.getLastAccessTime("/files/a.pdf"));
+        assertFalse(accessTracker.isAccessedSince("/files/a.pdf", accessTracker.getStartTime() - 1000));
+        assertEquals(0, accessTracker.frequency("/files/a.pdf"));
+        for (int i = 0; i < 3; i++) {
+            accessTracker.record("/files/a.pdf");
+        }
+        assertEquals(3, accessTracker.frequency("/files/a.pdf"));
+        assertTrue(accessTracker.getLastAccessTime("/files/a.pdf") >= accessTracker.getStartTime());
+        assertTrue(accessTracker.isAccessedSince("/files/a.pdf", accessTracker.getStartTime() - 1000));
+        // 与指定时间在同一秒内的访问不计算在内
+        assertFalse(accessTracker.isAccessedSince("/files/a.pdf", System.currentTimeMillis()));
+        assertTrue(accessTracker.frequency("/files/b.pdf") < 3);
+    }
+}
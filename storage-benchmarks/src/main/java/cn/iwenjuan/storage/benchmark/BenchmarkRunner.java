@@ -0,0 +1,26 @@
+package cn.iwenjuan.storage.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * 性能测试入口，参数与JMH命令行一致，默认开启GC分析（-prof gc），同时输出吞吐量和内存分配速率（gc.alloc.rate.norm）
+ * 示例：java -jar target/benchmarks.jar Download -p size=4096,1048576
+ *
+ * @author li1244
+ * @date 2023/4/24 15:10
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions commandLineOptions = new CommandLineOptions(args);
+        ChainedOptionsBuilder builder = new OptionsBuilder().parent(commandLineOptions);
+        if (commandLineOptions.getProfilers().isEmpty()) {
+            builder.addProfiler(GCProfiler.class);
+        }
+        new Runner(builder.build()).run();
+    }
+}
@@ -0,0 +1,107 @@
+package cn.iwenjuan.storage.benchmark;
+
+import cn.iwenjuan.storage.config.StorageProperties;
+import cn.iwenjuan.storage.service.impl.LocalStorageService;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Random;
+
+/**
+ * 性能测试公共方法
+ *
+ * @author li1244
+ * @date 2023/4/24 15:20
+ */
+class BenchmarkSupport {
+
+    private BenchmarkSupport() {
+    }
+
+    /**
+     * 创建使用临时目录的本地存储服务，不限制上传文件大小
+     *
+     * @param directory
+     * @return
+     */
+    static LocalStorageService localStorageService(Path directory) {
+        return new LocalStorageService(storageProperties(directory));
+    }
+
+    static StorageProperties storageProperties(Path directory) {
+        StorageProperties storageProperties = new StorageProperties();
+        storageProperties.setMaxSize(-1);
+        storageProperties.getLocal().setPath(directory.resolve("files").toString());
+        storageProperties.getChunk().setPath(directory.resolve("chunks").toString());
+        return storageProperties;
+    }
+
+    /**
+     * 创建指定大小的随机内容文件，按1M的块写入，大文件不占用同样大小的内存
+     *
+     * @param file
+     * @param size
+     * @throws IOException
+     */
+    static void writeRandomFile(Path file, long size) throws IOException {
+        Random random = new Random(size);
+        byte[] block = new byte[(int) Math.min(size, 1 << 20)];
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long remaining = size;
+            while (remaining > 0) {
+                random.nextBytes(block);
+                ByteBuffer buffer = ByteBuffer.wrap(block, 0, (int) Math.min(block.length, remaining));
+                while (buffer.hasRemaining()) {
+                    remaining -= channel.write(buffer);
+                }
+            }
+        }
+    }
+
+    static byte[] randomBytes(int size) {
+        byte[] bytes = new byte[size];
+        new Random(size).nextBytes(bytes);
+        return bytes;
+    }
+
+    /**
+     * 删除目录及目录下的所有文件
+     *
+     * @param directory
+     * @throws IOException
+     */
+    static void deleteRecursively(Path directory) throws IOException {
+        if (directory == null || !Files.exists(directory)) {
+            return;
+        }
+        Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * 丢弃写入内容的输出流
+     */
+    static final OutputStream NULL_OUTPUT_STREAM = new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] bytes, int off, int len) {
+        }
+    };
+}
@@ -0,0 +1,100 @@
+package cn.iwenjuan.storage.benchmark;
+
+import cn.iwenjuan.storage.service.impl.LocalStorageService;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 本地存储下载性能测试
+ * downloadOutputStream与downloadChannel写入同一个目标文件，分别使用8K缓冲区复制和FileChannel.transferTo，用于比较两种方式的差异
+ *
+ * @author li1244
+ * @date 2023/4/24 16:00
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DownloadBenchmark {
+
+    @Param({"4096", "1048576", "67108864", "1073741824"})
+    public long size;
+
+    private Path directory;
+
+    private LocalStorageService storageService;
+
+    private String fileUrl;
+
+    private Path target;
+
+    private FileChannel targetChannel;
+
+    private OutputStream targetOutputStream;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("storage-benchmark-");
+        Path source = directory.resolve("benchmark.bin");
+        BenchmarkSupport.writeRandomFile(source, size);
+        storageService = BenchmarkSupport.localStorageService(directory);
+        fileUrl = storageService.upload(source.toFile()).getFileUrl();
+        Files.delete(source);
+        target = directory.resolve("target.bin");
+        targetChannel = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        targetOutputStream = Channels.newOutputStream(targetChannel);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        targetChannel.close();
+        storageService.destroy();
+        BenchmarkSupport.deleteRecursively(directory);
+    }
+
+    /**
+     * 下载到输出流（读取文件流并复制）
+     */
+    @Benchmark
+    public long downloadOutputStream() throws IOException {
+        targetChannel.position(0);
+        storageService.download(targetOutputStream, fileUrl);
+        return targetChannel.position();
+    }
+
+    /**
+     * 下载到通道（FileChannel.transferTo）
+     */
+    @Benchmark
+    public long downloadChannel() throws IOException {
+        targetChannel.position(0);
+        storageService.download(targetChannel, fileUrl);
+        return targetChannel.position();
+    }
+
+    /**
+     * 下载到文件
+     */
+    @Benchmark
+    public void downloadPath() {
+        storageService.download(target, fileUrl);
+    }
+
+    /**
+     * 下载到丢弃内容的输出流，只包含读取文件的开销
+     */
+    @Benchmark
+    public void downloadDiscard() {
+        storageService.download(BenchmarkSupport.NULL_OUTPUT_STREAM, fileUrl);
+    }
+}
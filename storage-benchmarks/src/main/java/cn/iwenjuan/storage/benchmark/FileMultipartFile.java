@@ -0,0 +1,71 @@
+package cn.iwenjuan.storage.benchmark;
+
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * 以磁盘文件为内容的MultipartFile，与Spring处理大文件上传时一致，内容不全部加载到内存
+ *
+ * @author li1244
+ * @date 2023/4/24 15:30
+ */
+class FileMultipartFile implements MultipartFile {
+
+    private final Path file;
+
+    private final String originalFilename;
+
+    private final long size;
+
+    FileMultipartFile(Path file, String originalFilename) throws IOException {
+        this.file = file;
+        this.originalFilename = originalFilename;
+        this.size = Files.size(file);
+    }
+
+    @Override
+    public String getName() {
+        return "file";
+    }
+
+    @Override
+    public String getOriginalFilename() {
+        return originalFilename;
+    }
+
+    @Override
+    public String getContentType() {
+        return "application/octet-stream";
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public long getSize() {
+        return size;
+    }
+
+    @Override
+    public byte[] getBytes() throws IOException {
+        return Files.readAllBytes(file);
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return Files.newInputStream(file);
+    }
+
+    @Override
+    public void transferTo(File dest) throws IOException {
+        Files.copy(file, dest.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+}
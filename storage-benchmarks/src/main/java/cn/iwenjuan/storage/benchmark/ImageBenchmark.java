@@ -0,0 +1,100 @@
+package cn.iwenjuan.storage.benchmark;
+
+import cn.iwenjuan.storage.utils.ImageUtils;
+import org.openjdk.jmh.annotations.*;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 图片压缩和相似度计算性能测试
+ *
+ * @author li1244
+ * @date 2023/4/24 16:30
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ImageBenchmark {
+
+    /**
+     * 图片宽度，高度按16:9计算
+     */
+    @Param({"640", "1920", "3840"})
+    public int width;
+
+    /**
+     * 压缩目标大小，单位kb，需要小于生成的图片大小，否则compress直接返回原图
+     */
+    @Param({"10"})
+    public long thumbnailSize;
+
+    private Path directory;
+
+    private byte[] content;
+
+    private File srcFile;
+
+    private File destFile;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        int height = width * 9 / 16;
+        directory = Files.createTempDirectory("storage-benchmark-");
+        BufferedImage image = image(width, height, 1);
+        content = jpeg(image);
+        srcFile = directory.resolve("src.jpg").toFile();
+        destFile = directory.resolve("dest.jpg").toFile();
+        Files.write(srcFile.toPath(), content);
+        Files.write(destFile.toPath(), jpeg(image(width, height, 2)));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        BenchmarkSupport.deleteRecursively(directory);
+    }
+
+    @Benchmark
+    public byte[] compress() {
+        return ImageUtils.compress(content, thumbnailSize);
+    }
+
+    @Benchmark
+    public double similarity() {
+        return ImageUtils.similarity(srcFile, destFile);
+    }
+
+    /**
+     * 生成渐变背景加随机色块的图片，压缩率接近照片
+     */
+    private static BufferedImage image(int width, int height, long seed) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = image.createGraphics();
+        graphics.setPaint(new GradientPaint(0, 0, Color.BLUE, width, height, Color.ORANGE));
+        graphics.fillRect(0, 0, width, height);
+        Random random = new Random(seed);
+        for (int i = 0; i < 200; i++) {
+            graphics.setColor(new Color(random.nextInt(0xffffff)));
+            graphics.fillOval(random.nextInt(width), random.nextInt(height), random.nextInt(width / 4) + 1, random.nextInt(height / 4) + 1);
+        }
+        graphics.dispose();
+        return image;
+    }
+
+    private static byte[] jpeg(BufferedImage image) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        ImageIO.write(image, "jpg", outputStream);
+        return outputStream.toByteArray();
+    }
+}
@@ -0,0 +1,49 @@
+package cn.iwenjuan.storage.benchmark;
+
+import cn.iwenjuan.storage.utils.Md5Utils;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * MD5计算性能测试
+ *
+ * @author li1244
+ * @date 2023/4/24 16:20
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class Md5Benchmark {
+
+    @Param({"4096", "1048576", "67108864"})
+    public int size;
+
+    private byte[] content;
+
+    /**
+     * 缓存key等短字符串
+     */
+    private String message;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        content = BenchmarkSupport.randomBytes(size);
+        message = "/data/files/2023/04/24/d41d8cd98f00b204e9800998ecf8427e.png";
+    }
+
+    @Benchmark
+    public String md5String() {
+        return Md5Utils.md5(message);
+    }
+
+    @Benchmark
+    public String md5InputStream() throws IOException {
+        return Md5Utils.md5(new ByteArrayInputStream(content));
+    }
+}
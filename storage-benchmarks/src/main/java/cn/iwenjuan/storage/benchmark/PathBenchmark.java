@@ -0,0 +1,81 @@
+package cn.iwenjuan.storage.benchmark;
+
+import cn.iwenjuan.storage.config.StorageProperties;
+import cn.iwenjuan.storage.service.impl.LocalStorageService;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 上传前的文件类型检查和文件路径生成性能测试
+ *
+ * @author li1244
+ * @date 2023/4/24 16:45
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PathBenchmark {
+
+    private static final String FILE_NAME = "IMG_20230424_164500.JPG";
+
+    private static final String UID = "d41d8cd98f00b204e9800998ecf8427e";
+
+    @Param({"non", "year", "month", "day"})
+    public StorageProperties.Classify classify;
+
+    private Path directory;
+
+    private PathStorageService storageService;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("storage-benchmark-");
+        StorageProperties storageProperties = BenchmarkSupport.storageProperties(directory);
+        storageProperties.setAllowed("jpg,jpeg,png,gif,bmp,pdf,doc,docx,xls,xlsx,zip");
+        storageProperties.setDeny("exe,sh,bat");
+        storageProperties.getLocal().setClassify(classify);
+        storageService = new PathStorageService(storageProperties);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        storageService.destroy();
+        BenchmarkSupport.deleteRecursively(directory);
+    }
+
+    @Benchmark
+    public boolean allowedToUpload() {
+        return storageService.allowedToUpload(FILE_NAME);
+    }
+
+    @Benchmark
+    public String getFileUrl() {
+        return storageService.fileUrl(FILE_NAME, UID);
+    }
+
+    @Benchmark
+    public String classifyPath() {
+        return classify.classifyPath();
+    }
+
+    /**
+     * 公开getFileUrl用于测试
+     */
+    static class PathStorageService extends LocalStorageService {
+
+        PathStorageService(StorageProperties storageProperties) {
+            super(storageProperties);
+        }
+
+        String fileUrl(String originalFilename, String uid) {
+            return getFileUrl(originalFilename, uid);
+        }
+    }
+}
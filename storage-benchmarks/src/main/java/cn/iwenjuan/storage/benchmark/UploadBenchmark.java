@@ -0,0 +1,95 @@
+package cn.iwenjuan.storage.benchmark;
+
+import cn.iwenjuan.storage.domain.UploadResponse;
+import cn.iwenjuan.storage.service.impl.LocalStorageService;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 本地存储上传性能测试
+ * duplicate=false时每次上传后删除上传的文件，测试写入新文件；duplicate=true时保留文件，测试文件已上传过（MD5值相同）的情况
+ * 每次调用后删除文件使用Level.Invocation，4K等小文件的结果包含一定的测量误差
+ *
+ * @author li1244
+ * @date 2023/4/24 15:40
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UploadBenchmark {
+
+    private static final String FILE_NAME = "benchmark.bin";
+
+    @Param({"4096", "1048576", "67108864", "1073741824"})
+    public long size;
+
+    @Param({"false", "true"})
+    public boolean duplicate;
+
+    private Path directory;
+
+    private Path source;
+
+    private FileMultipartFile multipartFile;
+
+    private LocalStorageService storageService;
+
+    private UploadResponse response;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("storage-benchmark-");
+        source = directory.resolve(FILE_NAME);
+        BenchmarkSupport.writeRandomFile(source, size);
+        multipartFile = new FileMultipartFile(source, FILE_NAME);
+        storageService = BenchmarkSupport.localStorageService(directory);
+    }
+
+    @TearDown(Level.Invocation)
+    public void deleteUploaded() throws IOException {
+        if (!duplicate && response != null) {
+            Files.deleteIfExists(Paths.get(response.getFileUrl()));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        storageService.destroy();
+        BenchmarkSupport.deleteRecursively(directory);
+    }
+
+    /**
+     * 上传MultipartFile，边上传边计算MD5值
+     */
+    @Benchmark
+    public UploadResponse uploadMultipartFile() {
+        response = storageService.upload(multipartFile);
+        return response;
+    }
+
+    /**
+     * 上传File，边上传边计算MD5值
+     */
+    @Benchmark
+    public UploadResponse uploadFile() {
+        response = storageService.upload(source.toFile());
+        return response;
+    }
+
+    /**
+     * 以指定uid上传文件流，不计算MD5值
+     */
+    @Benchmark
+    public UploadResponse uploadInputStream() throws Exception {
+        response = storageService.upload(Files.newInputStream(source), FILE_NAME, "benchmark", size);
+        return response;
+    }
+}